@@ -11,6 +11,7 @@
     const val FAST_UTIL = "8.2.1"
     const val GUAVA = "21.0"
     const val GSON = "2.8.0"
+    const val JMH = "1.25"
 }
 
 // Properties that need a project reference to resolve:
@@ -2,8 +2,9 @@
 
 include("worldedit-libs")
 
-listOf("bukkit", "core").forEach {
+listOf("bukkit", "core", "cli").forEach {
     include("worldedit-libs:$it")
     include("worldedit-$it")
 }
 include("worldedit-libs:core:ap")
+include("worldedit-benchmarks")
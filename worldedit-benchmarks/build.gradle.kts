@@ -0,0 +1,33 @@
+plugins {
+    `java-library`
+}
+
+applyPlatformAndCoreConfiguration()
+
+dependencies {
+    "implementation"(project(":worldedit-core"))
+    "implementation"(project(":worldedit-cli"))
+    "implementation"("it.unimi.dsi:fastutil:${Versions.FAST_UTIL}")
+    "implementation"("com.google.guava:guava:${Versions.GUAVA}")
+    "implementation"("org.openjdk.jmh:jmh-core:${Versions.JMH}")
+    "annotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:${Versions.JMH}")
+}
+
+// Usage: ./gradlew :worldedit-benchmarks:jmh [-Pjmh.include=QueueBenchmark] [-Pjmh.args="-f 1 -wi 2"]
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the benchmarks, writing the results to build/reports/jmh/results.json"
+    dependsOn("classes")
+    val runDir = file("$buildDir/jmh")
+    val resultFile = file("$buildDir/reports/jmh/results.json")
+    main = "org.openjdk.jmh.Main"
+    classpath = sourceSets["main"].runtimeClasspath
+    workingDir = runDir
+    args = listOf("-rf", "json", "-rff", resultFile.absolutePath) +
+        (project.findProperty("jmh.args")?.toString()?.split(" ")?.filter { it.isNotEmpty() } ?: emptyList()) +
+        listOfNotNull(project.findProperty("jmh.include")?.toString())
+    doFirst {
+        runDir.mkdirs()
+        resultFile.parentFile.mkdirs()
+    }
+}
@@ -0,0 +1,99 @@
+package com.boydti.fawe.benchmark;
+
+import com.boydti.fawe.object.collection.BlockVectorSet;
+import com.boydti.fawe.object.collection.LocalBlockVectorSet;
+import com.boydti.fawe.object.collection.SectionBitSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding and querying the position sets used by visitors and brushes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockVectorSetBenchmark {
+
+    @Param({"4096", "262144"})
+    public int size;
+
+    // The positions to add, as a sphere-like cluster around the origin
+    private int[] xs;
+    private int[] ys;
+    private int[] zs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(0);
+        int radius = (int) Math.cbrt(size);
+        xs = new int[size];
+        ys = new int[size];
+        zs = new int[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = random.nextInt(-radius, radius + 1);
+            ys[i] = 128 + random.nextInt(-radius, radius + 1);
+            zs[i] = random.nextInt(-radius, radius + 1);
+        }
+    }
+
+    @Benchmark
+    public int blockVectorSet() {
+        BlockVectorSet set = new BlockVectorSet();
+        for (int i = 0; i < size; i++) {
+            set.add(xs[i], ys[i], zs[i]);
+        }
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            if (set.contains(xs[i] + 1, ys[i], zs[i])) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int localBlockVectorSet() {
+        LocalBlockVectorSet set = new LocalBlockVectorSet();
+        for (int i = 0; i < size; i++) {
+            set.add(xs[i], ys[i], zs[i]);
+        }
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            if (set.contains(xs[i] + 1, ys[i], zs[i])) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int sectionBitSet() {
+        SectionBitSet set = new SectionBitSet();
+        for (int i = 0; i < size; i++) {
+            set.add(xs[i], ys[i], zs[i]);
+        }
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            if (set.contains(xs[i] + 1, ys[i], zs[i])) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
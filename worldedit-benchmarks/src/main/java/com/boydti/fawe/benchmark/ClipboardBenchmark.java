@@ -0,0 +1,93 @@
+package com.boydti.fawe.benchmark;
+
+import com.boydti.fawe.object.clipboard.CPUOptimizedClipboard;
+import com.boydti.fawe.object.clipboard.LinearClipboard;
+import com.boydti.fawe.object.clipboard.MemoryOptimizedClipboard;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.clipboard.io.BuiltInClipboardFormat;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardWriter;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling clipboards, and writing and reading them as Sponge schematics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClipboardBenchmark {
+
+    @Param({"cpu", "memory"})
+    public String type;
+
+    @Param({"4"})
+    public int chunks;
+
+    private CuboidRegion region;
+    private Clipboard clipboard;
+    private byte[] schematic;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, WorldEditException {
+        HeadlessFawe.start();
+        region = SyntheticWorld.getRegion(chunks);
+        clipboard = fill();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ClipboardWriter writer = BuiltInClipboardFormat.SPONGE_SCHEMATIC.getWriter(out)) {
+            writer.write(clipboard);
+        }
+        schematic = out.toByteArray();
+    }
+
+    private Clipboard create() {
+        LinearClipboard linear = type.equals("cpu") ? new CPUOptimizedClipboard(region) : new MemoryOptimizedClipboard(region);
+        return new BlockArrayClipboard(region, linear);
+    }
+
+    @Benchmark
+    public Clipboard fill() throws WorldEditException {
+        Clipboard clipboard = create();
+        SyntheticWorld.fill(clipboard, region, 0);
+        return clipboard;
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(schematic.length);
+        try (ClipboardWriter writer = BuiltInClipboardFormat.SPONGE_SCHEMATIC.getWriter(out)) {
+            writer.write(clipboard);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public Clipboard read() throws IOException {
+        try (ClipboardReader reader = BuiltInClipboardFormat.SPONGE_SCHEMATIC.getReader(new ByteArrayInputStream(schematic))) {
+            Clipboard read = reader.read();
+            read.close();
+            return read;
+        }
+    }
+}
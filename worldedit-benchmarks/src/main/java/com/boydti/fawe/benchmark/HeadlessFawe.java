@@ -0,0 +1,113 @@
+package com.boydti.fawe.benchmark;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.IFawe;
+import com.boydti.fawe.beta.implementation.cache.preloader.Preloader;
+import com.boydti.fawe.beta.implementation.queue.QueueHandler;
+import com.boydti.fawe.regions.FaweMaskManager;
+import com.boydti.fawe.util.TaskManager;
+import com.sk89q.worldedit.cli.CLIWorldEdit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * FAWE without a server, on top of the WorldEdit CLI platform.
+ */
+public class HeadlessFawe implements IFawe {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeadlessFawe.class);
+    // The data version of the bundled CLI registries to load
+    private static final int DATA_VERSION = 1976;
+
+    private static boolean started;
+
+    private final File directory;
+    private final HeadlessTaskManager taskManager = new HeadlessTaskManager();
+
+    private HeadlessFawe(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Start WorldEdit and FAWE, if they have not been started in this JVM yet.
+     */
+    public static synchronized void start() {
+        if (started) {
+            return;
+        }
+        File directory = new File("FastAsyncWorldEdit");
+        directory.mkdirs();
+        HeadlessFawe fawe = new HeadlessFawe(directory);
+        try {
+            // FAWE treats the thread it was set up on as the main thread
+            fawe.taskManager.getMainExecutor().submit(() -> {
+                Fawe.set(fawe);
+                return null;
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Could not start FAWE", e);
+        }
+        CLIWorldEdit app = new CLIWorldEdit();
+        app.onInitialized();
+        app.onStarted(DATA_VERSION);
+        started = true;
+    }
+
+    @Override
+    public void debug(String s) {
+        LOGGER.info(s);
+    }
+
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public TaskManager getTaskManager() {
+        return taskManager;
+    }
+
+    @Override
+    public Collection<FaweMaskManager> getMaskManagers() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String getPlatform() {
+        return "Headless";
+    }
+
+    @Override
+    public UUID getUUID(String name) {
+        return UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes());
+    }
+
+    @Override
+    public String getName(UUID uuid) {
+        return uuid.toString();
+    }
+
+    @Override
+    public QueueHandler getQueueHandler() {
+        return new QueueHandler() {
+            @Override
+            public void startSet(boolean parallel) {
+            }
+
+            @Override
+            public void endSet(boolean parallel) {
+            }
+        };
+    }
+
+    @Override
+    public Preloader getPreloader() {
+        return null;
+    }
+}
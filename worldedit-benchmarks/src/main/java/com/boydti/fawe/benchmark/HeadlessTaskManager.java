@@ -0,0 +1,86 @@
+package com.boydti.fawe.benchmark;
+
+import com.boydti.fawe.util.TaskManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks without a server, using a single thread as the main thread which ticks every 50ms.
+ */
+public class HeadlessTaskManager extends TaskManager {
+    private static final long TICK_MILLIS = 50;
+
+    private final ScheduledExecutorService main = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "FAWE Main");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService async = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "FAWE Async");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService asyncNow = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "FAWE Async");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Map<Integer, Future<?>> tasks = new ConcurrentHashMap<>();
+
+    public ScheduledExecutorService getMainExecutor() {
+        return main;
+    }
+
+    @Override
+    public int repeat(@NotNull Runnable runnable, int interval) {
+        return track(main.scheduleAtFixedRate(runnable, interval * TICK_MILLIS, interval * TICK_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public int repeatAsync(@NotNull Runnable runnable, int interval) {
+        return track(async.scheduleAtFixedRate(runnable, interval * TICK_MILLIS, interval * TICK_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void async(@NotNull Runnable runnable) {
+        asyncNow.execute(runnable);
+    }
+
+    @Override
+    public void task(@NotNull Runnable runnable) {
+        main.execute(runnable);
+    }
+
+    @Override
+    public void later(@NotNull Runnable runnable, int delay) {
+        main.schedule(runnable, delay * TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void laterAsync(@NotNull Runnable runnable, int delay) {
+        async.schedule(runnable, delay * TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void cancel(int task) {
+        Future<?> future = tasks.remove(task);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private int track(Future<?> future) {
+        int id = ids.incrementAndGet();
+        tasks.put(id, future);
+        return id;
+    }
+}
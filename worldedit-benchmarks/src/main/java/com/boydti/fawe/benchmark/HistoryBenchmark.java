@@ -0,0 +1,81 @@
+package com.boydti.fawe.benchmark;
+
+import com.boydti.fawe.util.EditSessionBuilder;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.cli.schematic.ClipboardWorld;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording history while editing, and undoing the edit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HistoryBenchmark {
+    private static final UUID ACTOR = UUID.nameUUIDFromBytes("benchmark".getBytes());
+
+    @Param({"false", "true"})
+    public boolean disk;
+
+    @Param({"1", "8"})
+    public int compression;
+
+    @Param({"4"})
+    public int chunks;
+
+    private ClipboardWorld world;
+    private CuboidRegion region;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        world = SyntheticWorld.create(chunks, 0);
+        region = SyntheticWorld.getRegion(chunks);
+    }
+
+    private EditSession newEditSession(boolean history) {
+        EditSessionBuilder builder = new EditSessionBuilder(world)
+            .fastmode(true)
+            .limitUnlimited()
+            .checkMemory(false);
+        if (history) {
+            builder.changeSet(disk, ACTOR, compression);
+        } else {
+            builder.changeSetNull();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Edit the world while recording history, then undo the edit
+     */
+    @Benchmark
+    public int editAndUndo() throws MaxChangedBlocksException {
+        EditSession editSession = newEditSession(true);
+        int changed = editSession.setBlocks(region, BlockTypes.COBBLESTONE.getDefaultState());
+        editSession.flushQueue();
+        try (EditSession undo = newEditSession(false)) {
+            editSession.undo(undo);
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,116 @@
+package com.boydti.fawe.benchmark;
+
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.cli.schematic.ClipboardWorld;
+import com.sk89q.worldedit.extension.input.InputParseException;
+import com.sk89q.worldedit.extension.input.ParserContext;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.function.pattern.Pattern;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.MutableBlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation of parsed masks and patterns over every position of a world.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MaskPatternBenchmark {
+    private static final int CHUNKS = 4;
+
+    @State(Scope.Benchmark)
+    public static class WorldState {
+        ClipboardWorld world;
+        CuboidRegion region;
+        ParserContext context;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            world = SyntheticWorld.create(CHUNKS, 0);
+            region = SyntheticWorld.getRegion(CHUNKS);
+            context = new ParserContext();
+            context.setWorld(world);
+            context.setExtent(world);
+            context.setRestricted(false);
+            context.setTryLegacy(false);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class MaskState {
+        @Param({"stone", "stone,dirt,grass_block", "!air", "#existing", "#surface"})
+        public String mask;
+
+        Mask parsed;
+
+        @Setup(Level.Trial)
+        public void setup(WorldState world) throws InputParseException {
+            parsed = WorldEdit.getInstance().getMaskFactory().parseFromInput(mask, world.context);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class PatternState {
+        @Param({"stone", "50%stone,30%dirt,20%cobblestone", "oak_log[axis=x]"})
+        public String pattern;
+
+        Pattern parsed;
+
+        @Setup(Level.Trial)
+        public void setup(WorldState world) throws InputParseException {
+            parsed = WorldEdit.getInstance().getPatternFactory().parseFromInput(pattern, world.context);
+        }
+    }
+
+    @Benchmark
+    public int mask(WorldState world, MaskState mask) {
+        Mask parsed = mask.parsed;
+        MutableBlockVector3 mutable = new MutableBlockVector3();
+        BlockVector3 min = world.region.getMinimumPoint();
+        BlockVector3 max = world.region.getMaximumPoint();
+        int count = 0;
+        for (int y = min.getBlockY(); y <= max.getBlockY(); y++) {
+            for (int z = min.getBlockZ(); z <= max.getBlockZ(); z++) {
+                for (int x = min.getBlockX(); x <= max.getBlockX(); x++) {
+                    if (parsed.test(mutable.setComponents(x, y, z))) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public void pattern(WorldState world, PatternState pattern, Blackhole blackhole) {
+        Pattern parsed = pattern.parsed;
+        MutableBlockVector3 mutable = new MutableBlockVector3();
+        BlockVector3 min = world.region.getMinimumPoint();
+        BlockVector3 max = world.region.getMaximumPoint();
+        for (int y = min.getBlockY(); y <= max.getBlockY(); y++) {
+            for (int z = min.getBlockZ(); z <= max.getBlockZ(); z++) {
+                for (int x = min.getBlockX(); x <= max.getBlockX(); x++) {
+                    blackhole.consume(parsed.apply(mutable.setComponents(x, y, z)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.boydti.fawe.benchmark;
+
+import com.boydti.fawe.beta.implementation.filter.CountFilter;
+import com.boydti.fawe.util.EditSessionBuilder;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.cli.schematic.ClipboardWorld;
+import com.sk89q.worldedit.function.mask.BlockTypeMask;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.function.pattern.Pattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Set, replace and count through the FAWE queue of an edit session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueueBenchmark {
+
+    @Param({"4", "8"})
+    public int chunks;
+
+    private ClipboardWorld world;
+    private CuboidRegion region;
+    private Mask stone;
+    private Pattern dirt;
+    private Pattern cobblestone;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        world = SyntheticWorld.create(chunks, 0);
+        region = SyntheticWorld.getRegion(chunks);
+        stone = new BlockTypeMask(world, BlockTypes.STONE);
+        dirt = BlockTypes.DIRT.getDefaultState();
+        cobblestone = BlockTypes.COBBLESTONE.getDefaultState();
+    }
+
+    private EditSession newEditSession() {
+        return new EditSessionBuilder(world)
+            .fastmode(true)
+            .limitUnlimited()
+            .changeSetNull()
+            .checkMemory(false)
+            .build();
+    }
+
+    @Benchmark
+    public int set() throws MaxChangedBlocksException {
+        try (EditSession editSession = newEditSession()) {
+            return editSession.setBlocks(region, cobblestone);
+        }
+    }
+
+    @Benchmark
+    public int replace() throws MaxChangedBlocksException {
+        try (EditSession editSession = newEditSession()) {
+            // Alternate so each invocation replaces the same number of blocks
+            int changed = editSession.replaceBlocks(region, stone, dirt);
+            editSession.replaceBlocks(region, new BlockTypeMask(editSession, BlockTypes.DIRT), BlockTypes.STONE.getDefaultState());
+            return changed;
+        }
+    }
+
+    @Benchmark
+    public int count() {
+        try (EditSession editSession = newEditSession()) {
+            return editSession.countBlocks(region, stone);
+        }
+    }
+
+    @Benchmark
+    public int filter() {
+        try (EditSession editSession = newEditSession()) {
+            return editSession.apply(region, new CountFilter(), true).getTotal();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.boydti.fawe.benchmark;
+
+import com.boydti.fawe.object.clipboard.CPUOptimizedClipboard;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.cli.schematic.ClipboardWorld;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockTypes;
+
+import java.io.File;
+import java.util.SplittableRandom;
+
+/**
+ * In-memory worlds with reproducible terrain: stone with ores and caves, then dirt, grass and air.
+ */
+public final class SyntheticWorld {
+    public static final int HEIGHT = 256;
+    public static final int SURFACE = 64;
+
+    private SyntheticWorld() {
+    }
+
+    /**
+     * Create a world
+     *
+     * @param chunks the width and length in chunks
+     * @param seed the seed of the ores and caves
+     * @return the world
+     */
+    public static ClipboardWorld create(int chunks, long seed) {
+        HeadlessFawe.start();
+        CuboidRegion region = getRegion(chunks);
+        Clipboard clipboard = new BlockArrayClipboard(region, new CPUOptimizedClipboard(region));
+        try {
+            fill(clipboard, region, seed);
+        } catch (WorldEditException e) {
+            throw new IllegalStateException(e);
+        }
+        return new ClipboardWorld(new File("synthetic-" + chunks + ".schem"), clipboard, "synthetic-" + chunks);
+    }
+
+    /**
+     * Get the region of a world
+     *
+     * @param chunks the width and length in chunks
+     */
+    public static CuboidRegion getRegion(int chunks) {
+        int size = chunks << 4;
+        return new CuboidRegion(BlockVector3.ZERO, BlockVector3.at(size - 1, HEIGHT - 1, size - 1));
+    }
+
+    static void fill(Clipboard clipboard, CuboidRegion region, long seed) throws WorldEditException {
+        SplittableRandom random = new SplittableRandom(seed);
+        BlockState stone = BlockTypes.STONE.getDefaultState();
+        BlockState dirt = BlockTypes.DIRT.getDefaultState();
+        BlockState grass = BlockTypes.GRASS_BLOCK.getDefaultState();
+        BlockState[] ores = {
+            BlockTypes.COAL_ORE.getDefaultState(),
+            BlockTypes.IRON_ORE.getDefaultState(),
+            BlockTypes.GOLD_ORE.getDefaultState(),
+            BlockTypes.DIAMOND_ORE.getDefaultState()
+        };
+        BlockState air = BlockTypes.CAVE_AIR.getDefaultState();
+        BlockVector3 min = region.getMinimumPoint();
+        BlockVector3 max = region.getMaximumPoint();
+        for (int y = min.getBlockY(); y <= Math.min(max.getBlockY(), SURFACE); y++) {
+            for (int z = min.getBlockZ(); z <= max.getBlockZ(); z++) {
+                for (int x = min.getBlockX(); x <= max.getBlockX(); x++) {
+                    BlockState block;
+                    if (y == SURFACE) {
+                        block = grass;
+                    } else if (y > SURFACE - 4) {
+                        block = dirt;
+                    } else {
+                        int roll = random.nextInt(100);
+                        if (roll < 4) {
+                            block = ores[roll];
+                        } else if (roll < 10) {
+                            block = air;
+                        } else {
+                            block = stone;
+                        }
+                    }
+                    clipboard.setBlock(x, y, z, block);
+                }
+            }
+        }
+    }
+}
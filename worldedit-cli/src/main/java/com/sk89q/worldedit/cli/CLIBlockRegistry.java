@@ -31,6 +31,7 @@
 import com.sk89q.worldedit.world.block.BlockType;
 import com.sk89q.worldedit.world.registry.BundledBlockRegistry;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -70,4 +71,11 @@ private Property<?> createProperty(String type, String key, List<String> values)
                 (Maps.EntryTransformer<String, FileRegistries.BlockProperty, Property<?>>)
                         (key, value) -> createProperty(value.type, key, value.values)));
     }
+
+    @Override
+    public Collection<String> values() {
+        return CLIWorldEdit.inst.getFileRegistries().getDataFile().blocks.values().stream()
+                .map(manifest -> manifest.defaultstate)
+                .collect(Collectors.toList());
+    }
 }
@@ -177,6 +177,16 @@ public void onStarted() {
         WorldEdit.getInstance().getEventBus().post(new PlatformReadyEvent());
     }
 
+    /**
+     * Start the platform without a file to load the data version from.
+     *
+     * @param dataVersion the data version of the registries to load
+     */
+    public void onStarted(int dataVersion) {
+        platform.setDataVersion(dataVersion);
+        onStarted();
+    }
+
     public void onStopped() {
         WorldEdit worldEdit = WorldEdit.getInstance();
         worldEdit.getSessionManager().unload();
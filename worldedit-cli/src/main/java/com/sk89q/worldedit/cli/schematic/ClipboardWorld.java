@@ -19,7 +19,11 @@
 
 package com.sk89q.worldedit.cli.schematic;
 
+import com.boydti.fawe.beta.IChunkGet;
+import com.boydti.fawe.beta.implementation.blocks.FallbackChunkGet;
+import com.boydti.fawe.beta.implementation.packet.ChunkPacket;
 import com.google.common.collect.ImmutableSet;
+import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.WorldEditException;
@@ -27,6 +31,7 @@
 import com.sk89q.worldedit.cli.CLIWorld;
 import com.sk89q.worldedit.entity.BaseEntity;
 import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.entity.Player;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormats;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardWriter;
@@ -139,16 +144,68 @@ public Entity createEntity(Location location, BaseEntity entity) {
         return clipboard.createEntity(location, entity);
     }
 
+    @Override
+    public void removeEntity(Entity entity) {
+        dirty = true;
+        clipboard.removeEntity(entity);
+    }
+
     @Override
     public BlockState getBlock(BlockVector3 position) {
         return clipboard.getBlock(position);
     }
 
+    @Override
+    public BlockState getBlock(int x, int y, int z) {
+        return clipboard.getBlock(x, y, z);
+    }
+
     @Override
     public BaseBlock getFullBlock(BlockVector3 position) {
         return clipboard.getFullBlock(position);
     }
 
+    @Override
+    public BaseBlock getFullBlock(int x, int y, int z) {
+        return clipboard.getFullBlock(x, y, z);
+    }
+
+    @Override
+    public <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B block) throws WorldEditException {
+        dirty = true;
+        return clipboard.setBlock(x, y, z, block);
+    }
+
+    @Override
+    public boolean setTile(int x, int y, int z, CompoundTag tile) throws WorldEditException {
+        dirty = true;
+        return clipboard.setTile(x, y, z, tile);
+    }
+
+    @Override
+    public BiomeType getBiomeType(int x, int y, int z) {
+        return clipboard.getBiomeType(x, y, z);
+    }
+
+    @Override
+    public boolean setBiome(int x, int y, int z, BiomeType biome) {
+        dirty = true;
+        return clipboard.setBiome(x, y, z, biome);
+    }
+
+    @Override
+    public void refreshChunk(int chunkX, int chunkZ) {
+    }
+
+    @Override
+    public IChunkGet get(int chunkX, int chunkZ) {
+        return new FallbackChunkGet(this, chunkX, chunkZ);
+    }
+
+    @Override
+    public void sendFakeChunk(@Nullable Player player, ChunkPacket packet) {
+    }
+
     @Override
     public BiomeType getBiome(BlockVector2 position) {
         return clipboard.getBiome(position);
@@ -37,6 +37,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -139,6 +140,23 @@ public static Clipboard load(File file) throws IOException {
         return ClipboardFormats.findByFile(file).load(file);
     }
 
+    /**
+     * Paste a schematic file without loading it into a clipboard first, if its format supports it
+     *
+     * @param file the file to paste
+     * @param extent the extent to paste to
+     * @param to the position to paste the origin of the schematic at
+     * @param pasteAir whether air should be pasted
+     * @see ClipboardFormat#paste(InputStream, Extent, BlockVector3, boolean, boolean, boolean)
+     */
+    public static void paste(File file, Extent extent, BlockVector3 to, boolean pasteAir) throws IOException {
+        ClipboardFormat format = ClipboardFormats.findByFile(file);
+        if (format == null) {
+            throw new IOException("Unknown schematic format: " + file.getName());
+        }
+        format.paste(file, extent, to, pasteAir, true, true);
+    }
+
     /**
      * Get a list of supported protection plugin masks.
      *
@@ -373,10 +391,16 @@ public static int fixLighting(World world, Region selection, @Nullable IQueueExt
             }
         }
 
+        // Only relight the sections the selection covers
+        int bitmask = 0;
+        for (int layer = Math.max(0, bot.getBlockY() >> 4); layer <= Math.min(15, top.getBlockY() >> 4); layer++) {
+            bitmask |= 1 << layer;
+        }
+
         NMSRelighter relighter = new NMSRelighter(queue, Settings.IMP.LIGHTING.DO_HEIGHTMAPS);
         for (int x = minX; x <= maxX; x++) {
             for (int z = minZ; z <= maxZ; z++) {
-                relighter.addChunk(x, z, null, 65535);
+                relighter.addChunk(x, z, null, bitmask);
                 count++;
             }
         }
@@ -129,4 +129,14 @@ default <T extends IBatchProcessor> IBatchProcessor remove(Class<T> clazz) {
         }
         return this;
     }
+
+    /**
+     * Check if this processor is, or includes, an instance of a specified class
+     * @param clazz
+     * @param <T>
+     * @return
+     */
+    default <T extends IBatchProcessor> boolean contains(Class<T> clazz) {
+        return clazz.isInstance(this);
+    }
 }
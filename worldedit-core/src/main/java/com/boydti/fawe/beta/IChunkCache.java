@@ -9,6 +9,12 @@
 public interface IChunkCache<T> extends Trimable {
     T get(@Range(from = 0, to = 15) int chunkX, @Range(from = 0, to = 15) int chunkZ);
 
+    /**
+     * Drop any cached copy of a chunk, e.g. once changes to it have been submitted
+     */
+    default void invalidate(int chunkX, int chunkZ) {
+    }
+
     @Override
     default boolean trim(boolean aggressive) {
         return false;
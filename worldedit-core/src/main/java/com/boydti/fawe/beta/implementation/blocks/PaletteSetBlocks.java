@@ -0,0 +1,180 @@
+package com.boydti.fawe.beta.implementation.blocks;
+
+import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.beta.IChunkSet;
+import com.boydti.fawe.beta.implementation.queue.Pool;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.collection.BitArray;
+import org.jetbrains.annotations.Range;
+
+/**
+ * {@link CharSetBlocks} which stores sections as a bit-packed palette until they hold too many
+ * distinct states, at which point the section is upgraded to a flat {@code char[4096]}.
+ * <p>
+ * A section written by a handful of states uses 512 bytes per bit of palette (e.g. 1 KB for up
+ * to 4 states) instead of 8 KB. Sections are expanded when {@link #load(int)} is called, as
+ * callers expect a mutable raw array.
+ */
+public class PaletteSetBlocks extends CharSetBlocks {
+    private static final Pool<PaletteSetBlocks> POOL = FaweCache.IMP.registerPool(PaletteSetBlocks.class, PaletteSetBlocks::new, Settings.IMP.QUEUE.POOL);
+    public static PaletteSetBlocks newInstance() {
+        return POOL.poll();
+    }
+
+    /**
+     * Sections needing more bits per entry than this are stored flat
+     */
+    private static final int MAX_BITS = 6;
+
+    private final PaletteSection[] palettes = new PaletteSection[16];
+
+    private PaletteSetBlocks() {}
+
+    @Override
+    public void recycle() {
+        POOL.offer(this);
+    }
+
+    @Override
+    public char get(int x, @Range(from = 0, to = 255) int y, int z) {
+        final int layer = y >> 4;
+        final PaletteSection palette = palettes[layer];
+        if (palette != null) {
+            return palette.get((y & 15) << 8 | z << 4 | x);
+        }
+        if (sections[layer] == EMPTY) {
+            return 0;
+        }
+        return super.get(x, y, z);
+    }
+
+    @Override
+    public void set(int x, @Range(from = 0, to = 255) int y, int z, char value) {
+        final int layer = y >> 4;
+        if (sections[layer] == FULL) {
+            super.set(x, y, z, value);
+            return;
+        }
+        PaletteSection palette = palettes[layer];
+        if (palette == null) {
+            if (value == 0) {
+                return;
+            }
+            palette = palettes[layer] = new PaletteSection();
+        }
+        final int index = (y & 15) << 8 | z << 4 | x;
+        if (!palette.set(index, value)) {
+            expand(layer)[index] = value;
+        }
+    }
+
+    @Override
+    public boolean hasSection(@Range(from = 0, to = 15) int layer) {
+        return palettes[layer] != null || super.hasSection(layer);
+    }
+
+    @Override
+    public char[] load(@Range(from = 0, to = 15) int layer) {
+        if (palettes[layer] != null) {
+            return expand(layer);
+        }
+        return super.load(layer);
+    }
+
+    @Override
+    public void setBlocks(int layer, char[] data) {
+        palettes[layer] = null;
+        super.setBlocks(layer, data);
+    }
+
+    @Override
+    public void reset(@Range(from = 0, to = 15) int layer) {
+        palettes[layer] = null;
+        super.reset(layer);
+    }
+
+    @Override
+    public IChunkSet reset() {
+        for (int i = 0; i < 16; i++) {
+            palettes[i] = null;
+        }
+        return super.reset();
+    }
+
+    /**
+     * Replace the palette of a section with a flat array
+     */
+    private char[] expand(int layer) {
+        final PaletteSection palette = palettes[layer];
+        palettes[layer] = null;
+        final char[] arr = super.load(layer);
+        palette.toRaw(arr);
+        return arr;
+    }
+
+    private static final class PaletteSection {
+        private char[] paletteToBlock = new char[] {0, 0};
+        private int paletteLength = 1;
+        private BitArray indices = new BitArray(1, 4096);
+        private int bitsPerEntry = 1;
+        // Last palette lookup, as consecutive sets are usually the same state
+        private char lastBlock;
+        private int lastIndex;
+
+        char get(int index) {
+            return paletteToBlock[indices.get(index)];
+        }
+
+        /**
+         * @return false if the palette is full and the section must be expanded
+         */
+        boolean set(int index, char value) {
+            int paletteIndex = indexOf(value);
+            if (paletteIndex == -1) {
+                return false;
+            }
+            indices.set(index, paletteIndex);
+            return true;
+        }
+
+        private int indexOf(char value) {
+            if (value == lastBlock) {
+                return lastIndex;
+            }
+            for (int i = 0; i < paletteLength; i++) {
+                if (paletteToBlock[i] == value) {
+                    lastBlock = value;
+                    return lastIndex = i;
+                }
+            }
+            if (paletteLength == paletteToBlock.length) {
+                if (bitsPerEntry == MAX_BITS) {
+                    return -1;
+                }
+                grow();
+            }
+            paletteToBlock[paletteLength] = value;
+            lastBlock = value;
+            return lastIndex = paletteLength++;
+        }
+
+        private void grow() {
+            final int bits = bitsPerEntry + 1;
+            final BitArray resized = new BitArray(bits, 4096);
+            for (int i = 0; i < 4096; i++) {
+                resized.set(i, indices.get(i));
+            }
+            final char[] newPalette = new char[1 << bits];
+            System.arraycopy(paletteToBlock, 0, newPalette, 0, paletteLength);
+            paletteToBlock = newPalette;
+            indices = resized;
+            bitsPerEntry = bits;
+        }
+
+        void toRaw(char[] arr) {
+            for (int i = 0; i < 4096; i++) {
+                arr[i] = paletteToBlock[indices.get(i)];
+            }
+        }
+    }
+}
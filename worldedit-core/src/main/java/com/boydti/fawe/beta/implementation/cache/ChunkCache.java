@@ -2,21 +2,56 @@
 
 import com.boydti.fawe.beta.IChunkCache;
 import com.boydti.fawe.beta.Trimable;
+import com.boydti.fawe.beta.implementation.blocks.CharBlocks;
+import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.util.MathMan;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
-import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Bounded cache of chunks, shared by every queue operating on a world.
+ * <p>
+ * Entries are spread over independently locked stripes so that parallel readers rarely contend,
+ * and each stripe evicts its least recently used chunks once the estimated size of all cached
+ * chunks exceeds the memory budget ({@code queue.chunk-cache-percent} of the max heap).
+ * <p>
+ * Queues invalidate a chunk when they submit changes to it, so later operations never read a copy
+ * taken before the edit.
+ */
 public class ChunkCache<T extends Trimable> implements IChunkCache<T> {
 
-    protected final Long2ObjectLinkedOpenHashMap<WeakReference<T>> getCache;
+    private static final int BASE_BYTES = 1024;
+    private static final int SECTION_BYTES = 8192;
+    // The world chunk an entry keeps loaded: 16 paletted sections with their light data
+    private static final int PINNED_CHUNK_BYTES = 16 * 6144;
+
+    private final Stripe<T>[] stripes;
+    private final int stripeMask;
     private final IChunkCache<T> delegate;
+    private final long budget;
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
 
     public ChunkCache(IChunkCache<T> delegate) {
-        this.getCache = new Long2ObjectLinkedOpenHashMap<>();
+        this(delegate, Runtime.getRuntime().maxMemory() / 100 * Math.max(1, Settings.IMP.QUEUE.CHUNK_CACHE_PERCENT));
+    }
+
+    public ChunkCache(IChunkCache<T> delegate, long budget) {
         this.delegate = delegate;
+        this.budget = budget;
+        int count = HashCommon.nextPowerOfTwo(Math.max(16, Settings.IMP.QUEUE.PARALLEL_THREADS * 4));
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        this.stripeMask = count - 1;
     }
 
     /**
@@ -25,48 +60,148 @@ public ChunkCache(IChunkCache<T> delegate) {
      * @return cached IGetBlocks
      */
     @Override
-    public synchronized T get(int x, int z) {
+    public T get(int x, int z) {
         long pair = MathMan.pairInt(x, z);
-        final WeakReference<T> ref = getCache.get(pair);
-        if (ref != null) {
-            final T blocks = ref.get();
-            if (blocks != null) {
-                return blocks;
+        int index = (int) HashCommon.mix(pair) & stripeMask;
+        Stripe<T> stripe = stripes[index];
+        T blocks;
+        synchronized (stripe) {
+            Entry<T> entry = stripe.map.getAndMoveToLast(pair);
+            if (entry != null) {
+                hits.increment();
+                resize(entry);
+                return entry.value;
             }
+            misses.increment();
+            blocks = newChunk(x, z);
+            entry = new Entry<>(blocks);
+            stripe.map.put(pair, entry);
+            resize(entry);
+        }
+        if (bytes.get() > budget) {
+            evict(index, budget);
         }
-        final T blocks = newChunk(x, z);
-        getCache.put(pair, new WeakReference<>(blocks));
         return blocks;
     }
 
+    @Override
+    public void invalidate(int x, int z) {
+        long pair = MathMan.pairInt(x, z);
+        Stripe<T> stripe = stripes[(int) HashCommon.mix(pair) & stripeMask];
+        synchronized (stripe) {
+            Entry<T> removed = stripe.map.remove(pair);
+            if (removed != null) {
+                bytes.addAndGet(-removed.bytes);
+            }
+        }
+    }
+
     public T newChunk(int chunkX, int chunkZ) {
         return delegate.get(chunkX, chunkZ);
     }
 
+    /**
+     * Update the size of an entry, as chunks load sections after being cached
+     */
+    private void resize(Entry<T> entry) {
+        int size = estimateBytes(entry.value);
+        if (size != entry.bytes) {
+            bytes.addAndGet(size - entry.bytes);
+            entry.bytes = size;
+        }
+    }
+
+    private static int estimateBytes(Object value) {
+        int size = BASE_BYTES + PINNED_CHUNK_BYTES;
+        if (value instanceof CharBlocks) {
+            for (char[] section : ((CharBlocks) value).blocks) {
+                if (section != null) {
+                    size += SECTION_BYTES;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Evict least recently used entries until the cache fits the target, starting with the given
+     * stripe
+     */
+    private void evict(int start, long target) {
+        for (int i = 0; i <= stripeMask && bytes.get() > target; i++) {
+            Stripe<T> stripe = stripes[(start + i) & stripeMask];
+            synchronized (stripe) {
+                while (!stripe.map.isEmpty() && bytes.get() > target) {
+                    Entry<T> removed = stripe.map.removeFirst();
+                    bytes.addAndGet(-removed.bytes);
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
     @Override
-    public synchronized boolean trim(boolean aggressive) {
-        if (getCache.isEmpty()) {
+    public boolean trim(boolean aggressive) {
+        if (aggressive) {
+            // Release everything, e.g. when memory is low
+            evict(0, 0);
             return true;
         }
         boolean result = true;
-        final ObjectIterator<Long2ObjectMap.Entry<WeakReference<T>>> iter = getCache
-                .long2ObjectEntrySet().fastIterator();
-        while (iter.hasNext()) {
-            final Long2ObjectMap.Entry<WeakReference<T>> entry = iter.next();
-            final WeakReference<T> value = entry.getValue();
-            final T igb = value.get();
-            if (igb == null) {
-                iter.remove();
-            } else {
-                result = false;
-                if (!aggressive) {
-                    return false;
+        for (Stripe<T> stripe : stripes) {
+            synchronized (stripe) {
+                ObjectIterator<Entry<T>> iter = stripe.map.values().iterator();
+                while (iter.hasNext()) {
+                    Entry<T> entry = iter.next();
+                    resize(entry);
                 }
-                synchronized (igb) {
-                    igb.trim(true);
+                if (!stripe.map.isEmpty()) {
+                    result = false;
                 }
             }
         }
+        if (bytes.get() > budget) {
+            evict(0, budget);
+        }
         return result;
     }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkCache{bytes=" + getBytes() + "/" + budget + ", hits=" + getHits()
+            + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "}";
+    }
+
+    private static final class Stripe<T> {
+        private final Long2ObjectLinkedOpenHashMap<Entry<T>> map = new Long2ObjectLinkedOpenHashMap<>();
+    }
+
+    private static final class Entry<T> {
+        private final T value;
+        private int bytes;
+
+        private Entry(T value) {
+            this.value = value;
+        }
+    }
 }
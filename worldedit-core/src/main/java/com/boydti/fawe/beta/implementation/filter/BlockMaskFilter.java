@@ -0,0 +1,65 @@
+package com.boydti.fawe.beta.implementation.filter;
+
+import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.beta.Filter;
+import com.boydti.fawe.beta.IChunk;
+import com.boydti.fawe.beta.implementation.filter.block.ChunkFilterBlock;
+import com.boydti.fawe.beta.implementation.filter.block.FilterBlock;
+import com.sk89q.worldedit.function.mask.ABlockMask;
+
+/**
+ * Mask filter for block masks, which tests a whole chunk section at a time
+ * - Each section is tested once with a lookup table of the mask, before any block is applied
+ * - Sections without a matching block are skipped
+ * - Blocks are tested against the chunk being filtered, rather than the extent of the mask
+ *
+ * @param <T> Parent which extends Filter
+ */
+public class BlockMaskFilter<T extends Filter> extends MaskFilter<T> {
+    private final ABlockMask mask;
+    private final boolean[] table;
+    private final long[] section = new long[64];
+    private boolean hasSection;
+
+    public BlockMaskFilter(T other, ABlockMask mask) {
+        super(other, mask);
+        this.mask = mask;
+        this.table = mask.toOrdinalTable();
+    }
+
+    private BlockMaskFilter(T other, BlockMaskFilter root) {
+        super(other, root);
+        this.mask = root.mask;
+        this.table = root.table;
+    }
+
+    @Override
+    public boolean appliesLayer(IChunk chunk, int layer) {
+        char[] blocks = chunk.hasSection(layer) ? chunk.load(layer) : FaweCache.IMP.EMPTY_CHAR_4096;
+        hasSection = true;
+        if (!ABlockMask.test(table, blocks, section)) {
+            return false;
+        }
+        return getParent().appliesLayer(chunk, layer);
+    }
+
+    @Override
+    protected boolean test(FilterBlock block) {
+        if (hasSection && block instanceof ChunkFilterBlock) {
+            int index = block.getLocalY() << 8 | block.getLocalZ() << 4 | block.getLocalX();
+            return (section[index >> 6] & (1L << index)) != 0;
+        }
+        return mask.test(block);
+    }
+
+    @Override
+    public void finishChunk(IChunk chunk) {
+        hasSection = false;
+        getParent().finishChunk(chunk);
+    }
+
+    @Override
+    public MaskFilter newInstance(Filter other) {
+        return new BlockMaskFilter<>(other, this);
+    }
+}
@@ -29,8 +29,27 @@ public void applyBlock(FilterBlock block) {
         this.getChild().applyBlock(block);
     }
 
+    /**
+     * Fork both the parent and the child, e.g. so each thread has its own Pattern and counter
+     */
     @Override
-    public LinkedFilter<LinkedFilter<T,S>, Filter> newInstance(Filter other) {
-        return new LinkedFilter<>(this, other);
+    public Filter fork() {
+        Filter parentFork = getParent().fork();
+        Filter childFork = getChild().fork();
+        if (parentFork == getParent() && childFork == getChild()) {
+            return this;
+        }
+        return new LinkedFilter<>(parentFork, childFork);
+    }
+
+    @Override
+    public void join() {
+        this.getParent().join();
+        this.getChild().join();
+    }
+
+    @Override
+    public LinkedFilter<Filter, S> newInstance(Filter other) {
+        return new LinkedFilter<>(other, child);
     }
 }
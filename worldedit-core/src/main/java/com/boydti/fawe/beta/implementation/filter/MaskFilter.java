@@ -5,6 +5,8 @@
 import com.boydti.fawe.beta.implementation.filter.block.FilterBlock;
 import com.sk89q.worldedit.function.mask.Mask;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Supplier;
 
 /**
@@ -15,10 +17,11 @@
 public class MaskFilter<T extends Filter> extends DelegateFilter<T> {
     private final Supplier<Mask> supplier;
     private final Mask mask;
+    private final List<MaskFilter> forks;
     private int changes;
 
     public MaskFilter(T other, Mask mask) {
-        this(other, () -> mask);
+        this(other, mask::copy, mask);
     }
 
     public MaskFilter(T other, Supplier<Mask> supplier) {
@@ -29,11 +32,38 @@ public MaskFilter(T other, Supplier<Mask> supplier, Mask root) {
         super(other);
         this.supplier = supplier;
         this.mask = root;
+        this.forks = new ArrayList<>();
+    }
+
+    /**
+     * Fork a mask filter for another thread, with a new mask from the root's supplier
+     *
+     * @param other the forked parent
+     * @param root the filter being forked
+     */
+    protected MaskFilter(T other, MaskFilter root) {
+        super(other);
+        this.supplier = root.supplier;
+        this.mask = supplier.get();
+        this.forks = root.forks;
+        synchronized (forks) {
+            forks.add(this);
+        }
+    }
+
+    /**
+     * Test whether a block is eligible for being applied to
+     *
+     * @param block the block
+     * @return true if the block passes the Mask test
+     */
+    protected boolean test(FilterBlock block) {
+        return mask.test(block);
     }
 
     @Override
     public void applyBlock(FilterBlock block) {
-        if (mask.test(block)) {
+        if (test(block)) {
             getParent().applyBlock(block);
             this.changes++;
         }
@@ -48,8 +78,29 @@ public int getBlocksApplied(){
         return this.changes;
     }
 
+    /**
+     * Always fork, as the Mask may not be thread safe
+     */
+    @Override
+    public Filter fork() {
+        return newInstance(getParent().fork());
+    }
+
+    @Override
+    public void join() {
+        synchronized (forks) {
+            for (MaskFilter fork : forks) {
+                if (fork != this) {
+                    this.changes += fork.changes;
+                }
+            }
+            forks.clear();
+        }
+        getParent().join();
+    }
+
     @Override
     public MaskFilter newInstance(Filter other) {
-        return new MaskFilter<>(other, supplier);
+        return new MaskFilter<>(other, this);
     }
 }
@@ -1,14 +1,15 @@
 package com.boydti.fawe.beta.implementation.lighting;
 
+import com.boydti.fawe.Fawe;
 import com.boydti.fawe.beta.IQueueChunk;
 import com.boydti.fawe.beta.IQueueExtent;
 import com.boydti.fawe.beta.implementation.chunk.ChunkHolder;
+import com.boydti.fawe.beta.implementation.queue.QueueHandler;
 import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.object.RunnableVal;
-import com.boydti.fawe.object.collection.BlockVectorSet;
+import com.boydti.fawe.object.collection.SectionBitSet;
 import com.boydti.fawe.util.MathMan;
 import com.boydti.fawe.util.TaskManager;
-import com.sk89q.worldedit.math.MutableBlockVector3;
 import com.sk89q.worldedit.registry.state.BooleanProperty;
 import com.sk89q.worldedit.registry.state.DirectionalProperty;
 import com.sk89q.worldedit.registry.state.EnumProperty;
@@ -17,23 +18,46 @@
 import com.sk89q.worldedit.world.block.BlockState;
 import com.sk89q.worldedit.world.block.BlockTypes;
 import com.sk89q.worldedit.world.registry.BlockMaterial;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
 
+/**
+ * Relights the chunks added to it, using multiple threads.
+ * <p>
+ * Chunks are grouped into tiles of 4x4 chunks. A tile is relit by a single thread, which only
+ * writes to the chunks of the tile and reads at most one chunk past its border. Tiles are
+ * processed in four passes, such that tiles relit at the same time never share a chunk. Block
+ * light leaving a tile is handed off to the tile owning the position, and is spread in a later
+ * pass. Sky light is calculated for the relit chunks bordering a tile as well, as light does not
+ * travel further than a chunk, so each tile gets the light a single pass over all chunks would.
+ * <p>
+ * Only the sections set in the bitmask a chunk was added with have their light removed, and
+ * unless height maps are calculated, sky light is only recalculated from the highest of those
+ * sections down.
+ */
 public class NMSRelighter implements Relighter {
-    private static final int DISPATCH_SIZE = 64;
+    private static final int TILE_BITS = 2;
+    // The chunks of a tile, and the chunks bordering it
+    private static final int VIEW_SIZE = (1 << TILE_BITS) + 2;
     private static final DirectionalProperty stairDirection;
     private static final EnumProperty stairHalf;
     private static final EnumProperty stairShape;
@@ -48,16 +72,21 @@ public class NMSRelighter implements Relighter {
         waterLogged = (BooleanProperty) (Property<?>) BlockTypes.SANDSTONE_SLAB.getProperty("waterlogged");
     }
 
-    public final MutableBlockVector3 mutableBlockPos = new MutableBlockVector3(0, 0, 0);
+    /**
+     * The phases of relighting, which are timed separately
+     */
+    public enum Phase {
+        REMOVE, SKY, BLOCK, SEND
+    }
+
     private final IQueueExtent<IQueueChunk> queue;
-    private final Map<Long, RelightSkyEntry> skyToRelight;
-    private final Object present = new Object();
-    private final Map<Long, Integer> chunksToSend;
-    private final Map<Long, Map<HeightMapType, int[]>> heightMaps;
+    private final Long2ObjectOpenHashMap<RelightSkyEntry> skyToRelight;
+    private final Long2IntOpenHashMap chunksToSend;
+    private final Long2ObjectOpenHashMap<Map<HeightMapType, int[]>> heightMaps;
     private final ConcurrentLinkedQueue<RelightSkyEntry> extentdSkyToRelight = new ConcurrentLinkedQueue<>();
-    private final Map<Long, long[][][] /* z y x */> lightQueue;
-    private final AtomicBoolean lightLock = new AtomicBoolean(false);
-    private final ConcurrentHashMap<Long, long[][][]> concurrentLightQueue;
+    // chunk -> section -> bitmap of the positions to update the block light of
+    private final Long2ObjectOpenHashMap<long[][]> lightQueue;
+    private final LongAdder[] timings;
     private final int maxY;
     private final boolean calculateHeightMaps;
     private boolean removeFirst;
@@ -66,15 +95,23 @@ public NMSRelighter(IQueueExtent<IQueueChunk> queue, boolean calculateHeightMaps
         this.queue = queue;
         this.skyToRelight = new Long2ObjectOpenHashMap<>(12);
         this.lightQueue = new Long2ObjectOpenHashMap<>(12);
-        this.chunksToSend = new Long2ObjectOpenHashMap<>(12);
-        this.concurrentLightQueue = new ConcurrentHashMap<>(12);
+        this.chunksToSend = new Long2IntOpenHashMap(12);
         this.heightMaps = new Long2ObjectOpenHashMap<>(12);
         this.maxY = queue.getMaxY();
         this.calculateHeightMaps = calculateHeightMaps;
+        this.timings = new LongAdder[Phase.values().length];
+        for (int i = 0; i < timings.length; i++) {
+            timings[i] = new LongAdder();
+        }
     }
 
     @Override public boolean isEmpty() {
-        return skyToRelight.isEmpty() && lightQueue.isEmpty() && extentdSkyToRelight.isEmpty() && concurrentLightQueue.isEmpty();
+        if (!skyToRelight.isEmpty() || !extentdSkyToRelight.isEmpty()) {
+            return false;
+        }
+        synchronized (lightQueue) {
+            return lightQueue.isEmpty();
+        }
     }
 
     @Override public synchronized void removeAndRelight(boolean sky) {
@@ -84,47 +121,72 @@ public NMSRelighter(IQueueExtent<IQueueChunk> queue, boolean calculateHeightMaps
     }
 
     /**
-     * Utility method to reduce duplicated code to ensure values are written to long[][][] without NPEs
+     * Get the total time spent in a phase of relighting
      *
+     * @param phase the phase
+     * @param unit  the unit to return the time in
+     * @return the time spent
+     */
+    public long getTime(Phase phase, TimeUnit unit) {
+        return unit.convert(timings[phase.ordinal()].sum(), TimeUnit.NANOSECONDS);
+    }
+
+    private void addTime(Phase phase, long start) {
+        timings[phase.ordinal()].add(System.nanoTime() - start);
+    }
+
+    /**
+     * Utility method to mark a position in a chunk -> section -> bitmap map
+     *
+     * @param map the map to add the position to
      * @param x   x coordinate
      * @param y   y coordinate
      * @param z   z coordinate
-     * @param map long[][][] to add values to
      */
-    private void set(int x, int y, int z, long[][][] map) {
-        long[][] m1 = map[z];
-        if (m1 == null) {
-            m1 = map[z] = new long[16][];
+    private static void set(int x, int y, int z, Long2ObjectOpenHashMap<long[][]> map) {
+        long index = MathMan.pairInt(x >> 4, z >> 4);
+        long[][] sections = map.get(index);
+        if (sections == null) {
+            sections = new long[16][];
+            map.put(index, sections);
         }
-        long[] m2 = m1[x];
-        if (m2 == null) {
-            m2 = m1[x] = new long[4];
+        long[] bits = sections[y >> 4];
+        if (bits == null) {
+            bits = sections[y >> 4] = new long[64];
         }
-        m2[y >> 6] |= 1L << y;
+        int i = (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+        bits[i >> 6] |= 1L << i;
     }
 
     public void addLightUpdate(int x, int y, int z) {
-        long index = MathMan.pairInt(x >> 4, z >> 4);
-        if (lightLock.compareAndSet(false, true)) {
-            synchronized (lightQueue) {
-                try {
-                    long[][][] currentMap = lightQueue.get(index);
-                    if (currentMap == null) {
-                        currentMap = new long[16][][];
-                        this.lightQueue.put(index, currentMap);
+        synchronized (lightQueue) {
+            set(x, y, z, lightQueue);
+        }
+    }
+
+    private void addLightUpdates(Long2ObjectOpenHashMap<long[][]> updates) {
+        synchronized (lightQueue) {
+            for (Long2ObjectMap.Entry<long[][]> entry : updates.long2ObjectEntrySet()) {
+                long[][] existing = lightQueue.get(entry.getLongKey());
+                if (existing == null) {
+                    lightQueue.put(entry.getLongKey(), entry.getValue());
+                    continue;
+                }
+                long[][] sections = entry.getValue();
+                for (int layer = 0; layer < sections.length; layer++) {
+                    long[] bits = sections[layer];
+                    if (bits == null) {
+                        continue;
+                    }
+                    if (existing[layer] == null) {
+                        existing[layer] = bits;
+                        continue;
+                    }
+                    for (int i = 0; i < bits.length; i++) {
+                        existing[layer][i] |= bits[i];
                     }
-                    set(x & 15, y, z & 15, currentMap);
-                } finally {
-                    lightLock.set(false);
                 }
             }
-        } else {
-            long[][][] currentMap = concurrentLightQueue.get(index);
-            if (currentMap == null) {
-                currentMap = new long[16][][];
-                this.concurrentLightQueue.put(index, currentMap);
-            }
-            set(x & 15, y, z & 15, currentMap);
         }
     }
 
@@ -133,7 +195,9 @@ public synchronized void clear() {
         skyToRelight.clear();
         chunksToSend.clear();
         heightMaps.clear();
-        lightQueue.clear();
+        synchronized (lightQueue) {
+            lightQueue.clear();
+        }
     }
 
     public boolean addChunk(int cx, int cz, byte[] fix, int bitmask) {
@@ -142,7 +206,7 @@ public boolean addChunk(int cx, int cz, byte[] fix, int bitmask) {
         return true;
     }
 
-    private synchronized Map<Long, RelightSkyEntry> getSkyMap() {
+    private synchronized Long2ObjectOpenHashMap<RelightSkyEntry> getSkyMap() {
         RelightSkyEntry entry;
         while ((entry = extentdSkyToRelight.poll()) != null) {
             long pair = MathMan.pairInt(entry.x, entry.z);
@@ -159,137 +223,156 @@ private synchronized Map<Long, RelightSkyEntry> getSkyMap() {
         return skyToRelight;
     }
 
+    /**
+     * Get the sections to relight from a chunk bitmask
+     */
+    private static int getDirtySections(int bitmask) {
+        return bitmask & 0xFFFF;
+    }
+
     public synchronized void removeLighting() {
-        Iterator<Map.Entry<Long, RelightSkyEntry>> iter = getSkyMap().entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry<Long, RelightSkyEntry> entry = iter.next();
-            RelightSkyEntry chunk = entry.getValue();
-            long pair = entry.getKey();
-            Integer existing = chunksToSend.get(pair);
-            chunksToSend.put(pair, chunk.bitmask | (existing != null ? existing : 0));
-            ChunkHolder<?> iChunk = (ChunkHolder<?>) queue.getOrCreateChunk(chunk.x, chunk.z);
+        long start = System.nanoTime();
+        Long2ObjectOpenHashMap<RelightSkyEntry> map = getSkyMap();
+        for (RelightSkyEntry chunk : map.values()) {
+            long pair = MathMan.pairInt(chunk.x, chunk.z);
+            chunksToSend.put(pair, chunksToSend.get(pair) | chunk.bitmask);
+            IQueueChunk queueChunk = queue.getOrCreateChunk(chunk.x, chunk.z);
+            if (!(queueChunk instanceof ChunkHolder)) {
+                continue;
+            }
+            ChunkHolder<?> iChunk = (ChunkHolder<?>) queueChunk;
             if (!iChunk.isInit()) {
                 iChunk.init(queue, chunk.x, chunk.z);
             }
-            for (int i = 0; i < 16; i++) {
-                iChunk.removeSectionLighting(i, true);
+            for (int dirty = getDirtySections(chunk.bitmask); dirty != 0; dirty &= dirty - 1) {
+                iChunk.removeSectionLighting(Integer.numberOfTrailingZeros(dirty), true);
             }
-            iter.remove();
         }
+        map.clear();
+        addTime(Phase.REMOVE, start);
     }
 
-    public void updateBlockLight(Map<Long, long[][][]> map) {
-        int size = map.size();
-        if (size == 0) {
-            return;
+    /**
+     * Run tile tasks, in four passes so that the chunks used by the tasks of a pass never overlap
+     *
+     * @param tasks the tasks to run
+     */
+    private void runTiles(Collection<? extends TileTask> tasks) {
+        List<TileTask>[] passes = new List[4];
+        for (int i = 0; i < passes.length; i++) {
+            passes[i] = new ArrayList<>();
         }
-        Queue<MutableBlockVector3> lightPropagationQueue = new ArrayDeque<>(32);
-        Queue<Object[]> lightRemovalQueue = new ArrayDeque<>(32);
-        Map<MutableBlockVector3, Object> visited = new HashMap<>(32);
-        Map<MutableBlockVector3, Object> removalVisited = new HashMap<>(32);
-
-        // Make sure BlockTypes is initialised so we can check block characteristics later if needed
-        BlockTypes.STONE.getMaterial();
-
-        Iterator<Map.Entry<Long, long[][][]>> iter = map.entrySet().iterator();
-        while (iter.hasNext() && size-- > 0) {
-            Map.Entry<Long, long[][][]> entry = iter.next();
-            long index = entry.getKey();
-            long[][][] blocks = entry.getValue();
-            int chunkX = MathMan.unpairIntX(index);
-            int chunkZ = MathMan.unpairIntY(index);
-            int bx = chunkX << 4;
-            int bz = chunkZ << 4;
-            ChunkHolder<?> iChunk = (ChunkHolder<?>) queue.getOrCreateChunk(chunkX, chunkZ);
-            if (!iChunk.isInit()) {
-                iChunk.init(queue, chunkX, chunkZ);
-            }
-            for (int lz = 0; lz < blocks.length; lz++) {
-                long[][] m1 = blocks[lz];
-                if (m1 == null) {
-                    continue;
-                }
-                for (int lx = 0; lx < m1.length; lx++) {
-                    long[] m2 = m1[lx];
-                    if (m2 == null) {
-                        continue;
+        for (TileTask task : tasks) {
+            passes[task.getPass()].add(task);
+        }
+        int threads = Math.max(1, Settings.IMP.QUEUE.PARALLEL_THREADS);
+        boolean enabled = queue.isQueueEnabled();
+        for (List<TileTask> pass : passes) {
+            for (int i = 0; i < pass.size(); i += threads) {
+                List<TileTask> batch = pass.subList(i, Math.min(pass.size(), i + threads));
+                // The queue must not submit chunks while the tasks are using them
+                queue.disableQueue();
+                try {
+                    for (TileTask task : batch) {
+                        task.prepare();
                     }
-                    for (int i = 0; i < m2.length; i++) {
-                        int yStart = i << 6;
-                        long value = m2[i];
-                        if (value != 0) {
-                            for (int j = 0; j < 64; j++) {
-                                if (((value >> j) & 1) == 1) {
-                                    int x = lx + bx;
-                                    int y = yStart + j;
-                                    int z = lz + bz;
-                                    int oldLevel = iChunk.getEmmittedLight(lx, y, lz);
-                                    int newLevel = iChunk.getBrightness(lx, y, lz);
-                                    if (oldLevel != newLevel) {
-                                        iChunk.setBlockLight(lx, y, lz, newLevel);
-                                        MutableBlockVector3 node = new MutableBlockVector3(x, y, z);
-                                        if (newLevel < oldLevel) {
-                                            removalVisited.put(node, present);
-                                            lightRemovalQueue.add(new Object[] {node, oldLevel});
-                                        } else {
-                                            visited.put(node, present);
-                                            lightPropagationQueue.add(node);
-                                        }
-                                    }
+                    if (batch.size() == 1) {
+                        batch.get(0).run();
+                    } else {
+                        QueueHandler handler = Fawe.get().getQueueHandler();
+                        ForkJoinTask[] forks = new ForkJoinTask[batch.size()];
+                        for (int j = 0; j < forks.length; j++) {
+                            forks[j] = handler.submit(batch.get(j));
+                        }
+                        RuntimeException error = null;
+                        for (ForkJoinTask fork : forks) {
+                            try {
+                                fork.join();
+                            } catch (RuntimeException e) {
+                                if (error == null) {
+                                    error = e;
                                 }
                             }
                         }
+                        if (error != null) {
+                            throw error;
+                        }
+                    }
+                } finally {
+                    for (TileTask task : batch) {
+                        task.release();
+                    }
+                    if (enabled) {
+                        queue.enableQueue();
                     }
                 }
             }
-            iter.remove();
         }
+    }
 
-        while (!lightRemovalQueue.isEmpty()) {
-            Object[] val = lightRemovalQueue.poll();
-            MutableBlockVector3 node = (MutableBlockVector3) val[0];
-            int lightLevel = (int) val[1];
+    private void updateBlockLight(Long2ObjectOpenHashMap<long[][]> map) {
+        if (map.isEmpty()) {
+            return;
+        }
+        // Make sure BlockTypes is initialised so we can check block characteristics later if needed
+        BlockTypes.STONE.getMaterial();
 
-            this.computeRemoveBlockLight(node.getX() - 1, node.getY(), node.getZ(), lightLevel, lightRemovalQueue, lightPropagationQueue,
-                removalVisited, visited);
-            this.computeRemoveBlockLight(node.getX() + 1, node.getY(), node.getZ(), lightLevel, lightRemovalQueue, lightPropagationQueue,
-                removalVisited, visited);
-            if (node.getY() > 0) {
-                this.computeRemoveBlockLight(node.getX(), node.getY() - 1, node.getZ(), lightLevel, lightRemovalQueue, lightPropagationQueue,
-                    removalVisited, visited);
-            }
-            if (node.getY() < 255) {
-                this.computeRemoveBlockLight(node.getX(), node.getY() + 1, node.getZ(), lightLevel, lightRemovalQueue, lightPropagationQueue,
-                    removalVisited, visited);
-            }
-            this.computeRemoveBlockLight(node.getX(), node.getY(), node.getZ() - 1, lightLevel, lightRemovalQueue, lightPropagationQueue,
-                removalVisited, visited);
-            this.computeRemoveBlockLight(node.getX(), node.getY(), node.getZ() + 1, lightLevel, lightRemovalQueue, lightPropagationQueue,
-                removalVisited, visited);
+        Long2ObjectOpenHashMap<BlockLightTask> tasks = new Long2ObjectOpenHashMap<>();
+        for (Long2ObjectMap.Entry<long[][]> entry : map.long2ObjectEntrySet()) {
+            long index = entry.getLongKey();
+            int chunkX = MathMan.unpairIntX(index);
+            int chunkZ = MathMan.unpairIntY(index);
+            getBlockLightTask(tasks, chunkX >> TILE_BITS, chunkZ >> TILE_BITS).seeds.put(index, entry.getValue());
         }
+        // Remove light everywhere before spreading it, as in a single threaded search
+        runBlockLightStage(tasks, true);
+        runBlockLightStage(tasks, false);
+    }
 
-        while (!lightPropagationQueue.isEmpty()) {
-            MutableBlockVector3 node = lightPropagationQueue.poll();
-            ChunkHolder<?> iChunk = (ChunkHolder<?>) queue.getOrCreateChunk(node.getX() >> 4, node.getZ() >> 4);
-            if (!iChunk.isInit()) {
-                iChunk.init(queue, node.getX() >> 4, node.getZ() >> 4);
+    private BlockLightTask getBlockLightTask(Long2ObjectOpenHashMap<BlockLightTask> tasks, int tileX, int tileZ) {
+        long key = MathMan.pairInt(tileX, tileZ);
+        BlockLightTask task = tasks.get(key);
+        if (task == null) {
+            task = new BlockLightTask(tileX, tileZ);
+            tasks.put(key, task);
+        }
+        return task;
+    }
+
+    /**
+     * Run tasks until no light is handed off between tiles
+     */
+    private void runBlockLightStage(Long2ObjectOpenHashMap<BlockLightTask> tasks, boolean removing) {
+        List<BlockLightTask> pending = new ArrayList<>();
+        for (BlockLightTask task : tasks.values()) {
+            task.removing = removing;
+            if (task.hasWork()) {
+                pending.add(task);
             }
-            int lightLevel = iChunk.getEmmittedLight(node.getX() & 15, node.getY(), node.getZ() & 15);
-            BlockState state = this.queue.getBlock(node.getX(), node.getY(), node.getZ());
-            String id = state.getBlockType().getId().toLowerCase();
-            if (lightLevel <= 1) {
-                continue;
+        }
+        while (!pending.isEmpty()) {
+            runTiles(pending);
+            List<BlockLightTask> senders = new ArrayList<>(tasks.values());
+            for (BlockLightTask sender : senders) {
+                LongArrayList outbox = sender.outbox;
+                IntArrayList outboxLevels = sender.outboxLevels;
+                for (int i = 0; i < outbox.size(); i++) {
+                    long node = outbox.getLong(i);
+                    int chunkX = (int) MathMan.untripleWorldCoordX(node) >> 4;
+                    int chunkZ = (int) MathMan.untripleWorldCoordZ(node) >> 4;
+                    BlockLightTask receiver = getBlockLightTask(tasks, chunkX >> TILE_BITS, chunkZ >> TILE_BITS);
+                    receiver.removing = removing;
+                    receiver.inbox.add(node);
+                    receiver.inboxLevels.add(outboxLevels.getInt(i));
+                }
+                outbox.clear();
+                outboxLevels.clear();
             }
-            if (id.contains("slab")) {
-                boolean top = state.getState(slabHalf).equalsIgnoreCase("top");
-                computeSlab(node.getX(), node.getY(), node.getZ(), lightLevel, lightPropagationQueue, visited, top);
-            } else if (id.contains("stair")) {
-                boolean top = state.getState(stairHalf).equalsIgnoreCase("top");
-                Direction direction = getStairDir(state);
-                String shape = getStairShape(state);
-                computeStair(node.getX(), node.getY(), node.getZ(), lightLevel, lightPropagationQueue, visited, top, direction, shape);
-            } else {
-                computeNormal(node.getX(), node.getY(), node.getZ(), lightLevel, lightPropagationQueue, visited);
+            pending.clear();
+            for (BlockLightTask task : tasks.values()) {
+                if (task.hasWork()) {
+                    pending.add(task);
+                }
             }
         }
     }
@@ -298,8 +381,7 @@ private void computeStair(int x,
                               int y,
                               int z,
                               int currentLight,
-                              Queue<MutableBlockVector3> queue,
-                              Map<MutableBlockVector3, Object> visited,
+                              BlockLightTask task,
                               boolean top,
                               Direction direction,
                               String shape) {
@@ -310,12 +392,12 @@ private void computeStair(int x,
                 && !shape.equals("inner_right")) || (direction == Direction.EAST && shape.contains("outer")))) {
                 break east;
             }
-            BlockState state = this.queue.getBlock(x + 1, y, z);
+            BlockState state = task.getBlock(x + 1, y, z);
             if (!(checkStairEast(state) && isStairOrTrueTop(state, top) && isSlabOrTrueValue(state, top ? "top" : "bottom"))) {
                 break east;
             }
             if (!state.getBlockType().getId().toLowerCase().contains("stair")) {
-                this.computeSpreadBlockLight(x + 1, y, z, currentLight, queue, visited);
+                task.spread(x + 1, y, z, currentLight);
                 break east;
             }
             Direction otherDir = getStairDir(state);
@@ -352,7 +434,7 @@ private void computeStair(int x,
                     }
                     break;
             }
-            this.computeSpreadBlockLight(x + 1, y, z, currentLight, queue, visited);
+            task.spread(x + 1, y, z, currentLight);
         }
         west:
         {
@@ -361,12 +443,12 @@ private void computeStair(int x,
                 && !shape.equals("inner_right")) || (direction == Direction.WEST && shape.contains("outer")))) {
                 break west;
             }
-            BlockState state = this.queue.getBlock(x - 1, y, z);
+            BlockState state = task.getBlock(x - 1, y, z);
             if (!(checkStairWest(state) && isStairOrTrueTop(state, top) && isSlabOrTrueValue(state, top ? "top" : "bottom"))) {
                 break west;
             }
             if (!state.getBlockType().getId().toLowerCase().contains("stair")) {
-                this.computeSpreadBlockLight(x - 1, y, z, currentLight, queue, visited);
+                task.spread(x - 1, y, z, currentLight);
                 break west;
             }
             Direction otherDir = getStairDir(state);
@@ -403,7 +485,7 @@ private void computeStair(int x,
                     }
                     break;
             }
-            this.computeSpreadBlockLight(x - 1, y, z, currentLight, queue, visited);
+            task.spread(x - 1, y, z, currentLight);
         }
         south:
         {
@@ -412,12 +494,12 @@ private void computeStair(int x,
                 && !shape.equals("inner_right")) || (direction == Direction.SOUTH && shape.contains("outer")))) {
                 break south;
             }
-            BlockState state = this.queue.getBlock(x, y, z + 1);
+            BlockState state = task.getBlock(x, y, z + 1);
             if (!(checkStairSouth(state) && isStairOrTrueTop(state, top) && isSlabOrTrueValue(state, top ? "top" : "bottom"))) {
                 break south;
             }
             if (!state.getBlockType().getId().toLowerCase().contains("stair")) {
-                this.computeSpreadBlockLight(x, y, z + 1, currentLight, queue, visited);
+                task.spread(x, y, z + 1, currentLight);
                 break south;
             }
             Direction otherDir = getStairDir(state);
@@ -454,7 +536,7 @@ private void computeStair(int x,
                     }
                     break;
             }
-            this.computeSpreadBlockLight(x, y, z + 1, currentLight, queue, visited);
+            task.spread(x, y, z + 1, currentLight);
         }
         north:
         {
@@ -463,12 +545,12 @@ private void computeStair(int x,
                 && !shape.equals("inner_right")) || (direction == Direction.NORTH && shape.contains("outer")))) {
                 break north;
             }
-            BlockState state = this.queue.getBlock(x, y, z - 1);
+            BlockState state = task.getBlock(x, y, z - 1);
             if (!(checkStairNorth(state) && isStairOrTrueTop(state, top) && isSlabOrTrueValue(state, top ? "top" : "bottom"))) {
                 break north;
             }
             if (!state.getBlockType().getId().toLowerCase().contains("stair")) {
-                this.computeSpreadBlockLight(x, y, z - 1, currentLight, queue, visited);
+                task.spread(x, y, z - 1, currentLight);
                 break north;
             }
             Direction otherDir = getStairDir(state);
@@ -505,9 +587,9 @@ private void computeStair(int x,
                     }
                     break;
             }
-            this.computeSpreadBlockLight(x, y, z - 1, currentLight, queue, visited);
+            task.spread(x, y, z - 1, currentLight);
         }
-        computeUpDown(x, y, z, currentLight, queue, visited, top);
+        computeUpDown(x, y, z, currentLight, task, top);
 
     }
 
@@ -515,93 +597,91 @@ private void computeSlab(int x,
                              int y,
                              int z,
                              int currentLight,
-                             Queue<MutableBlockVector3> queue,
-                             Map<MutableBlockVector3, Object> visited,
+                             BlockLightTask task,
                              boolean top) {
         {
             // Block East
-            BlockState state = this.queue.getBlock(x + 1, y, z);
+            BlockState state = task.getBlock(x + 1, y, z);
             if (checkStairEast(state) && isStairOrTrueTop(state, top) && isSlabOrTrueValue(state, top ? "top" : "bottom")) {
-                this.computeSpreadBlockLight(x + 1, y, z, currentLight, queue, visited);
+                task.spread(x + 1, y, z, currentLight);
             }
         }
         {
             // Block West
-            BlockState state = this.queue.getBlock(x - 1, y, z);
+            BlockState state = task.getBlock(x - 1, y, z);
             if (checkStairWest(state) && isStairOrTrueTop(state, top) && isSlabOrTrueValue(state, top ? "top" : "bottom")) {
-                this.computeSpreadBlockLight(x - 1, y, z, currentLight, queue, visited);
+                task.spread(x - 1, y, z, currentLight);
             }
         }
         {
             // Block South
-            BlockState state = this.queue.getBlock(x, y, z + 1);
+            BlockState state = task.getBlock(x, y, z + 1);
             if (checkStairSouth(state) && isStairOrTrueTop(state, top) && isSlabOrTrueValue(state, top ? "top" : "bottom")) {
-                this.computeSpreadBlockLight(x, y, z + 1, currentLight, queue, visited);
+                task.spread(x, y, z + 1, currentLight);
             }
         }
         {
             // Block North
-            BlockState state = this.queue.getBlock(x, y, z - 1);
+            BlockState state = task.getBlock(x, y, z - 1);
             if (checkStairNorth(state) && isStairOrTrueTop(state, top) && isSlabOrTrueValue(state, top ? "top" : "bottom")) {
-                this.computeSpreadBlockLight(x, y, z - 1, currentLight, queue, visited);
+                task.spread(x, y, z - 1, currentLight);
             }
         }
-        computeUpDown(x, y, z, currentLight, queue, visited, top);
+        computeUpDown(x, y, z, currentLight, task, top);
     }
 
     private void computeUpDown(int x,
                                int y,
                                int z,
                                int currentLight,
-                               Queue<MutableBlockVector3> queue,
-                               Map<MutableBlockVector3, Object> visited,
+                               BlockLightTask task,
                                boolean top) {
-        BlockState state = this.queue.getBlock(x, y - 1, z);
+        BlockState state = task.getBlock(x, y - 1, z);
         if (y > 0 && top && isSlabOrTrueValue(state, "bottom") && isStairOrTrueTop(state, false)) {
-            this.computeSpreadBlockLight(x, y - 1, z, currentLight, queue, visited);
+            task.spread(x, y - 1, z, currentLight);
         }
-        state = this.queue.getBlock(x, y + 1, z);
+        state = task.getBlock(x, y + 1, z);
         if (y < 255 && !top && isSlabOrTrueValue(state, "top") && isStairOrTrueTop(state, true)) {
-            this.computeSpreadBlockLight(x, y + 1, z, currentLight, queue, visited);
+            task.spread(x, y + 1, z, currentLight);
         }
     }
 
-    private void computeNormal(int x, int y, int z, int currentLight, Queue<MutableBlockVector3> queue, Map<MutableBlockVector3, Object> visited) {
+    private void computeNormal(int x, int y, int z, int currentLight, BlockLightTask task) {
         {
             // Block East
-            BlockState state = this.queue.getBlock(x + 1, y, z);
+            BlockState state = task.getBlock(x + 1, y, z);
             if (checkStairEast(state) && (isSlabOrTrueValue(state, "top") || isSlabOrTrueValue(state, "bottom"))) {
-                this.computeSpreadBlockLight(x + 1, y, z, currentLight, queue, visited);
+                task.spread(x + 1, y, z, currentLight);
             }
         }
         {
             // Block West
-            BlockState state = this.queue.getBlock(x - 1, y, z);
+            BlockState state = task.getBlock(x - 1, y, z);
             if (checkStairWest(state) && (isSlabOrTrueValue(state, "top") || isSlabOrTrueValue(state, "bottom"))) {
-                this.computeSpreadBlockLight(x - 1, y, z, currentLight, queue, visited);
+                task.spread(x - 1, y, z, currentLight);
             }
         }
         {
             // Block South
-            BlockState state = this.queue.getBlock(x, y, z + 1);
+            BlockState state = task.getBlock(x, y, z + 1);
             if (checkStairSouth(state) && (isSlabOrTrueValue(state, "top") || isSlabOrTrueValue(state, "bottom"))) {
-                this.computeSpreadBlockLight(x, y, z + 1, currentLight, queue, visited);
+                task.spread(x, y, z + 1, currentLight);
             }
         }
         {
             // Block North
-            BlockState state = this.queue.getBlock(x, y, z - 1);
+            BlockState state = task.getBlock(x, y, z - 1);
             if (checkStairNorth(state) && (isSlabOrTrueValue(state, "top") || isSlabOrTrueValue(state, "bottom"))) {
-                this.computeSpreadBlockLight(x, y, z - 1, currentLight, queue, visited);
+                task.spread(x, y, z - 1, currentLight);
             }
         }
-        BlockState state = this.queue.getBlock(x, y - 1, z);
+        BlockState state = task.getBlock(x, y - 1, z);
         if (y > 0 && isSlabOrTrueValue(state, "bottom") && isStairOrTrueTop(state, false)) {
-            this.computeSpreadBlockLight(x, y - 1, z, currentLight, queue, visited);
+            task.spread(x, y - 1, z, currentLight);
         }
-        state = this.queue.getBlock(x, y + 1, z);
+        state = task.getBlock(x, y + 1, z);
         if (y < 255 && isSlabOrTrueValue(state, "top") && isStairOrTrueTop(state, false)) {
-            this.computeSpreadBlockLight(x, y + 1, z, currentLight, queue, visited);
+            task.spread(x, y + 1, z, currentLight);
         }
     }
 
@@ -693,60 +773,42 @@ private boolean isSlabOrTrueValue(BlockState state, String value) {
         return !state.getBlockType().getId().contains("slab") || state.getState(slabHalf).equals(value);
     }
 
-    private void computeRemoveBlockLight(int x,
-                                         int y,
-                                         int z,
-                                         int currentLight,
-                                         Queue<Object[]> queue,
-                                         Queue<MutableBlockVector3> spreadQueue,
-                                         Map<MutableBlockVector3, Object> visited,
-                                         Map<MutableBlockVector3, Object> spreadVisited) {
-        ChunkHolder<?> iChunk = (ChunkHolder<?>) this.queue.getOrCreateChunk(x >> 4, z >> 4);
-        if (!iChunk.isInit()) {
-            iChunk.init(this.queue, x >> 4, z >> 4);
+    private void computeRemoveBlockLight(int x, int y, int z, int currentLight, BlockLightTask task) {
+        ChunkHolder<?> iChunk = task.getChunk(x >> 4, z >> 4);
+        if (iChunk == null) {
+            return;
         }
         int current = iChunk.getEmmittedLight(x & 15, y, z & 15);
         if (current != 0 && current < currentLight) {
-            iChunk.setBlockLight(x, y, z, 0);
+            iChunk.setBlockLight(x & 15, y, z & 15, 0);
             if (current > 1) {
-                if (!visited.containsKey(mutableBlockPos)) {
-                    MutableBlockVector3 index = new MutableBlockVector3(x, y, z);
-                    visited.put(index, present);
-                    queue.add(new Object[] {index, current});
+                if (task.removalVisited.add(x, y, z)) {
+                    task.removalQueue.enqueue(MathMan.tripleWorldCoord(x, y, z));
+                    task.removalLevels.enqueue(current);
                 }
             }
         } else if (current >= currentLight) {
-            mutableBlockPos.setComponents(x, y, z);
-            if (!spreadVisited.containsKey(mutableBlockPos)) {
-                MutableBlockVector3 index = new MutableBlockVector3(x, y, z);
-                spreadVisited.put(index, present);
-                spreadQueue.add(index);
+            if (task.visited.add(x, y, z)) {
+                task.spreadQueue.enqueue(MathMan.tripleWorldCoord(x, y, z));
             }
         }
     }
 
-    private void computeSpreadBlockLight(int x,
-                                         int y,
-                                         int z,
-                                         int currentLight,
-                                         Queue<MutableBlockVector3> queue,
-                                         Map<MutableBlockVector3, Object> visited) {
-        BlockMaterial material = this.queue.getBlock(x, y, z).getMaterial();
+    private void computeSpreadBlockLight(int x, int y, int z, int currentLight, BlockLightTask task) {
+        ChunkHolder<?> iChunk = task.getChunk(x >> 4, z >> 4);
+        if (iChunk == null) {
+            return;
+        }
+        BlockMaterial material = iChunk.getBlock(x & 15, y, z & 15).getMaterial();
         boolean solidNeedsLight = (!material.isSolid() || !material.isFullCube()) && material.getLightOpacity() > 0 && material.getLightValue() == 0;
         currentLight = !solidNeedsLight ? currentLight - Math.max(1, material.getLightOpacity()) : currentLight - 1;
         if (currentLight > 0) {
-            ChunkHolder<?> iChunk = (ChunkHolder<?>) this.queue.getOrCreateChunk(x >> 4, z >> 4);
-            if (!iChunk.isInit()) {
-                iChunk.init(this.queue, x >> 4, z >> 4);
-            }
             int current = iChunk.getEmmittedLight(x & 15, y, z & 15);
             if (currentLight > current) {
                 iChunk.setBlockLight(x & 15, y, z & 15, currentLight);
-                mutableBlockPos.setComponents(x, y, z);
-                if (!visited.containsKey(mutableBlockPos)) {
-                    visited.put(new MutableBlockVector3(x, y, z), present);
+                if (task.visited.add(x, y, z)) {
                     if (currentLight > 1) {
-                        queue.add(new MutableBlockVector3(x, y, z));
+                        task.spreadQueue.enqueue(MathMan.tripleWorldCoord(x, y, z));
                     }
                 }
             }
@@ -762,13 +824,11 @@ public void fixLightingSafe(boolean sky) {
                 fixSkyLighting();
             } else {
                 synchronized (this) {
-                    Map<Long, RelightSkyEntry> map = getSkyMap();
-                    Iterator<Map.Entry<Long, RelightSkyEntry>> iter = map.entrySet().iterator();
-                    while (iter.hasNext()) {
-                        Map.Entry<Long, RelightSkyEntry> entry = iter.next();
-                        chunksToSend.put(entry.getKey(), entry.getValue().bitmask);
-                        iter.remove();
+                    Long2ObjectOpenHashMap<RelightSkyEntry> map = getSkyMap();
+                    for (Long2ObjectMap.Entry<RelightSkyEntry> entry : map.long2ObjectEntrySet()) {
+                        chunksToSend.put(entry.getLongKey(), entry.getValue().bitmask);
                     }
+                    map.clear();
                 }
             }
             fixBlockLighting();
@@ -778,26 +838,31 @@ public void fixLightingSafe(boolean sky) {
     }
 
     public void fixBlockLighting() {
+        long start = System.nanoTime();
+        Long2ObjectOpenHashMap<long[][]> updates;
         synchronized (lightQueue) {
-            while (!lightLock.compareAndSet(false, true))
-                ;
-            try {
-                updateBlockLight(this.lightQueue);
-            } finally {
-                lightLock.set(false);
+            if (lightQueue.isEmpty()) {
+                return;
             }
+            updates = new Long2ObjectOpenHashMap<>(lightQueue);
+            lightQueue.clear();
         }
+        updateBlockLight(updates);
+        addTime(Phase.BLOCK, start);
     }
 
     public synchronized void sendChunks() {
-        Iterator<Map.Entry<Long, Integer>> iter = chunksToSend.entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry<Long, Integer> entry = iter.next();
-            long pair = entry.getKey();
-            int bitMask = entry.getValue();
+        long start = System.nanoTime();
+        for (Long2IntMap.Entry entry : chunksToSend.long2IntEntrySet()) {
+            long pair = entry.getLongKey();
+            int bitMask = entry.getIntValue();
             int x = MathMan.unpairIntX(pair);
             int z = MathMan.unpairIntY(pair);
-            ChunkHolder<?> chunk = (ChunkHolder<?>) queue.getOrCreateChunk(x, z);
+            IQueueChunk queueChunk = queue.getOrCreateChunk(x, z);
+            if (!(queueChunk instanceof ChunkHolder)) {
+                continue;
+            }
+            ChunkHolder<?> chunk = (ChunkHolder<?>) queueChunk;
             chunk.setBitMask(bitMask);
             if (calculateHeightMaps && heightMaps != null) {
                 Map<HeightMapType, int[]> heightMapList = heightMaps.get(pair);
@@ -807,8 +872,8 @@ public synchronized void sendChunks() {
                     }
                 }
             }
-            iter.remove();
         }
+        chunksToSend.clear();
         if (Settings.IMP.LIGHTING.ASYNC) {
             queue.flush();
         } else {
@@ -818,32 +883,62 @@ public synchronized void sendChunks() {
                 }
             });
         }
+        addTime(Phase.SEND, start);
+        if (Settings.IMP.LIGHTING.DEBUG_TIMINGS) {
+            Fawe.debugPlain("Relight " + this);
+        }
     }
 
-    public synchronized void fixSkyLighting() {
-        // Order chunks
-        Map<Long, RelightSkyEntry> map = getSkyMap();
-        ArrayList<RelightSkyEntry> chunksList = new ArrayList<>(map.size());
-        Iterator<Map.Entry<Long, RelightSkyEntry>> iter = map.entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry<Long, RelightSkyEntry> entry = iter.next();
-            chunksToSend.put(entry.getKey(), entry.getValue().bitmask);
-            chunksList.add(entry.getValue());
-            iter.remove();
-        }
-        Collections.sort(chunksList);
-        int size = chunksList.size();
-        if (size > DISPATCH_SIZE) {
-            int amount = (size + DISPATCH_SIZE - 1) / DISPATCH_SIZE;
-            for (int i = 0; i < amount; i++) {
-                int start = i * DISPATCH_SIZE;
-                int end = Math.min(size, start + DISPATCH_SIZE);
-                List<RelightSkyEntry> sub = chunksList.subList(start, end);
-                fixSkyLighting(sub);
+    public void fixSkyLighting() {
+        long start = System.nanoTime();
+        Long2ObjectOpenHashMap<SkyTask> tasks = new Long2ObjectOpenHashMap<>();
+        Long2ObjectOpenHashMap<RelightSkyEntry> entries;
+        synchronized (this) {
+            Long2ObjectOpenHashMap<RelightSkyEntry> map = getSkyMap();
+            if (map.isEmpty()) {
+                return;
             }
-        } else {
-            fixSkyLighting(chunksList);
+            entries = new Long2ObjectOpenHashMap<>(map);
+            // Light is only removed from chunks surrounded by other relit chunks
+            LongOpenHashSet present = removeFirst ? new LongOpenHashSet(map.keySet()) : null;
+            for (Long2ObjectMap.Entry<RelightSkyEntry> entry : map.long2ObjectEntrySet()) {
+                long pair = entry.getLongKey();
+                RelightSkyEntry chunk = entry.getValue();
+                chunksToSend.put(pair, chunksToSend.get(pair) | chunk.bitmask);
+                if (present != null) {
+                    int x = chunk.x;
+                    int z = chunk.z;
+                    chunk.remove = present.contains(MathMan.pairInt(x + 1, z)) && present.contains(MathMan.pairInt(x - 1, z))
+                        && present.contains(MathMan.pairInt(x, z + 1)) && present.contains(MathMan.pairInt(x, z - 1));
+                }
+                if (calculateHeightMaps) {
+                    Map<HeightMapType, int[]> heightMapList = this.heightMaps.get(pair);
+                    if (heightMapList == null) {
+                        heightMapList = new HashMap<>();
+                        this.heightMaps.put(pair, heightMapList);
+                    }
+                    heightMapList.putIfAbsent(HeightMapType.WORLD_SURFACE, new int[256]);
+                    heightMapList.putIfAbsent(HeightMapType.OCEAN_FLOOR, new int[256]);
+                    heightMapList.putIfAbsent(HeightMapType.MOTION_BLOCKING, new int[256]);
+                    heightMapList.putIfAbsent(HeightMapType.MOTION_BLOCKING_NO_LEAVES, new int[256]);
+                }
+                long tile = MathMan.pairInt(chunk.x >> TILE_BITS, chunk.z >> TILE_BITS);
+                SkyTask task = tasks.get(tile);
+                if (task == null) {
+                    task = new SkyTask(chunk.x >> TILE_BITS, chunk.z >> TILE_BITS, entries);
+                    tasks.put(tile, task);
+                }
+            }
+            map.clear();
         }
+        runTiles(tasks.values());
+        long removed = 0;
+        for (SkyTask task : tasks.values()) {
+            addLightUpdates(task.lightUpdates);
+            removed += task.removeNanos;
+        }
+        timings[Phase.REMOVE.ordinal()].add(removed);
+        addTime(Phase.SKY, start);
     }
 
     public void fill(byte[] mask, int chunkX, int y, int chunkZ, byte reason) {
@@ -869,64 +964,69 @@ public void fill(byte[] mask, int chunkX, int y, int chunkZ, byte reason) {
         }
     }
 
-    private void fixSkyLighting(List<RelightSkyEntry> sorted) {
-        RelightSkyEntry[] chunks = sorted.toArray(new RelightSkyEntry[sorted.size()]);
-        boolean remove = this.removeFirst;
+    private void fixSkyLighting(SkyTask task) {
+        // The relit chunks bordering the tile are relit as well, without writing to them, so that
+        // light crosses the border of the tile as it would if all chunks were relit at once
+        List<SkyColumn> columns = new ArrayList<>();
         boolean heightMaps = this.calculateHeightMaps;
-        BlockVectorSet chunkSet = null;
-        if (remove || heightMaps) {
-            BlockVectorSet tmpSet = new BlockVectorSet();
-            if (remove) {
-                chunkSet = new BlockVectorSet();
-                for (RelightSkyEntry chunk : chunks) {
-                    tmpSet.add(chunk.x, 0, chunk.z);
+        int top = 0;
+        for (int dx = 0; dx < VIEW_SIZE; dx++) { // Sorted by x, then z
+            for (int dz = 0; dz < VIEW_SIZE; dz++) {
+                int chunkX = task.originX + dx;
+                int chunkZ = task.originZ + dz;
+                RelightSkyEntry chunk = task.entries.get(MathMan.pairInt(chunkX, chunkZ));
+                ChunkHolder<?> iChunk = task.getChunk(chunkX, chunkZ);
+                if (chunk == null || iChunk == null) {
+                    continue;
                 }
-            }
-            for (RelightSkyEntry chunk : chunks) {
-                if (remove) {
-                    int x = chunk.x;
-                    int z = chunk.z;
-                    if (tmpSet.contains(x + 1, 0, z) && tmpSet.contains(x - 1, 0, z) && tmpSet.contains(x, 0, z + 1) && tmpSet
-                        .contains(x, 0, z - 1)) {
-                        chunkSet.add(x, 0, z);
+                int dirty = getDirtySections(chunk.bitmask);
+                if (dirty == 0) {
+                    continue;
+                }
+                SkyColumn column = new SkyColumn(chunk, iChunk, task.owns(chunkX, chunkZ));
+                if (column.owned && chunk.remove) {
+                    long start = System.nanoTime();
+                    for (int sections = dirty; sections != 0; sections &= sections - 1) {
+                        iChunk.removeSectionLighting(Integer.numberOfTrailingZeros(sections), true);
                     }
+                    task.removeNanos += System.nanoTime() - start;
                 }
-                if (heightMaps) {
-                    long pair = MathMan.pairInt(chunk.x, chunk.z);
-                    this.heightMaps.putIfAbsent(pair, new HashMap<>());
-                    Map<HeightMapType, int[]> heightMapList = this.heightMaps.get(pair);
-                    heightMapList.putIfAbsent(HeightMapType.WORLD_SURFACE, new int[256]);
-                    heightMapList.putIfAbsent(HeightMapType.OCEAN_FLOOR, new int[256]);
-                    heightMapList.putIfAbsent(HeightMapType.MOTION_BLOCKING, new int[256]);
-                    heightMapList.putIfAbsent(HeightMapType.MOTION_BLOCKING_NO_LEAVES, new int[256]);
+                int highest = 31 - Integer.numberOfLeadingZeros(dirty);
+                if (heightMaps || (highest << 4) + 15 >= maxY) {
+                    column.top = maxY;
+                } else {
+                    // The sections above are unchanged, so continue from their light
+                    column.top = (highest << 4) + 15;
+                    for (int j = 0; j < 256; j++) {
+                        column.mask[j] = (byte) iChunk.getSkyLight(j & 15, column.top + 1, j >> 4);
+                    }
                 }
+                top = Math.max(top, column.top);
+                task.columns[dz * VIEW_SIZE + dx] = column;
+                columns.add(column);
             }
         }
-        for (int y = 255; y > 0; y--) {
-            for (RelightSkyEntry chunk : chunks) { // Propagate skylight
+        for (int y = top; y > 0; y--) {
+            for (SkyColumn column : columns) { // Propagate skylight
+                if (y > column.top) {
+                    continue;
+                }
                 int layer = y >> 4;
-                byte[] mask = chunk.mask;
-                if ((y & 15) == 15 && chunk.fix[layer] != SkipReason.NONE) {
-                    if ((y & 15) == 0 && layer != 0 && chunk.fix[layer - 1] == SkipReason.NONE) {
-                        fill(mask, chunk.x, y, chunk.z, chunk.fix[layer]);
+                byte[] mask = column.mask;
+                ChunkHolder<?> iChunk = column.chunk;
+                if ((y & 15) == 15 && column.entry.fix[layer] != SkipReason.NONE) {
+                    for (int j = 0; j < 256; j++) {
+                        column.light[j] = (byte) iChunk.getSkyLight(j & 15, y, j >> 4);
                     }
                     continue;
                 }
-                int bx = chunk.x << 4;
-                int bz = chunk.z << 4;
-                ChunkHolder<?> iChunk = (ChunkHolder<?>) queue.getOrCreateChunk(chunk.x, chunk.z);
-                if (!iChunk.isInit()) {
-                    iChunk.init(queue, chunk.x, chunk.z);
-                }
-                chunk.smooth = false;
-
-                if (remove && (y & 15) == 15 && chunkSet.contains(chunk.x, 0, chunk.z)) {
-                    iChunk.removeSectionLighting(y >> 4, true);
-                }
+                int bx = column.entry.x << 4;
+                int bz = column.entry.z << 4;
+                column.smooth = false;
 
                 Map<HeightMapType, int[]> heightMapList = null;
-                if (heightMaps) {
-                    long pair = MathMan.pairInt(chunk.x, chunk.z);
+                if (heightMaps && column.owned) {
+                    long pair = MathMan.pairInt(column.entry.x, column.entry.z);
                     heightMapList = this.heightMaps.get(pair);
                 }
 
@@ -938,11 +1038,11 @@ private void fixSkyLighting(List<RelightSkyEntry> sorted) {
                     BlockMaterial material = state.getMaterial();
                     int opacity = material.getLightOpacity();
                     int brightness = material.getLightValue();
-                    if (brightness > 1) {
-                        addLightUpdate(bx + x, y, bz + z);
+                    if (brightness > 1 && column.owned) {
+                        set(bx + x, y, bz + z, task.lightUpdates);
                     }
 
-                    if (heightMaps) {
+                    if (heightMapList != null) {
                         if (heightMapList.get(HeightMapType.WORLD_SURFACE)[j] == 0 && !material.isAir()) {
                             // MC Requires y+1
                             heightMapList.get(HeightMapType.WORLD_SURFACE)[j] = y + 1;
@@ -962,7 +1062,7 @@ private void fixSkyLighting(List<RelightSkyEntry> sorted) {
                     switch (value) {
                         case 0:
                             if (opacity > 1) {
-                                iChunk.setSkyLight(x, y, z, 0);
+                                column.setSkyLight(x, y, z, 0);
                                 continue;
                             }
                             break;
@@ -983,9 +1083,9 @@ private void fixSkyLighting(List<RelightSkyEntry> sorted) {
                             if (opacity >= value) {
                                 mask[j] = 0;
                                 if (!isStairOrTrueTop(state, true) || !(isSlabOrTrueValue(state, "top") || isSlabOrTrueValue(state, "double"))) {
-                                    iChunk.setSkyLight(x, y, z, value);
+                                    column.setSkyLight(x, y, z, value);
                                 } else {
-                                    iChunk.setSkyLight(x, y, z, 0);
+                                    column.setSkyLight(x, y, z, 0);
                                 }
                                 continue;
                             }
@@ -1001,130 +1101,367 @@ private void fixSkyLighting(List<RelightSkyEntry> sorted) {
                                 mask[j] = value;
                             }
                             if (!isStairOrTrueTop(state, true) || !(isSlabOrTrueValue(state, "top") || isSlabOrTrueValue(state, "double"))) {
-                                iChunk.setSkyLight(x, y, z, value + opacity);
+                                column.setSkyLight(x, y, z, value + opacity);
                             } else {
-                                iChunk.setSkyLight(x, y, z, value);
+                                column.setSkyLight(x, y, z, value);
                             }
                             continue;
                     }
-                    chunk.smooth = true;
-                    iChunk.setSkyLight(x, y, z, value);
+                    column.smooth = true;
+                    column.setSkyLight(x, y, z, value);
                 }
             }
-            for (RelightSkyEntry chunk : chunks) { // Smooth forwards
-                if (chunk.smooth) {
-                    smoothSkyLight(chunk, y, true);
+            for (SkyColumn column : columns) { // Smooth forwards
+                if (column.smooth && y <= column.top) {
+                    smoothSkyLight(task, column, y, true);
                 }
             }
-            for (int i = chunks.length - 1; i >= 0; i--) { // Smooth backwards
-                RelightSkyEntry chunk = chunks[i];
-                if (chunk.smooth) {
-                    smoothSkyLight(chunk, y, false);
+            for (int i = columns.size() - 1; i >= 0; i--) { // Smooth backwards
+                SkyColumn column = columns.get(i);
+                if (column.smooth && y <= column.top) {
+                    smoothSkyLight(task, column, y, false);
                 }
             }
         }
     }
 
-    public void smoothSkyLight(RelightSkyEntry chunk, int y, boolean direction) {
-        byte[] mask = chunk.mask;
-        ChunkHolder<?> iChunk = (ChunkHolder<?>) queue.getOrCreateChunk(chunk.x, chunk.z);
-        ChunkHolder<?> iChunkx;
-        ChunkHolder<?> iChunkz;
-        if (!iChunk.isInit()) {
-            iChunk.init(queue, chunk.x, chunk.z);
-        }
-        if (direction) {
-            iChunkx = (ChunkHolder<?>) queue.getOrCreateChunk(chunk.x - 1, chunk.z);
-            iChunkz = (ChunkHolder<?>) queue.getOrCreateChunk(chunk.x, chunk.z - 1);
-            if (!iChunkx.isInit()) {
-                iChunkx.init(queue, chunk.x - 1, chunk.z);
-            }
-            if (!iChunkz.isInit()) {
-                iChunkz.init(queue, chunk.x, chunk.z - 1);
-            }
-            for (int j = 0; j < 256; j++) {
-                int x = j & 15;
-                int z = j >> 4;
-                if (mask[j] >= 14 || (mask[j] == 0 && iChunk.getOpacity(x, y, z) > 1)) {
-                    continue;
-                }
-                byte value = mask[j];
-                if (x != 0 && z != 0) {
-                    if ((value = (byte) Math.max(iChunk.getSkyLight(x - 1, y, z) - 1, value)) >= 14) {
-                    } else if ((value = (byte) Math.max(iChunk.getSkyLight(x, y, z - 1) - 1, value)) >= 14) {
-                    }
-                    if (value > mask[j]) {
-                        iChunk.setSkyLight(x, y, z, mask[j] = value);
-                    }
-                } else if (x == 0 && z == 0) {
-                    if ((value = (byte) Math.max(iChunkx.getSkyLight(15, y, z) - 1, value)) >= 14) {
-                    } else if ((value = (byte) Math.max(iChunkz.getSkyLight(x, y, 15) - 1, value)) >= 14) {
+    private void smoothSkyLight(SkyTask task, SkyColumn column, int y, boolean direction) {
+        byte[] mask = column.mask;
+        ChunkHolder<?> iChunk = column.chunk;
+        int step = direction ? -1 : 1;
+        for (int i = 0; i < 256; i++) {
+            int j = direction ? i : 255 - i;
+            int x = j & 15;
+            int z = j >> 4;
+            if (mask[j] >= 14 || (mask[j] == 0 && iChunk.getOpacity(x, y, z) > 1)) {
+                continue;
+            }
+            byte value = (byte) Math.max(task.getSkyLight(column, x + step, y, z) - 1, mask[j]);
+            if (value < 14) {
+                value = (byte) Math.max(task.getSkyLight(column, x, y, z + step) - 1, value);
+            }
+            if (value > mask[j]) {
+                column.setSkyLight(x, y, z, mask[j] = value);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NMSRelighter{remove=" + getTime(Phase.REMOVE, TimeUnit.MILLISECONDS) + "ms, sky=" + getTime(Phase.SKY, TimeUnit.MILLISECONDS)
+            + "ms, block=" + getTime(Phase.BLOCK, TimeUnit.MILLISECONDS) + "ms, send=" + getTime(Phase.SEND, TimeUnit.MILLISECONDS) + "ms}";
+    }
+
+    /**
+     * Work on a tile of chunks, which may only access the chunks of the tile and the chunks bordering it
+     */
+    private abstract class TileTask implements Runnable {
+        private final int tileX;
+        private final int tileZ;
+        final int originX;
+        final int originZ;
+        private final ChunkHolder<?>[] view = new ChunkHolder[VIEW_SIZE * VIEW_SIZE];
+
+        TileTask(int tileX, int tileZ) {
+            this.tileX = tileX;
+            this.tileZ = tileZ;
+            this.originX = (tileX << TILE_BITS) - 1;
+            this.originZ = (tileZ << TILE_BITS) - 1;
+        }
+
+        /**
+         * Adjacent tiles are run in different passes
+         */
+        int getPass() {
+            return (tileX & 1) | (tileZ & 1) << 1;
+        }
+
+        boolean owns(int chunkX, int chunkZ) {
+            return chunkX >> TILE_BITS == tileX && chunkZ >> TILE_BITS == tileZ;
+        }
+
+        /**
+         * Get the chunks from the queue, which must be done on the thread using the queue
+         */
+        void prepare() {
+            for (int dz = 0; dz < VIEW_SIZE; dz++) {
+                for (int dx = 0; dx < VIEW_SIZE; dx++) {
+                    int chunkX = originX + dx;
+                    int chunkZ = originZ + dz;
+                    IQueueChunk queueChunk = queue.getOrCreateChunk(chunkX, chunkZ);
+                    if (queueChunk instanceof ChunkHolder) {
+                        ChunkHolder<?> iChunk = (ChunkHolder<?>) queueChunk;
+                        if (!iChunk.isInit()) {
+                            iChunk.init(queue, chunkX, chunkZ);
+                        }
+                        view[dz * VIEW_SIZE + dx] = iChunk;
                     }
-                    if (value > mask[j]) {
-                        iChunk.setSkyLight(x, y, z, mask[j] = value);
+                }
+            }
+        }
+
+        void release() {
+            Arrays.fill(view, null);
+        }
+
+        /**
+         * Get the index of a chunk in the view, or -1 if it is outside of the view
+         */
+        int getIndex(int chunkX, int chunkZ) {
+            int dx = chunkX - originX;
+            int dz = chunkZ - originZ;
+            if (dx < 0 || dz < 0 || dx >= VIEW_SIZE || dz >= VIEW_SIZE) {
+                return -1;
+            }
+            return dz * VIEW_SIZE + dx;
+        }
+
+        @Nullable
+        ChunkHolder<?> getChunk(int chunkX, int chunkZ) {
+            int index = getIndex(chunkX, chunkZ);
+            return index == -1 ? null : view[index];
+        }
+
+        BlockState getBlock(int x, int y, int z) {
+            ChunkHolder<?> iChunk = y < 0 || y > maxY ? null : getChunk(x >> 4, z >> 4);
+            if (iChunk == null) {
+                return BlockTypes.AIR.getDefaultState();
+            }
+            return iChunk.getBlock(x & 15, y, z & 15);
+        }
+    }
+
+    private final class SkyTask extends TileTask {
+        // The chunks relit by all tiles, which are not modified while the tiles run
+        private final Long2ObjectMap<RelightSkyEntry> entries;
+        private final SkyColumn[] columns = new SkyColumn[VIEW_SIZE * VIEW_SIZE];
+        private final Long2ObjectOpenHashMap<long[][]> lightUpdates = new Long2ObjectOpenHashMap<>();
+        private long removeNanos;
+
+        SkyTask(int tileX, int tileZ, Long2ObjectMap<RelightSkyEntry> entries) {
+            super(tileX, tileZ);
+            this.entries = entries;
+        }
+
+        /**
+         * Get the sky light relative to a column, reading the light being calculated for the
+         * relit chunks and no light outside of the view
+         */
+        int getSkyLight(SkyColumn column, int x, int y, int z) {
+            if ((x & ~15) == 0 && (z & ~15) == 0) {
+                return column.light[z << 4 | x];
+            }
+            int chunkX = column.entry.x + (x >> 4);
+            int chunkZ = column.entry.z + (z >> 4);
+            int index = getIndex(chunkX, chunkZ);
+            if (index == -1) {
+                return 0;
+            }
+            SkyColumn other = columns[index];
+            if (other != null && y <= other.top) {
+                return other.light[(z & 15) << 4 | x & 15];
+            }
+            ChunkHolder<?> iChunk = getChunk(chunkX, chunkZ);
+            return iChunk == null ? 0 : iChunk.getSkyLight(x & 15, y, z & 15);
+        }
+
+        @Override
+        public void run() {
+            try {
+                fixSkyLighting(this);
+            } finally {
+                Arrays.fill(columns, null);
+            }
+        }
+    }
+
+    /**
+     * The sky light of a relit chunk being calculated by a tile, which is only written to the chunk
+     * if the tile owns it
+     */
+    private static final class SkyColumn {
+        private final RelightSkyEntry entry;
+        private final ChunkHolder<?> chunk;
+        private final boolean owned;
+        private final byte[] mask;
+        // The light of the layer being relit
+        private final byte[] light = new byte[256];
+        private boolean smooth;
+        // The highest y to relight
+        private int top;
+
+        SkyColumn(RelightSkyEntry entry, ChunkHolder<?> chunk, boolean owned) {
+            this.entry = entry;
+            this.chunk = chunk;
+            this.owned = owned;
+            this.mask = entry.mask.clone();
+        }
+
+        void setSkyLight(int x, int y, int z, int value) {
+            light[z << 4 | x] = (byte) value;
+            if (owned) {
+                chunk.setSkyLight(x, y, z, value);
+            }
+        }
+    }
+
+    private final class BlockLightTask extends TileTask {
+        private final Long2ObjectOpenHashMap<long[][]> seeds = new Long2ObjectOpenHashMap<>();
+        private final LongArrayFIFOQueue removalQueue = new LongArrayFIFOQueue();
+        private final IntArrayFIFOQueue removalLevels = new IntArrayFIFOQueue();
+        private final LongArrayFIFOQueue spreadQueue = new LongArrayFIFOQueue();
+        private final SectionBitSet removalVisited = new SectionBitSet();
+        private final SectionBitSet visited = new SectionBitSet();
+        // Light received from, and handed off to, other tiles
+        private final LongArrayList inbox = new LongArrayList();
+        private final IntArrayList inboxLevels = new IntArrayList();
+        private final LongArrayList outbox = new LongArrayList();
+        private final IntArrayList outboxLevels = new IntArrayList();
+        private boolean removing;
+
+        BlockLightTask(int tileX, int tileZ) {
+            super(tileX, tileZ);
+        }
+
+        boolean hasWork() {
+            if (!inbox.isEmpty()) {
+                return true;
+            }
+            return removing ? !seeds.isEmpty() || !removalQueue.isEmpty() : !spreadQueue.isEmpty();
+        }
+
+        void remove(int x, int y, int z, int currentLight) {
+            if (owns(x >> 4, z >> 4)) {
+                computeRemoveBlockLight(x, y, z, currentLight, this);
+            } else {
+                outbox.add(MathMan.tripleWorldCoord(x, y, z));
+                outboxLevels.add(currentLight);
+            }
+        }
+
+        void spread(int x, int y, int z, int currentLight) {
+            if (owns(x >> 4, z >> 4)) {
+                computeSpreadBlockLight(x, y, z, currentLight, this);
+            } else {
+                outbox.add(MathMan.tripleWorldCoord(x, y, z));
+                outboxLevels.add(currentLight);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (removing) {
+                updateSeeds();
+                for (int i = 0; i < inbox.size(); i++) {
+                    long node = inbox.getLong(i);
+                    computeRemoveBlockLight((int) MathMan.untripleWorldCoordX(node), (int) MathMan.untripleWorldCoordY(node),
+                        (int) MathMan.untripleWorldCoordZ(node), inboxLevels.getInt(i), this);
+                }
+                inbox.clear();
+                inboxLevels.clear();
+                while (!removalQueue.isEmpty()) {
+                    long node = removalQueue.dequeueLong();
+                    int lightLevel = removalLevels.dequeueInt();
+                    int x = (int) MathMan.untripleWorldCoordX(node);
+                    int y = (int) MathMan.untripleWorldCoordY(node);
+                    int z = (int) MathMan.untripleWorldCoordZ(node);
+                    remove(x - 1, y, z, lightLevel);
+                    remove(x + 1, y, z, lightLevel);
+                    if (y > 0) {
+                        remove(x, y - 1, z, lightLevel);
                     }
-                } else if (x == 0) {
-                    if ((value = (byte) Math.max(iChunkx.getSkyLight(15, y, z) - 1, value)) >= 14) {
-                    } else if ((value = (byte) Math.max(iChunk.getSkyLight(x, y, z - 1) - 1, value)) >= 14) {
+                    if (y < 255) {
+                        remove(x, y + 1, z, lightLevel);
                     }
-                    if (value > mask[j]) {
-                        iChunk.setSkyLight(x, y, z, mask[j] = value);
+                    remove(x, y, z - 1, lightLevel);
+                    remove(x, y, z + 1, lightLevel);
+                }
+            } else {
+                for (int i = 0; i < inbox.size(); i++) {
+                    long node = inbox.getLong(i);
+                    computeSpreadBlockLight((int) MathMan.untripleWorldCoordX(node), (int) MathMan.untripleWorldCoordY(node),
+                        (int) MathMan.untripleWorldCoordZ(node), inboxLevels.getInt(i), this);
+                }
+                inbox.clear();
+                inboxLevels.clear();
+                while (!spreadQueue.isEmpty()) {
+                    long node = spreadQueue.dequeueLong();
+                    int x = (int) MathMan.untripleWorldCoordX(node);
+                    int y = (int) MathMan.untripleWorldCoordY(node);
+                    int z = (int) MathMan.untripleWorldCoordZ(node);
+                    ChunkHolder<?> iChunk = getChunk(x >> 4, z >> 4);
+                    if (iChunk == null) {
+                        continue;
                     }
-                } else {
-                    if ((value = (byte) Math.max(iChunk.getSkyLight(x - 1, y, z) - 1, value)) >= 14) {
-                    } else if ((value = (byte) Math.max(iChunkz.getSkyLight(x, y, 15) - 1, value)) >= 14) {
+                    int lightLevel = iChunk.getEmmittedLight(x & 15, y, z & 15);
+                    if (lightLevel <= 1) {
+                        continue;
                     }
-                    if (value > mask[j]) {
-                        iChunk.setSkyLight(x, y, z, mask[j] = value);
+                    BlockState state = iChunk.getBlock(x & 15, y, z & 15);
+                    String id = state.getBlockType().getId().toLowerCase();
+                    if (id.contains("slab")) {
+                        boolean top = state.getState(slabHalf).equalsIgnoreCase("top");
+                        computeSlab(x, y, z, lightLevel, this, top);
+                    } else if (id.contains("stair")) {
+                        boolean top = state.getState(stairHalf).equalsIgnoreCase("top");
+                        Direction direction = getStairDir(state);
+                        String shape = getStairShape(state);
+                        computeStair(x, y, z, lightLevel, this, top, direction, shape);
+                    } else {
+                        computeNormal(x, y, z, lightLevel, this);
                     }
                 }
             }
-        } else {
-            iChunkx = (ChunkHolder<?>) queue.getOrCreateChunk(chunk.x + 1, chunk.z);
-            iChunkz = (ChunkHolder<?>) queue.getOrCreateChunk(chunk.x, chunk.z + 1);
-            if (!iChunkx.isInit()) {
-                iChunkx.init(queue, chunk.x - 1, chunk.z);
-            }
-            if (!iChunkz.isInit()) {
-                iChunkz.init(queue, chunk.x, chunk.z - 1);
-            }
-            for (int j = 255; j >= 0; j--) {
-                int x = j & 15;
-                int z = j >> 4;
-                if (mask[j] >= 14 || (mask[j] == 0 && iChunk.getOpacity(x, y, z) > 1)) {
+        }
+
+        /**
+         * Update the block light at the queued positions, and queue the changes to be removed or spread
+         */
+        private void updateSeeds() {
+            for (Long2ObjectMap.Entry<long[][]> entry : seeds.long2ObjectEntrySet()) {
+                long index = entry.getLongKey();
+                int chunkX = MathMan.unpairIntX(index);
+                int chunkZ = MathMan.unpairIntY(index);
+                ChunkHolder<?> iChunk = getChunk(chunkX, chunkZ);
+                if (iChunk == null) {
                     continue;
                 }
-                byte value = mask[j];
-                if (x != 15 && z != 15) {
-                    if ((value = (byte) Math.max(iChunk.getSkyLight(x + 1, y, z) - 1, value)) >= 14) {
-                    } else if ((value = (byte) Math.max(iChunk.getSkyLight(x, y, z + 1) - 1, value)) >= 14) {
-                    }
-                    if (value > mask[j]) {
-                        iChunk.setSkyLight(x, y, z, mask[j] = value);
-                    }
-                } else if (x == 15 && z == 15) {
-                    if ((value = (byte) Math.max(iChunkx.getSkyLight(0, y, z) - 1, value)) >= 14) {
-                    } else if ((value = (byte) Math.max(iChunkz.getSkyLight(x, y, 0) - 1, value)) >= 14) {
-                    }
-                    if (value > mask[j]) {
-                        iChunk.setSkyLight(x, y, z, mask[j] = value);
-                    }
-                } else if (x == 15) {
-                    if ((value = (byte) Math.max(iChunkx.getSkyLight(0, y, z) - 1, value)) >= 14) {
-                    } else if ((value = (byte) Math.max(iChunk.getSkyLight(x, y, z + 1) - 1, value)) >= 14) {
-                    }
-                    if (value > mask[j]) {
-                        iChunk.setSkyLight(x, y, z, mask[j] = value);
-                    }
-                } else {
-                    if ((value = (byte) Math.max(iChunk.getSkyLight(x + 1, y, z) - 1, value)) >= 14) {
-                    } else if ((value = (byte) Math.max(iChunkz.getSkyLight(x, y, 0) - 1, value)) >= 14) {
+                int bx = chunkX << 4;
+                int bz = chunkZ << 4;
+                long[][] sections = entry.getValue();
+                for (int layer = 0; layer < sections.length; layer++) {
+                    long[] bits = sections[layer];
+                    if (bits == null) {
+                        continue;
                     }
-                    if (value > mask[j]) {
-                        iChunk.setSkyLight(x, y, z, mask[j] = value);
+                    for (int i = 0; i < bits.length; i++) {
+                        long word = bits[i];
+                        while (word != 0) {
+                            int pos = i << 6 | Long.numberOfTrailingZeros(word);
+                            word &= word - 1;
+                            int lx = pos & 15;
+                            int lz = (pos >> 4) & 15;
+                            int y = layer << 4 | pos >> 8;
+                            int oldLevel = iChunk.getEmmittedLight(lx, y, lz);
+                            int newLevel = iChunk.getBrightness(lx, y, lz);
+                            if (oldLevel != newLevel) {
+                                iChunk.setBlockLight(lx, y, lz, newLevel);
+                                int x = bx + lx;
+                                int z = bz + lz;
+                                if (newLevel < oldLevel) {
+                                    removalVisited.add(x, y, z);
+                                    removalQueue.enqueue(MathMan.tripleWorldCoord(x, y, z));
+                                    removalLevels.enqueue(oldLevel);
+                                } else {
+                                    visited.add(x, y, z);
+                                    spreadQueue.enqueue(MathMan.tripleWorldCoord(x, y, z));
+                                }
+                            }
+                        }
                     }
                 }
             }
+            seeds.clear();
         }
     }
 
@@ -1134,7 +1471,8 @@ private class RelightSkyEntry implements Comparable<RelightSkyEntry> {
         public final byte[] mask;
         public final byte[] fix;
         public int bitmask;
-        public boolean smooth;
+        // Whether the existing light is removed first
+        public boolean remove;
 
         public RelightSkyEntry(int x, int z, byte[] fix, int bitmask, boolean heightmaps) {
             this.x = x;
@@ -1,5 +1,7 @@
 package com.boydti.fawe.beta.implementation.lighting;
 
+import com.boydti.fawe.beta.IChunkSet;
+
 public interface Relighter {
 
     /**
@@ -13,6 +15,27 @@ public interface Relighter {
      */
     boolean addChunk(int cx, int cz, byte[] skipReason, int bitmask);
 
+    /**
+     * Add a chunk to be relit, only relighting the sections which have been edited
+     *
+     * @param cx chunk x
+     * @param cz chunk z
+     * @param set the changes to the chunk
+     * @return Was the chunk added, false if no blocks were changed
+     */
+    default boolean addChunk(int cx, int cz, IChunkSet set) {
+        int bitmask = 0;
+        for (int layer = 0; layer < 16; layer++) {
+            if (set.hasSection(layer)) {
+                bitmask |= 1 << layer;
+            }
+        }
+        if (bitmask == 0) {
+            return false;
+        }
+        return addChunk(cx, cz, null, bitmask);
+    }
+
     /**
      * Add a block to be relit
      *
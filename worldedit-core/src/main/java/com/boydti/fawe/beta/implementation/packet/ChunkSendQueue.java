@@ -0,0 +1,301 @@
+package com.boydti.fawe.beta.implementation.packet;
+
+import com.boydti.fawe.beta.IBlocks;
+import com.boydti.fawe.beta.IChunkSet;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.util.MathMan;
+import com.boydti.fawe.util.TaskManager;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.entity.Player;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockTypesCache;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Sends fake chunks to players.
+ * <p>
+ * Chunks sent again within {@code chunk-sending.coalesce-ticks} are merged and sent once. Chunks
+ * are only sent to players within view distance, and chunks with few changed blocks are sent as
+ * block changes. Otherwise a single {@link ChunkPacket} is shared by all players, so the sections
+ * are only serialized once.
+ */
+public class ChunkSendQueue {
+    private final World world;
+    private final Long2ObjectLinkedOpenHashMap<PendingChunk> pending = new Long2ObjectLinkedOpenHashMap<>();
+    private boolean scheduled;
+
+    public ChunkSendQueue(World world) {
+        this.world = world;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Send a chunk, once the current window has passed
+     *
+     * @param chunkX  the chunk x
+     * @param chunkZ  the chunk z
+     * @param blocks  the blocks to send, only read during this call
+     * @param changes the changed blocks, or null if unknown
+     * @param full    if all sections (and biomes) are replaced
+     * @param players the players to send to, or null for every player
+     */
+    public void add(int chunkX, int chunkZ, IBlocks blocks, @Nullable IChunkSet changes, boolean full, Supplier<Collection<Player>> players) {
+        PendingChunk chunk = new PendingChunk(chunkX, chunkZ, full, players);
+        int maxChanges = Settings.IMP.CHUNK_SENDING.MAX_BLOCK_CHANGES;
+        if (changes != null && !full && maxChanges > 0) {
+            // Before copying the blocks, as combined blocks fill the changed sections
+            chunk.addChanges(changes, blocks.getBitMask(), maxChanges);
+        } else {
+            chunk.changes = null;
+        }
+        chunk.copy(blocks);
+
+        int window = Settings.IMP.CHUNK_SENDING.COALESCE_TICKS;
+        if (window <= 0) {
+            send(chunk, players.get());
+            return;
+        }
+        long pair = MathMan.pairInt(chunkX, chunkZ);
+        synchronized (this) {
+            PendingChunk existing = pending.get(pair);
+            if (existing != null) {
+                existing.merge(chunk, maxChanges);
+            } else {
+                pending.put(pair, chunk);
+            }
+            if (!scheduled) {
+                scheduled = true;
+                TaskManager.IMP.laterAsync(this::flush, window);
+            }
+        }
+    }
+
+    /**
+     * Discard a chunk waiting to be sent, e.g. before the real chunk is sent
+     */
+    public synchronized void remove(int chunkX, int chunkZ) {
+        pending.remove(MathMan.pairInt(chunkX, chunkZ));
+    }
+
+    /**
+     * Send all the waiting chunks now
+     */
+    public void flush() {
+        List<PendingChunk> chunks;
+        synchronized (this) {
+            scheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            chunks = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        Map<Supplier<Collection<Player>>, Collection<Player>> players = new IdentityHashMap<>();
+        for (PendingChunk chunk : chunks) {
+            send(chunk, players.computeIfAbsent(chunk.players, Supplier::get));
+        }
+    }
+
+    private void send(PendingChunk chunk, @Nullable Collection<Player> players) {
+        int distance = Settings.IMP.CHUNK_SENDING.VIEW_DISTANCE;
+        if (players == null) {
+            // Any player, which the platform filters
+            world.sendFakeChunk(null, new ChunkPacket(chunk.chunkX, chunk.chunkZ, () -> chunk, chunk.full));
+            return;
+        }
+        ChunkPacket packet = null;
+        for (Player player : players) {
+            if (!player.getWorld().equals(world) || !isInView(player, chunk.chunkX, chunk.chunkZ, distance)) {
+                continue;
+            }
+            if (chunk.changes != null) {
+                chunk.sendChanges(player);
+                continue;
+            }
+            if (packet == null) {
+                packet = new ChunkPacket(chunk.chunkX, chunk.chunkZ, () -> chunk, chunk.full);
+            }
+            world.sendFakeChunk(player, packet);
+        }
+    }
+
+    private static boolean isInView(Player player, int chunkX, int chunkZ, int distance) {
+        if (distance < 0) {
+            return true;
+        }
+        Location location = player.getLocation();
+        return Math.abs((location.getBlockX() >> 4) - chunkX) <= distance
+            && Math.abs((location.getBlockZ() >> 4) - chunkZ) <= distance;
+    }
+
+    /**
+     * A copy of the sections of a chunk to send
+     */
+    private static final class PendingChunk implements IBlocks {
+        private final int chunkX;
+        private final int chunkZ;
+        private final char[][] sections = new char[16][];
+        private final Supplier<Collection<Player>> players;
+        private BiomeType[] biomes;
+        private boolean full;
+        // layer << 12 | index of each changed block, or null if there are too many to send individually
+        @Nullable
+        private IntArrayList changes = new IntArrayList();
+
+        private PendingChunk(int chunkX, int chunkZ, boolean full, Supplier<Collection<Player>> players) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.full = full;
+            this.players = players;
+        }
+
+        private void addChanges(IChunkSet set, int bitMask, int maxChanges) {
+            if (set.hasBiomes()) {
+                changes = null;
+                return;
+            }
+            for (int layer = 0; layer < 16; layer++) {
+                if (!set.hasSection(layer)) {
+                    if ((bitMask & (1 << layer)) != 0) {
+                        // A section is resent without changes, e.g. to restore a previous visualization
+                        changes = null;
+                        return;
+                    }
+                    continue;
+                }
+                char[] blocks = set.load(layer);
+                for (int i = 0; i < 4096; i++) {
+                    if (blocks[i] != 0) {
+                        if (changes.size() >= maxChanges) {
+                            changes = null;
+                            return;
+                        }
+                        changes.add(layer << 12 | i);
+                    }
+                }
+            }
+        }
+
+        private void copy(IBlocks blocks) {
+            int bitMask = blocks.getBitMask();
+            for (int layer = 0; layer < 16; layer++) {
+                if ((bitMask & (1 << layer)) != 0 && blocks.hasSection(layer)) {
+                    sections[layer] = blocks.load(layer).clone();
+                }
+            }
+            if (full) {
+                biomes = new BiomeType[256];
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        biomes[z << 4 | x] = blocks.getBiomeType(x, 0, z);
+                    }
+                }
+            }
+        }
+
+        private void merge(PendingChunk other, int maxChanges) {
+            for (int layer = 0; layer < 16; layer++) {
+                if (other.sections[layer] != null) {
+                    sections[layer] = other.sections[layer];
+                }
+            }
+            if (other.full) {
+                full = true;
+                biomes = other.biomes;
+            }
+            if (changes != null) {
+                if (other.changes == null || full || changes.size() + other.changes.size() > maxChanges) {
+                    changes = null;
+                } else {
+                    changes.addAll(other.changes);
+                }
+            }
+        }
+
+        private void sendChanges(Player player) {
+            int bx = chunkX << 4;
+            int bz = chunkZ << 4;
+            for (int i = 0; i < changes.size(); i++) {
+                int change = changes.getInt(i);
+                int layer = change >> 12;
+                int index = change & 4095;
+                char ordinal = sections[layer] == null ? 0 : sections[layer][index];
+                if (ordinal == 0) {
+                    continue;
+                }
+                BlockState state = BlockTypesCache.states[ordinal];
+                player.sendFakeBlock(BlockVector3.at(bx + (index & 15), layer << 4 | index >> 8, bz + (index >> 4 & 15)), state);
+            }
+        }
+
+        @Override
+        public boolean hasSection(int layer) {
+            return sections[layer] != null;
+        }
+
+        @Override
+        public char[] load(int layer) {
+            char[] blocks = sections[layer];
+            return blocks != null ? blocks : new char[4096];
+        }
+
+        @Override
+        public BlockState getBlock(int x, int y, int z) {
+            char[] blocks = sections[y >> 4];
+            return BlockTypesCache.states[blocks == null ? 0 : blocks[(y & 15) << 8 | z << 4 | x]];
+        }
+
+        @Override
+        public Map<BlockVector3, CompoundTag> getTiles() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public CompoundTag getTile(int x, int y, int z) {
+            return null;
+        }
+
+        @Override
+        public Set<CompoundTag> getEntities() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public BiomeType getBiomeType(int x, int y, int z) {
+            return biomes == null ? null : biomes[z << 4 | x];
+        }
+
+        @Override
+        public boolean trim(boolean aggressive) {
+            return false;
+        }
+
+        @Override
+        public boolean trim(boolean aggressive, int layer) {
+            return false;
+        }
+
+        @Override
+        public IBlocks reset() {
+            return null;
+        }
+    }
+}
@@ -6,7 +6,7 @@
 import com.boydti.fawe.beta.IChunk;
 import com.boydti.fawe.beta.IChunkGet;
 import com.boydti.fawe.beta.IChunkSet;
-import com.boydti.fawe.beta.implementation.packet.ChunkPacket;
+import com.boydti.fawe.beta.implementation.packet.ChunkSendQueue;
 import com.sk89q.worldedit.entity.Player;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.world.World;
@@ -18,15 +18,21 @@ public class ChunkSendProcessor implements IBatchProcessor {
     private final Supplier<Collection<Player>> players;
     private final World world;
     private final boolean full;
+    private final ChunkSendQueue sendQueue;
 
     public ChunkSendProcessor(World world, Supplier<Collection<Player>> players) {
         this(world, players, false);
     }
 
     public ChunkSendProcessor(World world, Supplier<Collection<Player>> players, boolean full) {
+        this(world, players, full, new ChunkSendQueue(world));
+    }
+
+    protected ChunkSendProcessor(World world, Supplier<Collection<Player>> players, boolean full, ChunkSendQueue sendQueue) {
         this.players = players;
         this.world = world;
         this.full = full;
+        this.sendQueue = sendQueue;
     }
 
     public World getWorld() {
@@ -37,34 +43,39 @@ public Supplier<Collection<Player>> getPlayers() {
         return players;
     }
 
+    public ChunkSendQueue getSendQueue() {
+        return sendQueue;
+    }
+
     @Override
     public IChunkSet processSet(IChunk chunk, IChunkGet get, IChunkSet set) {
         int chunkX = chunk.getX();
         int chunkZ = chunk.getZ();
         IBlocks blocks;
+        IChunkSet changes = null;
         boolean full = this.full;
         if (full) {
             blocks = set;
         } else {
+            if (canSendChanges(chunk)) {
+                changes = set;
+            }
             blocks = combine(chunk, get, set);
             if (set.hasBiomes()) {
                 full = true;
             }
         }
-        ChunkPacket packet = new ChunkPacket(chunkX, chunkZ, () -> blocks, full);
-        Collection<Player> stream = this.players.get();
-        if (stream == null) {
-            world.sendFakeChunk(null, packet);
-        } else {
-            for (Player player : stream) {
-                if (player.getWorld().equals(world)) {
-                    world.sendFakeChunk(player, packet);
-                }
-            }
-        }
+        sendQueue.add(chunkX, chunkZ, blocks, changes, full, players);
         return set;
     }
 
+    /**
+     * If the player only needs the blocks of the set, rather than the whole sections
+     */
+    protected boolean canSendChanges(IChunk chunk) {
+        return true;
+    }
+
     public IBlocks combine(IChunk chunk, IChunkGet get, IChunkSet set) {
         return new CombinedBlocks(get, set, 0);
     }
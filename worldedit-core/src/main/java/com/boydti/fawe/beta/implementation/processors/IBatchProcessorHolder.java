@@ -45,4 +45,10 @@ default <T extends IBatchProcessor> IBatchProcessor remove(Class<T> clazz) {
         setProcessor(getProcessor().remove(clazz));
         return this;
     }
+
+    @Override
+    default <T extends IBatchProcessor> boolean contains(Class<T> clazz) {
+        IBatchProcessor processor = getProcessor();
+        return clazz.isInstance(this) || processor != this && processor.contains(clazz);
+    }
 }
@@ -95,6 +95,16 @@ public <T extends IBatchProcessor> IBatchProcessor remove(Class<T> clazz) {
         return of(list.toArray(new IBatchProcessor[0]));
     }
 
+    @Override
+    public <T extends IBatchProcessor> boolean contains(Class<T> clazz) {
+        for (IBatchProcessor processor : this.processors) {
+            if (processor.contains(clazz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public IBatchProcessor join(IBatchProcessor other) {
         if (other instanceof MultiBatchProcessor) {
@@ -7,6 +7,7 @@
 import com.boydti.fawe.beta.IChunkSet;
 import com.boydti.fawe.beta.implementation.IChunkExtent;
 import com.boydti.fawe.beta.implementation.packet.ChunkPacket;
+import com.boydti.fawe.beta.implementation.packet.ChunkSendQueue;
 import com.boydti.fawe.util.MathMan;
 import com.sk89q.worldedit.entity.Player;
 import com.sk89q.worldedit.math.BlockVector2;
@@ -25,7 +26,7 @@ public class PersistentChunkSendProcessor extends ChunkSendProcessor {
     private IChunkExtent queue;
 
     public PersistentChunkSendProcessor(World world, PersistentChunkSendProcessor previous, Supplier<Collection<Player>> players) {
-        super(world, players);
+        super(world, players, false, previous != null ? previous.getSendQueue() : new ChunkSendQueue(world));
         this.current = new Long2ObjectLinkedOpenHashMap<>();
         this.previous = previous != null ? previous.current : null;
     }
@@ -34,6 +35,12 @@ public void init(IChunkExtent queue) {
         this.queue = queue;
     }
 
+    @Override
+    protected synchronized boolean canSendChanges(IChunk chunk) {
+        // Blocks of the previous visualization also need to be restored
+        return previous == null || !previous.containsKey(MathMan.pairInt(chunk.getX(), chunk.getZ()));
+    }
+
     @Override
     public IBlocks combine(IChunk chunk, IChunkGet get, IChunkSet set) {
         int chunkX = chunk.getX();
@@ -69,6 +76,8 @@ public void clear(Long2ObjectLinkedOpenHashMap<Character> current) {
                 long pair = entry.getLongKey();
                 int chunkX = MathMan.unpairIntX(pair);
                 int chunkZ = MathMan.unpairIntY(pair);
+                // The real chunk must not be followed by a fake one still waiting to be sent
+                getSendQueue().remove(chunkX, chunkZ);
                 BlockVector2 pos = BlockVector2.at(chunkX, chunkZ);
                 Supplier<IBlocks> chunk = () -> queue.getOrCreateChunk(pos.getX(), pos.getZ());
                 ChunkPacket packet = new ChunkPacket(pos.getX(), pos.getZ(), chunk, true);
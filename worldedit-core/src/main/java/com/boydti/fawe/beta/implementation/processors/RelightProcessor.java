@@ -0,0 +1,42 @@
+package com.boydti.fawe.beta.implementation.processors;
+
+import com.boydti.fawe.beta.IBatchProcessor;
+import com.boydti.fawe.beta.IChunk;
+import com.boydti.fawe.beta.IChunkGet;
+import com.boydti.fawe.beta.IChunkSet;
+import com.boydti.fawe.beta.implementation.lighting.Relighter;
+import com.boydti.fawe.object.RelightMode;
+import com.sk89q.worldedit.extent.Extent;
+
+/**
+ * Queues the chunks of an edit to be relit once it has been flushed
+ * - Only the sections which were set are relit, unless the mode is {@link RelightMode#ALL}
+ */
+public class RelightProcessor implements IBatchProcessor {
+    private final Relighter relighter;
+    private final RelightMode mode;
+
+    public RelightProcessor(Relighter relighter, RelightMode mode) {
+        this.relighter = relighter;
+        this.mode = mode;
+    }
+
+    public Relighter getRelighter() {
+        return relighter;
+    }
+
+    @Override
+    public IChunkSet processSet(IChunk chunk, IChunkGet get, IChunkSet set) {
+        if (mode == RelightMode.ALL) {
+            relighter.addChunk(chunk.getX(), chunk.getZ(), null, 65535);
+        } else if (mode == RelightMode.OPTIMAL) {
+            relighter.addChunk(chunk.getX(), chunk.getZ(), set);
+        }
+        return set;
+    }
+
+    @Override
+    public Extent construct(Extent child) {
+        throw new UnsupportedOperationException("Processing only");
+    }
+}
@@ -0,0 +1,92 @@
+package com.boydti.fawe.beta.implementation.queue;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.util.FaweTimer;
+import com.boydti.fawe.util.MathMan;
+import com.boydti.fawe.util.MemUtil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Window which is resized from feedback:
+ * <ul>
+ *     <li>Halves when the heap is nearly full</li>
+ *     <li>Shrinks when the main thread is lagging or submissions block the caller (the executor
+ *     is saturated, so queueing more chunks only costs memory)</li>
+ *     <li>Grows while the executor has nothing queued</li>
+ * </ul>
+ * The window is shared by every queue, as heap and executor are shared.
+ */
+public class AdaptiveChunkWindow implements ChunkWindow {
+
+    private static final long UPDATE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long SLOW_SUBMIT = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final double MIN_FREE_HEAP = 0.2;
+    private static final double TARGET_TPS = 18;
+
+    private final QueueHandler handler;
+    private final AtomicLong lastUpdate = new AtomicLong();
+    private final int minSize;
+    private final int maxSize;
+    private volatile int size;
+    private volatile long submitNanos;
+    private volatile boolean heapPressure;
+
+    public AdaptiveChunkWindow(QueueHandler handler) {
+        this.handler = handler;
+        this.minSize = Settings.IMP.QUEUE.PARALLEL_THREADS + 8;
+        this.maxSize = Math.max(minSize, Settings.IMP.QUEUE.MAX_TARGET_SIZE);
+        this.size = MathMan.clamp(Settings.IMP.QUEUE.TARGET_SIZE, minSize, maxSize);
+    }
+
+    @Override
+    public boolean shouldFlush(int queued, boolean lowMemory) {
+        update();
+        return queued > getTargetSize(lowMemory);
+    }
+
+    @Override
+    public int getTargetSize(boolean lowMemory) {
+        return lowMemory ? minSize : size;
+    }
+
+    @Override
+    public boolean shouldBlock(boolean lowMemory) {
+        return lowMemory || heapPressure;
+    }
+
+    @Override
+    public void onSubmit(long nanos) {
+        // Exponential moving average, races only lose a sample
+        submitNanos += (nanos - submitNanos) >> 3;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    private void update() {
+        long now = System.nanoTime();
+        long last = lastUpdate.get();
+        if (now - last < UPDATE_INTERVAL || !lastUpdate.compareAndSet(last, now)) {
+            return;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        heapPressure = MemUtil.isMemoryLimited()
+            || MemUtil.getFreeBytes() < runtime.maxMemory() * MIN_FREE_HEAP;
+        FaweTimer timer = Fawe.get().getTimer();
+        int newSize = size;
+        if (heapPressure) {
+            newSize >>= 1;
+        } else if (timer.getTickMillis() > 100 || timer.getTPS() < TARGET_TPS
+            || submitNanos > SLOW_SUBMIT) {
+            newSize -= newSize >> 2;
+        } else if (handler.getQueueDepth() == 0) {
+            newSize += Settings.IMP.QUEUE.PARALLEL_THREADS;
+        }
+        size = MathMan.clamp(newSize, minSize, maxSize);
+    }
+}
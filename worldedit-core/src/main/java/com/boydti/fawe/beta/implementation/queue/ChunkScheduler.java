@@ -0,0 +1,224 @@
+package com.boydti.fawe.beta.implementation.queue;
+
+import com.sk89q.worldedit.math.BlockVector2;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Distributes the chunks of a region between a fixed number of workers.
+ * <p>
+ * Chunks are sorted along a Morton (Z-order) curve and grouped into aligned square tiles, so a
+ * worker processes spatially close chunks one after another (which keeps the per-queue chunk
+ * pointers and the world chunk cache warm). Each worker owns a deque of tiles and takes from its
+ * head; a worker which runs out of tiles steals from the tail of another worker's deque.
+ */
+public class ChunkScheduler {
+
+    /**
+     * Tiles are (1 << TILE_BITS) chunks wide, i.e. 4x4 chunks
+     */
+    private static final int TILE_BITS = 2;
+    private static final long BIAS = 1L << 31;
+
+    private final ConcurrentLinkedDeque<long[]>[] deques;
+    private final int[] chunkCounts;
+    private final int[] stealCounts;
+    private final int tiles;
+    private final int chunks;
+
+    public ChunkScheduler(Collection<BlockVector2> chunks, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Workers must be positive: " + workers);
+        }
+        long[] codes = new long[chunks.size()];
+        int size = 0;
+        for (BlockVector2 pos : chunks) {
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, Math.max(16, size << 1));
+            }
+            codes[size++] = encode(pos.getX(), pos.getZ());
+        }
+        Arrays.sort(codes, 0, size);
+        this.chunks = size;
+        this.chunkCounts = new int[workers];
+        this.stealCounts = new int[workers];
+        this.deques = new ConcurrentLinkedDeque[workers];
+        for (int i = 0; i < workers; i++) {
+            deques[i] = new ConcurrentLinkedDeque<>();
+        }
+
+        // Split the sorted codes into tiles, and hand out consecutive tiles so each worker
+        // receives roughly the same number of chunks
+        int tileCount = 0;
+        int worker = 0;
+        int start = 0;
+        long perWorker = Math.max(1, (size + workers - 1) / workers);
+        for (int i = 1; i <= size; i++) {
+            if (i == size || (codes[i] >>> (TILE_BITS << 1)) != (codes[start] >>> (TILE_BITS << 1))) {
+                deques[worker].addLast(Arrays.copyOfRange(codes, start, i));
+                tileCount++;
+                if (worker < workers - 1 && i >= perWorker * (worker + 1)) {
+                    worker++;
+                }
+                start = i;
+            }
+        }
+        this.tiles = tileCount;
+    }
+
+    /**
+     * Interleave the bits of both (biased) coordinates
+     */
+    private static long encode(int x, int z) {
+        return spread(x + BIAS) | (spread(z + BIAS) << 1);
+    }
+
+    private static long spread(long value) {
+        value &= 0xFFFFFFFFL;
+        value = (value | (value << 16)) & 0x0000FFFF0000FFFFL;
+        value = (value | (value << 8)) & 0x00FF00FF00FF00FFL;
+        value = (value | (value << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | (value << 2)) & 0x3333333333333333L;
+        value = (value | (value << 1)) & 0x5555555555555555L;
+        return value;
+    }
+
+    private static int compact(long value) {
+        value &= 0x5555555555555555L;
+        value = (value | (value >>> 1)) & 0x3333333333333333L;
+        value = (value | (value >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        value = (value | (value >>> 4)) & 0x00FF00FF00FF00FFL;
+        value = (value | (value >>> 8)) & 0x0000FFFF0000FFFFL;
+        value = (value | (value >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) (value - BIAS);
+    }
+
+    public int getWorkers() {
+        return deques.length;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public int getTiles() {
+        return tiles;
+    }
+
+    /**
+     * Get the worker for an index. A worker must only be used by a single thread.
+     *
+     * @param index the worker index [0, getWorkers())
+     * @return the worker
+     */
+    public Worker getWorker(int index) {
+        return new Worker(index);
+    }
+
+    /**
+     * The distribution of chunks and steals per worker (only meaningful once all workers have
+     * finished).
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(chunks, tiles, chunkCounts.clone(), stealCounts.clone());
+    }
+
+    public final class Worker {
+        private final int index;
+        private long[] tile;
+        private int position;
+        private int chunkX;
+        private int chunkZ;
+
+        private Worker(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Advance to the next chunk, stealing work from other workers once this worker's own
+         * tiles are exhausted.
+         *
+         * @return false if there are no chunks left
+         */
+        public boolean next() {
+            if (tile == null || position >= tile.length) {
+                tile = deques[index].pollFirst();
+                if (tile == null && (tile = steal()) == null) {
+                    return false;
+                }
+                position = 0;
+            }
+            long code = tile[position++];
+            chunkX = compact(code);
+            chunkZ = compact(code >>> 1);
+            chunkCounts[index]++;
+            return true;
+        }
+
+        private long[] steal() {
+            int length = deques.length;
+            for (int i = 1; i < length; i++) {
+                long[] stolen = deques[(index + i) % length].pollLast();
+                if (stolen != null) {
+                    stealCounts[index]++;
+                    return stolen;
+                }
+            }
+            return null;
+        }
+
+        public int getChunkX() {
+            return chunkX;
+        }
+
+        public int getChunkZ() {
+            return chunkZ;
+        }
+    }
+
+    public static final class Statistics {
+        private final int chunks;
+        private final int tiles;
+        private final int[] chunkCounts;
+        private final int[] stealCounts;
+
+        private Statistics(int chunks, int tiles, int[] chunkCounts, int[] stealCounts) {
+            this.chunks = chunks;
+            this.tiles = tiles;
+            this.chunkCounts = chunkCounts;
+            this.stealCounts = stealCounts;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public int getTiles() {
+            return tiles;
+        }
+
+        /**
+         * @return the number of chunks processed by each worker
+         */
+        public int[] getChunkCounts() {
+            return chunkCounts.clone();
+        }
+
+        /**
+         * @return the number of tiles each worker stole from other workers
+         */
+        public int[] getStealCounts() {
+            return stealCounts.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "chunks=" + chunks + ", tiles=" + tiles + ", perThread="
+                + Arrays.toString(chunkCounts) + ", steals=" + Arrays.toString(stealCounts);
+        }
+    }
+}
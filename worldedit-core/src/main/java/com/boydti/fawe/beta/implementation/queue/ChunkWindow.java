@@ -0,0 +1,58 @@
+package com.boydti.fawe.beta.implementation.queue;
+
+import com.boydti.fawe.config.Settings;
+
+/**
+ * Decides how many chunks a queue may hold, and how many submissions may be in flight, before
+ * the queue starts flushing chunks to the executor.
+ */
+public interface ChunkWindow {
+
+    /**
+     * Create the window for the configured policy ({@code queue.window-policy})
+     *
+     * @param handler the queue handler submissions are sent to
+     * @return a new window
+     */
+    static ChunkWindow create(QueueHandler handler) {
+        if ("adaptive".equalsIgnoreCase(Settings.IMP.QUEUE.WINDOW_POLICY)) {
+            return new AdaptiveChunkWindow(handler);
+        }
+        return new StaticChunkWindow(handler);
+    }
+
+    /**
+     * @param queued the number of chunks held by the queue
+     * @param lowMemory if memory is limited
+     * @return if the oldest chunk should be submitted before queueing another
+     */
+    boolean shouldFlush(int queued, boolean lowMemory);
+
+    /**
+     * @param lowMemory if memory is limited
+     * @return the number of submissions which may be in flight
+     */
+    int getTargetSize(boolean lowMemory);
+
+    /**
+     * @param lowMemory if memory is limited
+     * @return if flushing should wait for in flight submissions rather than only discarding
+     * finished ones
+     */
+    default boolean shouldBlock(boolean lowMemory) {
+        return lowMemory;
+    }
+
+    /**
+     * Called after a chunk was handed to the executor
+     *
+     * @param nanos the time the submission blocked the caller
+     */
+    default void onSubmit(long nanos) {
+    }
+
+    /**
+     * @return the current window size (for metrics)
+     */
+    int getSize();
+}
@@ -32,7 +32,6 @@
 import com.sk89q.worldedit.world.block.BlockStateHolder;
 import com.sk89q.worldedit.world.block.BlockType;
 
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ForkJoinTask;
@@ -72,6 +71,34 @@ private IQueueExtent<IQueueChunk> getNewQueue() {
         return wrapQueue(handler.getQueue(this.world, this.processor));
     }
 
+    /**
+     * Get a queue for the current worker thread, sharing this extent's processors. Queues are
+     * pooled per thread, so the queue must be flushed before the thread performs another operation.
+     *
+     * @return the queue
+     */
+    public IQueueExtent<IQueueChunk> createWorkerQueue() {
+        final IQueueExtent<IQueueChunk> queue = getNewQueue();
+        queue.setFastMode(fastmode);
+        return queue;
+    }
+
+    /**
+     * Get a queue sharing this extent's processors which isn't pooled per thread, so it can hold
+     * changes across several tasks. The queue must be flushed once done.
+     *
+     * @return the queue
+     */
+    public IQueueExtent<IQueueChunk> createUnpooledQueue() {
+        final IQueueExtent<IQueueChunk> queue = wrapQueue(handler.getUnpooledQueue(this.world, this.processor));
+        queue.setFastMode(fastmode);
+        return queue;
+    }
+
+    public QueueHandler getHandler() {
+        return handler;
+    }
+
     @Override
     public IQueueExtent<IQueueChunk> wrapQueue(IQueueExtent<IQueueChunk> queue) {
         // TODO wrap
@@ -83,35 +110,28 @@ public IQueueExtent<IQueueChunk> wrapQueue(IQueueExtent<IQueueChunk> queue) {
     public <T extends Filter> T apply(Region region, T filter, boolean full) {
         // The chunks positions to iterate over
         final Set<BlockVector2> chunks = region.getChunks();
-        final Iterator<BlockVector2> chunksIter = chunks.iterator();
 
         // Get a pool, to operate on the chunks in parallel
         final int size = Math.min(chunks.size(), Settings.IMP.QUEUE.PARALLEL_THREADS);
-        if (size <= 1 && chunksIter.hasNext()) {
-            BlockVector2 pos = chunksIter.next();
-            getExtent().apply(null, filter, region, pos.getX(), pos.getZ(), full);
+        if (size <= 1) {
+            ChunkFilterBlock block = null;
+            for (BlockVector2 pos : chunks) {
+                block = getExtent().apply(block, filter, region, pos.getX(), pos.getZ(), full);
+            }
         } else {
+            // Partition the chunks into spatially ordered tiles, which idle workers can steal
+            final ChunkScheduler scheduler = new ChunkScheduler(chunks, size);
             final ForkJoinTask[] tasks = IntStream.range(0, size).mapToObj(i -> handler.submit(() -> {
                 try {
                     final Filter newFilter = filter.fork();
+                    final ChunkScheduler.Worker worker = scheduler.getWorker(i);
                     // Create a chunk that we will reuse/reset for each operation
-                    final IQueueExtent<IQueueChunk> queue = getNewQueue();
-                    queue.setFastMode(fastmode);
+                    final IQueueExtent<IQueueChunk> queue = createWorkerQueue();
                     synchronized (queue) {
                         ChunkFilterBlock block = null;
 
-                        while (true) {
-                            // Get the next chunk posWeakChunk
-                            final int chunkX, chunkZ;
-                            synchronized (chunksIter) {
-                                if (!chunksIter.hasNext()) {
-                                    break;
-                                }
-                                final BlockVector2 pos = chunksIter.next();
-                                chunkX = pos.getX();
-                                chunkZ = pos.getZ();
-                            }
-                            block = queue.apply(block, newFilter, region, chunkX, chunkZ, full);
+                        while (worker.next()) {
+                            block = queue.apply(block, newFilter, region, worker.getChunkX(), worker.getChunkZ(), full);
                         }
                         queue.flush();
                     }
@@ -125,6 +145,7 @@ public <T extends Filter> T apply(Region region, T filter, boolean full) {
                     task.quietlyJoin();
                 }
             }
+            handler.onScheduled(scheduler.getStatistics());
             filter.join();
         }
         return filter;
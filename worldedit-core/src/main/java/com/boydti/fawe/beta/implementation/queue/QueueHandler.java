@@ -9,6 +9,7 @@
 import com.boydti.fawe.beta.IQueueChunk;
 import com.boydti.fawe.beta.IQueueExtent;
 import com.boydti.fawe.beta.Trimable;
+import com.boydti.fawe.beta.implementation.blocks.PaletteSetBlocks;
 import com.boydti.fawe.beta.implementation.cache.ChunkCache;
 import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.object.collection.CleanableThreadLocal;
@@ -54,8 +55,15 @@ public abstract class QueueHandler implements Trimable, Runnable {
     private long last;
     private long allocate = 50;
     private double targetTPS = 18;
+    /**
+     * Load balance of the most recent parallel operation
+     */
+    private volatile ChunkScheduler.Statistics lastSchedule;
+    private final ChunkWindow chunkWindow;
 
     public QueueHandler() {
+        this.chunkWindow = ChunkWindow.create(this);
+        MemUtil.addMemoryLimitedTask(() -> trim(true));
         TaskManager.IMP.repeat(this, 1);
     }
 
@@ -81,10 +89,48 @@ public void run() {
         }
     }
 
+    /**
+     * Record how the chunks of a parallel operation were distributed between threads
+     *
+     * @param statistics the per-thread chunk and steal counts
+     */
+    public void onScheduled(ChunkScheduler.Statistics statistics) {
+        this.lastSchedule = statistics;
+        if (Settings.IMP.QUEUE.DEBUG_SCHEDULING) {
+            Fawe.debugPlain("Parallel apply: " + statistics);
+        }
+    }
+
+    /**
+     * Get the chunk distribution of the most recent parallel operation
+     *
+     * @return the statistics, or null if no parallel operation has completed
+     */
+    public ChunkScheduler.Statistics getLastSchedule() {
+        return lastSchedule;
+    }
+
     public boolean isUnderutilized() {
         return blockingExecutor.getActiveCount() < blockingExecutor.getMaximumPoolSize();
     }
 
+    /**
+     * @return the number of chunk submissions waiting for an executor thread
+     */
+    public int getQueueDepth() {
+        return blockingExecutor.getQueue().size();
+    }
+
+    /**
+     * Get the window deciding when queues flush chunks, see {@link ChunkWindow#getSize()} for the
+     * current size
+     *
+     * @return the chunk window
+     */
+    public ChunkWindow getChunkWindow() {
+        return chunkWindow;
+    }
+
     private long getAllocate() {
         long now = System.currentTimeMillis();
         targetTPS = 18 - Math.max(Settings.IMP.QUEUE.EXTRA_TIME_MS * 0.05, 0);
@@ -284,9 +330,23 @@ public IQueueExtent<IQueueChunk> getQueue(World world) {
     }
 
     public IQueueExtent<IQueueChunk> getQueue(World world, IBatchProcessor processor) {
-        final IQueueExtent<IQueueChunk> queue = pool();
+        return init(pool(), world, processor);
+    }
+
+    /**
+     * Get a queue which isn't pooled per thread, so it can be used by several tasks in turn
+     * - It isn't reset when the thread gets another queue, so the caller must flush it
+     */
+    public IQueueExtent<IQueueChunk> getUnpooledQueue(World world, IBatchProcessor processor) {
+        return init(create(), world, processor);
+    }
+
+    private IQueueExtent<IQueueChunk> init(IQueueExtent<IQueueChunk> queue, World world, IBatchProcessor processor) {
         IChunkCache<IChunkGet> cacheGet = getOrCreateWorldCache(world);
         IChunkCache<IChunkSet> set = null; // TODO cache?
+        if (Settings.IMP.QUEUE.PALETTE_SECTIONS) {
+            set = (x, z) -> PaletteSetBlocks.newInstance();
+        }
         queue.init(world, cacheGet, set);
         if (processor != null) {
             queue.setProcessor(processor);
@@ -304,7 +364,7 @@ public boolean trim(boolean aggressive) {
                 final Map.Entry<World, WeakReference<IChunkCache<IChunkGet>>> entry = iter.next();
                 final WeakReference<IChunkCache<IChunkGet>> value = entry.getValue();
                 final IChunkCache<IChunkGet> cache = value.get();
-                if (cache.trim(aggressive)) {
+                if (cache == null || cache.trim(aggressive)) {
                     iter.remove();
                     continue;
                 }
@@ -73,6 +73,11 @@ public void disableQueue() {
         enabledQueue = false;
     }
 
+    @Override
+    public boolean isQueueEnabled() {
+        return enabledQueue;
+    }
+
     @Override
     public IChunkGet getCachedGet(int chunkX, int chunkZ) {
         return cacheGet.get(chunkX, chunkZ);
@@ -167,6 +172,7 @@ private <V extends Future<V>> V submitUnchecked(IQueueChunk chunk) {
             Future result = Futures.immediateFuture(null);
             return (V) result;
         }
+        cacheGet.invalidate(chunk.getX(), chunk.getZ());
 
         if (Fawe.isMainThread()) {
             V result = (V)chunk.call();
@@ -177,7 +183,11 @@ private <V extends Future<V>> V submitUnchecked(IQueueChunk chunk) {
             }
         }
 
-        return (V) Fawe.get().getQueueHandler().submit(chunk);
+        final QueueHandler handler = Fawe.get().getQueueHandler();
+        final long start = System.nanoTime();
+        V future = (V) handler.submit(chunk);
+        handler.getChunkWindow().onSubmit(System.nanoTime() - start);
+        return future;
     }
 
     @Override
@@ -236,20 +246,12 @@ public final IQueueChunk getOrCreateChunk(int x, int z) {
         }
         final int size = chunks.size();
         final boolean lowMem = MemUtil.isMemoryLimited();
-        // If queueing is enabled AND either of the following
-        //  - memory is low & queue size > num threads + 8
-        //  - queue size > target size and primary queue has less than num threads submissions
-        if (enabledQueue && ((lowMem && size > Settings.IMP.QUEUE.PARALLEL_THREADS + 8) || (size > Settings.IMP.QUEUE.TARGET_SIZE && Fawe.get().getQueueHandler().isUnderutilized()))) {
+        final ChunkWindow window = Fawe.get().getQueueHandler().getChunkWindow();
+        if (enabledQueue && window.shouldFlush(size, lowMem)) {
             chunk = chunks.removeFirst();
             final Future future = submitUnchecked(chunk);
             if (future != null && !future.isDone()) {
-                final int targetSize;
-                if (lowMem) {
-                    targetSize = Settings.IMP.QUEUE.PARALLEL_THREADS + 8;
-                } else {
-                    targetSize = Settings.IMP.QUEUE.TARGET_SIZE;
-                }
-                pollSubmissions(targetSize, lowMem);
+                pollSubmissions(window.getTargetSize(lowMem), window.shouldBlock(lowMem));
                 submissions.add(future);
             }
         }
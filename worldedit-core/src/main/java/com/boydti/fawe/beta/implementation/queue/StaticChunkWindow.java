@@ -0,0 +1,37 @@
+package com.boydti.fawe.beta.implementation.queue;
+
+import com.boydti.fawe.config.Settings;
+
+/**
+ * Fixed window based on {@code queue.target-size}, flushing early only when memory is limited.
+ */
+public class StaticChunkWindow implements ChunkWindow {
+
+    private final QueueHandler handler;
+
+    public StaticChunkWindow(QueueHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public boolean shouldFlush(int queued, boolean lowMemory) {
+        // Either of the following
+        //  - memory is low & queue size > num threads + 8
+        //  - queue size > target size and primary queue has less than num threads submissions
+        return (lowMemory && queued > Settings.IMP.QUEUE.PARALLEL_THREADS + 8)
+            || (queued > Settings.IMP.QUEUE.TARGET_SIZE && handler.isUnderutilized());
+    }
+
+    @Override
+    public int getTargetSize(boolean lowMemory) {
+        if (lowMemory) {
+            return Settings.IMP.QUEUE.PARALLEL_THREADS + 8;
+        }
+        return Settings.IMP.QUEUE.TARGET_SIZE;
+    }
+
+    @Override
+    public int getSize() {
+        return Settings.IMP.QUEUE.TARGET_SIZE;
+    }
+}
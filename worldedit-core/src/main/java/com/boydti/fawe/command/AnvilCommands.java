@@ -1,5 +1,10 @@
 package com.boydti.fawe.command;
 
+import com.boydti.fawe.FaweAPI;
+import com.boydti.fawe.beta.implementation.filter.CountFilter;
+import com.boydti.fawe.jnbt.anvil.DeleteChunkFilter;
+import com.boydti.fawe.jnbt.anvil.MCAChunk;
+import com.boydti.fawe.jnbt.anvil.MCAWorld;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalSession;
 import com.sk89q.worldedit.WorldEdit;
@@ -7,16 +12,24 @@
 import com.sk89q.worldedit.command.util.CommandPermissions;
 import com.sk89q.worldedit.command.util.CommandPermissionsConditionGenerator;
 import com.sk89q.worldedit.entity.Player;
+import com.sk89q.worldedit.extension.input.ParserContext;
+import com.sk89q.worldedit.function.mask.BlockMaskBuilder;
+import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.function.pattern.Pattern;
 import com.sk89q.worldedit.internal.annotation.Selection;
 import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.formatting.text.TranslatableComponent;
 import com.sk89q.worldedit.world.biome.BiomeType;
 import org.enginehub.piston.annotation.Command;
 import org.enginehub.piston.annotation.CommandContainer;
 import org.enginehub.piston.annotation.param.Arg;
 import org.enginehub.piston.annotation.param.Switch;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -32,41 +45,55 @@ public AnvilCommands(WorldEdit worldEdit) {
         checkNotNull(worldEdit);
     }
 
-    //    /**
-    //     * Run safely on an unloaded world (no selection)
-    //     *
-    //     * @param player
-    //     * @param folder
-    //     * @param filter
-    //     * @param <G>
-    //     * @param <T>
-    //     * @return
-    //     */
-    //    @Deprecated
-    //    public static <G, T extends MCAFilter<G>> T runWithWorld(Player player, String folder, T filter, boolean force) {
-    //        return runWithWorld(player, folder, filter, force, false);
-    //    }
-    //
-    //
-    //    @Deprecated
-    //    public static <G, T extends MCAFilter<G>> T runWithWorld(Player player, String folder, T filter, boolean force, boolean unsafe) {
-    //        boolean copy = false;
-    //        if (FaweAPI.getWorld(folder) != null) {
-    //            if (!force) {
-    //                player.print(TranslatableComponent.of("fawe.worldedit.anvil.world.is.loaded"))
-    //                return null;
-    //            }
-    //            copy = true;
-    //        }
-    //        IQueueExtent defaultQueue = SetQueue.IMP.getNewQueue(folder, true, false);
-    //        MCAQueue queue = new MCAQueue(defaultQueue);
-    //        if (copy && !unsafe) {
-    //            return queue.filterCopy(filter, RegionWrapper.GLOBAL());
-    //        } else {
-    //            return queue.filterWorld(filter);
-    //        }
-    //    }
-    //
+    /**
+     * Open a world's region files, to be modified without the server
+     * - Worlds loaded by the server are refused, as the server would overwrite or read half written region files
+     *
+     * @param player the player to message
+     * @param folder the world folder
+     * @return the world, or null if it can't be used
+     */
+    @Nullable
+    public static MCAWorld openWorld(Player player, String folder) {
+        File path = new File(folder);
+        if (!new File(path, "region").isDirectory()) {
+            player.print(TranslatableComponent.of("fawe.worldedit.anvil.world.not.found", folder));
+            return null;
+        }
+        if (FaweAPI.getWorld(path.getName()) != null) {
+            player.print(TranslatableComponent.of("fawe.worldedit.anvil.world.is.loaded"));
+            return null;
+        }
+        return new MCAWorld(path);
+    }
+
+    private static ParserContext createContext(Player player, MCAWorld world) {
+        ParserContext context = new ParserContext();
+        context.setActor(player);
+        context.setWorld(world);
+        context.setExtent(world);
+        context.setSession(WorldEdit.getInstance().getSessionManager().get(player));
+        return context;
+    }
+
+    private static Mask parseMask(Player player, MCAWorld world, String input) throws WorldEditException {
+        if (input == null || input.isEmpty()) {
+            return new BlockMaskBuilder().addAll(type -> !type.getMaterial().isAir()).build(world);
+        }
+        return WorldEdit.getInstance().getMaskFactory().parseFromInput(input, createContext(player, world));
+    }
+
+    private static void replaceAll(Player player, MCAWorld world, String from, Pattern to) throws WorldEditException {
+        Mask mask = parseMask(player, world, from);
+        int affected = world.apply(null, mask.toFilter(to), mask.replacesAir()).getBlocksApplied();
+        player.print(TranslatableComponent.of("fawe.worldedit.visitor.visitor.block", affected));
+    }
+
+    private static void deleteAll(Player player, MCAWorld world, Predicate<MCAChunk> predicate) {
+        long deleted = world.apply(null, new DeleteChunkFilter(predicate), false).getTotal();
+        player.print(TranslatableComponent.of("fawe.worldedit.anvil.chunks.deleted", deleted));
+    }
+
     //    /**
     //     * Run safely on an existing world within a selection
     //     *
@@ -117,22 +144,14 @@ public AnvilCommands(WorldEdit worldEdit) {
     public void replaceAll(Player player, String folder,
         @Arg(name = "from", desc = "String", def = "")
             String fromPattern,
-        String toPatternStr,
-        @Switch(name = 'd', desc = "Disable wildcard data matching")
-            boolean useData) throws WorldEditException {
-        //        final FaweBlockMatcher matchFrom;  TODO NOT IMPLEMENTED
-        //        if (from == null) {
-        //            matchFrom = FaweBlockMatcher.NOT_AIR;
-        //        } else {
-        //            if (from.contains(":")) {
-        //                useData = true; //override d flag, if they specified data they want it
-        //            }
-        //            matchFrom = FaweBlockMatcher.fromBlocks(worldEdit.getBlocks(player, from, true), useData);
-        //        }
-        //        final FaweBlockMatcher matchTo = FaweBlockMatcher.setBlocks(worldEdit.getBlocks(player, to, true));
-        //        ReplaceSimpleFilter filter = new ReplaceSimpleFilter(matchFrom, matchTo);
-        //        ReplaceSimpleFilter result = runWithWorld(player, folder, filter, true);
-        //        if (result != null) player.print(TranslatableComponent.of("fawe.worldedit.visitor.visitor.block", (result.getTotal())));
+        String toPatternStr) throws WorldEditException {
+        try (MCAWorld world = openWorld(player, folder)) {
+            if (world == null) {
+                return;
+            }
+            Pattern to = WorldEdit.getInstance().getPatternFactory().parseFromInput(toPatternStr, createContext(player, world));
+            replaceAll(player, world, fromPattern, to);
+        }
     }
 
     @Command(
@@ -158,18 +177,15 @@ public void remapall(Player player, String folder) throws WorldEditException {
         name = "deleteallunvisited",
         aliases = {"delunvisited" },
         desc = "Delete all chunks which haven't been occupied",
-        descFooter = "occupied for `age-ticks` (20t = 1s) and \n" +
-            "Have not been accessed since `file-duration` (ms) after creation and\n" +
-            "Have not been used in the past `chunk-inactivity` (ms)" +
-            "The auto-save interval is the recommended value for `file-duration` and `chunk-inactivity`"
+        descFooter = "occupied for `inhabited-ticks` (20t = 1s)"
     )
     @CommandPermissions("worldedit.anvil.deleteallunvisited")
-    public void deleteAllUnvisited(Player player, String folder, int inhabitedTicks, @Arg(desc = "int", def = "60000") int fileDurationMillis) throws WorldEditException {
-        //        DeleteUninhabitedFilter filter = new DeleteUninhabitedFilter(fileDurationMillis, inhabitedTicks, fileDurationMillis);  TODO NOT IMPLEMENTED
-        //        DeleteUninhabitedFilter result = runWithWorld(player, folder, filter, true);
-        //        if (result != null) {
-        //            player.print(TranslatableComponent.of("fawe.worldedit.visitor.visitor.block", (result.getTotal())));
-        //        }
+    public void deleteAllUnvisited(Player player, String folder, int inhabitedTicks) throws WorldEditException {
+        try (MCAWorld world = openWorld(player, folder)) {
+            if (world != null) {
+                deleteAll(player, world, chunk -> chunk.getInhabitedTime() < inhabitedTicks);
+            }
+        }
     }
 
     @Command(
@@ -259,12 +275,12 @@ public void trimAllPlots(Player player, @Switch(name = 'v', desc = "Delete unvis
         desc = "Delete chunks matching a specific biome"
     )
     @CommandPermissions("worldedit.anvil.trimallair")
-    public void deleteBiome(Player player, String folder, BiomeType biome, @Switch(name = 'u', desc = "TODO") boolean unsafe) {
-        //        DeleteBiomeFilterSimple filter = new DeleteBiomeFilterSimple(biome);  TODO NOT IMPLEMENTED
-        //        DeleteBiomeFilterSimple result = runWithWorld(player, folder, filter, true, unsafe);
-        //        if (result != null) {
-        //            player.print(TranslatableComponent.of("fawe.worldedit.visitor.visitor.block", (result.getTotal())));
-        //        }
+    public void deleteBiome(Player player, String folder, BiomeType biome) {
+        try (MCAWorld world = openWorld(player, folder)) {
+            if (world != null) {
+                deleteAll(player, world, chunk -> Arrays.stream(chunk.getBiomes()).allMatch(type -> type == biome));
+            }
+        }
     }
 
     @Command(
@@ -272,12 +288,24 @@ public void deleteBiome(Player player, String folder, BiomeType biome, @Switch(n
         desc = "Trim all air in the world"
     )
     @CommandPermissions("worldedit.anvil.trimallair")
-    public void trimAllAir(Player player, String folder, @Switch(name = 'u', desc = "TODO") boolean unsafe) throws WorldEditException {
-        //        TrimAirFilter filter = new TrimAirFilter();  TODO NOT IMPLEMENTED
-        //        TrimAirFilter result = runWithWorld(player, folder, filter, true, unsafe);
-        //        if (result != null) {
-        //            player.print(TranslatableComponent.of("fawe.worldedit.visitor.visitor.block", (result.getTotal())));
-        //        }
+    public void trimAllAir(Player player, String folder) throws WorldEditException {
+        try (MCAWorld world = openWorld(player, folder)) {
+            if (world != null) {
+                deleteAll(player, world, AnvilCommands::isAir);
+            }
+        }
+    }
+
+    private static boolean isAir(MCAChunk chunk) {
+        if (!chunk.getTiles().isEmpty() || !chunk.entities.isEmpty()) {
+            return false;
+        }
+        for (int layer = 0; layer < 16; layer++) {
+            if (chunk.anyMatch(layer, state -> !state.getMaterial().isAir())) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Command(
@@ -300,27 +328,12 @@ public void debugfixroads(Player player, String folder) throws WorldEditExceptio
         desc = "Replace all blocks in the selection with another"
     )
     @CommandPermissions("worldedit.anvil.replaceall")
-    public void replaceAllPattern(Player player, String folder, @Arg(name = "from", desc = "String", def = "") String from, Pattern toPattern, @Switch(name = 'd', desc = "TODO") boolean useData, @Switch(name = 'm', desc = "TODO") boolean useMap) throws WorldEditException {
-        //        MCAFilterCounter filter;  TODO NOT IMPLEMENTED
-        //        if (useMap) {
-        //            if (to instanceof RandomPattern) {
-        //                List<String> split = StringMan.split(from, ',');
-        //                filter = new MappedReplacePatternFilter(from, (RandomPattern) to, useData);
-        //            } else {
-        //                player.print("Must be a pattern list!");
-        //                return;
-        //            }
-        //        } else {
-        //            final FaweBlockMatcher matchFrom;
-        //            if (from == null) {
-        //                matchFrom = FaweBlockMatcher.NOT_AIR;
-        //            } else {
-        //                matchFrom = FaweBlockMatcher.fromBlocks(worldEdit.getBlocks(player, from, true), useData || from.contains(":"));
-        //            }
-        //            filter = new ReplacePatternFilter(matchFrom, to);
-        //        }
-        //        MCAFilterCounter result = runWithWorld(player, folder, filter, true);
-        //        if (result != null) player.print(TranslatableComponent.of("fawe.worldedit.visitor.visitor.block", (result.getTotal())));
+    public void replaceAllPattern(Player player, String folder, @Arg(name = "from", desc = "String", def = "") String from, Pattern toPattern) throws WorldEditException {
+        try (MCAWorld world = openWorld(player, folder)) {
+            if (world != null) {
+                replaceAll(player, world, from, toPattern);
+            }
+        }
     }
 
     //
@@ -329,20 +342,15 @@ public void replaceAllPattern(Player player, String folder, @Arg(name = "from",
         desc = "Count all blocks in a world"
     )
     @CommandPermissions("worldedit.anvil.countall")
-    public void countAll(Player player, EditSession editSession, String folder, String argStr, @Switch(name = 'd', desc = "TODO") boolean useData) throws WorldEditException {
-        //        Set<BaseBlock> searchBlocks = worldEdit.getBlocks(player, arg, true);
-        //        MCAFilterCounter filter;
-        //        if (useData || arg.contains(":")) { // Optimize for both cases
-        //            CountFilter counter = new CountFilter();
-        //            searchBlocks.forEach(counter::addBlock);
-        //            filter = counter;
-        //        } else {
-        //            CountIdFilter counter = new CountIdFilter();
-        //            searchBlocks.forEach(counter::addBlock);
-        //            filter = counter;
-        //        }
-        //        MCAFilterCounter result = runWithWorld(player, folder, filter, true);
-        //        if (result != null) player.print(TranslatableComponent.of("fawe.worldedit.selection.selection.count", (result.getTotal())));
+    public void countAll(Player player, String folder, String argStr) throws WorldEditException {
+        try (MCAWorld world = openWorld(player, folder)) {
+            if (world == null) {
+                return;
+            }
+            Mask mask = parseMask(player, world, argStr);
+            int total = world.apply(null, mask.toFilter(new CountFilter()), mask.replacesAir()).getParent().getTotal();
+            player.print(TranslatableComponent.of("fawe.worldedit.selection.selection.count", total));
+        }
     }
 
     @Command(
@@ -52,6 +52,8 @@ public class Settings extends Config {
     @Create
     public LIGHTING LIGHTING;
     @Create
+    public CHUNK_SENDING CHUNK_SENDING;
+    @Create
     public TICK_LIMITER TICK_LIMITER;
     @Create
     public WEB WEB;
@@ -218,6 +220,12 @@ public static class HISTORY {
                 " - Must be in the range [64, 33554432]",
         })
         public int BUFFER_SIZE = 531441;
+        @Comment({
+                "Group block changes on disk by chunk, with an index of the chunks:",
+                " - Inspecting and undoing part of an edit only reads the chunks needed",
+                " - History files are not readable by older versions",
+        })
+        public boolean CHUNK_INDEX = true;
 
 
         @Comment({
@@ -277,6 +285,16 @@ public static class QUEUE {
 
         })
         public int TARGET_SIZE = 64;
+        @Comment({
+                "How the number of queued chunks (see target-size) is decided:",
+                " - static = Use target-size, flushing earlier when memory is low",
+                " - adaptive = Resize from executor load, free memory, submit latency and TPS",
+        })
+        public String WINDOW_POLICY = "static";
+        @Comment({
+                "The largest number of queued chunks the adaptive window policy may grow to"
+        })
+        public int MAX_TARGET_SIZE = 1024;
         @Comment({
                 "Force FAWE to start placing chunks regardless of whether an edit is finished processing",
                 " - A larger value will use slightly less CPU time",
@@ -309,6 +327,26 @@ public static class QUEUE {
         })
         public boolean POOL = true;
 
+        @Comment({
+                "Store queued chunk sections as a palette until they hold many different blocks",
+                " - Enable to reduce memory usage of edits which change few block types",
+                " - Sections are expanded when written to the world, so this costs a little CPU",
+        })
+        public boolean PALETTE_SECTIONS = false;
+
+        @Comment({
+                "The maximum percentage of the heap used to cache world chunks read by edits",
+                " - Least recently used chunks are discarded once this is exceeded",
+                " - The cache is also cleared when memory is low (see max-memory-percent)",
+        })
+        public int CHUNK_CACHE_PERCENT = 10;
+
+        @Comment({
+                "Expand recursive fills (e.g. //fill -r, //drain) on all parallel threads",
+                " - Each depth of the fill is split by chunk between the threads",
+        })
+        public boolean PARALLEL_FLOOD_FILL = false;
+
         @Comment({
                 "Discard edits which have been idle for a certain amount of time (ms)",
                 " - E.g. A plugin creates an EditSession but never does anything with it",
@@ -321,6 +359,12 @@ public static class QUEUE {
         })
         public boolean NO_TICK_FASTMODE = true;
 
+        @Comment({
+            "Log how the chunks of parallel operations are distributed between threads",
+            " - Shows chunks processed and work stolen per thread"
+        })
+        public boolean DEBUG_SCHEDULING = false;
+
         public static class PROGRESS {
             @Comment({"Display constant titles about the progress of a user's edit",
                     " - false = disabled",
@@ -454,9 +498,20 @@ public static class CLIPBOARD {
                 " - Uses 2 bytes per block",
         })
         public boolean USE_DISK = true;
+        @Comment({
+                "Store disk clipboards as compressed 16x16x16 tiles",
+                " - Only TILE_CACHE tiles are kept in memory, including their tile entities",
+                " - Clipboards saved in the old format can still be loaded",
+        })
+        public boolean TILED = true;
+        @Comment({
+                "The number of tiles to keep in memory for each tiled disk clipboard",
+                " - Each tile uses 8KiB plus its tile entities",
+        })
+        public int TILE_CACHE = 1024;
         @Comment({
                 "Compress the clipboard to reduce the size:",
-                " - TODO: Buffered random access with compression is not implemented on disk yet",
+                " - Tiled disk clipboards compress each tile on its own",
                 " - 0 = No compression",
                 " - 1 = Fast compression",
                 " - 2-17 = Slower compression"
@@ -483,6 +538,27 @@ public static class LIGHTING {
         public boolean REMOVE_FIRST = true;
         @Comment({"Calculate and set heightmaps when relighting"})
         public boolean DO_HEIGHTMAPS = true;
+        @Comment({"Log the time spent in each phase of relighting"})
+        public boolean DEBUG_TIMINGS = false;
+    }
+
+    @Comment("Sending of fake chunks to players, e.g. brush visualization and CFI previews")
+    public static class CHUNK_SENDING {
+        @Comment({
+                "The ticks to wait and merge repeated sends of the same chunk",
+                " - 0 = Send immediately",
+        })
+        public int COALESCE_TICKS = 1;
+        @Comment({
+                "Only send chunks within this many chunks of a player",
+                " - -1 = Send to players regardless of distance",
+        })
+        public int VIEW_DISTANCE = 10;
+        @Comment({
+                "Send a chunk as individual block changes when it has at most this many changed blocks",
+                " - 0 = Always send the changed sections",
+        })
+        public int MAX_BLOCK_CHANGES = 64;
     }
 
     public void reload(File file) {
@@ -0,0 +1,121 @@
+package com.boydti.fawe.database;
+
+import com.boydti.fawe.util.MathMan;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The set of chunks touched by an edit, stored as a bitmap of the 32x32 chunks of each region
+ * - One bitmap (16 longs / 128 bytes) per region file touched
+ * - Persisted by the {@link RollbackDatabase} as one row per region
+ */
+public class ChunkRegionIndex {
+    public static final int BITMAP_BYTES = 128;
+
+    private final Long2ObjectOpenHashMap<long[]> regions = new Long2ObjectOpenHashMap<>();
+    private long lastKey = Long.MIN_VALUE;
+    private long[] lastBitmap;
+
+    /**
+     * Mark a chunk as touched
+     *
+     * @param chunkX the chunk x
+     * @param chunkZ the chunk z
+     */
+    public void add(int chunkX, int chunkZ) {
+        long key = MathMan.pairInt(chunkX >> 5, chunkZ >> 5);
+        long[] bitmap = lastBitmap;
+        if (key != lastKey || bitmap == null) {
+            bitmap = regions.get(key);
+            if (bitmap == null) {
+                bitmap = new long[16];
+                regions.put(key, bitmap);
+            }
+            lastKey = key;
+            lastBitmap = bitmap;
+        }
+        int index = (chunkZ & 31) << 5 | (chunkX & 31);
+        bitmap[index >> 6] |= 1L << index;
+    }
+
+    /**
+     * Mark every chunk in an area as touched, for edits which were logged without a chunk index
+     *
+     * @param minX the minimum block x
+     * @param minZ the minimum block z
+     * @param maxX the maximum block x
+     * @param maxZ the maximum block z
+     */
+    public void addArea(int minX, int minZ, int maxX, int maxZ) {
+        for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+            for (int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+                add(cx, cz);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return regions.isEmpty();
+    }
+
+    /**
+     * Visit each region touched, with its serialized chunk bitmap
+     *
+     * @param task the task to run for each region
+     */
+    public void forEach(RegionTask task) {
+        for (Long2ObjectMap.Entry<long[]> entry : regions.long2ObjectEntrySet()) {
+            long key = entry.getLongKey();
+            task.run(MathMan.unpairIntX(key), MathMan.unpairIntY(key), toBytes(entry.getValue()));
+        }
+    }
+
+    private static byte[] toBytes(long[] bitmap) {
+        ByteBuffer buffer = ByteBuffer.allocate(BITMAP_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (long value : bitmap) {
+            buffer.putLong(value);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Test whether a serialized region bitmap has a chunk within a chunk area
+     *
+     * @param bitmap the serialized bitmap
+     * @param regionX the region x of the bitmap
+     * @param regionZ the region z of the bitmap
+     * @param minChunkX the minimum chunk x of the area
+     * @param minChunkZ the minimum chunk z of the area
+     * @param maxChunkX the maximum chunk x of the area
+     * @param maxChunkZ the maximum chunk z of the area
+     * @return true if any chunk in the area is set
+     */
+    public static boolean intersects(byte[] bitmap, int regionX, int regionZ, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        if (bitmap == null || bitmap.length != BITMAP_BYTES) {
+            return true;
+        }
+        int baseX = regionX << 5;
+        int baseZ = regionZ << 5;
+        int minX = Math.max(minChunkX - baseX, 0);
+        int minZ = Math.max(minChunkZ - baseZ, 0);
+        int maxX = Math.min(maxChunkX - baseX, 31);
+        int maxZ = Math.min(maxChunkZ - baseZ, 31);
+        for (int z = minZ; z <= maxZ; z++) {
+            for (int x = minX; x <= maxX; x++) {
+                int index = z << 5 | x;
+                if ((bitmap[index >> 3] & (1 << (index & 7))) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    public interface RegionTask {
+        void run(int regionX, int regionZ, byte[] bitmap);
+    }
+}
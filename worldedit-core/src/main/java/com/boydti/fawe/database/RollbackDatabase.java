@@ -22,6 +22,9 @@
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
@@ -44,14 +47,20 @@ public class RollbackDatabase extends AsyncNotifyQueue {
     private @Language("sql") String UPDATE_TABLE2 = "alter table `{0}edits` add size int default 0 not null";
     private @Language("sql") String INSERT_EDIT = "INSERT OR REPLACE INTO `{0}edits` (`player`,`id`,`time`,`x1`,`x2`,`z1`,`z2`,`y1`,`y2`,`command`,`size`) VALUES(?,?,?,?,?,?,?,?,?,?,?)";
     private @Language("sql") String PURGE = "DELETE FROM `{0}edits` WHERE `time`<?";
-    private @Language("sql") String GET_EDITS_USER = "SELECT * FROM `{0}edits` WHERE `time`>? AND `x2`>=? AND `x1`<=? AND `z2`>=? AND `z1`<=? AND `y2`>=? AND `y1`<=? AND `player`=? ORDER BY `time` DESC, `id` DESC";
-    private @Language("sql") String GET_EDITS_USER_ASC = "SELECT * FROM `{0}edits` WHERE `time`>? AND `x2`>=? AND `x1`<=? AND `z2`>=? AND `z1`<=? AND `y2`>=? AND `y1`<=? AND `player`=? ORDER BY `time` ASC, `id` ASC";
-    private @Language("sql") String GET_EDITS = "SELECT * FROM `{0}edits` WHERE `time`>? AND `x2`>=? AND `x1`<=? AND `z2`>=? AND `z1`<=? AND `y2`>=? AND `y1`<=? ORDER BY `time` DESC, `id` DESC";
-    private @Language("sql") String GET_EDITS_ASC = "SELECT * FROM `{0}edits` WHERE `time`>? AND `x2`>=? AND `x1`<=? AND `z2`>=? AND `z1`<=? AND `y2`>=? AND `y1`<=? ORDER BY `time` , `id` ";
+    private @Language("sql") String CREATE_REGIONS = "CREATE TABLE IF NOT EXISTS `{0}edit_regions` (`player` BLOB(16) NOT NULL,`id` INT NOT NULL,`rx` INT NOT NULL,`rz` INT NOT NULL,`chunks` BLOB NOT NULL, PRIMARY KEY (player, id, rx, rz))";
+    private @Language("sql") String CREATE_REGIONS_INDEX = "CREATE INDEX IF NOT EXISTS `{0}edit_regions_pos` ON `{0}edit_regions` (`rx`, `rz`)";
+    private @Language("sql") String INSERT_REGION = "INSERT OR REPLACE INTO `{0}edit_regions` (`player`,`id`,`rx`,`rz`,`chunks`) VALUES(?,?,?,?,?)";
+    private @Language("sql") String PURGE_REGIONS = "DELETE FROM `{0}edit_regions` WHERE EXISTS (SELECT 1 FROM `{0}edits` e WHERE e.`player`=`{0}edit_regions`.`player` AND e.`id`=`{0}edit_regions`.`id` AND e.`time`<?)";
+    private @Language("sql") String GET_UNINDEXED = "SELECT * FROM `{0}edits` e WHERE NOT EXISTS (SELECT 1 FROM `{0}edit_regions` r WHERE r.`player`=e.`player` AND r.`id`=e.`id`)";
+    // Edits are found through the region index, then the chunk bitmap of each region row is tested
+    private @Language("sql") String GET_EDITS_USER = "SELECT e.*, r.`rx`, r.`rz`, r.`chunks` FROM `{0}edit_regions` r JOIN `{0}edits` e ON e.`player`=r.`player` AND e.`id`=r.`id` WHERE r.`rx`>=? AND r.`rx`<=? AND r.`rz`>=? AND r.`rz`<=? AND e.`time`>? AND e.`x2`>=? AND e.`x1`<=? AND e.`z2`>=? AND e.`z1`<=? AND e.`y2`>=? AND e.`y1`<=? AND r.`player`=? ORDER BY e.`time` DESC, e.`id` DESC, e.`player`";
+    private @Language("sql") String GET_EDITS_USER_ASC = "SELECT e.*, r.`rx`, r.`rz`, r.`chunks` FROM `{0}edit_regions` r JOIN `{0}edits` e ON e.`player`=r.`player` AND e.`id`=r.`id` WHERE r.`rx`>=? AND r.`rx`<=? AND r.`rz`>=? AND r.`rz`<=? AND e.`time`>? AND e.`x2`>=? AND e.`x1`<=? AND e.`z2`>=? AND e.`z1`<=? AND e.`y2`>=? AND e.`y1`<=? AND r.`player`=? ORDER BY e.`time` ASC, e.`id` ASC, e.`player`";
+    private @Language("sql") String GET_EDITS = "SELECT e.*, r.`rx`, r.`rz`, r.`chunks` FROM `{0}edit_regions` r JOIN `{0}edits` e ON e.`player`=r.`player` AND e.`id`=r.`id` WHERE r.`rx`>=? AND r.`rx`<=? AND r.`rz`>=? AND r.`rz`<=? AND e.`time`>? AND e.`x2`>=? AND e.`x1`<=? AND e.`z2`>=? AND e.`z1`<=? AND e.`y2`>=? AND e.`y1`<=? ORDER BY e.`time` DESC, e.`id` DESC, e.`player`";
+    private @Language("sql") String GET_EDITS_ASC = "SELECT e.*, r.`rx`, r.`rz`, r.`chunks` FROM `{0}edit_regions` r JOIN `{0}edits` e ON e.`player`=r.`player` AND e.`id`=r.`id` WHERE r.`rx`>=? AND r.`rx`<=? AND r.`rz`>=? AND r.`rz`<=? AND e.`time`>? AND e.`x2`>=? AND e.`x1`<=? AND e.`z2`>=? AND e.`z1`<=? AND e.`y2`>=? AND e.`y1`<=? ORDER BY e.`time` ASC, e.`id` ASC, e.`player`";
     private @Language("sql") String GET_EDIT_USER = "SELECT * FROM `{0}edits` WHERE `player`=? AND `id`=?";
 
-    private @Language("sql") String DELETE_EDITS_USER = "DELETE FROM `{0}edits` WHERE `player`=? AND `time`>? AND `x2`>=? AND `x1`<=? AND `y2`>=? AND `y1`<=? AND `z2`>=? AND `z1`<=?";
     private @Language("sql") String DELETE_EDIT_USER = "DELETE FROM `{0}edits` WHERE `player`=? AND `id`=?";
+    private @Language("sql") String DELETE_REGIONS_USER = "DELETE FROM `{0}edit_regions` WHERE `player`=? AND `id`=?";
 
     private ConcurrentLinkedQueue<RollbackOptimizedHistory> historyChanges = new ConcurrentLinkedQueue<>();
 
@@ -68,13 +77,18 @@ public class RollbackDatabase extends AsyncNotifyQueue {
         UPDATE_TABLE2 = UPDATE_TABLE2.replace("{0}", prefix);
         INSERT_EDIT = INSERT_EDIT.replace("{0}", prefix);
         PURGE = PURGE.replace("{0}", prefix);
+        CREATE_REGIONS = CREATE_REGIONS.replace("{0}", prefix);
+        CREATE_REGIONS_INDEX = CREATE_REGIONS_INDEX.replace("{0}", prefix);
+        INSERT_REGION = INSERT_REGION.replace("{0}", prefix);
+        PURGE_REGIONS = PURGE_REGIONS.replace("{0}", prefix);
+        GET_UNINDEXED = GET_UNINDEXED.replace("{0}", prefix);
         GET_EDITS_USER = GET_EDITS_USER.replace("{0}", prefix);
         GET_EDITS_USER_ASC = GET_EDITS_USER_ASC.replace("{0}", prefix);
         GET_EDITS = GET_EDITS.replace("{0}", prefix);
         GET_EDITS_ASC = GET_EDITS_ASC.replace("{0}", prefix);
         GET_EDIT_USER = GET_EDIT_USER.replace("{0}", prefix);
-        DELETE_EDITS_USER = DELETE_EDITS_USER.replace("{0}", prefix);
         DELETE_EDIT_USER = DELETE_EDIT_USER.replace("{0}", prefix);
+        DELETE_REGIONS_USER = DELETE_REGIONS_USER.replace("{0}", prefix);
 
         try {
             init().get();
@@ -99,14 +113,84 @@ public  Future<Boolean> init() {
             try (PreparedStatement stmt = connection.prepareStatement(UPDATE_TABLE2)) {
                 stmt.executeUpdate();
             } catch (SQLException ignore) {} // Already updated
+            try (PreparedStatement stmt = connection.prepareStatement(CREATE_REGIONS)) {
+                stmt.executeUpdate();
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(CREATE_REGIONS_INDEX)) {
+                stmt.executeUpdate();
+            }
+            if (getVersion() < 1) {
+                indexLegacyEdits();
+                setVersion(1);
+            }
             return true;
         });
     }
 
+    private int getVersion() throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("PRAGMA user_version")) {
+            ResultSet result = stmt.executeQuery();
+            return result.next() ? result.getInt(1) : 0;
+        }
+    }
+
+    private void setVersion(int version) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("PRAGMA user_version = " + version)) {
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Index the edits which were logged before the region index existed, using their bounding box
+     */
+    private void indexLegacyEdits() throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement select = connection.prepareStatement(GET_UNINDEXED);
+             PreparedStatement insert = connection.prepareStatement(INSERT_REGION)) {
+            ResultSet result = select.executeQuery();
+            while (result.next()) {
+                ChunkRegionIndex chunks = new ChunkRegionIndex();
+                chunks.addArea(result.getInt("x1"), result.getInt("z1"), result.getInt("x2"), result.getInt("z2"));
+                addRegions(insert, result.getBytes("player"), result.getInt("id"), chunks);
+            }
+            insert.executeBatch();
+        } finally {
+            commit();
+        }
+    }
+
+    private void addRegions(PreparedStatement stmt, byte[] uuidBytes, int id, ChunkRegionIndex chunks) throws SQLException {
+        SQLException[] error = new SQLException[1];
+        chunks.forEach((regionX, regionZ, bitmap) -> {
+            if (error[0] != null) {
+                return;
+            }
+            try {
+                stmt.setBytes(1, uuidBytes);
+                stmt.setInt(2, id);
+                stmt.setInt(3, regionX);
+                stmt.setInt(4, regionZ);
+                stmt.setBytes(5, bitmap);
+                stmt.addBatch();
+            } catch (SQLException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
     public Future<Integer> delete(UUID uuid, int id) {
         return call(() -> {
+            byte[] uuidBytes = toBytes(uuid);
+            try (PreparedStatement stmt = connection.prepareStatement(DELETE_REGIONS_USER)) {
+                stmt.setBytes(1, uuidBytes);
+                stmt.setInt(2, id);
+                stmt.executeUpdate();
+            }
             try (PreparedStatement stmt = connection.prepareStatement(DELETE_EDIT_USER)) {
-                stmt.setBytes(1, toBytes(uuid));
+                stmt.setBytes(1, uuidBytes);
                 stmt.setInt(2, id);
                 return stmt.executeUpdate();
             }
@@ -155,6 +239,10 @@ public Future<Integer> purge(int diff) {
         long now = System.currentTimeMillis() / 1000;
         final int then = (int) (now - diff);
         return call(() -> {
+            try (PreparedStatement stmt = connection.prepareStatement(PURGE_REGIONS)) {
+                stmt.setInt(1, then);
+                stmt.executeUpdate();
+            }
             try (PreparedStatement stmt = connection.prepareStatement(PURGE)) {
                 stmt.setInt(1, then);
                 return stmt.executeUpdate();
@@ -172,41 +260,71 @@ public Iterable<Supplier<RollbackOptimizedHistory>> getEdits(UUID uuid, long min
         Future<Integer> future = call(() -> {
             try {
                 int count = 0;
+                int minChunkX = pos1.getBlockX() >> 4;
+                int minChunkZ = pos1.getBlockZ() >> 4;
+                int maxChunkX = pos2.getBlockX() >> 4;
+                int maxChunkZ = pos2.getBlockZ() >> 4;
+                List<byte[]> deleteUuids = new ArrayList<>();
+                List<Integer> deleteIds = new ArrayList<>();
                 String stmtStr = ascending ? uuid == null ? GET_EDITS_ASC : GET_EDITS_USER_ASC :
                         uuid == null ? GET_EDITS : GET_EDITS_USER;
                 try (PreparedStatement stmt = connection.prepareStatement(stmtStr)) {
-                    stmt.setInt(1, (int) (minTime / 1000));
-                    stmt.setInt(2, pos1.getBlockX());
-                    stmt.setInt(3, pos2.getBlockX());
-                    stmt.setInt(4, pos1.getBlockZ());
-                    stmt.setInt(5, pos2.getBlockZ());
-                    stmt.setByte(6, (byte) (pos1.getBlockY() - 128));
-                    stmt.setByte(7, (byte) (pos2.getBlockY() - 128));
+                    stmt.setInt(1, minChunkX >> 5);
+                    stmt.setInt(2, maxChunkX >> 5);
+                    stmt.setInt(3, minChunkZ >> 5);
+                    stmt.setInt(4, maxChunkZ >> 5);
+                    stmt.setInt(5, (int) (minTime / 1000));
+                    stmt.setInt(6, pos1.getBlockX());
+                    stmt.setInt(7, pos2.getBlockX());
+                    stmt.setInt(8, pos1.getBlockZ());
+                    stmt.setInt(9, pos2.getBlockZ());
+                    stmt.setByte(10, (byte) (pos1.getBlockY() - 128));
+                    stmt.setByte(11, (byte) (pos2.getBlockY() - 128));
                     if (uuid != null) {
                         byte[] uuidBytes = toBytes(uuid);
-                        stmt.setBytes(8, uuidBytes);
+                        stmt.setBytes(12, uuidBytes);
                     }
                     ResultSet result = stmt.executeQuery();
-                    if (!result.next()) {
-                        return 0;
-                    }
-                    do {
+                    // The region rows of an edit are adjacent, so only the last match needs to be remembered
+                    byte[] lastUuid = null;
+                    int lastId = 0;
+                    while (result.next()) {
+                        byte[] uuidBytes = result.getBytes("player");
+                        int id = result.getInt("id");
+                        if (lastId == id && Arrays.equals(lastUuid, uuidBytes)) {
+                            continue;
+                        }
+                        byte[] bitmap = result.getBytes("chunks");
+                        if (!ChunkRegionIndex.intersects(bitmap, result.getInt("rx"), result.getInt("rz"), minChunkX, minChunkZ, maxChunkX, maxChunkZ)) {
+                            continue;
+                        }
+                        lastUuid = uuidBytes;
+                        lastId = id;
                         count++;
                         Supplier<RollbackOptimizedHistory> history = create(result);
                         yieldIterable.accept(history);
-                    } while (result.next());
+                        if (delete && uuid != null) {
+                            deleteUuids.add(uuidBytes);
+                            deleteIds.add(id);
+                        }
+                    }
                 }
-                if (delete && uuid != null) {
-                    try (PreparedStatement stmt = connection.prepareStatement(DELETE_EDITS_USER)) {
-                        stmt.setInt(1, (int) (minTime / 1000));
-                        stmt.setInt(2, pos1.getBlockX());
-                        stmt.setInt(3, pos2.getBlockX());
-                        stmt.setInt(4, pos1.getBlockZ());
-                        stmt.setInt(5, pos2.getBlockZ());
-                        stmt.setByte(6, (byte) (pos1.getBlockY() - 128));
-                        stmt.setByte(7, (byte) (pos2.getBlockY() - 128));
-                        byte[] uuidBytes = ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
-                        stmt.setBytes(8, uuidBytes);
+                if (!deleteIds.isEmpty()) {
+                    commit();
+                    connection.setAutoCommit(false);
+                    try (PreparedStatement regions = connection.prepareStatement(DELETE_REGIONS_USER);
+                         PreparedStatement edits = connection.prepareStatement(DELETE_EDIT_USER)) {
+                        for (int i = 0; i < deleteIds.size(); i++) {
+                            for (PreparedStatement stmt : new PreparedStatement[] {regions, edits}) {
+                                stmt.setBytes(1, deleteUuids.get(i));
+                                stmt.setInt(2, deleteIds.get(i));
+                                stmt.addBatch();
+                            }
+                        }
+                        regions.executeBatch();
+                        edits.executeBatch();
+                    } finally {
+                        commit();
                     }
                 }
                 return count;
@@ -239,7 +357,9 @@ private boolean sendBatch() throws SQLException {
         RollbackOptimizedHistory[] copy = IntStream.range(0, size)
             .mapToObj(i -> historyChanges.poll()).toArray(RollbackOptimizedHistory[]::new);
 
-        try (PreparedStatement stmt = connection.prepareStatement(INSERT_EDIT)) {
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_EDIT);
+             PreparedStatement deleteRegions = connection.prepareStatement(DELETE_REGIONS_USER);
+             PreparedStatement insertRegion = connection.prepareStatement(INSERT_REGION)) {
             // `player`,`id`,`time`,`x1`,`x2`,`z1`,`z2`,`y1`,`y2`,`command`,`size`) VALUES(?,?,?,?,?,?,?,?,?,?,?)"
             for (RollbackOptimizedHistory change : copy) {
                 UUID uuid = change.getUUID();
@@ -261,7 +381,19 @@ private boolean sendBatch() throws SQLException {
                 stmt.setInt(11, change.size());
                 stmt.executeUpdate();
                 stmt.clearParameters();
+
+                // Replace the region index of the edit, falling back to its bounding box if it has no chunks
+                ChunkRegionIndex chunks = change.getChunks();
+                if (chunks.isEmpty()) {
+                    chunks = new ChunkRegionIndex();
+                    chunks.addArea(pos1.getX(), pos1.getZ(), pos2.getX(), pos2.getZ());
+                }
+                deleteRegions.setBytes(1, uuidBytes);
+                deleteRegions.setInt(2, change.getIndex());
+                deleteRegions.executeUpdate();
+                addRegions(insertRegion, uuidBytes, change.getIndex(), chunks);
             }
+            insertRegion.executeBatch();
         } finally {
             commit();
         }
@@ -0,0 +1,39 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.beta.Filter;
+import com.boydti.fawe.beta.IChunk;
+import com.sk89q.worldedit.regions.Region;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Delete the chunks of an {@link MCAWorld} which match a predicate
+ * - Chunks are tested as a whole, so their blocks are never filtered
+ * - The same instance is shared by every worker, so the predicate must be thread safe
+ */
+public class DeleteChunkFilter implements Filter {
+    private final Predicate<MCAChunk> predicate;
+    private final LongAdder deleted = new LongAdder();
+
+    public DeleteChunkFilter(Predicate<MCAChunk> predicate) {
+        this.predicate = predicate;
+    }
+
+    @Override
+    public <T extends IChunk> T applyChunk(T chunk, @Nullable Region region) {
+        if (chunk instanceof MCAChunk && predicate.test((MCAChunk) chunk)) {
+            ((MCAChunk) chunk).setDeleted(true);
+            deleted.increment();
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of chunks deleted
+     */
+    public long getTotal() {
+        return deleted.sum();
+    }
+}
@@ -5,11 +5,13 @@
 import com.boydti.fawe.beta.IChunk;
 import com.boydti.fawe.beta.IChunkSet;
 import com.boydti.fawe.beta.IQueueExtent;
+import com.boydti.fawe.beta.implementation.blocks.CharSetBlocks;
 import com.boydti.fawe.beta.implementation.filter.block.ChunkFilterBlock;
 import com.boydti.fawe.beta.implementation.lighting.HeightMapType;
 import com.boydti.fawe.jnbt.streamer.StreamDelegate;
 import com.boydti.fawe.jnbt.streamer.ValueReader;
 import com.boydti.fawe.object.collection.BitArray;
+import com.boydti.fawe.object.collection.BitArrayUnstretched;
 import com.boydti.fawe.object.collection.BlockVector3ChunkMap;
 import com.boydti.fawe.util.MathMan;
 import com.sk89q.jnbt.CompoundTag;
@@ -17,6 +19,7 @@
 import com.sk89q.jnbt.NBTConstants;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.worldedit.internal.Constants;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.registry.state.Property;
@@ -41,20 +44,33 @@
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
 import javax.annotation.Nullable;
 
 public class MCAChunk implements IChunk {
+    public static final int DEFAULT_DATA_VERSION = 1631;
+    public static final String DEFAULT_STATUS = "decorated";
+
     public final boolean[] hasSections = new boolean[16];
 
     public boolean hasBiomes = false;
     public final BiomeType[] biomes = new BiomeType[256];
+    // Legacy ids of 1.15+ (4x4x4) biomes, or null if the chunk has 2D biomes
+    public int[] biomes3d;
 
     public final char[] blocks = new char[65536];
+    // Sections which have been read but not decoded into blocks yet
+    // - A section's palette is cleared after its blocks are decoded, so seeing no palette means the blocks can be read
+    private final AtomicReferenceArray<BlockState[]> palettes = new AtomicReferenceArray<>(16);
+    private final long[][] packedBlocks = new long[16][];
 
     public final BlockVector3ChunkMap<CompoundTag> tiles = new BlockVector3ChunkMap<>();
     public final Map<UUID, CompoundTag> entities = new HashMap<>();
     public long inhabitedTime = System.currentTimeMillis();
     public long lastUpdate;
+    public int dataVersion = DEFAULT_DATA_VERSION;
+    public String status = DEFAULT_STATUS;
 
     public int modified;
     public boolean deleted;
@@ -64,33 +80,105 @@ public class MCAChunk implements IChunk {
 
     public MCAChunk() {}
 
+    /**
+     * Keep a section once its Y, palette and block states have all been read, in any order
+     * - The section is only decoded into {@link #blocks} when its blocks are first accessed
+     */
     private boolean readLayer(Section section) {
-        if (section.palette == null || section.layer == -1 || section.blocksLength == -1 || section.palette[section.palette.length - 1] == null || section.blocks == null) {
+        BlockState[] palette = section.palette;
+        if (section.layer < 0 || section.layer > 15 || palette == null || palette.length == 0 || palette[palette.length - 1] == null) {
             // not initialized
             return false;
         }
-
-        int bitsPerEntry = MathMan.log2nlz(section.palette.length - 1);
-        BitArray bitArray = new BitArray(bitsPerEntry, 4096, section.blocks);
-        char[] buffer = FaweCache.IMP.SECTION_BITS_TO_CHAR.get();
-        bitArray.toRaw(buffer);
-        int offset = section.layer << 12;
-        for (int i = 0; i < buffer.length; i++) {
-            BlockState block = section.palette[buffer[i]];
-            blocks[offset + i] = block.getOrdinalChar();
+        if (palette.length != 1 && section.blocks == null) {
+            return false;
         }
+        packedBlocks[section.layer] = section.blocks;
+        palettes.set(section.layer, palette);
+        hasSections[section.layer] = true;
 
         section.layer = -1;
-        section.blocksLength = -1;
         section.blocks = null;
         section.palette = null;
         return true;
     }
 
+    /**
+     * Decode a section which was read lazily, so {@link #blocks} can be used directly
+     * - Synchronized, as reads from other threads may decode the same section
+     * - 1.16+ block states are not packed across longs, which is detected from the array length
+     *
+     * @param layer the section
+     */
+    public void decodeSection(int layer) {
+        if (palettes.get(layer) == null) {
+            return;
+        }
+        synchronized (this) {
+            BlockState[] palette = palettes.get(layer);
+            if (palette == null) {
+                return;
+            }
+            long[] packed = packedBlocks[layer];
+            int offset = layer << 12;
+            if (palette.length == 1) {
+                Arrays.fill(blocks, offset, offset + 4096, palette[0].getOrdinalChar());
+            } else {
+                int bitsPerEntry = Math.max(4, MathMan.log2nlz(palette.length - 1));
+                char[] buffer = FaweCache.IMP.SECTION_BITS_TO_CHAR.get();
+                if (packed.length == bitsPerEntry << 6) {
+                    new BitArray(bitsPerEntry, 4096, packed).toRaw(buffer);
+                } else {
+                    new BitArrayUnstretched(bitsPerEntry, 4096, packed).toRaw(buffer);
+                }
+                for (int i = 0; i < buffer.length; i++) {
+                    BlockState block = palette[buffer[i]];
+                    blocks[offset + i] = block.getOrdinalChar();
+                }
+            }
+            packedBlocks[layer] = null;
+            palettes.set(layer, null);
+        }
+    }
+
+    /**
+     * Test if any block in a section matches
+     * - A section which hasn't been decoded is first tested by its palette, and only decoded if a palette entry matches
+     *
+     * @param layer the section
+     * @param predicate the block test
+     * @return true if any block matches
+     */
+    public boolean anyMatch(int layer, Predicate<BlockState> predicate) {
+        if (!hasSections[layer]) {
+            return false;
+        }
+        BlockState[] palette = palettes.get(layer);
+        if (palette != null) {
+            boolean any = false;
+            for (BlockState state : palette) {
+                if (predicate.test(state)) {
+                    any = true;
+                    break;
+                }
+            }
+            if (!any) {
+                return false;
+            }
+            // The palette may have entries which are no longer used
+            decodeSection(layer);
+        }
+        for (int i = layer << 12, end = i + 4096; i < end; i++) {
+            if (predicate.test(BlockTypesCache.states[blocks[i]])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static class Section {
         public int layer = -1;
         public long[] blocks;
-        public int blocksLength = -1;
         public BlockState[] palette;
     }
 
@@ -114,10 +202,13 @@ public void read(NBTInputStream nis, boolean readPos) throws IOException {
 
     public StreamDelegate createDelegate(NBTInputStream nis, boolean readPos) {
         StreamDelegate root = new StreamDelegate();
-        StreamDelegate level = root.add("").add("Level");
+        StreamDelegate compound = root.add("");
+        compound.add("DataVersion").withInt((i, v) -> dataVersion = v);
+        StreamDelegate level = compound.add("Level");
 
         level.add("InhabitedTime").withLong((i, v) -> inhabitedTime = v);
         level.add("LastUpdate").withLong((i, v) -> lastUpdate = v);
+        level.add("Status").withValue((ValueReader<String>) (i, v) -> status = v);
 
         if (readPos) {
             level.add("xPos").withInt((i, v) -> MCAChunk.this.chunkX = v);
@@ -130,10 +221,16 @@ public StreamDelegate createDelegate(NBTInputStream nis, boolean readPos) {
         StreamDelegate layer = layers.add();
         layer.withInfo((length, type) -> {
             section.layer = -1;
-            section.blocksLength = -1;
+            section.blocks = null;
+            section.palette = null;
         });
-        layer.add("Y").withInt((i, y) -> section.layer = y);
-        layer.add("Palette").withElem((ValueReader<Map<String, Object>>) (index, map) -> {
+        layer.add("Y").withInt((i, y) -> {
+            section.layer = y;
+            readLayer(section);
+        });
+        StreamDelegate palette = layer.add("Palette");
+        palette.withInfo((length, type) -> section.palette = new BlockState[length]);
+        palette.withElem((ValueReader<Map<String, Object>>) (index, map) -> {
             String name = (String) map.get("Name");
             BlockType type = BlockTypes.get(name);
             BlockState state = type.getDefaultState();
@@ -143,20 +240,18 @@ public StreamDelegate createDelegate(NBTInputStream nis, boolean readPos) {
                     String key = entry.getKey();
                     String value = entry.getValue();
                     Property<Object> property = type.getProperty(key);
-                    state = state.with(property, property.getValueFor(value));
+                    if (property != null) {
+                        state = state.with(property, property.getValueFor(value));
+                    }
                 }
             }
             section.palette[index] = state;
             readLayer(section);
         });
-        StreamDelegate blockStates = layer.add("BlockStates");
-        blockStates.withInfo((length, type) -> {
-            if (section.blocks == null) {
-                section.blocks = FaweCache.IMP.LONG_BUFFER_1024.get();
-            }
-            section.blocksLength = length;
+        layer.add("BlockStates").withValue((ValueReader<long[]>) (index, value) -> {
+            section.blocks = value;
+            readLayer(section);
         });
-        blockStates.withLong((index, value) -> section.blocks[index] = value);
         level.add("TileEntities").withElem((ValueReader<Map<String, Object>>) (index, value) -> {
             CompoundTag tile = FaweCache.IMP.asTag(value);
             int x = tile.getInt("x") & 15;
@@ -168,7 +263,29 @@ public StreamDelegate createDelegate(NBTInputStream nis, boolean readPos) {
             CompoundTag entity = FaweCache.IMP.asTag(value);
             entities.put(entity.getUUID(), entity);
         });
-        level.add("Biomes").withInt((index, value) -> biomes[index] = BiomeTypes.getLegacy(value));
+        StreamDelegate biomeDelegate = level.add("Biomes");
+        biomeDelegate.withInfo((length, type) -> {
+            hasBiomes = true;
+            biomes3d = length == 1024 ? new int[1024] : null;
+        });
+        biomeDelegate.withInt((index, value) -> {
+            if (biomes3d == null) {
+                if (index < 256) {
+                    biomes[index] = BiomeTypes.getLegacy(value);
+                }
+                return;
+            }
+            biomes3d[index] = value;
+            if (index < 16) {
+                // The bottom layer of 4x4 cells is used for 2D lookups
+                BiomeType biome = BiomeTypes.getLegacy(value);
+                int x = (index & 3) << 2;
+                int z = (index >> 2) << 2;
+                for (int dz = 0; dz < 4; dz++) {
+                    Arrays.fill(biomes, ((z + dz) << 4) + x, ((z + dz) << 4) + x + 4, biome);
+                }
+            }
+        });
 
         return root;
     }
@@ -208,12 +325,19 @@ public MCAChunk reset(boolean full) {
         modified = 0;
         deleted = false;
         hasBiomes = false;
+        biomes3d = null;
+        dataVersion = DEFAULT_DATA_VERSION;
+        status = DEFAULT_STATUS;
         if (full) {
             for (int i = 0; i < 65536; i++) {
                 blocks[i] = BlockID.AIR;
             }
         }
         Arrays.fill(hasSections, false);
+        Arrays.fill(packedBlocks, null);
+        for (int layer = 0; layer < 16; layer++) {
+            palettes.set(layer, null);
+        }
         return this;
     }
 
@@ -224,9 +348,10 @@ public void write(NBTOutputStream nbtOut) throws IOException {
         int[] blocksCopy = FaweCache.IMP.SECTION_BLOCKS.get();
 
         nbtOut.writeNamedTagName("", NBTConstants.TYPE_COMPOUND);
-        nbtOut.writeNamedTag("DataVersion", 1631);
+        nbtOut.writeNamedTag("DataVersion", dataVersion);
+        boolean unstretched = dataVersion >= Constants.DATA_VERSION_MC_1_16;
         nbtOut.writeLazyCompoundTag("Level", out -> {
-            out.writeNamedTag("Status", "decorated");
+            out.writeNamedTag("Status", status);
             out.writeNamedTag("xPos", getX());
             out.writeNamedTag("zPos", getZ());
             if (entities.isEmpty()) {
@@ -243,11 +368,17 @@ public void write(NBTOutputStream nbtOut) throws IOException {
             out.writeNamedTag("InhabitedTime", inhabitedTime);
             out.writeNamedTag("LastUpdate", lastUpdate);
             if (hasBiomes) {
-                int type = NBTConstants.TYPE_BYTE_ARRAY;
-                out.writeNamedTagName("Biomes", type);
-                out.writeInt(biomes.length);
-                for (BiomeType biome : biomes) {
-                    out.write(biome.getLegacyId());
+                out.writeNamedTagName("Biomes", NBTConstants.TYPE_INT_ARRAY);
+                if (biomes3d != null) {
+                    out.writeInt(biomes3d.length);
+                    for (int biome : biomes3d) {
+                        out.writeInt(biome);
+                    }
+                } else {
+                    out.writeInt(biomes.length);
+                    for (BiomeType biome : biomes) {
+                        out.writeInt(biome.getLegacyId());
+                    }
                 }
             }
             int len = 0;
@@ -266,6 +397,26 @@ public void write(NBTOutputStream nbtOut) throws IOException {
                 }
                 out.writeNamedTag("Y", (byte) layer);
 
+                BlockState[] rawPalette = palettes.get(layer);
+                long[] rawBlocks = packedBlocks[layer];
+                if (rawPalette != null && rawBlocks != null) {
+                    // Not decoded, so it's unchanged and can be written as it was read
+                    out.writeNamedTagName("Palette", NBTConstants.TYPE_LIST);
+                    out.writeByte(NBTConstants.TYPE_COMPOUND);
+                    out.writeInt(rawPalette.length);
+                    for (BlockState state : rawPalette) {
+                        writePaletteEntry(out, state);
+                    }
+                    out.writeNamedTagName("BlockStates", NBTConstants.TYPE_LONG_ARRAY);
+                    out.writeInt(rawBlocks.length);
+                    for (long value : rawBlocks) {
+                        out.writeLong(value);
+                    }
+                    out.writeEndTag();
+                    continue;
+                }
+                decodeSection(layer);
+
                 int blockIndexStart = layer << 12;
                 int blockIndexEnd = blockIndexStart + 4096;
                 int num_palette = 0;
@@ -291,41 +442,21 @@ public void write(NBTOutputStream nbtOut) throws IOException {
                     out.writeInt(num_palette);
 
                     for (int i = 0; i < num_palette; i++) {
-                        int ordinal = paletteToBlock[i];
-                        BlockState state = BlockTypesCache.states[ordinal];
-                        BlockType type = state.getBlockType();
-                        out.writeNamedTag("Name", type.getId());
-
-                        // Has no properties
-                        if (type.getDefaultState() != state) {
-                            // Write properties
-                            out.writeNamedTagName("Properties", NBTConstants.TYPE_COMPOUND);
-                            for (Property<?> property : type.getProperties()) {
-                                String key = property.getName();
-                                Object value = state.getState(property);
-                                String valueStr = value.toString();
-                                if (Character.isUpperCase(valueStr.charAt(0))) {
-                                    System.out.println("Invalid uppercase value " + value);
-                                    valueStr = valueStr.toLowerCase();
-                                }
-                                out.writeNamedTag(key, valueStr);
-                            }
-                            out.writeEndTag();
-                        }
-                        out.writeEndTag();
+                        writePaletteEntry(out, BlockTypesCache.states[paletteToBlock[i]]);
                     }
 
 
-                    // BlockStates
-                    int bitsPerEntry = MathMan.log2nlz(num_palette - 1);
-                    int blockBitArrayEnd = (bitsPerEntry * 4096) >> 6;
-                    if (num_palette == 1) {
-                        // Set a value, because minecraft needs it for some  reason
-                        blockstates[0] = 0;
-                        blockBitArrayEnd = 1;
+                    // BlockStates, with the minimum of 4 bits the server expects
+                    int bitsPerEntry = Math.max(4, MathMan.log2nlz(num_palette - 1));
+                    int blockBitArrayEnd;
+                    if (unstretched) {
+                        BitArrayUnstretched bitArray = new BitArrayUnstretched(bitsPerEntry, 4096, blockstates);
+                        bitArray.fromRaw(blocksCopy);
+                        blockBitArrayEnd = bitArray.getLength();
                     } else {
                         BitArray bitArray = new BitArray(bitsPerEntry, 4096, blockstates);
                         bitArray.fromRaw(blocksCopy);
+                        blockBitArrayEnd = bitArray.getLength();
                     }
 
                     out.writeNamedTagName("BlockStates", NBTConstants.TYPE_LONG_ARRAY);
@@ -357,6 +488,29 @@ public void write(NBTOutputStream nbtOut) throws IOException {
         nbtOut.writeEndTag();
     }
 
+    private static void writePaletteEntry(NBTOutputStream out, BlockState state) throws IOException {
+        BlockType type = state.getBlockType();
+        out.writeNamedTag("Name", type.getId());
+
+        // Has no properties
+        if (type.getDefaultState() != state) {
+            // Write properties
+            out.writeNamedTagName("Properties", NBTConstants.TYPE_COMPOUND);
+            for (Property<?> property : type.getProperties()) {
+                String key = property.getName();
+                Object value = state.getState(property);
+                String valueStr = value.toString();
+                if (Character.isUpperCase(valueStr.charAt(0))) {
+                    System.out.println("Invalid uppercase value " + value);
+                    valueStr = valueStr.toLowerCase();
+                }
+                out.writeNamedTag(key, valueStr);
+            }
+            out.writeEndTag();
+        }
+        out.writeEndTag();
+    }
+
     public FastByteArrayOutputStream toBytes(byte[] buffer) throws IOException {
         if (buffer == null) {
             buffer = new byte[8192];
@@ -468,9 +622,16 @@ public void setEntity(CompoundTag entityTag) {
 
     @Override
     public BiomeType getBiomeType(int x, int y, int z) {
+        if (biomes3d != null) {
+            return BiomeTypes.getLegacy(biomes3d[getBiomeIndex(x, y, z)]);
+        }
         return this.biomes[(z << 4) | x];
     }
 
+    private static int getBiomeIndex(int x, int y, int z) {
+        return ((y >> 2) << 4) | ((z >> 2) << 2) | (x >> 2);
+    }
+
     @Override
     public BiomeType[] getBiomes() {
         return this.biomes;
@@ -492,7 +653,11 @@ public boolean setBiome(BlockVector3 pos, BiomeType biome) {
     @Override
     public boolean setBiome(int x, int y, int z, BiomeType biome) {
         setModified();
-        biomes[x + (z << 4)] = biome; //TODO Support 3D Biomes
+        hasBiomes = true;
+        biomes[x + (z << 4)] = biome;
+        if (biomes3d != null) {
+            biomes3d[getBiomeIndex(x, y, z)] = biome.getLegacyId();
+        }
         return true;
     }
 
@@ -520,6 +685,7 @@ private final int getIndex(int x, int y, int z) {
     }
 
     public int getBlockOrdinal(int x, int y, int z) {
+        decodeSection(y >> 4);
         return blocks[x | (z << 4) | (y << 8)];
     }
 
@@ -562,12 +728,17 @@ public <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B h
 
     @Override
     public void setBlocks(int layer, char[] data) {
+        packedBlocks[layer] = null;
+        palettes.set(layer, null);
         int offset = layer << 12;
         System.arraycopy(data, 0, blocks, offset, 4096);
+        hasSections[layer] = true;
+        setModified();
     }
 
     @Override
     public char[] load(int layer) {
+        decodeSection(layer);
         char[] tmp = FaweCache.IMP.SECTION_BITS_TO_CHAR.get();
         int offset = layer << 12;
         System.arraycopy(blocks, offset, tmp, 0, 4096);
@@ -575,11 +746,18 @@ public char[] load(int layer) {
     }
 
     public void setBlock(int x, int y, int z, char ordinal) {
+        decodeSection(y >> 4);
         blocks[getIndex(x, y, z)] = ordinal;
+        hasSections[y >> 4] = true;
+        setModified();
     }
 
     public void setBiome(BiomeType biome) {
+        hasBiomes = true;
         Arrays.fill(this.biomes, biome);
+        if (biomes3d != null) {
+            Arrays.fill(biomes3d, biome.getLegacyId());
+        }
     }
 
     @Override
@@ -604,14 +782,67 @@ public CompoundTag getEntity(UUID uuid) {
 
     @Override
     public Future call(IChunkSet set, Runnable finalize) {
+        for (int layer = 0; layer < 16; layer++) {
+            if (!set.hasSection(layer)) {
+                continue;
+            }
+            decodeSection(layer);
+            char[] arr = set.load(layer);
+            int offset = layer << 12;
+            for (int i = 0; i < 4096; i++) {
+                char ordinal = arr[i];
+                if (ordinal != BlockID.__RESERVED__) {
+                    blocks[offset + i] = ordinal;
+                }
+            }
+            hasSections[layer] = true;
+            setModified();
+        }
+        BiomeType[] setBiomes = set.getBiomes();
+        if (setBiomes != null) {
+            for (int i = 0; i < setBiomes.length; i++) {
+                BiomeType biome = setBiomes[i];
+                if (biome != null) {
+                    setBiome(i & 15, 0, i >> 4, biome);
+                }
+            }
+        }
+        Map<BlockVector3, CompoundTag> setTiles = set.getTiles();
+        if (!setTiles.isEmpty()) {
+            for (Map.Entry<BlockVector3, CompoundTag> entry : setTiles.entrySet()) {
+                BlockVector3 pos = entry.getKey();
+                setTile(pos.getX(), pos.getY(), pos.getZ(), entry.getValue());
+            }
+        }
+        Set<UUID> entityRemoves = set.getEntityRemoves();
+        if (!entityRemoves.isEmpty()) {
+            setModified();
+            for (UUID uuid : entityRemoves) {
+                removeEntity(uuid);
+            }
+        }
+        for (CompoundTag entity : set.getEntities()) {
+            setEntity(entity);
+        }
+        if (finalize != null) {
+            finalize.run();
+        }
         return null;
     }
 
+    /**
+     * Filter the blocks of this chunk, then apply what the filter set
+     * - Reads come from a copy of each layer, so they aren't affected by blocks set by the filter
+     */
     @Override
     public void filterBlocks(Filter filter, ChunkFilterBlock block, @Nullable Region region, boolean full) {
+        CharSetBlocks set = CharSetBlocks.newInstance();
         try {
-            block.filter(this, this, this, filter, region, full);
+            block.filter(this, new MCAGetBlocks(this), set, filter, region, full);
+            call(set, null);
         } finally {
+            set.reset();
+            set.recycle();
             filter.finishChunk(this);
         }
     }
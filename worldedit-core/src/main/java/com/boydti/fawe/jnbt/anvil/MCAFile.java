@@ -25,6 +25,9 @@
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -70,7 +73,8 @@ public class MCAFile extends ExtentBatchProcessorHolder implements Trimable, ICh
     private MCAChunk[] chunks;
     private boolean[] chunkInitialized;
     private Object[] locks;
-    private Deflater deflater = new Deflater(1, false);
+    // Chunks are compressed by pool tasks, so each thread needs its own deflater
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(1, false));
 
     public MCAFile(ForkJoinPool pool) {
         this.pool = pool;
@@ -129,7 +133,7 @@ public MCAFile init(File file, int mcrX, int mcrZ) throws FileNotFoundException
     }
 
     public MCAFile init(World world, int mcrX, int mcrZ) throws FileNotFoundException {
-        return init(new File(world.getStoragePath().toFile(), File.separator + "regions" + File.separator + "r." + mcrX + "." + mcrZ + ".mca"));
+        return init(new File(world.getStoragePath().toFile(), File.separator + "region" + File.separator + "r." + mcrX + "." + mcrZ + ".mca"));
     }
 
     @Override
@@ -144,15 +148,24 @@ public BlockVector3 getMaximumPoint() {
 
     @Override
     public boolean setTile(int x, int y, int z, CompoundTag tile) throws WorldEditException {
-//        final IChunk chunk = getChunk(x >> 4, z >> 4);
-//        return chunk.setTile(x & 15, y, z & 15, tile);
-        return false;
+        MCAChunk chunk = getOrCreateChunk(x >> 4, z >> 4);
+        return chunk != null && chunk.setTile(x & 15, y, z & 15, tile);
     }
 
+    /**
+     * @return the offset of a chunk's location in the header
+     */
     public int getIndex(int chunkX, int chunkZ) {
         return ((chunkX & 31) << 2) + ((chunkZ & 31) << 7);
     }
 
+    /**
+     * @return the index of a chunk in the chunk arrays
+     */
+    private int getChunkIndex(int chunkX, int chunkZ) {
+        return (chunkX & 31) + ((chunkZ & 31) << 5);
+    }
+
 
     private RandomAccessFile getRaf() throws FileNotFoundException {
         if (this.raf == null) {
@@ -174,6 +187,18 @@ private void readHeader() throws IOException {
         }
     }
 
+    private void readHeaderUnchecked() {
+        if (!readLocations) {
+            synchronized (this) {
+                try {
+                    readHeader();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
     public void clear() {
         if (raf != null) {
             try {
@@ -181,6 +206,7 @@ public void clear() {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            raf = null;
         }
         deleted = false;
         readLocations = false;
@@ -212,7 +238,7 @@ public File getFile() {
     }
 
     public MCAChunk getCachedChunk(int cx, int cz) {
-        int pair = getIndex(cx, cz);
+        int pair = getChunkIndex(cx, cz);
         MCAChunk chunk = chunks[pair];
         if (chunk != null && chunkInitialized[pair]) {
             return chunk;
@@ -223,7 +249,7 @@ public MCAChunk getCachedChunk(int cx, int cz) {
     public void setChunk(MCAChunk chunk) {
         int cx = chunk.getX();
         int cz = chunk.getZ();
-        int pair = getIndex(cx, cz);
+        int pair = getChunkIndex(cx, cz);
         chunks[pair] = chunk;
     }
 
@@ -238,7 +264,7 @@ public MCAChunk getOrCreateChunk(int chunkX, int chunkZ) {
     }
 
     public MCAChunk getChunk(int cx, int cz) throws IOException {
-        int pair = getIndex(cx, cz);
+        int pair = getChunkIndex(cx, cz);
         MCAChunk chunk = chunks[pair];
         if (chunk == null) {
             Object lock = locks[pair];
@@ -255,7 +281,7 @@ public MCAChunk getChunk(int cx, int cz) throws IOException {
         }
         synchronized (chunk) {
             if (!chunkInitialized[pair]) {
-                readChunk(chunk, pair);
+                readChunk(chunk, getIndex(cx, cz));
                 chunkInitialized[pair] = true;
             }
         }
@@ -263,15 +289,21 @@ public MCAChunk getChunk(int cx, int cz) throws IOException {
     }
 
     private MCAChunk readChunk(MCAChunk chunk, int i) throws IOException {
+        synchronized (this) {
+            readHeader();
+        }
         int offset = (((locations[i] & 0xFF) << 16) + ((locations[i + 1] & 0xFF) << 8) + ((locations[i + 2] & 0xFF))) << 12;
         if (offset == 0) {
             return null;
         }
-        int size = (locations[i + 3] & 0xFF) << 12;
-        try (NBTInputStream nis = getChunkIS(offset)) {
+        // Only the raw bytes are read while holding the file, so chunks can be inflated and parsed concurrently
+        FastByteArrayInputStream compressed = getChunkCompressedBytes(offset);
+        byte[] copy = Arrays.copyOf(compressed.array, compressed.length);
+        try (NBTInputStream nis = getChunkIS(new FastByteArrayInputStream(copy))) {
             chunk.read(nis, false);
+        } catch (IllegalAccessException unlikely) {
+            throw new IOException(unlikely);
         }
-        System.out.println("TODO multithreaded"); // TODO
         return chunk;
     }
 
@@ -328,6 +360,12 @@ public void forEachChunk(RunnableVal4<Integer, Integer, Integer, Integer> onEach
     }
 
     public void forEachChunk(Consumer<MCAChunk> onEach) {
+        try {
+            readHeader();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
         int i = 0;
         for (int z = 0; z < 32; z++) {
             for (int x = 0; x < 32; x++, i += 4) {
@@ -335,7 +373,7 @@ public void forEachChunk(Consumer<MCAChunk> onEach) {
                 int size = locations[i + 3] & 0xFF;
                 if (size != 0) {
                     try {
-                        onEach.accept(getChunk(x, z));
+                        onEach.accept(getChunk((X << 5) + x, (Z << 5) + z));
                     } catch (Throwable ignore) {
                     }
                 }
@@ -343,13 +381,114 @@ public void forEachChunk(Consumer<MCAChunk> onEach) {
         }
     }
 
+    /**
+     * Stream every chunk of the file through a task, then replace the file if any chunk was changed
+     * - One chunk is reused, so only a single chunk is held in memory rather than the whole region
+     * - From the first change, chunks are streamed into a new file with a {@link MCAFileWriter}:
+     * modified chunks are compressed when the task returns, other chunks keep their original bytes,
+     * compression and timestamp
+     * - Chunks deleted by the task are removed from the file
+     *
+     * @param task the task to run for each chunk
+     * @return true if the file was rewritten
+     * @throws IOException
+     */
+    public synchronized boolean processChunks(Consumer<MCAChunk> task) throws IOException {
+        readHeader();
+        int[] timestamps = readTimestamps();
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        MCAFileWriter writer = null;
+        byte[] original = new byte[8192];
+        MCAChunk chunk = new MCAChunk();
+        try {
+            for (int i = 0; i < 1024; i++) {
+                int offset = getOffset(i);
+                if (offset == 0) {
+                    continue;
+                }
+                // Copied, as the task may read other chunks on this thread
+                FastByteArrayInputStream compressed = getChunkCompressedBytes(offset);
+                int length = compressed.length;
+                if (original.length < length) {
+                    original = new byte[length];
+                }
+                System.arraycopy(compressed.array, 0, original, 0, length);
+                int compression = getChunkCompression(offset);
+                chunk.reset(true);
+                chunk.setPosition((X << 5) + (i & 31), (Z << 5) + (i >> 5));
+                try (NBTInputStream nis = getChunkIS(new FastByteArrayInputStream(original, 0, length))) {
+                    chunk.read(nis, false);
+                } catch (IOException | IllegalAccessException e) {
+                    getLogger(MCAFile.class).debug("Skipping unreadable chunk " + chunk.getX() + "," + chunk.getZ() + " in " + file.getName(), e);
+                    if (writer != null) {
+                        writer.write(i & 31, i >> 5, original, length, compression, timestamps[i]);
+                    }
+                    continue;
+                }
+                task.accept(chunk);
+                boolean changed = chunk.isDeleted() || chunk.isModified();
+                if (writer == null) {
+                    if (!changed) {
+                        continue;
+                    }
+                    writer = new MCAFileWriter(tmp);
+                    // Copy the chunks before the first change
+                    for (int j = 0; j < i; j++) {
+                        int previousOffset = getOffset(j);
+                        FastByteArrayInputStream previous = getChunkCompressedBytes(previousOffset);
+                        if (previous != null) {
+                            writer.write(j & 31, j >> 5, previous.array, previous.length, getChunkCompression(previousOffset), timestamps[j]);
+                        }
+                    }
+                }
+                if (chunk.isDeleted()) {
+                    continue;
+                }
+                if (changed) {
+                    writer.write(chunk);
+                } else {
+                    writer.write(i & 31, i >> 5, original, length, compression, timestamps[i]);
+                }
+            }
+        } catch (Throwable e) {
+            if (writer != null) {
+                writer.close();
+                tmp.delete();
+            }
+            throw e;
+        }
+        if (writer == null) {
+            return false;
+        }
+        writer.close();
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        readLocations = false;
+        return true;
+    }
+
+    private int getOffset(int index) {
+        int i = index << 2;
+        return (((locations[i] & 0xFF) << 16) + ((locations[i + 1] & 0xFF) << 8) + ((locations[i + 2] & 0xFF))) << 12;
+    }
+
+    /**
+     * Get the byte offset of a chunk, reading the header if it hasn't been read yet
+     *
+     * @return the offset, or 0 if the chunk is not in the file
+     */
     public int getOffset(int cx, int cz) {
+        readHeaderUnchecked();
         int i = getIndex(cx, cz);
         int offset = (((locations[i] & 0xFF) << 16) + ((locations[i + 1] & 0xFF) << 8) + ((locations[i + 2] & 0xFF)));
         return offset << 12;
     }
 
     public int getSize(int cx, int cz) {
+        readHeaderUnchecked();
         int i = getIndex(cx, cz);
         return (locations[i + 3] & 0xFF) << 12;
     }
@@ -358,17 +497,45 @@ public FastByteArrayInputStream getChunkCompressedBytes(int offset) throws IOExc
         if (offset == 0) {
             return null;
         }
-        synchronized (raf) {
+        synchronized (this) {
+            RandomAccessFile raf = getRaf();
             raf.seek(offset);
-            int size = raf.readInt();
+            // The length includes the compression type
+            int length = raf.readInt() - 1;
             int compression = raf.read();
-            byte[] data = FaweCache.IMP.BYTE_BUFFER_VAR.get(size);
-            raf.readFully(data, 0, size);
-            FastByteArrayInputStream result = new FastByteArrayInputStream(data, 0, size);
+            if (length < 0 || compression == -1) {
+                throw new IOException("Invalid chunk header at " + offset + " in " + file.getName());
+            }
+            byte[] data = FaweCache.IMP.BYTE_BUFFER_VAR.get(length);
+            raf.readFully(data, 0, length);
+            FastByteArrayInputStream result = new FastByteArrayInputStream(data, 0, length);
             return result;
         }
     }
 
+    /**
+     * Get the compression type of a chunk (1 = gzip, 2 = zlib, 3 = none)
+     */
+    public int getChunkCompression(int offset) throws IOException {
+        synchronized (this) {
+            RandomAccessFile raf = getRaf();
+            raf.seek(offset + 4);
+            return raf.read();
+        }
+    }
+
+    private int[] readTimestamps() throws IOException {
+        byte[] header = new byte[4096];
+        synchronized (this) {
+            RandomAccessFile raf = getRaf();
+            raf.seek(4096);
+            raf.readFully(header);
+        }
+        int[] timestamps = new int[1024];
+        ByteBuffer.wrap(header).asIntBuffer().get(timestamps);
+        return timestamps;
+    }
+
     private NBTInputStream getChunkIS(int offset) throws IOException {
         try {
             return getChunkIS(getChunkCompressedBytes(offset));
@@ -420,13 +587,10 @@ private FastByteArrayOutputStream toBytes(MCAChunk chunk) throws IOException {
         if (uncompressed.array.length > writeBuffer.length) {
             FaweCache.IMP.BYTE_BUFFER_VAR.set(uncompressed.array);
         }
-        writeBuffer = uncompressed.array;
         byte[] buffer = FaweCache.IMP.BYTE_BUFFER_8192.get();
-        int length = uncompressed.length;
-        uncompressed.reset();
-        // cheat, reusing the same buffer to read/write
-        int compressedLength = MainUtil.compress(uncompressed.array, length, buffer, uncompressed, deflater);
-        return uncompressed;
+        FastByteArrayOutputStream compressed = new FastByteArrayOutputStream(Math.max(uncompressed.length >> 2, 4096));
+        MainUtil.compress(uncompressed.array, uncompressed.length, buffer, compressed, DEFLATER.get());
+        return compressed;
     }
 
     private void writeSafe(RandomAccessFile raf, int offset, byte[] data, int length) throws IOException {
@@ -461,18 +625,15 @@ private void writeHeader(RandomAccessFile raf, int cx, int cz, int offsetMedium,
         }
     }
 
-    public void close() {
-        if (raf == null) return;
-        synchronized (raf) {
-            if (raf != null) {
-                flush(true);
-                try {
-                    raf.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                raf = null;
+    public synchronized void close() {
+        flush(true);
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+            raf = null;
         }
     }
 
@@ -496,7 +657,7 @@ public boolean isModified() {
      * @param wait - If the flush method needs to wait for the pool
      */
     public void flush(boolean wait) {
-        synchronized (raf) {
+        synchronized (this) {
             // If the file is marked as deleted, nothing is written
             if (isDeleted()) {
                 clear();
@@ -514,49 +675,40 @@ public void flush(boolean wait) {
             // Get the current time for the chunk timestamp
             long now = System.currentTimeMillis();
 
-            // Load the chunks into the append or compressed map
-            final ForkJoinPool finalPool = this.pool;
-
+            RandomAccessFile raf;
+            try {
+                readHeader();
+                raf = getRaf();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
 
+            // Compress the modified chunks on the pool, into the append or compressed map
             boolean modified = false;
             for (int i = 0; i < chunks.length; i++) {
                 if (this.chunkInitialized[i]) {
                     MCAChunk chunk = chunks[i];
-                    if (chunk != null && chunk.isModified() && !chunk.isDeleted()) {
+                    if (chunk != null && (chunk.isModified() || chunk.isDeleted())) {
                         modified = true;
+                        if (chunk.isDeleted()) {
+                            continue;
+                        }
+                        chunk.setLastUpdate(now);
                         ForkJoinTask<byte[]> future = pool.submit(() -> {
                             FastByteArrayOutputStream compressed = toBytes(chunk);
                             return Arrays.copyOf(compressed.array, compressed.length);
                         });
+                        int cx = chunk.getX();
+                        int cz = chunk.getZ();
+                        if (getOffset(cx, cz) == 0) {
+                            append.put(MathMan.pair((short) (cx & 31), (short) (cz & 31)), future);
+                        } else {
+                            compressedMap.put(getIndex(cx, cz), future);
+                        }
                     }
                 }
             }
-//
-//            forEachCachedChunk(chunk -> {
-//                if (chunk.isModified() || chunk.isDeleted()) {
-//                    modified[0] = true;
-//                    chunk.setLastUpdate(now);
-//                    if (!chunk.isDeleted()) {
-//                        MCAFile.this.pool.submit(() -> {
-//                            try {
-//                                byte[] compressed = toBytes(chunk);
-//                                int pair = MathMan.pair((short) (chunk.getX() & 31), (short) (chunk.getZ() & 31));
-//                                Int2ObjectOpenHashMap map;
-//                                if (getOffset(chunk.getX(), chunk.getZ()) == 0) {
-//                                    map = append;
-//                                } else {
-//                                    map = compressedMap;
-//                                }
-//                                synchronized (map) {
-//                                    map.put(pair, compressed);
-//                                }
-//                            } catch (Throwable e) {
-//                                e.printStackTrace();
-//                            }
-//                        });
-//                    }
-//                }
-//            });
 
             if (!modified) {
                 // Not modified, do nothing
@@ -598,7 +750,8 @@ public void run(Integer cx, Integer cz, Integer offset, Integer size) {
                     int size = MathMan.unpairY(loc) << 12;
 
                     nextOffset += size;
-                    end = Math.min(start + size, end);
+                    // Everything before the end of this chunk has been read, or is being kept in place
+                    end = Math.max(offset + size, end);
                     int pair = getIndex(cx, cz);
 
                     Future<byte[]> future = null;
@@ -613,7 +766,7 @@ public void run(Integer cx, Integer cz, Integer offset, Integer size) {
                             if (cached == null || !cached.isModified()) {
                                 writeHeader(raf, cx, cz, start >> 12, size >> 12, true);
                                 start += size;
-                                written = start + size;
+                                written = start;
                                 continue;
                             } else {
                                 future = compressedMap.get(pair);
@@ -623,8 +776,9 @@ public void run(Integer cx, Integer cz, Integer offset, Integer size) {
                             future = compressedMap.get(pair);
                             if (future == null) {
                                 if (cached == null || !cached.isDeleted()) {
+                                    // Copied, as the buffer is reused when relocating the chunks after it
                                     FastByteArrayInputStream result = getChunkCompressedBytes(getOffset(cx, cz));
-                                    newBytes = result.array;
+                                    newBytes = Arrays.copyOf(result.array, result.length);
                                     newBytesLength = result.length;
                                 }
                             }
@@ -659,7 +813,7 @@ public void run(Integer cx, Integer cz, Integer offset, Integer size) {
                             if (cached == null || !cached.isModified()) {
                                 FastByteArrayInputStream tmp = getChunkCompressedBytes(nextOffset2);
                                 byte[] nextBytes = Arrays.copyOf(tmp.array, tmp.length);
-                                relocate.put(MathMan.pair((short) (nextCX & 31), (short) (nextCZ & 31)), nextBytes);
+                                relocate.put(getIndex(nextCX, nextCZ), nextBytes);
                             }
                             int nextSize = MathMan.unpairY(nextLoc) << 12;
                             end += nextSize;
@@ -698,7 +852,12 @@ public void run(Integer cx, Integer cz, Integer offset, Integer size) {
                 if (raf instanceof BufferedRandomAccessFile) {
                     ((BufferedRandomAccessFile) raf).flush();
                 }
-                raf.close();
+                for (int i = 0; i < chunks.length; i++) {
+                    MCAChunk chunk = chunks[i];
+                    if (chunk != null && this.chunkInitialized[i]) {
+                        chunk.modified = 0;
+                    }
+                }
             } catch (Throwable e) {
                 e.printStackTrace();
             }
@@ -0,0 +1,148 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.util.MainUtil;
+import com.sk89q.jnbt.NBTOutputStream;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Stream chunks into a new region file
+ * - Chunks can be written from any thread and in any order, each one reserves its sectors atomically
+ * and is written with a positional write, so compression on one thread overlaps I/O on another
+ * - Chunks are compressed into a thread local buffer and written from it, without copying
+ * - The location and timestamp header is written on {@link #close()}
+ */
+public class MCAFileWriter implements Closeable {
+    private static final int SECTOR_BYTES = 4096;
+    private static final int HEADER_SECTORS = 2;
+    private static final int MAX_CHUNK_SECTORS = 255;
+    // Length (int) + compression type (byte)
+    private static final int CHUNK_PREFIX = 5;
+    private static final byte COMPRESSION_ZLIB = 2;
+    private static final byte[] EMPTY_PREFIX = new byte[CHUNK_PREFIX];
+
+    private static final ThreadLocal<FastByteArrayOutputStream> UNCOMPRESSED = ThreadLocal.withInitial(() -> new FastByteArrayOutputStream(1 << 16));
+    private static final ThreadLocal<FastByteArrayOutputStream> COMPRESSED = ThreadLocal.withInitial(() -> new FastByteArrayOutputStream(1 << 16));
+    private static final ThreadLocal<byte[]> DEFLATE_BUFFER = ThreadLocal.withInitial(() -> new byte[8192]);
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, false));
+
+    private final File file;
+    private final FileChannel channel;
+    private final AtomicInteger nextSector = new AtomicInteger(HEADER_SECTORS);
+    private final int[] locations = new int[1024];
+    private final int[] timestamps = new int[1024];
+
+    /**
+     * Create a writer, replacing any existing file
+     *
+     * @param file the region file
+     * @throws IOException if the file cannot be opened
+     */
+    public MCAFileWriter(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Serialize, compress and write a chunk
+     * - Only the region local part of the chunk position is used
+     *
+     * @param chunk the chunk
+     * @throws IOException if the chunk is too large or cannot be written
+     */
+    public void write(MCAChunk chunk) throws IOException {
+        FastByteArrayOutputStream uncompressed = UNCOMPRESSED.get();
+        uncompressed.reset();
+        try (NBTOutputStream nbtOut = new NBTOutputStream(uncompressed)) {
+            chunk.write(nbtOut);
+        }
+        FastByteArrayOutputStream compressed = COMPRESSED.get();
+        compressed.reset();
+        compressed.write(EMPTY_PREFIX);
+        MainUtil.compress(uncompressed.array, uncompressed.length, DEFLATE_BUFFER.get(), compressed, DEFLATER.get());
+        int length = compressed.length - CHUNK_PREFIX;
+        byte[] array = compressed.array;
+        array[0] = (byte) ((length + 1) >> 24);
+        array[1] = (byte) ((length + 1) >> 16);
+        array[2] = (byte) ((length + 1) >> 8);
+        array[3] = (byte) (length + 1);
+        array[4] = COMPRESSION_ZLIB;
+        int timestamp = (int) (System.currentTimeMillis() / 1000L);
+        write(chunk.getX(), chunk.getZ(), timestamp, ByteBuffer.wrap(array, 0, compressed.length));
+    }
+
+    /**
+     * Write a chunk which is already compressed, e.g. one copied from another region file
+     *
+     * @param chunkX the chunk x
+     * @param chunkZ the chunk z
+     * @param data the compressed chunk, without the length and compression type
+     * @param length the length of the compressed chunk
+     * @param compression the compression type of the chunk
+     * @param timestamp the time the chunk was last saved, in seconds
+     * @throws IOException if the chunk is too large or cannot be written
+     */
+    public void write(int chunkX, int chunkZ, byte[] data, int length, int compression, int timestamp) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(CHUNK_PREFIX);
+        prefix.putInt(length + 1).put((byte) compression).flip();
+        write(chunkX, chunkZ, timestamp, prefix, ByteBuffer.wrap(data, 0, length));
+    }
+
+    private void write(int chunkX, int chunkZ, int timestamp, ByteBuffer... buffers) throws IOException {
+        int size = 0;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        int sectors = (size + SECTOR_BYTES - 1) / SECTOR_BYTES;
+        if (sectors > MAX_CHUNK_SECTORS) {
+            throw new IOException("Chunk " + chunkX + "," + chunkZ + " is too large: " + size + " bytes");
+        }
+        int sector = nextSector.getAndAdd(sectors);
+        long position = (long) sector * SECTOR_BYTES;
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        int index = (chunkX & 31) + ((chunkZ & 31) << 5);
+        synchronized (locations) {
+            locations[index] = (sector << 8) | sectors;
+            timestamps[index] = timestamp;
+        }
+    }
+
+    /**
+     * Write the header, pad the last sector and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_BYTES);
+            synchronized (locations) {
+                header.asIntBuffer().put(locations).put(timestamps);
+            }
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+            long end = (long) nextSector.get() * SECTOR_BYTES;
+            if (channel.size() < end) {
+                channel.write(ByteBuffer.allocate(1), end - 1);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
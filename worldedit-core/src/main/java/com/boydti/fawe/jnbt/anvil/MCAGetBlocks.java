@@ -0,0 +1,94 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.beta.IChunkSet;
+import com.boydti.fawe.beta.implementation.blocks.CharGetBlocks;
+import com.boydti.fawe.beta.implementation.lighting.HeightMapType;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.biome.BiomeType;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Future;
+
+/**
+ * Get blocks of an offline {@link MCAChunk}, so it can be filtered like a loaded chunk
+ * - Each layer is copied from the chunk when it is first loaded
+ * - Lighting and heightmaps are not read from region files
+ */
+public class MCAGetBlocks extends CharGetBlocks {
+    private final MCAChunk chunk;
+
+    public MCAGetBlocks(MCAChunk chunk) {
+        this.chunk = chunk;
+    }
+
+    public int getX() {
+        return chunk.getX();
+    }
+
+    public int getZ() {
+        return chunk.getZ();
+    }
+
+    @Override
+    public boolean hasSection(int layer) {
+        return chunk.hasSection(layer);
+    }
+
+    @Override
+    public char[] update(int layer, char[] data) {
+        if (data == null) {
+            data = new char[4096];
+        }
+        chunk.decodeSection(layer);
+        System.arraycopy(chunk.blocks, layer << 12, data, 0, 4096);
+        return data;
+    }
+
+    @Override
+    public BiomeType getBiomeType(int x, int y, int z) {
+        return chunk.getBiomeType(x, y, z);
+    }
+
+    @Override
+    public CompoundTag getTile(int x, int y, int z) {
+        return chunk.getTile(x, y, z);
+    }
+
+    @Override
+    public Map<BlockVector3, CompoundTag> getTiles() {
+        return chunk.getTiles();
+    }
+
+    @Override
+    public Set<CompoundTag> getEntities() {
+        return chunk.getEntities();
+    }
+
+    @Override
+    public CompoundTag getEntity(UUID uuid) {
+        return chunk.getEntity(uuid);
+    }
+
+    @Override
+    public int getSkyLight(int x, int y, int z) {
+        return chunk.getSkyLight(x, y, z);
+    }
+
+    @Override
+    public int getEmmittedLight(int x, int y, int z) {
+        return chunk.getEmmittedLight(x, y, z);
+    }
+
+    @Override
+    public int[] getHeightMap(HeightMapType type) {
+        return chunk.getHeightMap(type);
+    }
+
+    @Override
+    public <T extends Future<T>> T call(IChunkSet set, Runnable finalize) {
+        return (T) chunk.call(set, finalize);
+    }
+}
@@ -1,7 +1,12 @@
 package com.boydti.fawe.jnbt.anvil;
 
+import com.boydti.fawe.beta.Filter;
 import com.boydti.fawe.beta.IChunkGet;
+import com.boydti.fawe.beta.implementation.filter.block.CharFilterBlock;
+import com.boydti.fawe.beta.implementation.filter.block.ChunkFilterBlock;
 import com.boydti.fawe.beta.implementation.packet.ChunkPacket;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.util.MathMan;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
@@ -15,21 +20,47 @@
 import com.sk89q.worldedit.util.SideEffectSet;
 import com.sk89q.worldedit.util.TreeGenerator;
 import com.sk89q.worldedit.world.AbstractWorld;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.biome.BiomeTypes;
+import com.sk89q.worldedit.world.block.BaseBlock;
 import com.sk89q.worldedit.world.block.BlockState;
 import com.sk89q.worldedit.world.block.BlockStateHolder;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
-public class MCAWorld extends AbstractWorld {
+/**
+ * A world which is read and written directly from its region files, without the server
+ * - Blocks set through the world are cached per region file, and written by {@link #flush()}
+ * - {@link #apply(Region, Filter, boolean)} streams the region files on a fork join pool, one file per worker
+ * - Lighting and heightmaps are not recalculated, the server does that when the chunks are next loaded
+ * - The world must not be loaded by the server while it is being modified
+ */
+public class MCAWorld extends AbstractWorld implements Closeable {
     private final File path;
+    private final File regionFolder;
+    private final ForkJoinPool pool;
+    private final Long2ObjectOpenHashMap<MCAFile> files = new Long2ObjectOpenHashMap<>();
 
     public MCAWorld(File path) {
         checkArgument(path.isDirectory());
         this.path = path;
+        this.regionFolder = new File(path, "region");
+        this.pool = new ForkJoinPool(Math.max(1, Settings.IMP.QUEUE.PARALLEL_THREADS));
     }
 
     @Override
@@ -38,14 +69,243 @@ public String getName() {
     }
 
     @Override
-    public <B extends BlockStateHolder<B>> boolean setBlock(BlockVector3 position, B block, SideEffectSet sideEffects) throws WorldEditException {
-        return false;
+    public Path getStoragePath() {
+        return path.toPath();
+    }
+
+    public File getRegionFolder() {
+        return regionFolder;
+    }
+
+    /**
+     * Get the region files of this world
+     *
+     * @param region the region to get the files of, or null for every file
+     * @return the region files
+     */
+    public List<File> getRegionFiles(@Nullable Region region) {
+        File[] list = regionFolder.listFiles((dir, name) -> name.startsWith("r.") && name.endsWith(".mca"));
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        List<File> result = new ArrayList<>(list.length);
+        for (File file : list) {
+            String[] split = file.getName().split("\\.");
+            if (split.length != 4 || !MathMan.isInteger(split[1]) || !MathMan.isInteger(split[2])) {
+                continue;
+            }
+            if (region != null) {
+                int regionX = Integer.parseInt(split[1]);
+                int regionZ = Integer.parseInt(split[2]);
+                BlockVector3 min = region.getMinimumPoint();
+                BlockVector3 max = region.getMaximumPoint();
+                if (regionX < min.getBlockX() >> 9 || regionX > max.getBlockX() >> 9 || regionZ < min.getBlockZ() >> 9 || regionZ > max.getBlockZ() >> 9) {
+                    continue;
+                }
+            }
+            result.add(file);
+        }
+        return result;
+    }
+
+    /**
+     * Get the cached region file containing a chunk
+     *
+     * @return the file, or null if the region has not been generated
+     */
+    @Nullable
+    public MCAFile getMCAFile(int chunkX, int chunkZ) {
+        int regionX = chunkX >> 5;
+        int regionZ = chunkZ >> 5;
+        long pair = MathMan.pairInt(regionX, regionZ);
+        synchronized (files) {
+            MCAFile file = files.get(pair);
+            if (file == null) {
+                File mca = new File(regionFolder, "r." + regionX + "." + regionZ + ".mca");
+                if (!mca.exists()) {
+                    return null;
+                }
+                try {
+                    file = new MCAFile(pool).init(mca, regionX, regionZ);
+                } catch (FileNotFoundException e) {
+                    return null;
+                }
+                files.put(pair, file);
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Get a chunk of this world
+     *
+     * @return the chunk, or null if it has not been generated
+     */
+    @Nullable
+    public MCAChunk getChunk(int chunkX, int chunkZ) {
+        MCAFile file = getMCAFile(chunkX, chunkZ);
+        if (file == null) {
+            return null;
+        }
+        MCAChunk chunk = file.getOrCreateChunk(chunkX, chunkZ);
+        // Chunks which haven't been generated are not created
+        return chunk == null || file.getOffset(chunkX, chunkZ) == 0 ? null : chunk;
+    }
+
+    /**
+     * Apply a filter to the chunks of this world, one region file at a time per worker
+     * - Each worker forks the filter, and the forks are joined when every file has been written
+     * - Only one chunk of a file is held in memory at a time, and files are only rewritten if a chunk is changed
+     *
+     * @param region the region to filter, or null for the whole world
+     * @param filter the filter
+     * @param full if sections which don't exist should also be filtered
+     * @return the filter
+     * @throws RuntimeException listing every region file which could not be filtered, after the others are written
+     */
+    public <T extends Filter> T apply(@Nullable Region region, T filter, boolean full) {
+        flush();
+        List<File> regionFiles = getRegionFiles(region);
+        ForkJoinTask[] tasks = regionFiles.stream().map(file -> pool.submit(() -> {
+            Filter fork = filter.fork();
+            ChunkFilterBlock block = new CharFilterBlock(this);
+            MCAFile mca = new MCAFile(pool).init(file);
+            try {
+                mca.processChunks(chunk -> apply(block, fork, region, chunk, full));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to filter " + file.getName(), e);
+            } finally {
+                mca.clear();
+            }
+            return null;
+        })).toArray(ForkJoinTask[]::new);
+        // A failed file is left unchanged, the other files are still filtered
+        List<String> failed = new ArrayList<>();
+        List<RuntimeException> errors = new ArrayList<>();
+        for (int i = 0; i < tasks.length; i++) {
+            try {
+                tasks[i].join();
+            } catch (RuntimeException e) {
+                failed.add(regionFiles.get(i).getName());
+                errors.add(e);
+            }
+        }
+        filter.join();
+        if (!errors.isEmpty()) {
+            RuntimeException error = new RuntimeException("Failed to filter " + failed.size() + " of " + tasks.length + " region files: " + String.join(", ", failed));
+            errors.forEach(error::addSuppressed);
+            throw error;
+        }
+        return filter;
+    }
+
+    private void apply(ChunkFilterBlock block, Filter filter, @Nullable Region region, MCAChunk chunk, boolean full) {
+        int chunkX = chunk.getX();
+        int chunkZ = chunk.getZ();
+        if ((region != null && !region.containsChunk(chunkX, chunkZ)) || !filter.appliesChunk(chunkX, chunkZ)) {
+            return;
+        }
+        MCAChunk newChunk = filter.applyChunk(chunk, region);
+        if (newChunk != null) {
+            // Filtering without a region doesn't position the block
+            block.initChunk(chunkX, chunkZ);
+            newChunk.filterBlocks(filter, block, region, full);
+        }
     }
 
+    /**
+     * Write the chunks modified through this world to their region files
+     */
+    public void flush() {
+        synchronized (files) {
+            for (MCAFile file : files.values()) {
+                file.close();
+            }
+            files.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        pool.shutdown();
+    }
+
+    @Override
+    public BlockState getBlock(int x, int y, int z) {
+        if (y < 0 || y > 255) {
+            return BlockTypes.AIR.getDefaultState();
+        }
+        MCAChunk chunk = getChunk(x >> 4, z >> 4);
+        if (chunk == null) {
+            return BlockTypes.AIR.getDefaultState();
+        }
+        return chunk.getBlock(x & 15, y, z & 15);
+    }
+
+    @Override
+    public BlockState getBlock(BlockVector3 position) {
+        return getBlock(position.getX(), position.getY(), position.getZ());
+    }
+
+    @Override
+    public BaseBlock getFullBlock(int x, int y, int z) {
+        if (y < 0 || y > 255) {
+            return BlockTypes.AIR.getDefaultState().toBaseBlock();
+        }
+        MCAChunk chunk = getChunk(x >> 4, z >> 4);
+        if (chunk == null) {
+            return BlockTypes.AIR.getDefaultState().toBaseBlock();
+        }
+        return chunk.getFullBlock(x & 15, y, z & 15);
+    }
+
+    @Override
+    public BaseBlock getFullBlock(BlockVector3 position) {
+        return getFullBlock(position.getX(), position.getY(), position.getZ());
+    }
+
+    @Override
+    public BiomeType getBiomeType(int x, int y, int z) {
+        MCAChunk chunk = getChunk(x >> 4, z >> 4);
+        BiomeType biome = chunk == null ? null : chunk.getBiomeType(x & 15, y, z & 15);
+        return biome == null ? BiomeTypes.OCEAN : biome;
+    }
+
+    @Override
+    public BiomeType getBiome(BlockVector3 position) {
+        return getBiomeType(position.getX(), position.getY(), position.getZ());
+    }
+
+    @Override
+    public boolean setBiome(int x, int y, int z, BiomeType biome) {
+        MCAChunk chunk = getChunk(x >> 4, z >> 4);
+        return chunk != null && chunk.setBiome(x & 15, y, z & 15, biome);
+    }
+
+    @Override
+    public boolean setBiome(BlockVector3 position, BiomeType biome) {
+        return setBiome(position.getX(), position.getY(), position.getZ(), biome);
+    }
+
+    @Override
+    public <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B block) throws WorldEditException {
+        if (y < 0 || y > 255) {
+            return false;
+        }
+        MCAChunk chunk = getChunk(x >> 4, z >> 4);
+        return chunk != null && chunk.setBlock(x & 15, y, z & 15, block);
+    }
+
+    @Override
+    public <B extends BlockStateHolder<B>> boolean setBlock(BlockVector3 position, B block, SideEffectSet sideEffects) throws WorldEditException {
+        return setBlock(position.getX(), position.getY(), position.getZ(), block);
+    }
 
     @Override
     public boolean setTile(int x, int y, int z, CompoundTag tile) throws WorldEditException {
-        return false;
+        MCAChunk chunk = getChunk(x >> 4, z >> 4);
+        return chunk != null && chunk.setTile(x & 15, y, z & 15, tile);
     }
 
     @Override
@@ -95,7 +355,8 @@ public void refreshChunk(int chunkX, int chunkZ) {
 
     @Override
     public IChunkGet get(int x, int z) {
-        return null;
+        MCAChunk chunk = getChunk(x, z);
+        return chunk == null ? null : new MCAGetBlocks(chunk);
     }
 
     @Override
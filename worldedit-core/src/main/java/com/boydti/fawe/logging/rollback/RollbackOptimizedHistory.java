@@ -1,15 +1,19 @@
 package com.boydti.fawe.logging.rollback;
 
+import com.boydti.fawe.database.ChunkRegionIndex;
 import com.boydti.fawe.database.DBHandler;
 import com.boydti.fawe.database.RollbackDatabase;
 import com.boydti.fawe.object.changeset.DiskStorageHistory;
 import com.boydti.fawe.object.changeset.SimpleChangeSetSummary;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.ListTag;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.world.biome.BiomeType;
 import com.sk89q.worldedit.world.World;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.UUID;
 
 public class RollbackOptimizedHistory extends DiskStorageHistory {
@@ -21,7 +25,9 @@ public class RollbackOptimizedHistory extends DiskStorageHistory {
     private int maxY;
     private int minZ;
     private int maxZ;
+    private boolean hasBounds;
     private String command;
+    private final ChunkRegionIndex chunks = new ChunkRegionIndex();
 
     public RollbackOptimizedHistory(World world, UUID uuid, int index) {
         super(world, uuid, index);
@@ -32,6 +38,11 @@ public RollbackOptimizedHistory(World world, UUID uuid) {
         super(world, uuid);
         this.time = System.currentTimeMillis();
     }
+
+    public RollbackOptimizedHistory(File folder, World world, UUID uuid, int index) {
+        super(folder, world, uuid, index);
+        this.time = System.currentTimeMillis();
+    }
     
     public RollbackOptimizedHistory(World world, UUID uuid, int index, long time, long size, CuboidRegion region, String command) {
         super(world, uuid, index);
@@ -42,6 +53,7 @@ public RollbackOptimizedHistory(World world, UUID uuid, int index, long time, lo
         this.maxX = region.getMaximumX();
         this.maxY = region.getMaximumY();
         this.maxZ = region.getMaximumZ();
+        this.hasBounds = true;
         this.blockSize = (int) size;
         this.command = command;
         this.closed = true;
@@ -77,6 +89,7 @@ public void setDimensions(BlockVector3 pos1, BlockVector3 pos2) {
         this.maxX = pos2.getBlockX();
         this.maxY = pos2.getBlockY();
         this.maxZ = pos2.getBlockZ();
+        this.hasBounds = true;
     }
 
     public void setTime(long time) {
@@ -93,9 +106,78 @@ public void close() throws IOException {
         }
     }
 
+    /**
+     * Get the chunks this edit changed, which are indexed by the {@link RollbackDatabase}
+     *
+     * @return the chunks changed, empty if this edit was loaded from the database or is not indexed
+     */
+    public ChunkRegionIndex getChunks() {
+        return chunks;
+    }
+
+    @Override
+    public void addBiomeChange(int x, int z, BiomeType from, BiomeType to) {
+        super.addBiomeChange(x, z, from, to);
+        // A biome change covers the whole column
+        expand(x, 0, z);
+        expand(x, getWorld().getMaxY(), z);
+    }
+
     @Override
     public void add(int x, int y, int z, int combinedFrom, int combinedTo) {
         super.add(x, y, z, combinedFrom, combinedTo);
+        expand(x, y, z);
+    }
+
+    @Override
+    public void addTileCreate(CompoundTag tag) {
+        super.addTileCreate(tag);
+        expandTile(tag);
+    }
+
+    @Override
+    public void addTileRemove(CompoundTag tag) {
+        super.addTileRemove(tag);
+        expandTile(tag);
+    }
+
+    @Override
+    public void addEntityCreate(CompoundTag tag) {
+        super.addEntityCreate(tag);
+        expandEntity(tag);
+    }
+
+    @Override
+    public void addEntityRemove(CompoundTag tag) {
+        super.addEntityRemove(tag);
+        expandEntity(tag);
+    }
+
+    private void expandTile(CompoundTag tag) {
+        if (tag != null && tag.containsKey("x")) {
+            expand(tag.getInt("x"), tag.getInt("y"), tag.getInt("z"));
+        }
+    }
+
+    private void expandEntity(CompoundTag tag) {
+        if (tag != null && tag.containsKey("Pos")) {
+            ListTag pos = tag.getListTag("Pos");
+            expand((int) Math.floor(pos.asDouble(0)), (int) Math.floor(pos.asDouble(1)), (int) Math.floor(pos.asDouble(2)));
+        }
+    }
+
+    /**
+     * Index the chunk of a change and grow the bounds of this edit to include it
+     */
+    private void expand(int x, int y, int z) {
+        chunks.add(x >> 4, z >> 4);
+        if (!hasBounds) {
+            minX = maxX = x;
+            minY = maxY = y;
+            minZ = maxZ = z;
+            hasBounds = true;
+            return;
+        }
         if (x < minX) {
             minX = x;
         } else if (x > maxX) {
@@ -113,17 +195,6 @@ public void add(int x, int y, int z, int combinedFrom, int combinedTo) {
         }
     }
 
-    @Override
-    public void writeHeader(OutputStream os, int x, int y, int z) throws IOException {
-        minX = x;
-        maxX = x;
-        minY = y;
-        maxY = y;
-        minZ = z;
-        maxZ = z;
-        super.writeHeader(os, x, y, z);
-    }
-
     public BlockVector3 getMinimumPoint() {
         return BlockVector3.at(minX, minY, minZ);
     }
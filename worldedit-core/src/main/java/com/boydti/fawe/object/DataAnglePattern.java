@@ -4,6 +4,7 @@
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.pattern.AbstractPattern;
+import com.sk89q.worldedit.function.pattern.Pattern;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.world.block.BaseBlock;
 import com.sk89q.worldedit.world.block.BlockState;
@@ -55,4 +56,16 @@ public boolean apply(Extent extent, BlockVector3 setPosition, BlockVector3 getPo
         int data = Math.min(slope, 255) >> 4;
         return extent.setBlock(setPosition, block.withPropertyId(data));
     }
+
+    /**
+     * Get the extent, without the height cache
+     */
+    protected Extent getBaseExtent() {
+        return ((ExtentHeightCacher) extent).getExtent();
+    }
+
+    @Override
+    public Pattern fork() {
+        return new DataAnglePattern(getBaseExtent(), distance);
+    }
 }
@@ -16,6 +16,8 @@
 import com.sk89q.worldedit.extension.platform.Platform;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.math.Vector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.util.Location;
 import com.sk89q.worldedit.util.formatting.text.TextComponent;
 import com.sk89q.worldedit.util.formatting.text.TranslatableComponent;
@@ -78,11 +80,12 @@ public boolean perform(final Player player, LocalSession session, boolean rightC
             final int z = target.getBlockZ();
             World world = player.getWorld();
             RollbackDatabase db = DBHandler.IMP.getDatabase(world);
+            Region[] regions = {new CuboidRegion(target, target)};
             int count = 0;
             for (Supplier<RollbackOptimizedHistory> supplier : db.getEdits(target, false)) {
                 count++;
                 RollbackOptimizedHistory edit = supplier.get();
-                Iterator<MutableFullBlockChange> iter = edit.getFullBlockIterator(null, 0, false);
+                Iterator<MutableFullBlockChange> iter = edit.getFullBlockIterator(null, 0, false, regions);
                 while (iter.hasNext()) {
                     MutableFullBlockChange change = iter.next();
                     if (change.x != x || change.y != y || change.z != z) {
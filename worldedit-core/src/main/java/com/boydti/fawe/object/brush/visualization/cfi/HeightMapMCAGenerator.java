@@ -16,13 +16,14 @@
 import com.boydti.fawe.object.change.StreamChange;
 import com.boydti.fawe.object.changeset.CFIChangeSet;
 import com.boydti.fawe.object.collection.DifferentialArray;
-import com.boydti.fawe.object.collection.DifferentialBlockBuffer;
 import com.boydti.fawe.object.collection.LocalBlockVector2DSet;
 import com.boydti.fawe.object.collection.SummedAreaTable;
+import com.boydti.fawe.object.collection.TiledBlockBuffer;
 import com.boydti.fawe.object.exception.FaweChunkLoadException;
 import com.boydti.fawe.util.CachedTextureUtil;
 import com.boydti.fawe.util.RandomTextureUtil;
 import com.boydti.fawe.util.ReflectionUtils;
+import com.boydti.fawe.util.TaskManager;
 import com.boydti.fawe.util.TextureUtil;
 import com.boydti.fawe.util.image.Drawable;
 import com.boydti.fawe.util.image.ImageViewer;
@@ -34,6 +35,10 @@
 import com.sk89q.worldedit.blocks.BaseItemStack;
 import com.sk89q.worldedit.entity.Player;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.function.generator.GenBase;
+import com.sk89q.worldedit.function.generator.OreGen;
+import com.sk89q.worldedit.function.generator.Resource;
+import com.sk89q.worldedit.function.generator.SchemGen;
 import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.function.operation.Operation;
 import com.sk89q.worldedit.function.pattern.Pattern;
@@ -67,10 +72,13 @@
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
 import javax.annotation.Nullable;
@@ -79,10 +87,13 @@
 
 public class HeightMapMCAGenerator extends MCAWriter implements StreamChange, Drawable,
     VirtualWorld {
+    // Whole map operations are split into tiles of one region file
+    // Blocks outside the height map are paged out per tile, the per column arrays are still held in memory
+    private static final int TILE_SIZE = TiledBlockBuffer.TILE_SIZE;
 
     private final MutableBlockVector3 mutable = new MutableBlockVector3();
 
-    private final DifferentialBlockBuffer blocks;
+    private final TiledBlockBuffer blocks;
     protected final DifferentialArray<byte[]> heights;
     protected final DifferentialArray<byte[]> biomes;
     protected final DifferentialArray<char[]> floor;
@@ -217,7 +228,7 @@ public void redoChanges(FaweInputStream in) throws IOException {
             neverHappens.printStackTrace();
         }
 
-        blocks.clearChanges(); // blocks.redoChanges(in); Unsupported
+        blocks.redoChanges(in);
     }
 
     //    @Override TODO NOT IMPLEMENTED
@@ -244,7 +255,7 @@ public HeightMapMCAGenerator(BufferedImage img, File regionFolder) {
     public HeightMapMCAGenerator(int width, int length, File regionFolder) {
         super(width, length, regionFolder);
 
-        blocks = new DifferentialBlockBuffer(width, length);
+        blocks = new TiledBlockBuffer(width, length);
         heights = new DifferentialArray<>(new byte[getArea()]);
         biomes = new DifferentialArray<>(new byte[getArea()]);
         floor = new DifferentialArray<>(new char[getArea()]);
@@ -282,15 +293,6 @@ public Player getOwner() {
         return player;
     }
 
-    private char[][][] getChunkArray(int x, int z) {
-        char[][][][][] blocksData = blocks.get();
-        if (blocksData == null) {
-            return null;
-        }
-        char[][][][] arr = blocksData[z];
-        return arr != null ? arr[x] : null;
-    }
-
     public void setImageViewer(ImageViewer viewer) {
         this.viewer = viewer;
     }
@@ -417,6 +419,79 @@ public void setTextureUtil(TextureUtil textureUtil) {
         this.textureUtil = textureUtil;
     }
 
+    /**
+     * Get a texture util for one tile, as the cached and random texture utils are not thread safe
+     */
+    private TextureUtil getTileTextureUtil() {
+        TextureUtil util = getTextureUtil();
+        if (util == textureUtil && util instanceof CachedTextureUtil) {
+            try {
+                return new CachedTextureUtil(((CachedTextureUtil) util).getParent());
+            } catch (FileNotFoundException neverHappens) {
+                neverHappens.printStackTrace();
+            }
+        }
+        return util;
+    }
+
+    @FunctionalInterface
+    private interface TileTask {
+        void run(int minX, int minZ, int maxX, int maxZ);
+    }
+
+    /**
+     * Run a task for each tile of the map, returning once every tile is done
+     * - Tasks must only modify the columns of their own tile
+     *
+     * @param parallel if the tiles can run in parallel, i.e. the task doesn't use a mask or other shared state
+     * @param task the task
+     */
+    private void forEachTile(boolean parallel, TileTask task) {
+        forEachTile(parallel, -1, task);
+    }
+
+    /**
+     * Run a task for each tile of the map, where a task may modify blocks up to a halo outside its tile
+     * - Tiles run in four passes by the parity of their position, so tiles running at the same time are a tile apart
+     * - A halo over half a tile could reach another running tile, so the tiles run one at a time instead
+     *
+     * @param halo how far outside its tile a task modifies or reads blocks
+     * @param task the task
+     */
+    private void forEachTile(int halo, TileTask task) {
+        if (halo > TILE_SIZE / 2) {
+            forEachTile(false, -1, task);
+            return;
+        }
+        for (int pass = 0; pass < 4; pass++) {
+            forEachTile(true, pass, task);
+        }
+    }
+
+    private void forEachTile(boolean parallel, int pass, TileTask task) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        ForkJoinPool pool = TaskManager.IMP.getPublicForkJoinPool();
+        for (int minZ = 0; minZ < getLength(); minZ += TILE_SIZE) {
+            for (int minX = 0; minX < getWidth(); minX += TILE_SIZE) {
+                if (pass != -1 && ((minX / TILE_SIZE) & 1 | ((minZ / TILE_SIZE) & 1) << 1) != pass) {
+                    continue;
+                }
+                int tileMinX = minX;
+                int tileMinZ = minZ;
+                int tileMaxX = Math.min(minX + TILE_SIZE, getWidth()) - 1;
+                int tileMaxZ = Math.min(minZ + TILE_SIZE, getLength()) - 1;
+                if (parallel) {
+                    tasks.add(pool.submit(() -> task.run(tileMinX, tileMinZ, tileMaxX, tileMaxZ)));
+                } else {
+                    task.run(tileMinX, tileMinZ, tileMaxX, tileMaxZ);
+                }
+            }
+        }
+        for (ForkJoinTask<?> tileTask : tasks) {
+            tileTask.join();
+        }
+    }
+
     public void smooth(BufferedImage img, boolean white, int radius, int iterations) {
         smooth(img, null, white, radius, iterations);
     }
@@ -537,66 +612,100 @@ private final void setLayerHeightRaw(int index, int blockHeight, int layerHeight
         }
     }
 
+    /**
+     * Smooth the whole map, one tile at a time
+     * - Each iteration first converts every column to a layer height, then each tile averages its own columns
+     * from a summed area table of the tile and a halo of the radius around it
+     */
     private void smooth(BufferedImage img, Mask mask, boolean white, int radius, int iterations) {
         char[] floor = this.floor.get();
         byte[] heights = this.heights.get();
 
-        long[] copy = new long[heights.length];
+        // The layer heights of the previous iteration
         char[] layers = new char[heights.length];
 
         this.floor.record(() -> HeightMapMCAGenerator.this.heights.record(() -> {
             int width = getWidth();
             int length = getLength();
-            SummedAreaTable table = new SummedAreaTable(copy, layers, width, radius);
             for (int j = 0; j < iterations; j++) {
-                for (int i = 0; i < heights.length; i++) {
-                    int combined = floor[i];
-                    if (BlockTypes.getFromStateOrdinal(combined) == BlockTypes.SNOW) {
-                        layers[i] = (char) (
-                            ((heights[i] & 0xFF) << 3) + (floor[i] >> BlockTypesCache.BIT_OFFSET)
-                                - 7);
-                    } else {
-                        layers[i] = (char) ((heights[i] & 0xFF) << 3);
-                    }
-                }
-                int index = 0;
-                table.processSummedAreaTable();
-                if (img != null) {
-                    for (int z = 0; z < getLength(); z++) {
-                        for (int x = 0; x < getWidth(); x++, index++) {
-                            int height = img.getRGB(x, z) & 0xFF;
-                            if (height == 255 || height > 0 && !white && ThreadLocalRandom.current()
-                                .nextInt(256) <= height) {
-                                int newHeight = table.average(x, z, index);
-                                setLayerHeightRaw(index, newHeight);
+                forEachTile(true, (minX, minZ, maxX, maxZ) -> {
+                    for (int z = minZ; z <= maxZ; z++) {
+                        for (int x = minX, i = z * width + minX; x <= maxX; x++, i++) {
+                            int combined = floor[i];
+                            if (BlockTypes.getFromStateOrdinal(combined) == BlockTypes.SNOW) {
+                                layers[i] = (char) (
+                                    ((heights[i] & 0xFF) << 3) + (floor[i] >> BlockTypesCache.BIT_OFFSET)
+                                        - 7);
+                            } else {
+                                layers[i] = (char) ((heights[i] & 0xFF) << 3);
                             }
                         }
                     }
-                } else if (mask != null) {
-                    for (int z = 0; z < getLength(); z++) {
+                });
+                forEachTile(mask == null, (minX, minZ, maxX, maxZ) -> {
+                    TileTable table = new TileTable(layers, width, length, radius, minX, minZ, maxX, maxZ);
+
+                    MutableBlockVector3 mutable = new MutableBlockVector3();
+                    for (int z = minZ; z <= maxZ; z++) {
                         mutable.mutZ(z);
-                        for (int x = 0; x < getWidth(); x++, index++) {
-                            int y = heights[index] & 0xFF;
-                            mutable.mutX(x);
-                            mutable.mutY(y);
-                            if (mask.test(mutable)) {
-                                int newHeight = table.average(x, z, index);
-                                setLayerHeightRaw(index, newHeight);
+                        int index = z * width + minX;
+                        for (int x = minX; x <= maxX; x++, index++) {
+                            if (img != null) {
+                                int height = img.getRGB(x, z) & 0xFF;
+                                if (!(height == 255 || height > 0 && !white && ThreadLocalRandom.current()
+                                    .nextInt(256) <= height)) {
+                                    continue;
+                                }
+                            } else if (mask != null) {
+                                mutable.mutX(x);
+                                mutable.mutY(heights[index] & 0xFF);
+                                if (!mask.test(mutable)) {
+                                    continue;
+                                }
                             }
+                            setLayerHeightRaw(index, table.average(x, z));
                         }
                     }
-                } else {
-                    for (int z = 0; z < getLength(); z++) {
-                        for (int x = 0; x < getWidth(); x++, index++) {
-                            int newHeight = table.average(x, z, index);
-                            setLayerHeightRaw(index, newHeight);
-                        }
-                    }
-                }
+                });
             }
         }));
     }
 
+    /**
+     * The summed area table of a tile and a halo of the smoothing radius around it
+     * - Averages are the same as from a table of the whole map, as no window of the tile leaves the halo
+     */
+    static final class TileTable {
+        private final int haloMinX;
+        private final int haloMinZ;
+        private final int haloWidth;
+        private final SummedAreaTable table;
+
+        TileTable(char[] layers, int width, int length, int radius, int minX, int minZ, int maxX, int maxZ) {
+            this.haloMinX = Math.max(0, minX - radius);
+            this.haloMinZ = Math.max(0, minZ - radius);
+            int haloMaxX = Math.min(width - 1, maxX + radius);
+            int haloMaxZ = Math.min(length - 1, maxZ + radius);
+            this.haloWidth = haloMaxX - haloMinX + 1;
+            int haloLength = haloMaxZ - haloMinZ + 1;
+            char[] tileLayers = new char[haloWidth * haloLength];
+            for (int z = haloMinZ; z <= haloMaxZ; z++) {
+                System.arraycopy(layers, z * width + haloMinX, tileLayers, (z - haloMinZ) * haloWidth, haloWidth);
+            }
+            this.table = new SummedAreaTable(new long[tileLayers.length], tileLayers, haloWidth, radius);
+            table.processSummedAreaTable();
+        }
+
+        /**
+         * Get the average layer height around a column of the tile
+         */
+        int average(int x, int z) {
+            int localX = x - haloMinX;
+            int localZ = z - haloMinZ;
+            return table.average(localX, localZ, localZ * haloWidth + localX);
+        }
+    }
+
     public void setHeight(BufferedImage img) {
         int index = 0;
         for (int z = 0; z < getLength(); z++) {
@@ -626,105 +735,183 @@ public void addSchems(BufferedImage img, Mask mask, List<ClipboardHolder> clipbo
             throw new IllegalArgumentException(
                 "Input image dimensions do not match the current height map!");
         }
-        double doubleRarity = rarity / 100d;
-        int index = 0;
-        AffineTransform identity = new AffineTransform();
-        LocalBlockVector2DSet placed = new LocalBlockVector2DSet();
-        for (int z = 0; z < getLength(); z++) {
-            mutable.mutZ(z);
-            for (int x = 0; x < getWidth(); x++, index++) {
-                int y = heights.getByte(index) & 0xFF;
-                int height = img.getRGB(x, z) & 0xFF;
-                if (height == 0
-                    || ThreadLocalRandom.current().nextInt(256) > height * doubleRarity) {
-                    continue;
-                }
-                mutable.mutX(x);
-                mutable.mutY(y);
-                if (!mask.test(mutable)) {
-                    continue;
-                }
-                if (placed.containsRadius(x, z, distance)) {
-                    continue;
-                }
-                placed.add(x, z);
-                ClipboardHolder holder = clipboards
-                    .get(ThreadLocalRandom.current().nextInt(clipboards.size()));
-                if (randomRotate) {
-                    int rotate = ThreadLocalRandom.current().nextInt(4) * 90;
-                    if (rotate != 0) {
-                        holder.setTransform(new AffineTransform()
-                            .rotateY(ThreadLocalRandom.current().nextInt(4) * 90));
-                    } else {
-                        holder.setTransform(identity);
-                    }
-                }
-                Clipboard clipboard = holder.getClipboard();
-                Transform transform = holder.getTransform();
-                if (transform.isIdentity()) {
-                    clipboard.paste(this, mutable, false);
-                } else {
-                    clipboard.paste(this, mutable, false, transform);
-                }
-                if (x + distance < getWidth()) {
-                    x += distance;
-                    index += distance;
-                } else {
-                    break;
-                }
-            }
-        }
+        addSchems(img, mask, clipboards, rarity, distance, randomRotate, 0);
     }
 
     public void addSchems(Mask mask, List<ClipboardHolder> clipboards, int rarity, int distance,
         boolean randomRotate) throws WorldEditException {
+        addSchems(null, mask, clipboards, rarity, distance, randomRotate, 1);
+    }
+
+    /**
+     * Place schematics at least a distance apart, spread by an image or evenly
+     * - The placed positions are shared between tiles, so the spacing holds across tile edges
+     */
+    private void addSchems(@Nullable BufferedImage img, Mask mask, List<ClipboardHolder> clipboards,
+        int rarity, int distance, boolean randomRotate, int offsetY) {
+        double doubleRarity = rarity / 100d;
         int scaledRarity = 256 * rarity / 100;
-        int index = 0;
-        AffineTransform identity = new AffineTransform();
         LocalBlockVector2DSet placed = new LocalBlockVector2DSet();
-        for (int z = 0; z < getLength(); z++) {
-            mutable.mutZ(z);
-            for (int x = 0; x < getWidth(); x++, index++) {
-                int y = heights.getByte(index) & 0xFF;
-                if (ThreadLocalRandom.current().nextInt(256) > scaledRarity) {
-                    continue;
-                }
-                mutable.mutX(x);
-                mutable.mutY(y);
-                if (!mask.test(mutable)) {
-                    continue;
-                }
-                if (placed.containsRadius(x, z, distance)) {
-                    continue;
-                }
-                mutable.mutY(y + 1);
-                placed.add(x, z);
-                ClipboardHolder holder = clipboards
-                    .get(ThreadLocalRandom.current().nextInt(clipboards.size()));
-                if (randomRotate) {
-                    int rotate = ThreadLocalRandom.current().nextInt(4) * 90;
-                    if (rotate != 0) {
-                        holder.setTransform(new AffineTransform()
-                            .rotateY(ThreadLocalRandom.current().nextInt(4) * 90));
+        forEachTile(getSchemHalo(clipboards, randomRotate), (minX, minZ, maxX, maxZ) -> {
+            Mask tileMask = mask.copy();
+            List<ClipboardHolder> holders = copyHolders(clipboards);
+            AffineTransform identity = new AffineTransform();
+            MutableBlockVector3 mutable = new MutableBlockVector3();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int z = minZ; z <= maxZ; z++) {
+                mutable.mutZ(z);
+                int index = z * getWidth() + minX;
+                for (int x = minX; x <= maxX; x++, index++) {
+                    if (img == null) {
+                        if (random.nextInt(256) > scaledRarity) {
+                            continue;
+                        }
                     } else {
-                        holder.setTransform(identity);
+                        int height = img.getRGB(x, z) & 0xFF;
+                        if (height == 0 || random.nextInt(256) > height * doubleRarity) {
+                            continue;
+                        }
+                    }
+                    int y = heights.getByte(index) & 0xFF;
+                    mutable.mutX(x);
+                    mutable.mutY(y);
+                    if (!tileMask.test(mutable)) {
+                        continue;
+                    }
+                    synchronized (placed) {
+                        if (placed.containsRadius(x, z, distance)) {
+                            continue;
+                        }
+                        placed.add(x, z);
+                    }
+                    mutable.mutY(y + offsetY);
+                    ClipboardHolder holder = holders.get(random.nextInt(holders.size()));
+                    if (randomRotate) {
+                        int rotate = random.nextInt(4) * 90;
+                        if (rotate != 0) {
+                            holder.setTransform(new AffineTransform()
+                                .rotateY(random.nextInt(4) * 90));
+                        } else {
+                            holder.setTransform(identity);
+                        }
+                    }
+                    Clipboard clipboard = holder.getClipboard();
+                    Transform transform = holder.getTransform();
+                    if (transform.isIdentity()) {
+                        clipboard.paste(this, mutable, false);
+                    } else {
+                        clipboard.paste(this, mutable, false, transform);
+                    }
+                    if (x + distance <= maxX) {
+                        x += distance;
+                        index += distance;
+                    } else {
+                        break;
                     }
                 }
-                Clipboard clipboard = holder.getClipboard();
-                Transform transform = holder.getTransform();
-                if (transform.isIdentity()) {
-                    clipboard.paste(this, mutable, false);
-                } else {
-                    clipboard.paste(this, mutable, false, transform);
+            }
+        });
+    }
+
+    @Override
+    public void addSchems(Region region, Mask mask, List<ClipboardHolder> clipboards, int rarity,
+        boolean rotate) throws WorldEditException {
+        spawnResource(region, () -> new SchemGen(mask.copy(), this, copyHolders(clipboards), rotate),
+            getSchemHalo(clipboards, rotate), rarity, 1);
+    }
+
+    @Override
+    public void addOre(Region region, Mask mask, Pattern material, int size, int frequency,
+        int rarity, int minY, int maxY) throws WorldEditException {
+        // A vein stays within a quarter of its size of where it spawns
+        spawnResource(region, () -> new OreGen(this, mask.copy(), material.fork(), size, minY, maxY),
+            size / 4 + 2, rarity, frequency);
+    }
+
+    /**
+     * Spawn a resource per tile, each tile gets its own resource as they hold a mutable position
+     */
+    private void spawnResource(Region region, Supplier<Resource> factory, int halo, int rarity,
+        int frequency) {
+        Set<BlockVector2> chunks = region.getChunks();
+        forEachTile(halo, (minX, minZ, maxX, maxZ) -> {
+            Resource gen = factory.get();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try {
+                for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                    for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+                        if (!chunks.contains(BlockVector2.at(chunkX, chunkZ))) {
+                            continue;
+                        }
+                        for (int i = 0; i < frequency; i++) {
+                            if (random.nextInt(100) > rarity) {
+                                continue;
+                            }
+                            int x = (chunkX << 4) + random.nextInt(16);
+                            int z = (chunkZ << 4) + random.nextInt(16);
+                            gen.spawn(random, x, z);
+                        }
+                    }
                 }
-                if (x + distance < getWidth()) {
-                    x += distance;
-                    index += distance;
-                } else {
-                    break;
+            } catch (WorldEditException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Generate the chunks of each tile in parallel, as a generator only modifies the chunk it generates
+     */
+    @Override
+    public void generate(Region region, GenBase gen) throws WorldEditException {
+        Set<BlockVector2> chunks = region.getChunks();
+        forEachTile(true, (minX, minZ, maxX, maxZ) -> {
+            try {
+                for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                    for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+                        BlockVector2 chunkPos = BlockVector2.at(chunkX, chunkZ);
+                        if (chunks.contains(chunkPos)) {
+                            gen.generate(chunkPos, this);
+                        }
+                    }
                 }
+            } catch (WorldEditException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Get how far from where it spawns a schematic can paste, the larger axis is used as a rotation swaps them
+     *
+     * @return the distance, or {@link Integer#MAX_VALUE} if a transform other than a rotation is used
+     */
+    private static int getSchemHalo(List<ClipboardHolder> clipboards, boolean rotate) {
+        int halo = 0;
+        for (ClipboardHolder holder : clipboards) {
+            if (!rotate && !holder.getTransform().isIdentity()) {
+                return Integer.MAX_VALUE;
             }
+            Clipboard clipboard = holder.getClipboard();
+            BlockVector3 min = clipboard.getMinimumPoint().subtract(clipboard.getOrigin());
+            BlockVector3 max = clipboard.getMaximumPoint().subtract(clipboard.getOrigin());
+            halo = Math.max(halo, Math.max(Math.max(-min.getBlockX(), max.getBlockX()),
+                Math.max(-min.getBlockZ(), max.getBlockZ())));
         }
+        return halo + 1;
+    }
+
+    /**
+     * Copy the holders for one tile, as a random rotation sets the transform of a holder
+     */
+    private static List<ClipboardHolder> copyHolders(List<ClipboardHolder> clipboards) {
+        List<ClipboardHolder> copy = new ArrayList<>(clipboards.size());
+        for (ClipboardHolder holder : clipboards) {
+            ClipboardHolder tileHolder = new ClipboardHolder(holder.getClipboard());
+            tileHolder.setTransform(holder.getTransform());
+            copy.add(tileHolder);
+        }
+        return copy;
     }
 
     public void addOre(Mask mask, Pattern material, int size, int frequency, int rarity, int minY,
@@ -774,18 +961,18 @@ public <B extends BlockStateHolder<B>> boolean setBlock(BlockVector3 position, B
 
     private boolean setBlock(int x, int y, int z, char combined) {
         int index = z * getWidth() + x;
-        if (index < 0 || index >= getArea()) {
+        if (index < 0 || index >= getArea() || x < 0 || x >= getWidth()) {
             return false;
         }
         int height = heights.getByte(index) & 0xFF;
         switch (y - height) {
             case 0:
-                floor.setInt(index, combined);
+                floor.setChar(index, combined);
                 return true;
             case 1:
-                char mainId = overlay.getChar(index);
-                char floorId = overlay.getChar(index);
-                floor.setInt(index, combined);
+                char mainId = main.getChar(index);
+                char floorId = floor.getChar(index);
+                floor.setChar(index, combined);
 
                 byte currentHeight = heights.getByte(index);
                 currentHeight++;
@@ -796,12 +983,7 @@ private boolean setBlock(int x, int y, int z, char combined) {
                 y--;
                 combined = floorId;
             default:
-                try {
-                    blocks.set(x, y, z, combined);
-                    return true;
-                } catch (IndexOutOfBoundsException ignore) {
-                    return false;
-                }
+                return blocks.set(x, y, z, combined);
         }
     }
 
@@ -960,6 +1142,11 @@ public void close(boolean update) {
         }
         player = null;
         chunkOffset = null;
+        try {
+            blocks.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     @Override
@@ -984,36 +1171,22 @@ public int getOrdinal(int x, int y, int z) throws FaweChunkLoadException {
             if (y == height + 1) {
                 return overlay != null ? overlay.getChar(index) : 0;
             }
-            if (blocks != null) {
-                short chunkX = (short) (x >> 4);
-                short chunkZ = (short) (z >> 4);
-                char[][][] map = getChunkArray(chunkX, chunkZ);
-                if (map != null) {
-                    int combined = get(map, x, y, z);
-                    if (combined != 0) {
-                        return combined;
-                    }
-                }
+            int combined = blocks.get(x, y, z);
+            if (combined != 0) {
+                return combined;
             }
             if (y <= primitives.waterHeight) {
                 return primitives.waterOrdinal;
             }
             return 0;
         } else if (y == height) {
-            return overlay.getChar(index);
+            return floor.getChar(index);
         } else {
-            if (blocks != null) {
-                short chunkX = (short) (x >> 4);
-                short chunkZ = (short) (z >> 4);
-                char[][][] map = getChunkArray(chunkX, chunkZ);
-                if (map != null) {
-                    int combined = get(map, x, y, z);
-                    if (combined != 0) {
-                        return combined;
-                    }
-                }
+            int combined = blocks.get(x, y, z);
+            if (combined != 0) {
+                return combined;
             }
-            return overlay.getChar(index);
+            return main.getChar(index);
         }
     }
 
@@ -1132,46 +1305,45 @@ public void setBlockAndBiomeColor(BufferedImage img, Mask mask, BufferedImage im
             throw new IllegalArgumentException(
                 "Input image dimensions do not match the current height map!");
         }
-        TextureUtil textureUtil = getTextureUtil();
-
-        int widthIndex = img.getWidth() - 1;
-        int heightIndex = img.getHeight() - 1;
-        int maxIndex = getArea() - 1;
 
         biomes.record(() -> floor.record(() -> main.record(() -> {
             char[] mainArr = main.get();
             char[] floorArr = floor.get();
             byte[] biomesArr = biomes.get();
 
-            int index = 0;
-            char[] buffer = new char[2];
-            for (int z = 0; z < img.getHeight(); z++) {
-                mutable.mutZ(z);
-                for (int x = 0; x < img.getWidth(); x++, index++) {
-                    if (mask != null) {
-                        mutable.mutX(z);
-                        mutable.mutY(heights.getByte(index) & 0xFF);
-                        if (!mask.test(mutable)) {
-                            continue;
+            forEachTile(mask == null, (minX, minZ, maxX, maxZ) -> {
+                TextureUtil textureUtil = getTileTextureUtil();
+                MutableBlockVector3 mutable = new MutableBlockVector3();
+                char[] buffer = new char[2];
+                for (int z = minZ; z <= maxZ; z++) {
+                    mutable.mutZ(z);
+                    int index = z * getWidth() + minX;
+                    for (int x = minX; x <= maxX; x++, index++) {
+                        if (mask != null) {
+                            mutable.mutX(x);
+                            mutable.mutY(heights.getByte(index) & 0xFF);
+                            if (!mask.test(mutable)) {
+                                continue;
+                            }
                         }
-                    }
-                    if (imgMask != null) {
-                        int height = imgMask.getRGB(x, z) & 0xFF;
-                        if (height != 255 && (height <= 0 || !whiteOnly || ThreadLocalRandom
-                            .current().nextInt(256) > height)) {
-                            continue;
+                        if (imgMask != null) {
+                            int height = imgMask.getRGB(x, z) & 0xFF;
+                            if (height != 255 && (height <= 0 || !whiteOnly || ThreadLocalRandom
+                                .current().nextInt(256) > height)) {
+                                continue;
+                            }
                         }
+                        int color = img.getRGB(x, z);
+                        if (textureUtil
+                            .getIsBlockCloserThanBiome(buffer, color, primitives.biomePriority)) {
+                            char combined = buffer[0];
+                            mainArr[index] = combined;
+                            floorArr[index] = combined;
+                        }
+                        biomesArr[index] = (byte) buffer[1];
                     }
-                    int color = img.getRGB(x, z);
-                    if (textureUtil
-                        .getIsBlockCloserThanBiome(buffer, color, primitives.biomePriority)) {
-                        char combined = buffer[0];
-                        mainArr[index] = combined;
-                        floorArr[index] = combined;
-                    }
-                    biomesArr[index] = (byte) buffer[1];
                 }
-            }
+            });
         })));
     }
 
@@ -1180,28 +1352,29 @@ public void setBlockAndBiomeColor(BufferedImage img) {
             throw new IllegalArgumentException(
                 "Input image dimensions do not match the current height map!");
         }
-        TextureUtil textureUtil = getTextureUtil();
-        int heightIndex = img.getHeight() - 1;
 
         biomes.record(() -> floor.record(() -> main.record(() -> {
             char[] mainArr = main.get();
             char[] floorArr = floor.get();
             byte[] biomesArr = biomes.get();
 
-            char[] buffer = new char[2];
-            int index = 0;
-            for (int y = 0; y < img.getHeight(); y++) {
-                for (int x = 0; x < img.getWidth(); x++, index++) {
-                    int color = img.getRGB(x, y);
-                    if (textureUtil
-                        .getIsBlockCloserThanBiome(buffer, color, primitives.biomePriority)) {
-                        char combined = buffer[0];
-                        mainArr[index] = combined;
-                        floorArr[index] = combined;
+            forEachTile(true, (minX, minZ, maxX, maxZ) -> {
+                TextureUtil textureUtil = getTileTextureUtil();
+                char[] buffer = new char[2];
+                for (int z = minZ; z <= maxZ; z++) {
+                    int index = z * getWidth() + minX;
+                    for (int x = minX; x <= maxX; x++, index++) {
+                        int color = img.getRGB(x, z);
+                        if (textureUtil
+                            .getIsBlockCloserThanBiome(buffer, color, primitives.biomePriority)) {
+                            char combined = buffer[0];
+                            mainArr[index] = combined;
+                            floorArr[index] = combined;
+                        }
+                        biomesArr[index] = (byte) buffer[1];
                     }
-                    biomesArr[index] = (byte) buffer[1];
                 }
-            }
+            });
         })));
     }
 
@@ -1210,21 +1383,22 @@ public void setBiomeColor(BufferedImage img) {
             throw new IllegalArgumentException(
                 "Input image dimensions do not match the current height map!");
         }
-        TextureUtil textureUtil = getTextureUtil();
 
         biomes.record(() -> {
             byte[] biomesArr = biomes.get();
-            int index = 0;
-            for (int y = 0; y < img.getHeight(); y++) {
-                for (int x = 0; x < img.getWidth(); x++) {
-                    int color = img.getRGB(x, y);
-                    TextureUtil.BiomeColor biome = textureUtil.getNearestBiome(color);
-                    if (biome != null) {
-                        biomesArr[index] = (byte) biome.id;
+            forEachTile(true, (minX, minZ, maxX, maxZ) -> {
+                TextureUtil textureUtil = getTileTextureUtil();
+                for (int z = minZ; z <= maxZ; z++) {
+                    int index = z * getWidth() + minX;
+                    for (int x = minX; x <= maxX; x++, index++) {
+                        int color = img.getRGB(x, z);
+                        TextureUtil.BiomeColor biome = textureUtil.getNearestBiome(color);
+                        if (biome != null) {
+                            biomesArr[index] = (byte) biome.id;
+                        }
                     }
-                    index++;
                 }
-            }
+            });
         });
     }
 
@@ -1238,28 +1412,30 @@ public void setColor(BufferedImage img, BufferedImage mask, boolean white) {
                 "Input image dimensions do not match the current height map!");
         }
         primitives.modifiedMain = true;
-        TextureUtil textureUtil = getTextureUtil();
 
         floor.record(() -> main.record(() -> {
             char[] mainArr = main.get();
             char[] floorArr = floor.get();
 
-            int index = 0;
-            for (int z = 0; z < getLength(); z++) {
-                for (int x = 0; x < getWidth(); x++, index++) {
-                    int height = mask.getRGB(x, z) & 0xFF;
-                    if (height == 255 || height > 0 && !white && ThreadLocalRandom.current()
-                        .nextInt(256) <= height) {
-                        int color = img.getRGB(x, z);
-                        BlockType block = textureUtil.getNearestBlock(color);
-                        if (block != null) {
-                            char combined = block.getDefaultState().getOrdinalChar();
-                            mainArr[index] = combined;
-                            floorArr[index] = combined;
+            forEachTile(true, (minX, minZ, maxX, maxZ) -> {
+                TextureUtil textureUtil = getTileTextureUtil();
+                for (int z = minZ; z <= maxZ; z++) {
+                    int index = z * getWidth() + minX;
+                    for (int x = minX; x <= maxX; x++, index++) {
+                        int height = mask.getRGB(x, z) & 0xFF;
+                        if (height == 255 || height > 0 && !white && ThreadLocalRandom.current()
+                            .nextInt(256) <= height) {
+                            int color = img.getRGB(x, z);
+                            BlockType block = textureUtil.getNearestBlock(color);
+                            if (block != null) {
+                                char combined = block.getDefaultState().getOrdinalChar();
+                                mainArr[index] = combined;
+                                floorArr[index] = combined;
+                            }
                         }
                     }
                 }
-            }
+            });
         }));
     }
 
@@ -1301,25 +1477,26 @@ public void setColor(BufferedImage img) {
                 "Input image dimensions do not match the current height map!");
         }
         primitives.modifiedMain = true;
-        TextureUtil textureUtil = getTextureUtil();
 
         floor.record(() -> main.record(() -> {
             char[] mainArr = main.get();
             char[] floorArr = floor.get();
 
-            int index = 0;
-            for (int z = 0; z < img.getHeight(); z++) {
-                for (int x = 0; x < img.getWidth(); x++) {
-                    int color = img.getRGB(x, z);
-                    BlockType block = textureUtil.getNearestBlock(color);
-                    if (block != null) {
-                        char combined = block.getDefaultState().getOrdinalChar();
-                        mainArr[index] = combined;
-                        floorArr[index] = combined;
+            forEachTile(true, (minX, minZ, maxX, maxZ) -> {
+                TextureUtil textureUtil = getTileTextureUtil();
+                for (int z = minZ; z <= maxZ; z++) {
+                    int index = z * getWidth() + minX;
+                    for (int x = minX; x <= maxX; x++, index++) {
+                        int color = img.getRGB(x, z);
+                        BlockType block = textureUtil.getNearestBlock(color);
+                        if (block != null) {
+                            char combined = block.getDefaultState().getOrdinalChar();
+                            mainArr[index] = combined;
+                            floorArr[index] = combined;
+                        }
                     }
-                    index++;
                 }
-            }
+            });
         }));
     }
 
@@ -1328,24 +1505,26 @@ public void setColorWithGlass(BufferedImage img) {
             throw new IllegalArgumentException(
                 "Input image dimensions do not match the current height map!");
         }
-        TextureUtil textureUtil = getTextureUtil();
 
         floor.record(() -> main.record(() -> {
             char[] mainArr = main.get();
             char[] floorArr = floor.get();
 
-            int index = 0;
-            for (int y = 0; y < img.getHeight(); y++) {
-                for (int x = 0; x < img.getWidth(); x++) {
-                    int color = img.getRGB(x, y);
-                    BlockType[] layer = textureUtil.getNearestLayer(color);
-                    if (layer != null) {
-                        floorArr[index] = layer[0].getDefaultState().getOrdinalChar();
-                        mainArr[index] = layer[1].getDefaultState().getOrdinalChar();
+            forEachTile(true, (minX, minZ, maxX, maxZ) -> {
+                TextureUtil textureUtil = getTileTextureUtil();
+                BlockType[] buffer = new BlockType[2];
+                for (int z = minZ; z <= maxZ; z++) {
+                    int index = z * getWidth() + minX;
+                    for (int x = minX; x <= maxX; x++, index++) {
+                        int color = img.getRGB(x, z);
+                        BlockType[] layer = textureUtil.getNearestLayer(color, buffer);
+                        if (layer != null) {
+                            floorArr[index] = layer[0].getDefaultState().getOrdinalChar();
+                            mainArr[index] = layer[1].getDefaultState().getOrdinalChar();
+                        }
                     }
-                    index++;
                 }
-            }
+            });
         }));
     }
 
@@ -1810,7 +1989,7 @@ public MCAChunk write(MCAChunk chunk, int csx, int cex, int csz, int cez) {
                 }
             }
 
-            char[][][] localBlocks = getChunkArray(chunk.getX(), chunk.getZ());
+            char[][][] localBlocks = blocks.getChunk(chunk.getX(), chunk.getZ());
             if (localBlocks != null) {
                 index = 0;
                 for (int layer = 0; layer < 16; layer++) {
@@ -1864,18 +2043,6 @@ private void setUnsafe(char[][][] map, char combined, int x, int y, int z) {
         zMap[x] = combined;
     }
 
-    private int get(char[][][] map, int x, int y, int z) {
-        char[][] yMap = map[y];
-        if (yMap == null) {
-            return 0;
-        }
-        char[] zMap = yMap[z & 15];
-        if (zMap == null) {
-            return 0;
-        }
-        return zMap[x & 15];
-    }
-
     private void setOverlay(Mask mask, int combined) {
         int index = 0;
         if (overlay == null) {
@@ -0,0 +1,503 @@
+package com.boydti.fawe.object.changeset;
+
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.FaweInputStream;
+import com.boydti.fawe.object.FaweOutputStream;
+import com.boydti.fawe.object.io.FastByteArrayOutputStream;
+import com.boydti.fawe.object.io.PGZIPOutputStream;
+import com.boydti.fawe.util.MainUtil;
+import com.boydti.fawe.util.MathMan;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.Region;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Block changes grouped into a compressed block per chunk, with an index of the blocks in the footer
+ * - Undoing or inspecting part of an edit only decompresses the chunks it needs
+ * - Files of the sequential format start with a compression byte, and are read as before
+ *
+ * [header]
+ * {byte format, byte version, byte mode, int origin x, int origin z}
+ *
+ * [blocks]...
+ * { compressed: { byte local x/z, unsigned byte y, change }... }
+ *
+ * [footer]
+ * {int entries, { int chunk x, int chunk z, long offset, int length, int count }...}
+ * {long footer offset}
+ *
+ * Blocks are compressed on a background pool while the edit continues, and written in the order
+ * they were submitted, so the blocks of a chunk stay in order.
+ */
+public class ChunkIndexedHistory {
+    public static final int FORMAT = 127;
+    public static final int VERSION = 1;
+
+    private static final int ENTRY_SIZE = 24;
+    private static final int MIN_BUFFER_SIZE = 4096;
+
+    /**
+     * Test whether a block file uses the chunk indexed format
+     *
+     * @param file the block file
+     * @return true if the file is chunk indexed
+     */
+    public static boolean isChunkIndexed(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        try (FileInputStream fis = new FileInputStream(file)) {
+            return fis.read() == FORMAT;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the size of the stream buffers for a block, as blocks are much smaller than the buffers
+     * used for whole files
+     */
+    private static int getBufferSize(int length) {
+        return Math.max(MIN_BUFFER_SIZE, Math.min(length, Settings.IMP.HISTORY.BUFFER_SIZE));
+    }
+
+    /**
+     * A block of changes within a chunk
+     */
+    public static class Entry {
+        public final int chunkX;
+        public final int chunkZ;
+        public final long offset;
+        public final int length;
+        public final int count;
+
+        public Entry(int chunkX, int chunkZ, long offset, int length, int count) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+        }
+
+        public boolean intersects(Region[] regions) {
+            if (regions == null) {
+                return true;
+            }
+            int minX = chunkX << 4;
+            int minZ = chunkZ << 4;
+            for (Region region : regions) {
+                BlockVector3 pos1 = region.getMinimumPoint();
+                BlockVector3 pos2 = region.getMaximumPoint();
+                if (pos1.getX() <= minX + 15 && pos2.getX() >= minX && pos1.getZ() <= minZ + 15 && pos2.getZ() >= minZ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class ChunkBuffer {
+        private final FastByteArrayOutputStream bytes = new FastByteArrayOutputStream();
+        private final FaweOutputStream out = new FaweOutputStream(bytes);
+        private int count;
+    }
+
+    /**
+     * A block being compressed
+     */
+    private static class PendingBlock {
+        private final long key;
+        private final int count;
+        private final Future<byte[]> data;
+
+        private PendingBlock(long key, int count, Future<byte[]> data) {
+            this.key = key;
+            this.count = count;
+            this.data = data;
+        }
+    }
+
+    public static class Writer implements Closeable {
+        private final OutputStream out;
+        private final int compression;
+        private final int blockSize;
+        private final ExecutorService executor;
+        private final int maxPending;
+        private final Long2ObjectOpenHashMap<ChunkBuffer> buffers = new Long2ObjectOpenHashMap<>();
+        private final ArrayDeque<PendingBlock> compressing = new ArrayDeque<>();
+        private final List<Entry> entries = new ArrayList<>();
+        private long position;
+        private int pending;
+        private long lastKey = Long.MIN_VALUE;
+        private ChunkBuffer lastBuffer;
+
+        /**
+         * Start writing a chunk indexed file
+         *
+         * @param file the file to write
+         * @param history the change set, which writes the mode and origin
+         * @param compression the compression level of each block
+         * @param blockSize the uncompressed size at which a chunk is written as a block, and the
+         *                  number of buffered changes at which every chunk is written
+         * @param maxPending the number of blocks which may be compressing at once, before adding a
+         *                   change waits for the oldest block
+         * @param x the origin x
+         * @param y the origin y
+         * @param z the origin z
+         */
+        public Writer(File file, FaweStreamChangeSet history, int compression, int blockSize, int maxPending, int x, int y, int z) throws IOException {
+            this.out = new BufferedOutputStream(new FileOutputStream(file), 8192);
+            this.compression = compression;
+            this.blockSize = blockSize;
+            this.executor = PGZIPOutputStream.getSharedThreadPool();
+            this.maxPending = Math.max(1, maxPending);
+            out.write(FORMAT);
+            out.write(VERSION);
+            history.writeHeader(out, x, y, z);
+            position = 2 + FaweStreamChangeSet.HEADER_SIZE;
+        }
+
+        /**
+         * Get the stream to write a change to, after the position of the change has been written
+         *
+         * @param x the block x
+         * @param y the block y
+         * @param z the block z
+         * @return the stream of the chunk being changed
+         */
+        public FaweOutputStream add(int x, int y, int z) throws IOException {
+            if (!compressing.isEmpty()) {
+                // Write the blocks which are done, without waiting for the others
+                emitUntil(maxPending);
+            }
+            if (pending >= blockSize) {
+                writeBlocks();
+            }
+            long key = MathMan.pairInt(x >> 4, z >> 4);
+            ChunkBuffer buffer = lastBuffer;
+            if (key != lastKey || buffer == null) {
+                buffer = buffers.get(key);
+                if (buffer == null) {
+                    buffer = new ChunkBuffer();
+                    buffers.put(key, buffer);
+                }
+                lastKey = key;
+                lastBuffer = buffer;
+            }
+            if (buffer.bytes.getSize() >= blockSize) {
+                writeBlock(key, buffer);
+            }
+            buffer.count++;
+            pending++;
+            buffer.out.write(((x & 15) << 4) | (z & 15));
+            buffer.out.write(y);
+            return buffer.out;
+        }
+
+        private void writeBlock(long key, ChunkBuffer buffer) throws IOException {
+            if (buffer.count == 0) {
+                return;
+            }
+            buffer.out.flush();
+            byte[] raw = buffer.bytes.toByteArray();
+            emitUntil(maxPending - 1);
+            compressing.add(new PendingBlock(key, buffer.count, executor.submit(() -> compress(raw))));
+            pending -= buffer.count;
+            buffer.bytes.reset();
+            buffer.count = 0;
+        }
+
+        private byte[] compress(byte[] raw) throws IOException {
+            FastByteArrayOutputStream compressed = new FastByteArrayOutputStream();
+            try (FaweOutputStream cos = MainUtil.getCompressedOS(compressed, compression, getBufferSize(raw.length))) {
+                cos.write(raw);
+            }
+            return compressed.toByteArray();
+        }
+
+        /**
+         * Write the compressed blocks which are done, and wait for the oldest blocks until no
+         * more than a number are still compressing
+         *
+         * @param allowed the number of blocks which may still be compressing
+         */
+        private void emitUntil(int allowed) throws IOException {
+            PendingBlock block;
+            while ((block = compressing.peek()) != null && (compressing.size() > allowed || block.data.isDone())) {
+                compressing.remove();
+                byte[] data;
+                try {
+                    data = block.data.get();
+                } catch (InterruptedException e) {
+                    throw (IOException) new InterruptedIOException().initCause(e);
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
+                out.write(data);
+                entries.add(new Entry(MathMan.unpairIntX(block.key), MathMan.unpairIntY(block.key), position, data.length, block.count));
+                position += data.length;
+            }
+        }
+
+        private void writeBlocks() throws IOException {
+            for (Long2ObjectMap.Entry<ChunkBuffer> entry : buffers.long2ObjectEntrySet()) {
+                writeBlock(entry.getLongKey(), entry.getValue());
+            }
+            buffers.clear();
+            lastBuffer = null;
+            pending = 0;
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeBlocks();
+            emitUntil(0);
+            FaweOutputStream footer = new FaweOutputStream(out);
+            footer.writeInt(entries.size());
+            for (Entry entry : entries) {
+                footer.writeInt(entry.chunkX);
+                footer.writeInt(entry.chunkZ);
+                footer.writeLong(entry.offset);
+                footer.writeInt(entry.length);
+                footer.writeInt(entry.count);
+            }
+            footer.writeLong(position);
+            footer.close();
+        }
+    }
+
+    /**
+     * Reads the blocks of a file through a single channel, which is opened on the first block read
+     * - Blocks may be read from multiple threads at once
+     * - The channel stays open until the reader is closed, or an iterator over the regions of the
+     * reader is exhausted
+     */
+    public static class Reader implements Closeable {
+        private final File file;
+        private final int mode;
+        private final int originX;
+        private final int originZ;
+        private final List<Entry> entries;
+        private FileChannel channel;
+
+        public Reader(File file) throws IOException {
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                if (raf.read() != FORMAT) {
+                    throw new IOException("Not a chunk indexed history file: " + file);
+                }
+                int version = raf.read();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported history version " + version + ": " + file);
+                }
+                this.mode = raf.read();
+                this.originX = raf.readInt();
+                this.originZ = raf.readInt();
+                long start = 2 + FaweStreamChangeSet.HEADER_SIZE;
+                long length = raf.length();
+                if (length < start + 12) {
+                    throw new IOException("Truncated history file: " + file);
+                }
+                raf.seek(length - 8);
+                long footer = raf.readLong();
+                if (footer < start || footer > length - 12) {
+                    throw new IOException("Invalid history footer offset " + footer + ": " + file);
+                }
+                raf.seek(footer);
+                int size = raf.readInt();
+                if (size < 0 || (long) size * ENTRY_SIZE != length - 12 - footer) {
+                    throw new IOException("Invalid history footer size " + size + ": " + file);
+                }
+                byte[] data = new byte[size * ENTRY_SIZE];
+                raf.readFully(data);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+                List<Entry> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    Entry entry = new Entry(in.readInt(), in.readInt(), in.readLong(), in.readInt(), in.readInt());
+                    if (entry.offset < start || entry.length < 0 || entry.offset + entry.length > footer || entry.count < 0) {
+                        throw new IOException("Invalid history block " + i + ": " + file);
+                    }
+                    list.add(entry);
+                }
+                this.entries = Collections.unmodifiableList(list);
+            }
+        }
+
+        public int getMode() {
+            return mode;
+        }
+
+        public int getOriginX() {
+            return originX;
+        }
+
+        public int getOriginZ() {
+            return originZ;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Decompress a block of changes
+         *
+         * @param entry the block
+         * @return the stream of changes
+         */
+        public FaweInputStream open(Entry entry) throws IOException {
+            byte[] data = new byte[entry.length];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            FileChannel channel = getChannel();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            return MainUtil.getCompressedIS(new ByteArrayInputStream(data), getBufferSize(entry.length));
+        }
+
+        private synchronized FileChannel getChannel() throws IOException {
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            return channel;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+
+        /**
+         * Iterate over the changes in the chunks which intersect the regions, closing the reader
+         * once every change has been read
+         *
+         * @param regions the regions, or null for every chunk
+         * @param change the mutable change to return
+         * @param decoder reads the change after its position
+         * @return an iterator of the same, mutated change
+         */
+        public <T> Iterator<T> iterator(Region[] regions, T change, ChangeDecoder<T> decoder) {
+            return iterator(entries, regions, change, decoder, true);
+        }
+
+        /**
+         * Iterate over the changes in some blocks, in order
+         *
+         * @param entries the blocks to read
+         * @param change the mutable change to return
+         * @param decoder reads the change after its position
+         * @return an iterator of the same, mutated change
+         */
+        public <T> Iterator<T> iterator(List<Entry> entries, T change, ChangeDecoder<T> decoder) {
+            return iterator(entries, null, change, decoder, false);
+        }
+
+        private <T> Iterator<T> iterator(List<Entry> entries, Region[] regions, T change, ChangeDecoder<T> decoder, boolean closeReader) {
+            return new Iterator<T>() {
+                private final Iterator<Entry> iter = entries.iterator();
+                private Entry entry;
+                private FaweInputStream in;
+                private int remaining;
+
+                @Override
+                public boolean hasNext() {
+                    while (remaining <= 0) {
+                        close();
+                        if (!iter.hasNext()) {
+                            if (closeReader) {
+                                try {
+                                    Reader.this.close();
+                                } catch (IOException e) {
+                                    e.printStackTrace();
+                                }
+                            }
+                            return false;
+                        }
+                        entry = iter.next();
+                        if (!entry.intersects(regions)) {
+                            continue;
+                        }
+                        try {
+                            in = open(entry);
+                            remaining = entry.count;
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    remaining--;
+                    try {
+                        int xz = in.read();
+                        int y = in.read();
+                        if (y == -1) {
+                            throw new EOFException();
+                        }
+                        decoder.read(in, change, (entry.chunkX << 4) + (xz >> 4), y, (entry.chunkZ << 4) + (xz & 15));
+                    } catch (IOException e) {
+                        close();
+                        throw new RuntimeException(e);
+                    }
+                    return change;
+                }
+
+                private void close() {
+                    if (in != null) {
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                        in = null;
+                    }
+                }
+            };
+        }
+    }
+
+    @FunctionalInterface
+    public interface ChangeDecoder<T> {
+        void read(FaweInputStream in, T change, int x, int y, int z) throws IOException;
+    }
+}
@@ -7,18 +7,23 @@
 import com.boydti.fawe.object.FaweInputStream;
 import com.boydti.fawe.object.FaweOutputStream;
 import com.boydti.fawe.object.IntPair;
+import com.boydti.fawe.object.change.MutableBlockChange;
+import com.boydti.fawe.object.change.MutableFullBlockChange;
 import com.boydti.fawe.util.MainUtil;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.NBTOutputStream;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.entity.Player;
+import com.sk89q.worldedit.extent.inventory.BlockBag;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.block.BlockTypes;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.UUID;
 
 /**
@@ -48,6 +53,10 @@ public class DiskStorageHistory extends FaweStreamChangeSet {
      * { short rel x, short rel z, unsigned byte y, short combinedFrom, short combinedTo }
      */
     private FaweOutputStream osBD;
+    // Block data grouped by chunk, see ChunkIndexedHistory
+    private ChunkIndexedHistory.Writer chunkBD;
+    // The regions being undone or redone, to skip reading chunks outside of them
+    private Region[] readRegions;
     // biome
     private FaweOutputStream osBIO;
     // NBT From
@@ -120,7 +129,13 @@ public void deleteFiles() {
 
     public void undo(Player player, Region[] regions) {
         EditSession session = toEditSession(player, regions);
-        session.undo(session);
+        readRegions = regions;
+        try {
+            session.undo(session);
+        } finally {
+            readRegions = null;
+        }
+        // Not reached if the undo failed, so the history is kept to be undone again
         deleteFiles();
     }
 
@@ -128,9 +143,23 @@ public void undo(Player player) {
         undo(player, null);
     }
 
+    /**
+     * Get the regions being undone or redone, if they were restricted
+     *
+     * @return the regions, or null for all changes
+     */
+    Region[] getReadRegions() {
+        return readRegions;
+    }
+
     public void redo(Player player, Region[] regions) {
         EditSession session = toEditSession(player, regions);
-        session.redo(session);
+        readRegions = regions;
+        try {
+            session.redo(session);
+        } finally {
+            readRegions = null;
+        }
     }
 
     public void redo(Player player) {
@@ -175,6 +204,7 @@ public void flush() {
         synchronized (this) {
             try {
                 if (osBD != null) osBD.flush();
+                if (chunkBD != null) chunkBD.flush();
                 if (osBIO != null) osBIO.flush();
                 if (osNBTF != null) osNBTF.flush();
                 if (osNBTT != null) osNBTT.flush();
@@ -195,6 +225,10 @@ public void close() throws IOException {
                     osBD.close();
                     osBD = null;
                 }
+                if (chunkBD != null) {
+                    chunkBD.close();
+                    chunkBD = null;
+                }
                 if (osBIO != null) {
                     osBIO.close();
                     osBIO = null;
@@ -269,6 +303,35 @@ public FaweOutputStream getBlockOS(int x, int y, int z) throws IOException {
         }
     }
 
+    private ChunkIndexedHistory.Writer getChunkBD(int x, int y, int z) throws IOException {
+        if (chunkBD != null) {
+            return chunkBD;
+        }
+        synchronized (this) {
+            if (chunkBD == null) {
+                bdFile.getParentFile().mkdirs();
+                bdFile.createNewFile();
+                chunkBD = new ChunkIndexedHistory.Writer(bdFile, this, getCompression(), Settings.IMP.HISTORY.BUFFER_SIZE, Settings.IMP.QUEUE.PARALLEL_THREADS, x, y, z);
+            }
+            return chunkBD;
+        }
+    }
+
+    @Override
+    public void add(int x, int y, int z, int combinedFrom, int combinedTo) {
+        if (osBD != null || (chunkBD == null && !Settings.IMP.HISTORY.CHUNK_INDEX)) {
+            super.add(x, y, z, combinedFrom, combinedTo);
+            return;
+        }
+        blockSize++;
+        try {
+            FaweOutputStream stream = getChunkBD(x, y, z).add(x, y, z);
+            idDel.writeChange(stream, combinedFrom, combinedTo);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public FaweOutputStream getBiomeOS() throws IOException {
         if (osBIO != null) {
@@ -326,9 +389,14 @@ public NBTOutputStream getTileRemoveOS() throws IOException {
         return osNBTF;
     }
 
+    /**
+     * Get the sequential block stream
+     *
+     * @return the stream, or null if there are no block changes or they are chunk indexed
+     */
     @Override
     public FaweInputStream getBlockIS() throws IOException {
-        if (!bdFile.exists()) {
+        if (!bdFile.exists() || ChunkIndexedHistory.isChunkIndexed(bdFile)) {
             return null;
         }
         FaweInputStream is = MainUtil.getCompressedIS(new FileInputStream(bdFile));
@@ -376,18 +444,106 @@ public NBTInputStream getTileRemoveIS() throws IOException {
         return new NBTInputStream(MainUtil.getCompressedIS(new FileInputStream(nbtfFile)));
     }
 
+    /**
+     * Read the index of the block changes
+     *
+     * @return the index, or null if the changes are not chunk indexed
+     */
+    public ChunkIndexedHistory.Reader getChunkIndex() throws IOException {
+        if (!ChunkIndexedHistory.isChunkIndexed(bdFile)) {
+            return null;
+        }
+        ChunkIndexedHistory.Reader reader = new ChunkIndexedHistory.Reader(bdFile);
+        setOrigin(reader.getOriginX(), reader.getOriginZ());
+        setupStreamDelegates(reader.getMode());
+        return reader;
+    }
+
+    @Override
+    public Iterator<MutableBlockChange> getBlockIterator(boolean dir) throws IOException {
+        ChunkIndexedHistory.Reader reader = getChunkIndex();
+        if (reader == null) {
+            return super.getBlockIterator(dir);
+        }
+        MutableBlockChange change = new MutableBlockChange(0, 0, 0, BlockTypes.AIR.getInternalId());
+        return reader.iterator(readRegions, change, (in, mutable, x, y, z) -> {
+            mutable.x = x;
+            mutable.y = y;
+            mutable.z = z;
+            idDel.readCombined(in, mutable, dir);
+        });
+    }
+
+    @Override
+    public Iterator<MutableFullBlockChange> getFullBlockIterator(BlockBag blockBag, int inventory, boolean dir) throws IOException {
+        return getFullBlockIterator(blockBag, inventory, dir, readRegions);
+    }
+
+    /**
+     * Get the block changes within some regions. Chunk indexed history only reads the chunks
+     * intersecting the regions, though changes outside of the regions may still be returned.
+     *
+     * @param regions the regions to read, or null for all changes
+     * @return the block changes
+     */
+    public Iterator<MutableFullBlockChange> getFullBlockIterator(BlockBag blockBag, int inventory, boolean dir, Region[] regions) throws IOException {
+        ChunkIndexedHistory.Reader reader = getChunkIndex();
+        if (reader == null) {
+            return super.getFullBlockIterator(blockBag, inventory, dir);
+        }
+        return getFullBlockIterator(reader, blockBag, inventory, dir, regions);
+    }
+
+    private Iterator<MutableFullBlockChange> getFullBlockIterator(ChunkIndexedHistory.Reader reader, BlockBag blockBag, int inventory, boolean dir, Region[] regions) {
+        MutableFullBlockChange change = new MutableFullBlockChange(blockBag, inventory, dir);
+        return reader.iterator(regions, change, (in, mutable, x, y, z) -> {
+            mutable.x = x;
+            mutable.y = y;
+            mutable.z = z;
+            idDel.readCombined(in, mutable);
+        });
+    }
+
     @Override
     public SimpleChangeSetSummary summarize(Region region, boolean shallow) {
-        if (bdFile.exists()) {
+        if (!bdFile.exists()) {
+            return null;
+        }
+        if (!ChunkIndexedHistory.isChunkIndexed(bdFile)) {
             return super.summarize(region, shallow);
         }
-        return null;
+        try (ChunkIndexedHistory.Reader reader = getChunkIndex()) {
+            SimpleChangeSetSummary summary = summarizeShallow();
+            if (region != null && !region.contains(getOriginX(), getOriginZ())) {
+                return summary;
+            }
+            if (!shallow) {
+                int amount = (Settings.IMP.HISTORY.BUFFER_SIZE - HEADER_SIZE) / 9;
+                Iterator<MutableFullBlockChange> iter = getFullBlockIterator(reader, null, 0, false, null);
+                for (int i = 0; i < amount && iter.hasNext(); i++) {
+                    MutableFullBlockChange change = iter.next();
+                    summary.add(change.x, change.z, change.to);
+                }
+            }
+            return summary;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     public IntPair readHeader() {
         int ox = getOriginX();
         int oz = getOriginZ();
-        if (ox == 0 && oz == 0 && bdFile.exists()) {
+        if (ox == 0 && oz == 0 && ChunkIndexedHistory.isChunkIndexed(bdFile)) {
+            try {
+                ChunkIndexedHistory.Reader reader = getChunkIndex();
+                ox = reader.getOriginX();
+                oz = reader.getOriginZ();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else if (ox == 0 && oz == 0 && bdFile.exists()) {
             try (FileInputStream fis = new FileInputStream(bdFile)) {
                 final FaweInputStream gis = MainUtil.getCompressedIS(fis);
                 // skip mode
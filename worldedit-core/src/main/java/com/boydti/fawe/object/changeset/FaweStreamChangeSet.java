@@ -226,6 +226,10 @@ public void readHeader(InputStream is) throws IOException {
         setupStreamDelegates(mode);
     }
 
+    public int getCompression() {
+        return compression;
+    }
+
     public FaweOutputStream getCompressedOS(OutputStream os) throws IOException {
         return MainUtil.getCompressedOS(os, compression);
     }
@@ -658,6 +662,17 @@ public void remove() {
 
     @Override
     public Iterator<Change> getIterator(final boolean dir) {
+        return getIterator(dir, true);
+    }
+
+    /**
+     * Get the changes of this change set
+     *
+     * @param dir true for redo, false for undo
+     * @param blocks if block changes should be included, otherwise only tiles, entities and biomes
+     * @return the changes
+     */
+    public Iterator<Change> getIterator(final boolean dir, boolean blocks) {
         try {
             close();
             final Iterator<MutableTileChange> tileCreate = getTileIterator(getTileCreateIS(), true);
@@ -666,7 +681,7 @@ public Iterator<Change> getIterator(final boolean dir) {
             final Iterator<MutableEntityChange> entityCreate = getEntityIterator(getEntityCreateIS(), true);
             final Iterator<MutableEntityChange> entityRemove = getEntityIterator(getEntityRemoveIS(), false);
 
-            final Iterator<MutableBlockChange> blockChange = getBlockIterator(dir);
+            final Iterator<MutableBlockChange> blockChange = blocks ? getBlockIterator(dir) : Collections.emptyIterator();
 
             final Iterator<MutableBiomeChange> biomeChange = getBiomeIterator(dir);
 
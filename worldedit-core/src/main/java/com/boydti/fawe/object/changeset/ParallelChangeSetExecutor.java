@@ -0,0 +1,186 @@
+package com.boydti.fawe.object.changeset;
+
+import com.boydti.fawe.beta.IQueueChunk;
+import com.boydti.fawe.beta.IQueueExtent;
+import com.boydti.fawe.beta.implementation.queue.ChunkScheduler;
+import com.boydti.fawe.beta.implementation.queue.ParallelQueueExtent;
+import com.boydti.fawe.beta.implementation.queue.QueueHandler;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.change.MutableBlockChange;
+import com.boydti.fawe.util.MathMan;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.extent.inventory.BlockBag;
+import com.sk89q.worldedit.function.operation.ChangeSetExecutor;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.function.operation.RunContext;
+import com.sk89q.worldedit.history.UndoContext;
+import com.sk89q.worldedit.history.change.Change;
+import com.sk89q.worldedit.history.changeset.ChangeSet;
+import com.sk89q.worldedit.math.BlockVector2;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.task.progress.Progress;
+import com.sk89q.worldedit.util.task.progress.ProgressObservable;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Performs an undo or redo of a chunk indexed {@link DiskStorageHistory} in parallel
+ * - Tiles, entities and biomes are performed first, in order, as with a {@link ChangeSetExecutor}
+ * - Each worker decompresses the blocks of the chunks it is given, in the order they were written
+ * - Blocks are set directly on the chunks of a worker queue, so only the queue's processors
+ * (e.g. region and limit checks) are applied, rather than the whole extent chain
+ * - If a worker fails, the failure is thrown once all workers have finished
+ */
+public class ParallelChangeSetExecutor implements Operation, ProgressObservable {
+
+    private final DiskStorageHistory changeSet;
+    private final ChunkIndexedHistory.Reader reader;
+    private final ParallelQueueExtent extent;
+    private final UndoContext context;
+    private final ChangeSetExecutor.Type type;
+    private final Long2ObjectLinkedOpenHashMap<List<ChunkIndexedHistory.Entry>> chunks;
+    private final long total;
+    private final AtomicLong done = new AtomicLong();
+
+    private ParallelChangeSetExecutor(DiskStorageHistory changeSet, ChunkIndexedHistory.Reader reader, ParallelQueueExtent extent, UndoContext context, ChangeSetExecutor.Type type) {
+        this.changeSet = changeSet;
+        this.reader = reader;
+        this.extent = extent;
+        this.context = context;
+        this.type = type;
+        // Group the blocks of each chunk, keeping the order they were written
+        this.chunks = new Long2ObjectLinkedOpenHashMap<>();
+        Region[] regions = changeSet.getReadRegions();
+        long count = 0;
+        for (ChunkIndexedHistory.Entry entry : reader.getEntries()) {
+            if (entry.intersects(regions)) {
+                chunks.computeIfAbsent(MathMan.pairInt(entry.chunkX, entry.chunkZ), k -> new ArrayList<>()).add(entry);
+                count += entry.count;
+            }
+        }
+        this.total = count;
+    }
+
+    /**
+     * Create a parallel executor, if the change set and extent support it
+     *
+     * @param changeSet the change set
+     * @param context the undo context
+     * @param type type of change
+     * @param blockBag the block bag
+     * @param inventory the inventory mode
+     * @return the executor, or null if the change set must be performed in order
+     */
+    public static ParallelChangeSetExecutor create(ChangeSet changeSet, UndoContext context, ChangeSetExecutor.Type type, BlockBag blockBag, int inventory) {
+        if (!(changeSet instanceof DiskStorageHistory) || !(context.getExtent() instanceof ParallelQueueExtent)) {
+            return null;
+        }
+        // Block bags need each change to be performed in order
+        if (blockBag != null && inventory > 0) {
+            return null;
+        }
+        DiskStorageHistory history = (DiskStorageHistory) changeSet;
+        try {
+            history.close();
+            ChunkIndexedHistory.Reader reader = history.getChunkIndex();
+            if (reader == null) {
+                return null;
+            }
+            return new ParallelChangeSetExecutor(history, reader, (ParallelQueueExtent) context.getExtent(), context, type);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public Operation resume(RunContext run) throws WorldEditException {
+        boolean redo = type == ChangeSetExecutor.Type.REDO;
+        Iterator<Change> iterator = changeSet.getIterator(redo, false);
+        while (iterator.hasNext()) {
+            type.perform(iterator.next(), context);
+        }
+        if (chunks.isEmpty()) {
+            return null;
+        }
+
+        List<BlockVector2> positions = chunks.keySet().stream()
+            .map(key -> BlockVector2.at(MathMan.unpairIntX(key), MathMan.unpairIntY(key)))
+            .collect(Collectors.toList());
+        QueueHandler handler = extent.getHandler();
+        int size = Math.min(positions.size(), Settings.IMP.QUEUE.PARALLEL_THREADS);
+        ChunkScheduler scheduler = new ChunkScheduler(positions, size);
+        ForkJoinTask[] tasks = IntStream.range(0, size).mapToObj(i -> handler.submit(() -> {
+            ChunkScheduler.Worker worker = scheduler.getWorker(i);
+            MutableBlockChange change = new MutableBlockChange(0, 0, 0, BlockTypes.AIR.getInternalId());
+            IQueueExtent<IQueueChunk> queue = extent.createWorkerQueue();
+            synchronized (queue) {
+                while (worker.next()) {
+                    int chunkX = worker.getChunkX();
+                    int chunkZ = worker.getChunkZ();
+                    List<ChunkIndexedHistory.Entry> entries = chunks.get(MathMan.pairInt(chunkX, chunkZ));
+                    IQueueChunk chunk = queue.getOrCreateChunk(chunkX, chunkZ);
+                    Iterator<MutableBlockChange> changes = reader.iterator(entries, change, (in, mutable, x, y, z) -> {
+                        mutable.x = x;
+                        mutable.y = y;
+                        mutable.z = z;
+                        changeSet.idDel.readCombined(in, mutable, redo);
+                    });
+                    long count = 0;
+                    while (changes.hasNext()) {
+                        MutableBlockChange next = changes.next();
+                        chunk.setBlock(next.x & 15, next.y, next.z & 15, BlockState.getFromOrdinal(next.ordinal));
+                        count++;
+                    }
+                    done.addAndGet(count);
+                }
+                queue.flush();
+            }
+        })).toArray(ForkJoinTask[]::new);
+        // Wait for every worker before reporting a failure, so none is still writing
+        RuntimeException error = null;
+        for (ForkJoinTask task : tasks) {
+            try {
+                task.join();
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        handler.onScheduled(scheduler.getStatistics());
+        try {
+            reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (error != null) {
+            throw error;
+        }
+        return null;
+    }
+
+    @Override
+    public void cancel() {
+    }
+
+    @Override
+    public Progress getProgress() {
+        if (total == 0) {
+            return Progress.completed();
+        }
+        return Progress.of(done.get() / (double) total);
+    }
+}
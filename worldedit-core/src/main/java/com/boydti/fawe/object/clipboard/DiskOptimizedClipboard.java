@@ -255,7 +255,7 @@ public void flush() {
         byteBuffer.force();
     }
 
-    private void closeDirectBuffer(ByteBuffer cb) {
+    static void closeDirectBuffer(ByteBuffer cb) {
         if (cb == null || !cb.isDirect()) return;
         // we could use this type cast and call functions without reflection code,
         // but static import from sun.* package is risky for non-SUN virtual machine.
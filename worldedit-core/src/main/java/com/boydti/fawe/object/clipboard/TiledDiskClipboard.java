@@ -0,0 +1,631 @@
+package com.boydti.fawe.object.clipboard;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.util.MainUtil;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard.ClipboardEntity;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.MutableBlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.biome.BiomeTypes;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+
+/**
+ * A clipboard with disk backed storage, split into 16x16x16 tiles
+ * - Each tile is LZ4 compressed on its own, and only a fixed number of tiles are kept in memory
+ * - The header, tile index and biomes are memory mapped, tile data is appended after them
+ * - Tile entities are stored with the tile they are in, so they are written to disk with it
+ * - Iteration walks tile columns, so pasting reads each tile once
+ *
+ * A tile that grows past its slot when rewritten is moved to the end of the file, the old slot is not reused.
+ */
+public class TiledDiskClipboard extends SimpleClipboard implements Closeable {
+
+    private static final int MAGIC = 0x46415754;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int ENTRY_SIZE = 24;
+    private static final int TILE_VOLUME = 4096;
+    private static final int TILE_BYTES = TILE_VOLUME << 1;
+    private static final int FLAG_NBT = 1;
+    private static final int MAX_SIZE = Short.MAX_VALUE - Short.MIN_VALUE;
+
+    private final HashSet<ClipboardEntity> entities = new HashSet<>();
+    private final File file;
+
+    private final int tilesX;
+    private final int tilesY;
+    private final int tilesZ;
+    private final int tileCount;
+    private final int biomeOffset;
+    private final long dataStart;
+
+    private RandomAccessFile braf;
+    private FileChannel fileChannel;
+    private MappedByteBuffer byteBuffer;
+
+    private final int level;
+    private long dataEnd;
+    private boolean hasBiomes;
+
+    private final Int2ObjectLinkedOpenHashMap<Tile> cache = new Int2ObjectLinkedOpenHashMap<>();
+    private final int cacheSize;
+    private Tile lastTile;
+
+    private final byte[] compressBuffer = new byte[MainUtil.getMaxCompressedLength(TILE_BYTES)];
+    private final byte[] decompressBuffer = new byte[TILE_BYTES];
+
+    public TiledDiskClipboard(Region region, UUID uuid) {
+        this(region.getDimensions(), MainUtil.getFile(Fawe.get() != null ? Fawe.imp().getDirectory() : new File("."), Settings.IMP.PATHS.CLIPBOARD + File.separator + uuid + ".bd"));
+    }
+
+    public TiledDiskClipboard(BlockVector3 dimensions) {
+        this(dimensions, MainUtil.getFile(Fawe.imp() != null ? Fawe.imp().getDirectory() : new File("."), Settings.IMP.PATHS.CLIPBOARD + File.separator + UUID.randomUUID() + ".bd"));
+    }
+
+    public TiledDiskClipboard(BlockVector3 dimensions, File file) {
+        super(dimensions);
+        if (getWidth() > MAX_SIZE) {
+            throw new IllegalArgumentException("Width of region too large");
+        }
+        if (getHeight() > MAX_SIZE) {
+            throw new IllegalArgumentException("Height of region too large");
+        }
+        if (getLength() > MAX_SIZE) {
+            throw new IllegalArgumentException("Length of region too large");
+        }
+        this.file = file;
+        this.tilesX = (getWidth() + 15) >> 4;
+        this.tilesY = (getHeight() + 15) >> 4;
+        this.tilesZ = (getLength() + 15) >> 4;
+        this.tileCount = tilesX * tilesY * tilesZ;
+        this.biomeOffset = HEADER_SIZE + tileCount * ENTRY_SIZE;
+        this.dataStart = (long) biomeOffset + getArea();
+        this.level = Math.max(0, Math.min(17, Settings.IMP.CLIPBOARD.COMPRESSION_LEVEL));
+        this.cacheSize = Math.max(16, Settings.IMP.CLIPBOARD.TILE_CACHE);
+        try {
+            File parent = file.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            this.braf = new RandomAccessFile(file, "rw");
+            braf.setLength(0);
+            braf.setLength(dataStart);
+            init();
+            byteBuffer.putInt(0, MAGIC);
+            byteBuffer.putShort(4, (short) VERSION);
+            byteBuffer.putChar(6, (char) getWidth());
+            byteBuffer.putChar(8, (char) getHeight());
+            byteBuffer.putChar(10, (char) getLength());
+            byteBuffer.put(19, (byte) level);
+            this.dataEnd = dataStart;
+            byteBuffer.putLong(20, dataEnd);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
+    public TiledDiskClipboard(File file) {
+        super(readSize(file));
+        this.file = file;
+        this.tilesX = (getWidth() + 15) >> 4;
+        this.tilesY = (getHeight() + 15) >> 4;
+        this.tilesZ = (getLength() + 15) >> 4;
+        this.tileCount = tilesX * tilesY * tilesZ;
+        this.biomeOffset = HEADER_SIZE + tileCount * ENTRY_SIZE;
+        this.dataStart = (long) biomeOffset + getArea();
+        this.cacheSize = Math.max(16, Settings.IMP.CLIPBOARD.TILE_CACHE);
+        try {
+            this.braf = new RandomAccessFile(file, "rw");
+            init();
+            this.hasBiomes = byteBuffer.get(18) != 0;
+            this.level = byteBuffer.get(19);
+            this.dataEnd = byteBuffer.getLong(20);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Check if a clipboard file was written by this class, rather than {@link DiskOptimizedClipboard}
+     *
+     * @param file the clipboard file
+     * @return if the file starts with the tiled header
+     */
+    public static boolean isTiled(File file) {
+        try (DataInputStream is = new DataInputStream(new FileInputStream(file))) {
+            return is.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static BlockVector3 readSize(File file) {
+        try (DataInputStream is = new DataInputStream(new FileInputStream(file))) {
+            if (is.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a tiled clipboard: " + file);
+            }
+            int version = is.readShort();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported tiled clipboard version: " + version);
+            }
+            return BlockVector3.at(is.readChar(), is.readChar(), is.readChar());
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void init() throws IOException {
+        if (this.fileChannel == null) {
+            this.fileChannel = braf.getChannel();
+            this.byteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, dataStart);
+        }
+    }
+
+    @Override
+    public URI getURI() {
+        return file.toURI();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public BlockArrayClipboard toClipboard() {
+        try {
+            CuboidRegion region = new CuboidRegion(BlockVector3.at(0, 0, 0), BlockVector3.at(getWidth() - 1, getHeight() - 1, getLength() - 1));
+            int ox = byteBuffer.getShort(12);
+            int oy = byteBuffer.getShort(14);
+            int oz = byteBuffer.getShort(16);
+            BlockArrayClipboard clipboard = new BlockArrayClipboard(region, this);
+            clipboard.setOrigin(BlockVector3.at(ox, oy, oz));
+            return clipboard;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public void setOrigin(BlockVector3 offset) {
+        super.setOrigin(offset);
+        try {
+            byteBuffer.putShort(12, (short) offset.getBlockX());
+            byteBuffer.putShort(14, (short) offset.getBlockY());
+            byteBuffer.putShort(16, (short) offset.getBlockZ());
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static final class Tile {
+        private final int index;
+        private final char[] blocks = new char[TILE_VOLUME];
+        private Int2ObjectOpenHashMap<CompoundTag> nbt;
+        private boolean dirty;
+
+        private Tile(int index) {
+            this.index = index;
+        }
+    }
+
+    private static int getLocalIndex(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    private boolean contains(int x, int y, int z) {
+        return x >= 0 && y >= 0 && z >= 0 && x < getWidth() && y < getHeight() && z < getLength();
+    }
+
+    private Tile getTile(int x, int y, int z) {
+        int index = ((y >> 4) * tilesZ + (z >> 4)) * tilesX + (x >> 4);
+        Tile tile = lastTile;
+        if (tile != null && tile.index == index) {
+            return tile;
+        }
+        tile = cache.getAndMoveToLast(index);
+        if (tile == null) {
+            tile = readTile(index);
+            cache.putAndMoveToLast(index, tile);
+            while (cache.size() > cacheSize) {
+                Tile evicted = cache.removeFirst();
+                if (evicted.dirty) {
+                    writeTile(evicted);
+                }
+            }
+        }
+        return lastTile = tile;
+    }
+
+    private Tile readTile(int index) {
+        Tile tile = new Tile(index);
+        int pos = HEADER_SIZE + index * ENTRY_SIZE;
+        long offset = byteBuffer.getLong(pos);
+        if (offset == 0) {
+            return tile;
+        }
+        int length = byteBuffer.getInt(pos + 8);
+        int rawLength = byteBuffer.getInt(pos + 12);
+        int flags = byteBuffer.getInt(pos + 20);
+        try {
+            ByteBuffer data = ByteBuffer.allocate(length);
+            long read = offset;
+            while (data.hasRemaining()) {
+                int amount = fileChannel.read(data, read);
+                if (amount < 0) {
+                    throw new IOException("Tile " + index + " is truncated");
+                }
+                read += amount;
+            }
+            byte[] raw = MainUtil.decompress(data.array(), rawLength == TILE_BYTES ? decompressBuffer : null, rawLength, level);
+            ByteBuffer.wrap(raw, 0, TILE_BYTES).asCharBuffer().get(tile.blocks);
+            if ((flags & FLAG_NBT) != 0) {
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(raw, TILE_BYTES, rawLength - TILE_BYTES));
+                NBTInputStream nbtIn = new NBTInputStream(dis);
+                int count = dis.readInt();
+                tile.nbt = new Int2ObjectOpenHashMap<>(count);
+                for (int i = 0; i < count; i++) {
+                    int localIndex = dis.readUnsignedShort();
+                    tile.nbt.put(localIndex, (CompoundTag) nbtIn.readNamedTag().getTag());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return tile;
+    }
+
+    private void writeTile(Tile tile) {
+        boolean hasNbt = tile.nbt != null && !tile.nbt.isEmpty();
+        try {
+            byte[] raw;
+            if (hasNbt) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(TILE_BYTES + 1024);
+                DataOutputStream dos = new DataOutputStream(baos);
+                for (char block : tile.blocks) {
+                    dos.writeChar(block);
+                }
+                NBTOutputStream nbtOut = new NBTOutputStream(dos);
+                dos.writeInt(tile.nbt.size());
+                for (Int2ObjectMap.Entry<CompoundTag> entry : tile.nbt.int2ObjectEntrySet()) {
+                    dos.writeShort(entry.getIntKey());
+                    nbtOut.writeNamedTag("", entry.getValue());
+                }
+                dos.flush();
+                raw = baos.toByteArray();
+            } else {
+                raw = new byte[TILE_BYTES];
+                ByteBuffer.wrap(raw).asCharBuffer().put(tile.blocks);
+            }
+            byte[] data = MainUtil.compress(raw, raw.length == TILE_BYTES ? compressBuffer : null, level);
+
+            int pos = HEADER_SIZE + tile.index * ENTRY_SIZE;
+            long offset = byteBuffer.getLong(pos);
+            int capacity = byteBuffer.getInt(pos + 16);
+            if (offset == 0 || data.length > capacity) {
+                // Leave some room so the tile can usually be rewritten in place
+                capacity = data.length + (data.length >> 2);
+                offset = dataEnd;
+                dataEnd += capacity;
+                byteBuffer.putLong(20, dataEnd);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long write = offset;
+            while (buffer.hasRemaining()) {
+                write += fileChannel.write(buffer, write);
+            }
+            byteBuffer.putLong(pos, offset);
+            byteBuffer.putInt(pos + 8, data.length);
+            byteBuffer.putInt(pos + 12, raw.length);
+            byteBuffer.putInt(pos + 16, capacity);
+            byteBuffer.putInt(pos + 20, hasNbt ? FLAG_NBT : 0);
+            tile.dirty = false;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (byteBuffer == null) {
+            return;
+        }
+        for (Tile tile : cache.values()) {
+            if (tile.dirty) {
+                writeTile(tile);
+            }
+        }
+        byteBuffer.force();
+        try {
+            fileChannel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (byteBuffer != null) {
+                flush();
+                cache.clear();
+                lastTile = null;
+                fileChannel.close();
+                braf.close();
+                //noinspection ResultOfMethodCallIgnored
+                file.setWritable(true);
+                DiskOptimizedClipboard.closeDirectBuffer(byteBuffer);
+                byteBuffer = null;
+                fileChannel = null;
+                braf = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean hasBiomes() {
+        return hasBiomes;
+    }
+
+    @Override
+    public synchronized boolean setBiome(int x, int y, int z, BiomeType biome) {
+        if (!hasBiomes) {
+            hasBiomes = true;
+            byteBuffer.put(18, (byte) 1);
+        }
+        byteBuffer.put(biomeOffset + x + z * getWidth(), (byte) biome.getInternalId());
+        return true;
+    }
+
+    @Override
+    public synchronized BiomeType getBiomeType(int x, int y, int z) {
+        if (!hasBiomes) {
+            return null;
+        }
+        return BiomeTypes.get(byteBuffer.get(biomeOffset + x + z * getWidth()) & 0xFF);
+    }
+
+    @Override
+    public synchronized BlockState getBlock(int x, int y, int z) {
+        if (!contains(x, y, z)) {
+            return BlockTypes.AIR.getDefaultState();
+        }
+        Tile tile = getTile(x, y, z);
+        return BlockState.getFromOrdinal(tile.blocks[getLocalIndex(x, y, z)]);
+    }
+
+    @Override
+    public synchronized BaseBlock getFullBlock(int x, int y, int z) {
+        if (!contains(x, y, z)) {
+            return BlockTypes.AIR.getDefaultState().toBaseBlock();
+        }
+        Tile tile = getTile(x, y, z);
+        int localIndex = getLocalIndex(x, y, z);
+        BlockState state = BlockState.getFromOrdinal(tile.blocks[localIndex]);
+        if (tile.nbt != null && state.getMaterial().hasContainer()) {
+            return state.toBaseBlock(tile.nbt.get(localIndex));
+        }
+        return state.toBaseBlock();
+    }
+
+    @Override
+    public synchronized boolean setTile(int x, int y, int z, CompoundTag tag) {
+        if (!contains(x, y, z)) {
+            return false;
+        }
+        Map<String, Tag> values = tag.getValue();
+        values.put("x", new IntTag(x));
+        values.put("y", new IntTag(y));
+        values.put("z", new IntTag(z));
+        Tile tile = getTile(x, y, z);
+        if (tile.nbt == null) {
+            tile.nbt = new Int2ObjectOpenHashMap<>();
+        }
+        tile.nbt.put(getLocalIndex(x, y, z), tag);
+        tile.dirty = true;
+        return true;
+    }
+
+    @Override
+    public synchronized <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B block) {
+        if (!contains(x, y, z)) {
+            return false;
+        }
+        Tile tile = getTile(x, y, z);
+        int localIndex = getLocalIndex(x, y, z);
+        char ordinal = block.getOrdinalChar();
+        if (ordinal == 0) {
+            ordinal = 1;
+        }
+        tile.blocks[localIndex] = ordinal;
+        tile.dirty = true;
+        if (block instanceof BaseBlock && block.hasNbtData()) {
+            setTile(x, y, z, block.getNbtData());
+        } else if (tile.nbt != null) {
+            tile.nbt.remove(localIndex);
+        }
+        return true;
+    }
+
+    /**
+     * Get the tile entities in this clipboard, tiles which are not in memory are read from disk
+     *
+     * @return the tile entities
+     */
+    public synchronized Collection<CompoundTag> getTileEntities() {
+        List<CompoundTag> tiles = new ArrayList<>();
+        for (int index = 0; index < tileCount; index++) {
+            Tile tile = cache.get(index);
+            if (tile == null) {
+                int flags = byteBuffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 20);
+                if ((flags & FLAG_NBT) == 0) {
+                    continue;
+                }
+                tile = readTile(index);
+            }
+            if (tile.nbt != null) {
+                tiles.addAll(tile.nbt.values());
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Iterate over the clipboard one 16x16x16 tile at a time, a column of tiles at a time
+     */
+    @NotNull
+    @Override
+    public Iterator<BlockVector3> iterator() {
+        return new Iterator<BlockVector3>() {
+            private final MutableBlockVector3 mutable = new MutableBlockVector3();
+            private final int maxX = getWidth() - 1;
+            private final int maxY = getHeight() - 1;
+            private final int maxZ = getLength() - 1;
+
+            private int tx;
+            private int ty;
+            private int tz;
+            private int bx;
+            private int by;
+            private int bz;
+            private int ex;
+            private int ey;
+            private int ez;
+            private int x;
+            private int y;
+            private int z;
+            private boolean hasNext = getVolume() > 0;
+
+            {
+                initTile();
+            }
+
+            private void initTile() {
+                bx = tx << 4;
+                by = ty << 4;
+                bz = tz << 4;
+                ex = Math.min(maxX, bx + 15);
+                ey = Math.min(maxY, by + 15);
+                ez = Math.min(maxZ, bz + 15);
+                x = bx;
+                y = by;
+                z = bz;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return hasNext;
+            }
+
+            @Override
+            public BlockVector3 next() {
+                if (!hasNext) {
+                    throw new NoSuchElementException("End of iterator");
+                }
+                mutable.setComponents(x, y, z);
+                if (++x > ex) {
+                    x = bx;
+                    if (++z > ez) {
+                        z = bz;
+                        if (++y > ey) {
+                            if (++ty >= tilesY) {
+                                ty = 0;
+                                if (++tx >= tilesX) {
+                                    tx = 0;
+                                    if (++tz >= tilesZ) {
+                                        hasNext = false;
+                                        return mutable;
+                                    }
+                                }
+                            }
+                            initTile();
+                        }
+                    }
+                }
+                return mutable;
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    public Entity createEntity(Location location, BaseEntity entity) {
+        ClipboardEntity ret = new ClipboardEntity(location, entity);
+        entities.add(ret);
+        return ret;
+    }
+
+    @Override
+    public List<? extends Entity> getEntities() {
+        return new ArrayList<>(entities);
+    }
+
+    @Override
+    public List<? extends Entity> getEntities(Region region) {
+        return entities.stream().filter(e -> region.contains(e.getLocation().toBlockPoint())).collect(Collectors.toList());
+    }
+
+    @Override
+    public void removeEntity(Entity entity) {
+        this.entities.remove(entity);
+    }
+
+    @Override
+    public void removeEntity(int x, int y, int z, UUID uuid) {
+        Iterator<ClipboardEntity> iter = this.entities.iterator();
+        while (iter.hasNext()) {
+            ClipboardEntity entity = iter.next();
+            UUID entUUID = entity.getState().getNbtData().getUUID();
+            if (uuid.equals(entUUID)) {
+                iter.remove();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.boydti.fawe.object.collection;
+
+import com.boydti.fawe.util.MathMan;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe variant of {@link SectionBitSet}
+ * - All positions must be valid world coordinates: y=[0,255],x=[-30000000,30000000],z=[-30000000,30000000]
+ * - Bits are set with compare and swap, so exactly one thread succeeds in adding a position
+ */
+public class ConcurrentSectionBitSet {
+
+    private static final int WORDS = 4096 >> 6;
+
+    private final ConcurrentHashMap<Long, AtomicLongArray> sections = new ConcurrentHashMap<>();
+
+    private static long sectionKey(int x, int y, int z) {
+        return MathMan.tripleWorldCoord(x >> 4, y >> 4, z >> 4);
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+    }
+
+    public boolean contains(int x, int y, int z) {
+        AtomicLongArray section = sections.get(sectionKey(x, y, z));
+        if (section == null) {
+            return false;
+        }
+        int index = index(x, y, z);
+        return (section.get(index >> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * @return true if this call added the position
+     */
+    public boolean add(int x, int y, int z) {
+        long key = sectionKey(x, y, z);
+        AtomicLongArray section = sections.get(key);
+        if (section == null) {
+            section = sections.computeIfAbsent(key, k -> new AtomicLongArray(WORDS));
+        }
+        int index = index(x, y, z);
+        int wordIndex = index >> 6;
+        long bit = 1L << index;
+        while (true) {
+            long word = section.get(wordIndex);
+            if ((word & bit) != 0) {
+                return false;
+            }
+            if (section.compareAndSet(wordIndex, word, word | bit)) {
+                return true;
+            }
+        }
+    }
+
+    public void clear() {
+        sections.clear();
+    }
+}
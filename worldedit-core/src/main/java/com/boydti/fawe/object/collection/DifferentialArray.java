@@ -278,7 +278,12 @@ public void setByte(int index, byte value) {
         try {
             changesBytes[index] += (dataBytes[index] - value);
         } catch (NullPointerException ignore) {
-            changes = (T) (changesBytes = new byte[dataBytes.length]);
+            // Tiles of a map can be edited in parallel, only allocate the changes once
+            synchronized (this) {
+                if (changesBytes == null) {
+                    changes = (T) (changesBytes = new byte[dataBytes.length]);
+                }
+            }
             changesBytes[index] += (dataBytes[index] - value);
         }
         dataBytes[index] = value;
@@ -289,7 +294,11 @@ public void setInt(int index, int value) {
         try {
             changesInts[index] += dataInts[index] - value;
         } catch (NullPointerException ignore) {
-            changes = (T) (changesInts = new int[dataInts.length]);
+            synchronized (this) {
+                if (changesInts == null) {
+                    changes = (T) (changesInts = new int[dataInts.length]);
+                }
+            }
             changesInts[index] += dataInts[index] - value;
         }
         dataInts[index] = value;
@@ -300,7 +309,11 @@ public void setChar(int index, char value) {
         try {
             changesChars[index] += dataChars[index] - value;
         } catch (NullPointerException ignore) {
-            changes = (T) (changesChars = new char[dataChars.length]);
+            synchronized (this) {
+                if (changesChars == null) {
+                    changes = (T) (changesChars = new char[dataChars.length]);
+                }
+            }
             changesChars[index] += dataChars[index] - value;
         }
         dataChars[index] = value;
@@ -0,0 +1,127 @@
+package com.boydti.fawe.object.collection;
+
+import com.boydti.fawe.util.MathMan;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * Set of world positions stored as one 4096 bit bitmap per 16x16x16 chunk section
+ * - All positions must be valid world coordinates: y=[0,255],x=[-30000000,30000000],z=[-30000000,30000000]
+ * - Lookups in the same section as the previous lookup skip the map
+ * - Not thread safe
+ */
+public class SectionBitSet {
+
+    private static final int WORDS = 4096 >> 6;
+
+    private final Long2ObjectOpenHashMap<long[]> sections = new Long2ObjectOpenHashMap<>();
+    private long lastKey = Long.MIN_VALUE;
+    private long[] lastSection;
+    private int size;
+
+    private static long sectionKey(int x, int y, int z) {
+        return MathMan.tripleWorldCoord(x >> 4, y >> 4, z >> 4);
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y & 15) << 8 | (z & 15) << 4 | (x & 15);
+    }
+
+    private long[] getSection(long key, boolean create) {
+        if (key == lastKey) {
+            return lastSection;
+        }
+        long[] section = sections.get(key);
+        if (section == null) {
+            if (!create) {
+                return null;
+            }
+            section = new long[WORDS];
+            sections.put(key, section);
+        }
+        lastKey = key;
+        lastSection = section;
+        return section;
+    }
+
+    public boolean contains(int x, int y, int z) {
+        long[] section = getSection(sectionKey(x, y, z), false);
+        if (section == null) {
+            return false;
+        }
+        int index = index(x, y, z);
+        return (section[index >> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @return true if the position was not already present
+     */
+    public boolean add(int x, int y, int z) {
+        long[] section = getSection(sectionKey(x, y, z), true);
+        int index = index(x, y, z);
+        long word = section[index >> 6];
+        long bit = 1L << index;
+        if ((word & bit) != 0) {
+            return false;
+        }
+        section[index >> 6] = word | bit;
+        size++;
+        return true;
+    }
+
+    public boolean remove(int x, int y, int z) {
+        long[] section = getSection(sectionKey(x, y, z), false);
+        if (section == null) {
+            return false;
+        }
+        int index = index(x, y, z);
+        long word = section[index >> 6];
+        long bit = 1L << index;
+        if ((word & bit) == 0) {
+            return false;
+        }
+        section[index >> 6] = word & ~bit;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        sections.clear();
+        lastKey = Long.MIN_VALUE;
+        lastSection = null;
+        size = 0;
+    }
+
+    /**
+     * Add every position to a {@link BlockVectorSet}
+     *
+     * @param set the set to add to
+     * @return the set
+     */
+    public BlockVectorSet toBlockVectorSet(BlockVectorSet set) {
+        for (Long2ObjectMap.Entry<long[]> entry : sections.long2ObjectEntrySet()) {
+            long key = entry.getLongKey();
+            int bx = (int) MathMan.untripleWorldCoordX(key) << 4;
+            int by = (int) MathMan.untripleWorldCoordY(key) << 4;
+            int bz = (int) MathMan.untripleWorldCoordZ(key) << 4;
+            long[] section = entry.getValue();
+            for (int i = 0; i < WORDS; i++) {
+                long word = section[i];
+                while (word != 0) {
+                    int index = (i << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    set.add(bx + (index & 15), by + (index >> 8), bz + ((index >> 4) & 15));
+                }
+            }
+        }
+        return set;
+    }
+}
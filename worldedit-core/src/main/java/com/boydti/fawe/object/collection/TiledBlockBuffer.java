@@ -0,0 +1,495 @@
+package com.boydti.fawe.object.collection;
+
+import com.boydti.fawe.object.FaweInputStream;
+import com.boydti.fawe.object.FaweOutputStream;
+import com.boydti.fawe.object.change.StreamChange;
+import com.boydti.fawe.util.MainUtil;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A block buffer for a flat map, split into tiles of 32x32 chunks
+ * - Each tile has its own lock, so separate tiles can be edited in parallel
+ * - Once the estimated size is over the memory budget, the least recently used tiles are LZ4 compressed to a temp file
+ * - Changes made through {@link #set(int, int, int, char)} are recorded per tile until flushed
+ *
+ * Blocks are stored per chunk as [y][z][x], a row is only allocated once a block in it is set.
+ * A tile that grows past its slot when paged out again is moved to the end of the file, the old slot is not reused.
+ */
+public final class TiledBlockBuffer implements StreamChange, Closeable {
+
+    public static final int TILE_SIZE = 512;
+
+    private static final int TILE_BITS = 5;
+    private static final int TILE_CHUNKS = 1 << TILE_BITS;
+    private static final int TILE_AREA = TILE_CHUNKS * TILE_CHUNKS;
+
+    // Estimated heap use, including array headers
+    private static final int TILE_BYTES = TILE_AREA * 4 + 16;
+    private static final int CHUNK_BYTES = 256 * 4 + 16;
+    private static final int LAYER_BYTES = 16 * 4 + 16;
+    private static final int ROW_BYTES = 16 * 2 + 16;
+
+    private final int width;
+    private final int length;
+    private final int tilesX;
+    private final Tile[] tiles;
+
+    private final long maxMemory;
+    private final AtomicLong memory = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final Object evictLock = new Object();
+
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long fileEnd;
+
+    public TiledBlockBuffer(int width, int length) {
+        this(width, length, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    public TiledBlockBuffer(int width, int length, long maxMemory) {
+        this.width = width;
+        this.length = length;
+        this.maxMemory = maxMemory;
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesZ = (length + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = new Tile[tilesX * tilesZ];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new Tile(i);
+        }
+    }
+
+    private static final class Tile {
+        private final int index;
+        // [chunk][y][z][x], null while empty or paged out
+        private volatile char[][][][] chunks;
+        private volatile long lastAccess;
+        private long bytes;
+        private boolean dirty;
+        private long offset = -1;
+        private int dataLength;
+        private int rawLength;
+        private int capacity;
+        private Int2IntOpenHashMap changes;
+
+        private Tile(int index) {
+            this.index = index;
+        }
+    }
+
+    private Tile getTile(int x, int z) {
+        if (x < 0 || z < 0 || x >= width || z >= length) {
+            return null;
+        }
+        return tiles[(z / TILE_SIZE) * tilesX + x / TILE_SIZE];
+    }
+
+    private static int getKey(int x, int y, int z) {
+        int chunk = ((z >> 4) & (TILE_CHUNKS - 1)) << TILE_BITS | ((x >> 4) & (TILE_CHUNKS - 1));
+        return chunk << 16 | y << 8 | (z & 15) << 4 | (x & 15);
+    }
+
+    /**
+     * Set a block, recording the change
+     *
+     * @return false if the position is outside the map
+     */
+    public boolean set(int x, int y, int z, char combined) {
+        Tile tile = getTile(x, z);
+        if (tile == null || y < 0 || y > 255) {
+            return false;
+        }
+        if (combined == 0) {
+            combined = 1;
+        }
+        synchronized (tile) {
+            set(tile, getKey(x, y, z), combined, true);
+        }
+        checkMemory(tile);
+        return true;
+    }
+
+    /**
+     * Get a block, 0 if it was never set
+     */
+    public char get(int x, int y, int z) {
+        Tile tile = getTile(x, z);
+        if (tile == null || y < 0 || y > 255) {
+            return 0;
+        }
+        char combined = 0;
+        synchronized (tile) {
+            char[][][][] chunks = load(tile);
+            if (chunks != null) {
+                char[][][] chunk = chunks[getKey(x, y, z) >>> 16];
+                if (chunk != null) {
+                    char[][] layer = chunk[y];
+                    if (layer != null) {
+                        char[] row = layer[z & 15];
+                        if (row != null) {
+                            combined = row[x & 15];
+                        }
+                    }
+                }
+            }
+        }
+        checkMemory(tile);
+        return combined;
+    }
+
+    /**
+     * Get the blocks of a chunk as [y][z][x], reading its tile back in if it was paged out
+     * - The arrays stay valid if the tile is paged out again, but later edits may not show in them
+     *
+     * @return the chunk, or null if no block in it was set
+     */
+    public char[][][] getChunk(int chunkX, int chunkZ) {
+        Tile tile = getTile(chunkX << 4, chunkZ << 4);
+        if (tile == null) {
+            return null;
+        }
+        char[][][] chunk = null;
+        synchronized (tile) {
+            char[][][][] chunks = load(tile);
+            if (chunks != null) {
+                chunk = chunks[getKey(chunkX << 4, 0, chunkZ << 4) >>> 16];
+            }
+        }
+        checkMemory(tile);
+        return chunk;
+    }
+
+    private void set(Tile tile, int key, char combined, boolean record) {
+        char[][][][] chunks = load(tile);
+        long added = 0;
+        if (chunks == null) {
+            tile.chunks = chunks = new char[TILE_AREA][][][];
+            added += TILE_BYTES;
+        }
+        char[][][] chunk = chunks[key >>> 16];
+        if (chunk == null) {
+            chunks[key >>> 16] = chunk = new char[256][][];
+            added += CHUNK_BYTES;
+        }
+        int y = (key >> 8) & 0xFF;
+        char[][] layer = chunk[y];
+        if (layer == null) {
+            chunk[y] = layer = new char[16][];
+            added += LAYER_BYTES;
+        }
+        char[] row = layer[(key >> 4) & 15];
+        if (row == null) {
+            layer[(key >> 4) & 15] = row = new char[16];
+            added += ROW_BYTES;
+        }
+        char previous = row[key & 15];
+        if (record && previous != combined) {
+            if (tile.changes == null) {
+                tile.changes = new Int2IntOpenHashMap();
+                tile.changes.defaultReturnValue(-1);
+            }
+            int change = tile.changes.get(key);
+            int old = change == -1 ? previous : change >>> 16;
+            tile.changes.put(key, old << 16 | combined);
+        }
+        row[key & 15] = combined;
+        tile.dirty = true;
+        if (added != 0) {
+            tile.bytes += added;
+            memory.addAndGet(added);
+        }
+    }
+
+    private char[][][][] load(Tile tile) {
+        tile.lastAccess = clock.incrementAndGet();
+        char[][][][] chunks = tile.chunks;
+        if (chunks != null || tile.offset == -1) {
+            return chunks;
+        }
+        try {
+            ByteBuffer data = ByteBuffer.allocate(tile.dataLength);
+            long position = tile.offset;
+            while (data.hasRemaining()) {
+                int read = channel.read(data, position);
+                if (read < 0) {
+                    throw new IOException("Tile " + tile.index + " is truncated");
+                }
+                position += read;
+            }
+            byte[] raw = MainUtil.decompress(data.array(), null, tile.rawLength, 1);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+            chunks = new char[TILE_AREA][][][];
+            long bytes = TILE_BYTES;
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                char[][][] chunk = chunks[in.readUnsignedShort()] = new char[256][][];
+                bytes += CHUNK_BYTES;
+                for (int y = 0; y < 256; y++) {
+                    int rows = in.readUnsignedShort();
+                    if (rows == 0) {
+                        continue;
+                    }
+                    char[][] layer = chunk[y] = new char[16][];
+                    bytes += LAYER_BYTES;
+                    for (int z = 0; z < 16; z++) {
+                        if ((rows & (1 << z)) != 0) {
+                            char[] row = layer[z] = new char[16];
+                            bytes += ROW_BYTES;
+                            for (int x = 0; x < 16; x++) {
+                                row[x] = in.readChar();
+                            }
+                        }
+                    }
+                }
+            }
+            tile.chunks = chunks;
+            tile.bytes = bytes;
+            tile.dirty = false;
+            memory.addAndGet(bytes);
+            return chunks;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void checkMemory(Tile current) {
+        if (memory.get() > maxMemory) {
+            evict(current);
+        }
+    }
+
+    /**
+     * Page out the least recently used tiles until a quarter of the budget is free
+     * - Must not be called while holding a tile lock
+     */
+    private void evict(Tile current) {
+        synchronized (evictLock) {
+            long target = maxMemory - (maxMemory >> 2);
+            while (memory.get() > target) {
+                Tile oldest = null;
+                for (Tile tile : tiles) {
+                    if (tile != current && tile.chunks != null && (oldest == null || tile.lastAccess < oldest.lastAccess)) {
+                        oldest = tile;
+                    }
+                }
+                if (oldest == null) {
+                    return;
+                }
+                synchronized (oldest) {
+                    if (oldest.chunks == null) {
+                        continue;
+                    }
+                    if (oldest.dirty) {
+                        write(oldest);
+                    }
+                    memory.addAndGet(-oldest.bytes);
+                    oldest.bytes = 0;
+                    oldest.chunks = null;
+                }
+            }
+        }
+    }
+
+    private void write(Tile tile) {
+        try {
+            char[][][][] chunks = tile.chunks;
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+            DataOutputStream out = new DataOutputStream(baos);
+            int count = 0;
+            for (char[][][] chunk : chunks) {
+                if (chunk != null) {
+                    count++;
+                }
+            }
+            out.writeShort(count);
+            for (int i = 0; i < chunks.length; i++) {
+                char[][][] chunk = chunks[i];
+                if (chunk == null) {
+                    continue;
+                }
+                out.writeShort(i);
+                for (char[][] layer : chunk) {
+                    int rows = 0;
+                    if (layer != null) {
+                        for (int z = 0; z < 16; z++) {
+                            if (layer[z] != null) {
+                                rows |= 1 << z;
+                            }
+                        }
+                    }
+                    out.writeShort(rows);
+                    if (rows != 0) {
+                        for (char[] row : layer) {
+                            if (row != null) {
+                                for (char combined : row) {
+                                    out.writeChar(combined);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            out.flush();
+            byte[] raw = baos.toByteArray();
+            byte[] data = MainUtil.compress(raw, null, 1);
+
+            if (channel == null) {
+                file = File.createTempFile("fawe-cfi-", ".tiles");
+                file.deleteOnExit();
+                raf = new RandomAccessFile(file, "rw");
+                channel = raf.getChannel();
+            }
+            if (tile.offset == -1 || data.length > tile.capacity) {
+                // Leave some room so the tile can usually be rewritten in place
+                tile.capacity = data.length + (data.length >> 2);
+                tile.offset = fileEnd;
+                fileEnd += tile.capacity;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = tile.offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            tile.dataLength = data.length;
+            tile.rawLength = raw.length;
+            tile.dirty = false;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the estimated size of the tiles in memory
+     */
+    public long getMemoryUsage() {
+        return memory.get();
+    }
+
+    /**
+     * @return the number of tiles which are paged out to disk
+     */
+    public int getPagedTiles() {
+        int count = 0;
+        for (Tile tile : tiles) {
+            if (tile.chunks == null && tile.offset != -1) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isModified() {
+        for (Tile tile : tiles) {
+            synchronized (tile) {
+                if (tile.changes != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void clearChanges() {
+        for (Tile tile : tiles) {
+            synchronized (tile) {
+                tile.changes = null;
+            }
+        }
+    }
+
+    @Override
+    public void flushChanges(FaweOutputStream out) throws IOException {
+        boolean modified = isModified();
+        out.writeBoolean(modified);
+        if (!modified) {
+            return;
+        }
+        for (Tile tile : tiles) {
+            synchronized (tile) {
+                Int2IntOpenHashMap changes = tile.changes;
+                if (changes == null) {
+                    continue;
+                }
+                out.writeVarInt(tile.index + 1);
+                out.writeVarInt(changes.size());
+                for (Int2IntMap.Entry entry : changes.int2IntEntrySet()) {
+                    out.writeVarInt(entry.getIntKey());
+                    out.writeInt(entry.getIntValue());
+                }
+                tile.changes = null;
+            }
+        }
+        out.writeVarInt(0);
+    }
+
+    @Override
+    public void undoChanges(FaweInputStream in) throws IOException {
+        readChanges(in, true);
+    }
+
+    @Override
+    public void redoChanges(FaweInputStream in) throws IOException {
+        readChanges(in, false);
+    }
+
+    private void readChanges(FaweInputStream in, boolean undo) throws IOException {
+        if (isModified()) {
+            throw new IllegalStateException("There are uncommitted changes, please flush first");
+        }
+        if (!in.readBoolean()) {
+            return;
+        }
+        int index;
+        while ((index = in.readVarInt()) != 0) {
+            Tile tile = tiles[index - 1];
+            int count = in.readVarInt();
+            synchronized (tile) {
+                for (int i = 0; i < count; i++) {
+                    int key = in.readVarInt();
+                    int change = in.readInt();
+                    set(tile, key, (char) (undo ? change >>> 16 : change), false);
+                }
+            }
+            checkMemory(tile);
+        }
+    }
+
+    /**
+     * Delete the temp file, tiles which were paged out are lost
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (evictLock) {
+            for (Tile tile : tiles) {
+                synchronized (tile) {
+                    tile.offset = -1;
+                    tile.dirty = true;
+                }
+            }
+            if (channel != null) {
+                channel.close();
+                raf.close();
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                channel = null;
+                raf = null;
+                file = null;
+                fileEnd = 0;
+            }
+        }
+    }
+}
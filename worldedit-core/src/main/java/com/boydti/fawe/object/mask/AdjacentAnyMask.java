@@ -53,4 +53,9 @@ public BlockVector3 direction(BlockVector3 v) {
             return null;
         }
     }
+
+    @Override
+    public Mask copy() {
+        return new AdjacentAnyMask(mask.copy());
+    }
 }
@@ -60,4 +60,9 @@ public boolean test(BlockVector3 bv) {
         vector.mutZ(z);
         return count >= min && count <= max;
     }
+
+    @Override
+    public Mask copy() {
+        return new AdjacentMask(mask.copy(), min, max);
+    }
 }
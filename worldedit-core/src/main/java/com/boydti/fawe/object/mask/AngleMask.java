@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.mask;
 
 import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.function.mask.SolidBlockMask;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.math.MutableBlockVector3;
@@ -173,4 +174,16 @@ public boolean test(BlockVector3 vector) {
         return testSlope(getExtent(), x, y, z);
     }
 
+    @Override
+    public Mask copy() {
+        return new AngleMask(getExtent(), min, max, overlay, distance);
+    }
+
+    /**
+     * The slope depends on neighbouring blocks, so test each block rather than a section at a time
+     */
+    @Override
+    public boolean isStateOnly() {
+        return false;
+    }
 }
@@ -65,4 +65,9 @@ public boolean test(int x, int y, int z) {
             return result;
         }
     }
+
+    @Override
+    public CachedMask copy() {
+        return new CachedMask(getMask().copy());
+    }
 }
@@ -2,6 +2,7 @@
 
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.mask.AbstractExtentMask;
+import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.math.BlockVector3;
 
 public class DataMask extends AbstractExtentMask implements ResettableMask {
@@ -27,4 +28,10 @@ public void reset() {
         this.data = -1;
     }
 
+    @Override
+    public Mask copy() {
+        DataMask copy = new DataMask(getExtent());
+        copy.data = data;
+        return copy;
+    }
 }
@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.mask;
 
 import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.mask.Mask;
 
 public class ExtremaMask extends AngleMask {
     public ExtremaMask(Extent extent, double min, double max, boolean overlay, int distance) {
@@ -62,4 +63,9 @@ private int getHeight(Extent extent, int base, int x, int y, int z, int OX, int
         }
         return (lastHeight1 - base) + (lastHeight2 - base);
     }
+
+    @Override
+    public Mask copy() {
+        return new ExtremaMask(getExtent(), min, max, overlay, distance);
+    }
 }
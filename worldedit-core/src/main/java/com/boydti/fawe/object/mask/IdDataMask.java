@@ -2,6 +2,7 @@
 
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.mask.AbstractExtentMask;
+import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.math.BlockVector3;
 
 public class IdDataMask extends AbstractExtentMask implements ResettableMask {
@@ -26,4 +27,10 @@ public void reset() {
         this.combined = -1;
     }
 
+    @Override
+    public Mask copy() {
+        IdDataMask copy = new IdDataMask(getExtent());
+        copy.combined = combined;
+        return copy;
+    }
 }
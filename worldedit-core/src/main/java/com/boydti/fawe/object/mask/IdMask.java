@@ -2,6 +2,7 @@
 
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.mask.AbstractExtentMask;
+import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.math.BlockVector3;
 
 public class IdMask extends AbstractExtentMask implements ResettableMask {
@@ -27,4 +28,10 @@ public void reset() {
         this.id = -1;
     }
 
+    @Override
+    public Mask copy() {
+        IdMask copy = new IdMask(getExtent());
+        copy.id = id;
+        return copy;
+    }
 }
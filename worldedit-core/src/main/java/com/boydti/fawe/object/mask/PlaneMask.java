@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.mask;
 
 import com.sk89q.worldedit.function.mask.AbstractMask;
+import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.math.BlockVector3;
 
 public class PlaneMask extends AbstractMask implements ResettableMask {
@@ -55,4 +56,13 @@ public void reset() {
         mode = -1;
     }
 
+    @Override
+    public Mask copy() {
+        PlaneMask copy = new PlaneMask();
+        copy.mode = mode;
+        copy.originX = originX;
+        copy.originY = originY;
+        copy.originZ = originZ;
+        return copy;
+    }
 }
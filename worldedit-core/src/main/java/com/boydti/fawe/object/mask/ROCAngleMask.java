@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.mask;
 
 import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.mask.Mask;
 
 public class ROCAngleMask extends AngleMask {
 
@@ -31,4 +32,9 @@ protected boolean testSlope(Extent extent, int x, int y, int z) {
 
         return lastValue = slope >= min && slope <= max;
     }
+
+    @Override
+    public Mask copy() {
+        return new ROCAngleMask(getExtent(), min, max, overlay, distance);
+    }
 }
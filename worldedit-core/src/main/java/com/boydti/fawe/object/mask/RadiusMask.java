@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.mask;
 
 import com.sk89q.worldedit.function.mask.AbstractMask;
+import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.math.BlockVector3;
 
 public class RadiusMask extends AbstractMask implements ResettableMask {
@@ -13,6 +14,12 @@ public RadiusMask(int min, int max) {
         this.maxSqr = max * max;
     }
 
+    private RadiusMask(RadiusMask other) {
+        this.pos = other.pos;
+        this.minSqr = other.minSqr;
+        this.maxSqr = other.maxSqr;
+    }
+
     @Override
     public void reset() {
         pos = null;
@@ -41,4 +48,8 @@ public boolean test(BlockVector3 to) {
         return true;
     }
 
+    @Override
+    public Mask copy() {
+        return new RadiusMask(this);
+    }
 }
@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.mask;
 
 import com.sk89q.worldedit.function.mask.AbstractMask;
+import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.math.BlockVector3;
 
 import java.util.SplittableRandom;
@@ -14,6 +15,11 @@ public RandomMask(double threshold) {
         this.threshold = (threshold - 0.5) * Integer.MAX_VALUE;
     }
 
+    private RandomMask(RandomMask other) {
+        this.random = other.random.split();
+        this.threshold = other.threshold;
+    }
+
     @Override
     public boolean test(BlockVector3 vector) {
         return random.nextInt() <= threshold;
@@ -23,4 +29,9 @@ public boolean test(BlockVector3 vector) {
     public void reset() {
         random = new SplittableRandom();
     }
+
+    @Override
+    public Mask copy() {
+        return new RandomMask(this);
+    }
 }
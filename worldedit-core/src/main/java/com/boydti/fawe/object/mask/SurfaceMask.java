@@ -3,6 +3,7 @@
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.mask.AbstractExtentMask;
 import com.sk89q.worldedit.function.mask.BlockMaskBuilder;
+import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.world.block.BlockTypes;
 
@@ -11,6 +12,10 @@ public SurfaceMask(Extent extent) {
         super(getMask(extent));
     }
 
+    private SurfaceMask(CachedMask mask) {
+        super(mask);
+    }
+
     public static AbstractExtentMask getMask(Extent extent) {
         return new BlockMaskBuilder()
                 .addTypes(BlockTypes.AIR, BlockTypes.CAVE_AIR, BlockTypes.VOID_AIR)
@@ -22,4 +27,9 @@ public static AbstractExtentMask getMask(Extent extent) {
     public boolean test(BlockVector3 v) {
         return !getParentMask().test(v.getBlockX(), v.getBlockY(), v.getBlockZ()) && super.test(v);
     }
+
+    @Override
+    public Mask copy() {
+        return new SurfaceMask(getParentMask().copy());
+    }
 }
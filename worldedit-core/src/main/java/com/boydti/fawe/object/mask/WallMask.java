@@ -48,4 +48,9 @@ public boolean test(BlockVector3 bv) {
         v.mutZ(z);
         return count >= min && count <= max;
     }
+
+    @Override
+    public Mask copy() {
+        return new WallMask(mask.copy(), min, max);
+    }
 }
@@ -4,6 +4,7 @@
 import com.boydti.fawe.util.TextureHolder;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.pattern.Pattern;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.world.block.BaseBlock;
 import com.sk89q.worldedit.world.block.BlockState;
@@ -80,4 +81,9 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
         }
         return set.setBlock(extent, newBlock.getDefaultState());
     }
+
+    @Override
+    public Pattern fork() {
+        return new AngleColorPattern(getBaseExtent(), holder, distance);
+    }
 }
@@ -14,7 +14,7 @@
 import java.util.UUID;
 
 public class BufferedPattern extends AbstractPattern implements ResettablePattern {
-    protected final LocalBlockVectorSet set = new LocalBlockVectorSet();
+    protected final LocalBlockVectorSet set;
     protected final FaweTimer timer;
     protected final long[] actionTime;
 
@@ -28,6 +28,18 @@ public BufferedPattern(Actor actor, Pattern parent) {
         actionTime = tmp;
         this.pattern = parent;
         this.timer = Fawe.get().getTimer();
+        this.set = new LocalBlockVectorSet();
+    }
+
+    /**
+     * Fork a buffered pattern, sharing the buffer with the original
+     */
+    protected BufferedPattern(BufferedPattern other, Pattern parent) {
+        this.uuid = other.uuid;
+        this.actionTime = other.actionTime;
+        this.pattern = parent;
+        this.timer = other.timer;
+        this.set = other.set;
     }
 
     @Override
@@ -45,16 +57,26 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
     }
 
     public boolean set(BlockVector3 pos) {
-        return set.add(pos);
+        synchronized (set) {
+            return set.add(pos);
+        }
     }
 
     @Override
     public void reset() {
         long now = timer.getTick();
         if (now - actionTime[1] > 5) {
-            set.clear();
+            synchronized (set) {
+                set.clear();
+            }
         }
         actionTime[1] = actionTime[0];
         actionTime[0] = now;
     }
+
+    @Override
+    public Pattern fork() {
+        Pattern fork = pattern.fork();
+        return fork == pattern ? this : new BufferedPattern(this, fork);
+    }
 }
@@ -10,8 +10,20 @@ public BufferedPattern2D(Actor actor, Pattern parent) {
         super(actor, parent);
     }
 
+    private BufferedPattern2D(BufferedPattern2D other, Pattern parent) {
+        super(other, parent);
+    }
+
     @Override
     public boolean set(BlockVector3 pos) {
-        return set.add(pos.getBlockX(), 0, pos.getBlockY());
+        synchronized (set) {
+            return set.add(pos.getBlockX(), 0, pos.getBlockY());
+        }
+    }
+
+    @Override
+    public Pattern fork() {
+        Pattern fork = pattern.fork();
+        return fork == pattern ? this : new BufferedPattern2D(this, fork);
     }
 }
@@ -42,4 +42,10 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
         }
         return false;
     }
+
+    @Override
+    public Pattern fork() {
+        Pattern fork = pattern.fork();
+        return fork == pattern ? this : new DataPattern(getExtent(), fork);
+    }
 }
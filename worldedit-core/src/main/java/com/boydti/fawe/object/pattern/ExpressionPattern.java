@@ -1,6 +1,7 @@
 package com.boydti.fawe.object.pattern;
 
 import com.sk89q.worldedit.function.pattern.AbstractPattern;
+import com.sk89q.worldedit.function.pattern.Pattern;
 import com.sk89q.worldedit.internal.expression.EvaluationException;
 import com.sk89q.worldedit.internal.expression.Expression;
 import com.sk89q.worldedit.internal.expression.ExpressionException;
@@ -58,4 +59,9 @@ public BaseBlock apply(BlockVector3 vector) {
             throw e;
         }
     }
+
+    @Override
+    public Pattern fork() {
+        return new ExpressionPattern(expression.copy());
+    }
 }
@@ -23,4 +23,10 @@ public BaseBlock apply(BlockVector3 position) {
         int newData = newBlock.getInternalPropertiesId() + oldData - (oldData & bitMask);
         return newBlock.withPropertyId(newData).toBaseBlock();
     }
+
+    @Override
+    public Pattern fork() {
+        Pattern fork = pattern.fork();
+        return fork == pattern ? this : new IdDataMaskPattern(getExtent(), fork, bitMask);
+    }
 }
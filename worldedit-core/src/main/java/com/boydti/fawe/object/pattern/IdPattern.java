@@ -22,4 +22,10 @@ public BaseBlock apply(BlockVector3 position) {
         BaseBlock newBlock = pattern.apply(position);
         return newBlock.withPropertyId(oldBlock.getInternalPropertiesId()).toBaseBlock();
     }
+
+    @Override
+    public Pattern fork() {
+        Pattern fork = pattern.fork();
+        return fork == pattern ? this : new IdPattern(getExtent(), fork);
+    }
 }
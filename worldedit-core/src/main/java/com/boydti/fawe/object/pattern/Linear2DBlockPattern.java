@@ -32,4 +32,15 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
         }
         return patternsArray[index].apply(extent, get, set);
     }
+
+    @Override
+    public Pattern fork() {
+        Pattern[] forks = new Pattern[patternsArray.length];
+        boolean changed = false;
+        for (int i = 0; i < forks.length; i++) {
+            forks[i] = patternsArray[i].fork();
+            changed |= forks[i] != patternsArray[i];
+        }
+        return changed ? new Linear2DBlockPattern(forks) : this;
+    }
 }
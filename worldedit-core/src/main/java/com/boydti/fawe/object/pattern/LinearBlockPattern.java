@@ -36,4 +36,15 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
     public void reset() {
         index = 0;
     }
+
+    @Override
+    public Pattern fork() {
+        Pattern[] forks = new Pattern[patternsArray.length];
+        for (int i = 0; i < forks.length; i++) {
+            forks[i] = patternsArray[i].fork();
+        }
+        LinearBlockPattern fork = new LinearBlockPattern(forks);
+        fork.index = index;
+        return fork;
+    }
 }
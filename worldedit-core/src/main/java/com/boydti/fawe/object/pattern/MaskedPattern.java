@@ -35,4 +35,15 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
         }
         return secondary.apply(extent, get, set);
     }
+
+    @Override
+    public Pattern fork() {
+        Mask maskCopy = mask.copy();
+        Pattern primaryFork = primary.fork();
+        Pattern secondaryFork = secondary.fork();
+        if (maskCopy == mask && primaryFork == primary && secondaryFork == secondary) {
+            return this;
+        }
+        return new MaskedPattern(maskCopy, primaryFork, secondaryFork);
+    }
 }
@@ -30,4 +30,9 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
         mutable.mutZ(get.getZ());
         return pattern.apply(extent, mutable, set);
     }
+
+    @Override
+    public Pattern fork() {
+        return new NoXPattern(pattern.fork());
+    }
 }
@@ -31,4 +31,9 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
         mutable.mutY(get.getY());
         return pattern.apply(extent, mutable, set);
     }
+
+    @Override
+    public Pattern fork() {
+        return new NoZPattern(pattern.fork());
+    }
 }
@@ -36,4 +36,9 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
         mutable.mutZ(get.getZ() + dz);
         return pattern.apply(extent, get, mutable);
     }
+
+    @Override
+    public Pattern fork() {
+        return new OffsetPattern(pattern.fork(), dx, dy, dz);
+    }
 }
@@ -4,6 +4,7 @@
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
 import com.sk89q.worldedit.function.pattern.AbstractPattern;
+import com.sk89q.worldedit.function.pattern.Pattern;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.math.MutableBlockVector3;
 import com.sk89q.worldedit.math.Vector3;
@@ -12,6 +13,7 @@
 import com.sk89q.worldedit.session.ClipboardHolder;
 import com.sk89q.worldedit.world.block.BaseBlock;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -60,4 +62,15 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
     public BaseBlock apply(BlockVector3 position) {
         throw new IllegalStateException("Incorrect use. This pattern can only be applied to an extent!");
     }
+
+    @Override
+    public Pattern fork() {
+        List<ClipboardHolder> copies = new ArrayList<>(clipboards.size());
+        for (ClipboardHolder holder : clipboards) {
+            ClipboardHolder copy = new ClipboardHolder(holder.getClipboard());
+            copy.setTransform(holder.getTransform());
+            copies.add(copy);
+        }
+        return new RandomFullClipboardPattern(extent, copies, randomRotate, randomFlip);
+    }
 }
@@ -45,4 +45,9 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
         mutable.mutZ((set.getZ() + r.nextInt(dz2) - dz));
         return pattern.apply(extent, get, mutable);
     }
+
+    @Override
+    public Pattern fork() {
+        return new RandomOffsetPattern(pattern.fork(), dx, dy, dz);
+    }
 }
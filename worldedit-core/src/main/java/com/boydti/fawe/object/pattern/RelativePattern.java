@@ -44,4 +44,11 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
     public void reset() {
         origin = null;
     }
+
+    @Override
+    public Pattern fork() {
+        RelativePattern fork = new RelativePattern(pattern.fork());
+        fork.origin = origin;
+        return fork;
+    }
 }
@@ -65,4 +65,9 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
         }
         return pattern.apply(extent, get, set);
     }
+
+    @Override
+    public Pattern fork() {
+        return new SolidRandomOffsetPattern(pattern.fork(), dx, dy, dz);
+    }
 }
@@ -104,4 +104,9 @@ private boolean canPassthrough(BlockVector3 v) {
         BaseBlock block = pattern.apply(v);
         return !block.getBlockType().getMaterial().isMovementBlocker();
     }
+
+    @Override
+    public Pattern fork() {
+        return new SurfaceRandomOffsetPattern(pattern.fork(), moves);
+    }
 }
@@ -0,0 +1,239 @@
+package com.boydti.fawe.object.visitor;
+
+import com.boydti.fawe.beta.IQueueChunk;
+import com.boydti.fawe.beta.IQueueExtent;
+import com.boydti.fawe.beta.implementation.queue.ParallelQueueExtent;
+import com.boydti.fawe.config.Settings;
+import com.boydti.fawe.object.collection.ConcurrentSectionBitSet;
+import com.boydti.fawe.util.MathMan;
+import com.boydti.fawe.util.MemUtil;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.RegionFunction;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.MutableBlockVector3;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Level-synchronous breadth first search which expands each depth concurrently.
+ * <p>
+ * The positions of a depth are grouped by chunk column and the groups are shared between the
+ * workers of a {@link ParallelQueueExtent}. As masks and functions are not thread safe, each worker
+ * creates its own from the factories, bound to the worker's queue. Positions are claimed through
+ * a concurrent visited bitmap, so each position is applied exactly once.
+ * <p>
+ * Each worker keeps its queue for the whole search, which is flushed once the search finishes or
+ * when memory runs low. A worker doesn't see the changes of the others until then, so the function
+ * must only modify the position it is applied to, as those are never tested by the mask again.
+ * <p>
+ * Workers write straight to their own queues, so only the processors of the parallel queue see the
+ * changes; callers must only use this when no extent wraps the queue.
+ */
+public class ParallelFloodFill {
+
+    private final ParallelQueueExtent extent;
+    private final Function<Extent, Mask> maskFactory;
+    private final Function<Extent, RegionFunction> functionFactory;
+    private final ConcurrentSectionBitSet visited = new ConcurrentSectionBitSet();
+    private LongArrayList level = new LongArrayList();
+    private int depth;
+
+    /**
+     * @param extent the extent providing worker queues
+     * @param maskFactory creates the mask deciding which neighbours are visited, for a worker queue
+     * @param functionFactory creates the function applied to visited positions, for a worker queue
+     */
+    public ParallelFloodFill(ParallelQueueExtent extent, Function<Extent, Mask> maskFactory, Function<Extent, RegionFunction> functionFactory) {
+        this.extent = extent;
+        this.maskFactory = maskFactory;
+        this.functionFactory = functionFactory;
+    }
+
+    /**
+     * Add a starting position, which is applied regardless of the mask
+     */
+    public void visit(int x, int y, int z) {
+        if (visited.add(x, y, z)) {
+            level.add(MathMan.tripleWorldCoord(x, y, z));
+        }
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Run the search
+     *
+     * @param directions the neighbour offsets
+     * @param maxDepth the last depth which is applied
+     * @param maxBranch the maximum number of neighbours queued per position
+     * @return the number of positions the function returned true for
+     */
+    public int run(BlockVector3[] directions, int maxDepth, int maxBranch) throws WorldEditException {
+        final int[] dirX = new int[directions.length];
+        final int[] dirY = new int[directions.length];
+        final int[] dirZ = new int[directions.length];
+        for (int i = 0; i < directions.length; i++) {
+            dirX[i] = directions[i].getBlockX();
+            dirY[i] = directions[i].getBlockY();
+            dirZ[i] = directions[i].getBlockZ();
+        }
+        // Workers read through their own queues, so they must see everything written to the main queue
+        extent.getExtent().flush();
+        final int threads = Math.max(1, Settings.IMP.QUEUE.PARALLEL_THREADS);
+        final IQueueExtent<IQueueChunk>[] queues = new IQueueExtent[threads];
+        final Mask[] masks = new Mask[threads];
+        final RegionFunction[] functions = new RegionFunction[threads];
+        int affected = 0;
+        try {
+            for (depth = 0; !level.isEmpty() && depth <= maxDepth; depth++) {
+                final boolean expand = depth < maxDepth;
+                affected += runDepth(queues, masks, functions, dirX, dirY, dirZ, expand, maxBranch);
+                if (!expand) {
+                    break;
+                }
+                if (MemUtil.isMemoryLimited()) {
+                    flush(queues);
+                }
+            }
+        } finally {
+            flush(queues);
+        }
+        return affected;
+    }
+
+    private void flush(IQueueExtent<IQueueChunk>[] queues) {
+        for (IQueueExtent<IQueueChunk> queue : queues) {
+            if (queue != null) {
+                synchronized (queue) {
+                    queue.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the current depth, and find the positions of the next one
+     *
+     * @return the number of positions the function returned true for
+     */
+    private int runDepth(IQueueExtent<IQueueChunk>[] queues, Mask[] masks, RegionFunction[] functions, int[] dirX, int[] dirY, int[] dirZ, boolean expand, int maxBranch) throws WorldEditException {
+        final long[][] groups = partition(level);
+        final int size = Math.min(groups.length, queues.length);
+        final AtomicInteger nextGroup = new AtomicInteger();
+        final LongArrayList[] found = new LongArrayList[size];
+        final int[] applied = new int[size];
+        final Throwable[] error = new Throwable[1];
+        final ForkJoinTask[] tasks = new ForkJoinTask[size];
+        for (int worker = 0; worker < size; worker++) {
+            final int index = worker;
+            if (queues[index] == null) {
+                queues[index] = extent.createUnpooledQueue();
+            }
+            final IQueueExtent<IQueueChunk> queue = queues[index];
+            tasks[worker] = extent.getHandler().submit(() -> {
+                try {
+                    synchronized (queue) {
+                        if (masks[index] == null) {
+                            masks[index] = maskFactory.apply(queue);
+                            functions[index] = functionFactory.apply(queue);
+                        }
+                        final Mask mask = masks[index];
+                        final RegionFunction function = functions[index];
+                        final MutableBlockVector3 from = new MutableBlockVector3();
+                        final MutableBlockVector3 to = new MutableBlockVector3();
+                        final LongArrayList next = new LongArrayList();
+                        int count = 0;
+                        for (int group; (group = nextGroup.getAndIncrement()) < groups.length; ) {
+                            for (long packed : groups[group]) {
+                                int fromX = (int) MathMan.untripleWorldCoordX(packed);
+                                int fromY = (int) MathMan.untripleWorldCoordY(packed);
+                                int fromZ = (int) MathMan.untripleWorldCoordZ(packed);
+                                from.setComponents(fromX, fromY, fromZ);
+                                if (function.apply(from)) {
+                                    count++;
+                                }
+                                if (!expand) {
+                                    continue;
+                                }
+                                for (int i = 0, j = 0; i < dirX.length && j < maxBranch; i++) {
+                                    int y = fromY + dirY[i];
+                                    if (y < 0 || y >= 256) {
+                                        continue;
+                                    }
+                                    int x = fromX + dirX[i];
+                                    int z = fromZ + dirZ[i];
+                                    if (!visited.contains(x, y, z) && mask.test(to.setComponents(x, y, z))) {
+                                        j++;
+                                        if (visited.add(x, y, z)) {
+                                            next.add(MathMan.tripleWorldCoord(x, y, z));
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                        found[index] = next;
+                        applied[index] = count;
+                    }
+                } catch (Throwable e) {
+                    synchronized (error) {
+                        if (error[0] == null) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            });
+        }
+        for (ForkJoinTask task : tasks) {
+            task.quietlyJoin();
+        }
+        if (error[0] != null) {
+            if (error[0] instanceof WorldEditException) {
+                throw (WorldEditException) error[0];
+            }
+            if (error[0] instanceof RuntimeException) {
+                throw (RuntimeException) error[0];
+            }
+            throw new RuntimeException(error[0]);
+        }
+        int affected = 0;
+        LongArrayList nextLevel = new LongArrayList();
+        for (int i = 0; i < size; i++) {
+            affected += applied[i];
+            nextLevel.addAll(found[i]);
+        }
+        level = nextLevel;
+        return affected;
+    }
+
+    /**
+     * Group positions by chunk column, so each worker mostly stays within one chunk
+     */
+    private static long[][] partition(LongArrayList positions) {
+        Long2ObjectOpenHashMap<LongArrayList> groups = new Long2ObjectOpenHashMap<>();
+        for (int i = 0; i < positions.size(); i++) {
+            long packed = positions.getLong(i);
+            int chunkX = (int) MathMan.untripleWorldCoordX(packed) >> 4;
+            int chunkZ = (int) MathMan.untripleWorldCoordZ(packed) >> 4;
+            long key = MathMan.pairInt(chunkX, chunkZ);
+            LongArrayList group = groups.get(key);
+            if (group == null) {
+                groups.put(key, group = new LongArrayList());
+            }
+            group.add(packed);
+        }
+        long[][] result = new long[groups.size()][];
+        int i = 0;
+        for (LongArrayList group : groups.values()) {
+            result[i++] = group.toLongArray();
+        }
+        return result;
+    }
+}
@@ -19,15 +19,21 @@ public CachedTextureUtil(TextureUtil parent) throws FileNotFoundException {
         this.colorBiomeMap = new Int2ObjectOpenHashMap<>();
     }
 
+    public TextureUtil getParent() {
+        return parent;
+    }
+
     @Override
-    public BlockType[] getNearestLayer(int color) {
+    public BlockType[] getNearestLayer(int color, BlockType[] buffer) {
         BlockType[] closest = colorLayerMap.get(color);
         if (closest != null) {
-            return closest;
+            buffer[0] = closest[0];
+            buffer[1] = closest[1];
+            return buffer;
         }
-        closest = parent.getNearestLayer(color);
+        closest = parent.getNearestLayer(color, buffer);
         if (closest != null) {
-            colorLayerMap.put(color, closest.clone());
+            colorLayerMap.put(color, new BlockType[]{closest[0], closest[1]});
         }
         return closest;
     }
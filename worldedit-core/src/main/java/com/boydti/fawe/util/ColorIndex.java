@@ -0,0 +1,181 @@
+package com.boydti.fawe.util;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.function.IntPredicate;
+
+/**
+ * A k-d tree over a set of colors, to find the nearest one without comparing every color
+ * - Colors are only matched with colors of the same alpha, so there is one tree per alpha value
+ * - Exact for any distance that is at least {@code 2*r^2 + 4*g^2 + 2*b^2}, as
+ * {@link TextureUtil#colorDistance(int, int, int, int)} is, and ties resolve to the lowest index as a linear scan does
+ */
+public class ColorIndex {
+    // Lower bound of the distance per unit squared difference, for red, green and blue
+    private static final int[] WEIGHTS = {2, 4, 2};
+    private static final int LEAF_SIZE = 8;
+
+    private final int[] colors;
+    private final Distance distance;
+    private final Int2ObjectOpenHashMap<Tree> trees = new Int2ObjectOpenHashMap<>();
+
+    @FunctionalInterface
+    public interface Distance {
+        long apply(int red, int green, int blue, int color);
+    }
+
+    /**
+     * @param colors the colors to index, which must not be modified afterwards
+     * @param distance the color distance
+     */
+    public ColorIndex(int[] colors, Distance distance) {
+        this.colors = colors;
+        this.distance = distance;
+        Int2ObjectOpenHashMap<IntArrayList> byAlpha = new Int2ObjectOpenHashMap<>();
+        for (int i = 0; i < colors.length; i++) {
+            byAlpha.computeIfAbsent((colors[i] >> 24) & 0xFF, k -> new IntArrayList()).add(i);
+        }
+        byAlpha.forEach((alpha, indexes) -> trees.put((int) alpha, new Tree(indexes.toIntArray())));
+    }
+
+    /**
+     * @param color the color
+     * @return the index of the nearest color with the same alpha, or -1
+     */
+    public int getNearest(int color) {
+        return getNearest(color, null);
+    }
+
+    /**
+     * @param color the color
+     * @param filter which indexes may be returned, or null for any
+     * @return the index of the nearest color with the same alpha that passes the filter, or -1
+     */
+    public int getNearest(int color, IntPredicate filter) {
+        Tree tree = trees.get((color >> 24) & 0xFF);
+        if (tree == null) {
+            return -1;
+        }
+        Search search = new Search(color, filter);
+        tree.search(search, 0, tree.order.length);
+        return search.index;
+    }
+
+    private static int component(int color, int axis) {
+        return (color >> (16 - (axis << 3))) & 0xFF;
+    }
+
+    private final class Search {
+        private final int[] rgb;
+        private final IntPredicate filter;
+        private long min = Long.MAX_VALUE;
+        private int index = -1;
+
+        private Search(int color, IntPredicate filter) {
+            this.rgb = new int[]{(color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF};
+            this.filter = filter;
+        }
+
+        private void test(int i) {
+            if (filter != null && !filter.test(i)) {
+                return;
+            }
+            long value = distance.apply(rgb[0], rgb[1], rgb[2], colors[i]);
+            if (value < min || (value == min && i < index)) {
+                min = value;
+                index = i;
+            }
+        }
+    }
+
+    private final class Tree {
+        // Color indexes, arranged so each range's median splits it on the axis stored at the median
+        private final int[] order;
+        private final byte[] axes;
+
+        private Tree(int[] order) {
+            this.order = order;
+            this.axes = new byte[order.length];
+            build(0, order.length);
+        }
+
+        private void build(int from, int to) {
+            if (to - from <= LEAF_SIZE) {
+                return;
+            }
+            // Split on the axis with the widest spread
+            int axis = 0;
+            int spread = -1;
+            for (int a = 0; a < 3; a++) {
+                int min = 255;
+                int max = 0;
+                for (int i = from; i < to; i++) {
+                    int value = component(colors[order[i]], a);
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                if (max - min > spread) {
+                    spread = max - min;
+                    axis = a;
+                }
+            }
+            int mid = (from + to) >>> 1;
+            select(from, to - 1, mid, axis);
+            axes[mid] = (byte) axis;
+            build(from, mid);
+            build(mid + 1, to);
+        }
+
+        // Quickselect, so the median is at k with no larger component before it and no smaller one after it
+        private void select(int left, int right, int k, int axis) {
+            while (right > left) {
+                int pivot = component(colors[order[(left + right) >>> 1]], axis);
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (component(colors[order[i]], axis) < pivot) {
+                        i++;
+                    }
+                    while (component(colors[order[j]], axis) > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        int tmp = order[i];
+                        order[i] = order[j];
+                        order[j] = tmp;
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) {
+                    right = j;
+                } else if (k >= i) {
+                    left = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void search(Search search, int from, int to) {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++) {
+                    search.test(order[i]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            int axis = axes[mid];
+            int index = order[mid];
+            search.test(index);
+            int diff = search.rgb[axis] - component(colors[index], axis);
+            boolean left = diff < 0;
+            search(search, left ? from : mid + 1, left ? mid : to);
+            // Only search the other side if it could have a closer (or equally close) color
+            if ((long) WEIGHTS[axis] * diff * diff <= search.min) {
+                search(search, left ? mid + 1 : from, left ? to : mid);
+            }
+        }
+    }
+}
@@ -32,8 +32,8 @@ public BlockType getNextNearestBlock(int color) {
     }
 
     @Override
-    public BlockType[] getNearestLayer(int color) {
-        return parent.getNearestLayer(color);
+    public BlockType[] getNearestLayer(int color, BlockType[] buffer) {
+        return parent.getNearestLayer(color, buffer);
     }
 
     @Override
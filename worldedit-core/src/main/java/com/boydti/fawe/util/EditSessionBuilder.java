@@ -5,7 +5,9 @@
 import com.boydti.fawe.beta.IBatchProcessor;
 import com.boydti.fawe.beta.IQueueChunk;
 import com.boydti.fawe.beta.IQueueExtent;
+import com.boydti.fawe.beta.implementation.lighting.NMSRelighter;
 import com.boydti.fawe.beta.implementation.processors.LimitProcessor;
+import com.boydti.fawe.beta.implementation.processors.RelightProcessor;
 import com.boydti.fawe.beta.implementation.queue.ParallelQueueExtent;
 import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.logging.rollback.RollbackOptimizedHistory;
@@ -248,6 +250,7 @@ private Extent wrapExtent(final Extent extent, final EventBus eventBus, EditSess
     private Extent bypassHistory;
     private Extent bypassAll;
     private Extent extent;
+    private NMSRelighter relighter;
     private boolean compiled;
     private boolean wrapped;
 
@@ -312,6 +315,16 @@ public EditSessionBuilder compile() {
             } else {
                 extent = world;
             }
+            if (relightMode == null) {
+                relightMode = RelightMode.values()[MathMan.clamp(Settings.IMP.LIGHTING.MODE, 0, RelightMode.values().length - 1)];
+            }
+            if (queue != null && relightMode != RelightMode.NONE && !(unwrapped instanceof IQueueExtent)) {
+                // Relit through its own queue once the edit has been flushed
+                IQueueExtent<IQueueChunk> relightQueue = Fawe.get().getQueueHandler().create();
+                relightQueue.init(world, Fawe.get().getQueueHandler().getOrCreateWorldCache(world), null);
+                relighter = new NMSRelighter(relightQueue, Settings.IMP.LIGHTING.DO_HEIGHTMAPS);
+                queue.addProcessor(new RelightProcessor(relighter, relightMode));
+            }
             Extent root = extent;
             if (combineStages == null) {
                 combineStages =
@@ -443,4 +456,12 @@ public BlockBag getBlockBag() {
         return blockBag;
     }
 
+    /**
+     * Get the relighter the chunks of the edit are added to as they are set, if relighting is enabled
+     */
+    @Nullable
+    public NMSRelighter getRelighter() {
+        return relighter;
+    }
+
 }
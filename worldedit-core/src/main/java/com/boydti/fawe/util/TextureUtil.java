@@ -66,6 +66,10 @@ public class TextureUtil implements TextureHolder {
     protected int[][] validLayerBlocks;
     protected int[] validMixBiomeColors;
     protected long[] validMixBiomeIds;
+    // Built on first use, as subclasses assign the valid colors directly
+    private volatile ColorIndex blockIndex;
+    private volatile ColorIndex layerIndex;
+    private volatile ColorIndex mixBiomeIndex;
     /**
      * https://github.com/erich666/Mineways/blob/master/Win/biomes.cpp
      */
@@ -334,7 +338,6 @@ public class TextureUtil implements TextureHolder {
         new BiomeColor(253, "Unknown Biome", 0.8f, 0.4f, 0x92BD59, 0x77AB2F),
         new BiomeColor(254, "Unknown Biome", 0.8f, 0.4f, 0x92BD59, 0x77AB2F),
         new BiomeColor(255, "Unknown Biome", 0.8f, 0.4f, 0x92BD59, 0x77AB2F),};
-    private BlockType[] layerBuffer = new BlockType[2];
 
     public TextureUtil() throws FileNotFoundException {
         this(MainUtil.getFile(Fawe.imp().getDirectory(), Settings.IMP.PATHS.TEXTURES));
@@ -404,26 +407,11 @@ public TextureUtil getTextureUtil() {
     }
 
     public BlockType getNearestBlock(int color) {
-        long min = Long.MAX_VALUE;
-        int closest = 0;
-        int red1 = (color >> 16) & 0xFF;
-        int green1 = (color >> 8) & 0xFF;
-        int blue1 = (color >> 0) & 0xFF;
-        int alpha = (color >> 24) & 0xFF;
-        for (int i = 0; i < validColors.length; i++) {
-            int other = validColors[i];
-            if (((other >> 24) & 0xFF) == alpha) {
-                long distance = colorDistance(red1, green1, blue1, other);
-                if (distance < min) {
-                    min = distance;
-                    closest = validBlockIds[i];
-                }
-            }
-        }
-        if (min == Long.MAX_VALUE) {
+        int index = getBlockIndex().getNearest(color);
+        if (index == -1) {
             return null;
         }
-        return BlockTypes.get(closest);
+        return BlockTypes.get(validBlockIds[index]);
     }
 
     public BlockType getNearestBlock(BlockType block) {
@@ -435,26 +423,12 @@ public BlockType getNearestBlock(BlockType block) {
     }
 
     public BlockType getNextNearestBlock(int color) {
-        long min = Long.MAX_VALUE;
-        int closest = 0;
-        int red1 = (color >> 16) & 0xFF;
-        int green1 = (color >> 8) & 0xFF;
-        int blue1 = (color >> 0) & 0xFF;
-        int alpha = (color >> 24) & 0xFF;
-        for (int i = 0; i < validColors.length; i++) {
-            int other = validColors[i];
-            if (other != color && ((other >> 24) & 0xFF) == alpha) {
-                long distance = colorDistance(red1, green1, blue1, other);
-                if (distance < min) {
-                    min = distance;
-                    closest = validBlockIds[i];
-                }
-            }
-        }
-        if (min == Long.MAX_VALUE) {
+        int[] colors = validColors;
+        int index = getBlockIndex().getNearest(color, i -> colors[i] != color);
+        if (index == -1) {
             return null;
         }
-        return BlockTypes.get(closest);
+        return BlockTypes.get(validBlockIds[index]);
     }
 
     /**
@@ -464,25 +438,25 @@ public BlockType getNextNearestBlock(int color) {
      * @return
      */
     public BlockType[] getNearestLayer(int color) {
-        int[] closest = null;
-        long min = Long.MAX_VALUE;
-        int red1 = (color >> 16) & 0xFF;
-        int green1 = (color >> 8) & 0xFF;
-        int blue1 = (color >> 0) & 0xFF;
-        int alpha = (color >> 24) & 0xFF;
-        for (int i = 0; i < validLayerColors.length; i++) {
-            int other = validLayerColors[i];
-            if (((other >> 24) & 0xFF) == alpha) {
-                long distance = colorDistance(red1, green1, blue1, other);
-                if (distance < min) {
-                    min = distance;
-                    closest = validLayerBlocks[i];
-                }
-            }
+        return getNearestLayer(color, new BlockType[2]);
+    }
+
+    /**
+     * Get the nearest layer into a buffer owned by the caller, so a lookup per pixel doesn't allocate
+     *
+     * @param color the color
+     * @param buffer an array of at least two blocks, filled with the top and the main block
+     * @return the buffer, or null if there is no layer
+     */
+    public BlockType[] getNearestLayer(int color, BlockType[] buffer) {
+        int index = getLayerIndex().getNearest(color);
+        if (index == -1) {
+            return null;
         }
-        layerBuffer[0] = BlockTypes.get(closest[0]);
-        layerBuffer[1] = BlockTypes.get(closest[1]);
-        return layerBuffer;
+        int[] closest = validLayerBlocks[index];
+        buffer[0] = BlockTypes.get(closest[0]);
+        buffer[1] = BlockTypes.get(closest[1]);
+        return buffer;
     }
 
     public BlockType getLighterBlock(BlockType block) {
@@ -518,21 +492,10 @@ public boolean getIsBlockCloserThanBiome(char[] blockAndBiomeIdOutput, int color
     public int getBiomeMix(int[] biomeIdsOutput, int color) {
         long closest = Long.MAX_VALUE;
         int closestAverage = Integer.MAX_VALUE;
-        long min = Long.MAX_VALUE;
-        int red1 = (color >> 16) & 0xFF;
-        int green1 = (color >> 8) & 0xFF;
-        int blue1 = (color >> 0) & 0xFF;
-        int alpha = (color >> 24) & 0xFF;
-        for (int i = 0; i < validMixBiomeColors.length; i++) {
-            int other = validMixBiomeColors[i];
-            if (((other >> 24) & 0xFF) == alpha) {
-                long distance = colorDistance(red1, green1, blue1, other);
-                if (distance < min) {
-                    min = distance;
-                    closest = validMixBiomeIds[i];
-                    closestAverage = other;
-                }
-            }
+        int index = getMixBiomeIndex().getNearest(color);
+        if (index != -1) {
+            closest = validMixBiomeIds[index];
+            closestAverage = validMixBiomeColors[index];
         }
         biomeIdsOutput[0] = (int) ((closest >> 0) & 0xFF);
         biomeIdsOutput[1] = (int) ((closest >> 8) & 0xFF);
@@ -892,6 +855,9 @@ public int combineTransparency(int top, int bottom) {
     }
 
     protected void calculateLayerArrays() {
+        blockIndex = null;
+        layerIndex = null;
+        mixBiomeIndex = null;
         Int2ObjectOpenHashMap<int[]> colorLayerMap = new Int2ObjectOpenHashMap<>();
         for (int i = 0; i < validBlockIds.length; i++) {
             int color = validColors[i];
@@ -926,34 +892,45 @@ protected BlockType getNearestBlock(BlockType block, boolean darker) {
     }
 
     protected BlockType getNearestBlock(int color, boolean darker) {
-        long min = Long.MAX_VALUE;
-        int closest = 0;
-        int red1 = (color >> 16) & 0xFF;
-        int green1 = (color >> 8) & 0xFF;
-        int blue1 = (color >> 0) & 0xFF;
-        int alpha = (color >> 24) & 0xFF;
-        int intensity1 = 2 * red1 + 4 * green1 + 3 * blue1;
-        for (int i = 0; i < validColors.length; i++) {
-            int other = validColors[i];
-            if (other != color && ((other >> 24) & 0xFF) == alpha) {
-                int red2 = (other >> 16) & 0xFF;
-                int green2 = (other >> 8) & 0xFF;
-                int blue2 = (other >> 0) & 0xFF;
-                int intensity2 = 2 * red2 + 4 * green2 + 3 * blue2;
-                if (darker ? intensity2 >= intensity1 : intensity1 >= intensity2) {
-                    continue;
-                }
-                long distance = colorDistance(red1, green1, blue1, other);
-                if (distance < min) {
-                    min = distance;
-                    closest = validBlockIds[i];
-                }
-            }
-        }
-        if (min == Long.MAX_VALUE) {
+        int intensity1 = getIntensity(color);
+        int[] colors = validColors;
+        int index = getBlockIndex().getNearest(color, i -> {
+            int other = colors[i];
+            int intensity2 = getIntensity(other);
+            return other != color && (darker ? intensity2 < intensity1 : intensity1 < intensity2);
+        });
+        if (index == -1) {
             return null;
         }
-        return BlockTypes.get(closest);
+        return BlockTypes.get(validBlockIds[index]);
+    }
+
+    private static int getIntensity(int color) {
+        return 2 * ((color >> 16) & 0xFF) + 4 * ((color >> 8) & 0xFF) + 3 * (color & 0xFF);
+    }
+
+    private ColorIndex getBlockIndex() {
+        ColorIndex index = blockIndex;
+        if (index == null) {
+            blockIndex = index = new ColorIndex(validColors, this::colorDistance);
+        }
+        return index;
+    }
+
+    private ColorIndex getLayerIndex() {
+        ColorIndex index = layerIndex;
+        if (index == null) {
+            layerIndex = index = new ColorIndex(validLayerColors, this::colorDistance);
+        }
+        return index;
+    }
+
+    private ColorIndex getMixBiomeIndex() {
+        ColorIndex index = mixBiomeIndex;
+        if (index == null) {
+            mixBiomeIndex = index = new ColorIndex(validMixBiomeColors, this::colorDistance);
+        }
+        return index;
     }
 
     private String getFileName(String path) {
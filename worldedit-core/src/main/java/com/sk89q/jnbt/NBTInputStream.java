@@ -61,6 +61,16 @@ public NBTInputStream(DataInputStream dis) {
         this.is = dis;
     }
 
+    /**
+     * Get the underlying stream, e.g. for a {@link com.boydti.fawe.jnbt.streamer.LazyReader} to
+     * read the payload of an array directly.
+     *
+     * @return the data input stream
+     */
+    public DataInputStream getInputStream() {
+        return is;
+    }
+
     /**
      * Reads an NBT tag from the stream.
      *
@@ -509,7 +519,7 @@ private int[] readIntArrayRaw(int length) throws IOException {
             for (int i = 0; i < toRead; i += 4, index++) {
                 data[index] = ((buf[i] & 0xFF) << 24) + ((buf[i + 1] & 0xFF) << 16) + ((buf[i + 2] & 0xFF) << 8) + (buf[i + 3] & 0xFF);
             }
-            length -= toRead;
+            length -= toRead >> 2;
         }
         return data;
     }
@@ -526,7 +536,7 @@ private long[] readLongArrayRaw(int length) throws IOException {
             for (int i = 0; i < toRead; i += 8, index++) {
                 data[index] = (((long) buf[i] << 56) | ((long) (buf[i + 1] & 255) << 48) | ((long) (buf[i + 2] & 255) << 40) | ((long) (buf[i + 3] & 255) << 32) | ((long) (buf[i + 4] & 255) << 24) | ((buf[i + 5] & 255) << 16) | ((buf[i + 6] & 255) << 8) | (buf[i + 7] & 255));
             }
-            length -= toRead;
+            length -= toRead >> 3;
         }
         return (data);
     }
@@ -20,6 +20,8 @@
 package com.sk89q.worldedit;
 
 import com.boydti.fawe.FaweCache;
+import com.boydti.fawe.beta.implementation.lighting.NMSRelighter;
+import com.boydti.fawe.beta.implementation.queue.ParallelQueueExtent;
 import com.boydti.fawe.config.Caption;
 import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.object.FaweLimit;
@@ -90,7 +92,7 @@
 import com.sk89q.worldedit.internal.expression.Expression;
 import com.sk89q.worldedit.internal.expression.ExpressionException;
 import com.sk89q.worldedit.internal.expression.ExpressionTimeoutException;
-import com.sk89q.worldedit.internal.expression.LocalSlot.Variable;
+import com.sk89q.worldedit.internal.expression.SlotTable;
 import com.sk89q.worldedit.math.BlockVector2;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.math.MathUtils;
@@ -144,6 +146,8 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -210,6 +214,7 @@ public String getDisplayName() {
 
     private int changes = 0;
     private final BlockBag blockBag;
+    private final NMSRelighter relighter;
 
     private final Extent bypassHistory;
     private Extent bypassAll;
@@ -251,6 +256,7 @@ public EditSession(EditSessionBuilder builder) {
         this.changeSet = builder.getChangeTask();
         this.maxY = world.getMaxY();
         this.blockBag = builder.getBlockBag();
+        this.relighter = builder.getRelighter();
         this.history = changeSet != null;
     }
 
@@ -308,6 +314,31 @@ public FaweRegionExtent getRegionExtent() {
         return traverser == null ? null : traverser.get();
     }
 
+    /**
+     * Get the parallel queue this session writes through, if recursive fills may use it
+     * ({@code queue.parallel-flood-fill})
+     * - Workers write straight to their own queues, so this is only possible when the session does not
+     * wrap the queue in any extent (history, region and limit handling are all queue processors), and
+     * there is no mask or block bag
+     *
+     * @return the parallel queue, or null if the fill must run through this session
+     */
+    @Nullable
+    private ParallelQueueExtent getParallelFloodFillExtent() {
+        if (!Settings.IMP.QUEUE.PARALLEL_FLOOD_FILL || getBlockBag() != null) {
+            return null;
+        }
+        Extent extent = getExtent();
+        if (!(extent instanceof ParallelQueueExtent)) {
+            return null;
+        }
+        ParallelQueueExtent parallel = (ParallelQueueExtent) extent;
+        if (parallel.getExtent().contains(MaskingExtent.class)) {
+            return null;
+        }
+        return parallel;
+    }
+
     public Extent getBypassAll() {
         return bypassAll;
     }
@@ -1055,6 +1086,16 @@ public void flushQueue() {
         }
         // Reset limit
         limit.set(originalLimit);
+        // Relight the sections which were set
+        if (relighter != null && !relighter.isEmpty()) {
+            if (Settings.IMP.LIGHTING.REMOVE_FIRST) {
+                relighter.removeAndRelight(true);
+            } else {
+                relighter.fixSkyLighting();
+                relighter.fixBlockLighting();
+            }
+            relighter.sendChunks();
+        }
         // Enqueue it
         if (getChangeSet() != null) {
             if (Settings.IMP.HISTORY.COMBINE_STAGES) {
@@ -1191,19 +1232,28 @@ public int fillXZ(BlockVector3 origin, Pattern pattern, double radius, int depth
         checkArgument(radius >= 0, "radius >= 0");
         checkArgument(depth >= 1, "depth >= 1");
 
-        Mask mask = new MaskIntersection(
+        final int minY = Math.max(origin.getBlockY() - depth + 1, getMinimumPoint().getBlockY());
+        final int maxY = Math.min(getMaxY(), origin.getBlockY());
+        final Function<Extent, Mask> maskFactory = extent -> new MaskIntersection(
                 new RegionMask(new EllipsoidRegion(null, origin, Vector3.at(radius, radius, radius))),
-                new BoundedHeightMask(
-                        Math.max(origin.getBlockY() - depth + 1, getMinimumPoint().getBlockY()),
-                        Math.min(getMaxY(), origin.getBlockY())),
-                Masks.negate(new ExistingBlockMask(this)));
+                new BoundedHeightMask(minY, maxY),
+                Masks.negate(new ExistingBlockMask(extent)));
+        Mask mask = maskFactory.apply(this);
         // Want to replace blocks
         BlockReplace replace = new BlockReplace(this, pattern);
 
         // Pick how we're going to visit blocks
         RecursiveVisitor visitor;
+        ParallelQueueExtent parallel = null;
+        // Patterns may have state, so each worker thread uses its own fork
+        final Map<Thread, Pattern> forks = new ConcurrentHashMap<>();
         if (recursive) {
             visitor = new RecursiveVisitor(mask, replace, (int) (radius * 2 + 1));
+            parallel = getParallelFloodFillExtent();
+            if (parallel != null) {
+                visitor.setParallel(parallel, maskFactory, extent -> new BlockReplace(extent,
+                    forks.computeIfAbsent(Thread.currentThread(), thread -> pattern.fork())));
+            }
         } else {
             visitor = new DownwardVisitor(mask, replace, origin.getBlockY(), (int) (radius * 2 + 1));
         }
@@ -1213,6 +1263,9 @@ public int fillXZ(BlockVector3 origin, Pattern pattern, double radius, int depth
 
         // Execute
         Operations.completeLegacy(visitor);
+        if (parallel != null) {
+            pattern.join();
+        }
 
         return this.changes = visitor.getAffected();
     }
@@ -1654,29 +1707,36 @@ public int drainArea(BlockVector3 origin, double radius, boolean waterlogged, bo
         checkNotNull(origin);
         checkArgument(radius >= 0, "radius >= 0 required");
 
-        Mask liquidMask;
-        if (plants) {
-             liquidMask = new BlockTypeMask(this, BlockTypes.LAVA, BlockTypes.WATER,
-                 BlockTypes.KELP_PLANT, BlockTypes.KELP, BlockTypes.SEAGRASS, BlockTypes.TALL_SEAGRASS);
-        } else {
-            liquidMask = new BlockTypeMask(this, BlockTypes.LAVA, BlockTypes.WATER);
-        }
-        if (waterlogged) {
-            Map<String, String> stateMap = new HashMap<>();
-            stateMap.put("waterlogged", "true");
-            liquidMask = new MaskUnion(liquidMask, new BlockStateMask(this, stateMap, true));
-        }
-        Mask mask = new MaskIntersection(
+        final Function<Extent, Mask> maskFactory = extent -> {
+            Mask liquidMask;
+            if (plants) {
+                liquidMask = new BlockTypeMask(extent, BlockTypes.LAVA, BlockTypes.WATER,
+                    BlockTypes.KELP_PLANT, BlockTypes.KELP, BlockTypes.SEAGRASS, BlockTypes.TALL_SEAGRASS);
+            } else {
+                liquidMask = new BlockTypeMask(extent, BlockTypes.LAVA, BlockTypes.WATER);
+            }
+            if (waterlogged) {
+                Map<String, String> stateMap = new HashMap<>();
+                stateMap.put("waterlogged", "true");
+                liquidMask = new MaskUnion(liquidMask, new BlockStateMask(extent, stateMap, true));
+            }
+            return new MaskIntersection(
                 new BoundedHeightMask(0, getWorld().getMaxY()),
                 new RegionMask(new EllipsoidRegion(null, origin, Vector3.at(radius, radius, radius))),
                 liquidMask);
-        BlockReplace replace;
-        if (waterlogged) {
-            replace = new BlockReplace(this, new WaterloggedRemover(this));
-        } else {
-            replace = new BlockReplace(this, BlockTypes.AIR.getDefaultState());
+        };
+        final Function<Extent, RegionFunction> functionFactory = extent -> {
+            if (waterlogged) {
+                return new BlockReplace(extent, new WaterloggedRemover(extent));
+            }
+            return new BlockReplace(extent, BlockTypes.AIR.getDefaultState());
+        };
+        Mask mask = maskFactory.apply(this);
+        RecursiveVisitor visitor = new RecursiveVisitor(mask, functionFactory.apply(this), (int) (radius * 2 + 1));
+        ParallelQueueExtent parallel = getParallelFloodFillExtent();
+        if (parallel != null) {
+            visitor.setParallel(parallel, maskFactory, functionFactory);
         }
-        RecursiveVisitor visitor = new RecursiveVisitor(mask, replace, (int) (radius * 2 + 1));
 
         // Around the origin in a 3x3 block
         for (BlockVector3 position : CuboidRegion.fromCenter(origin, 1)) {
@@ -2399,11 +2459,6 @@ public int makeShape(final Region region, final Vector3 zero, final Vector3 unit
         final Expression expression = Expression.compile(expressionString, "x", "y", "z", "type", "data");
         expression.optimize();
 
-        final Variable typeVariable = expression.getSlots().getVariable("type")
-            .orElseThrow(IllegalStateException::new);
-        final Variable dataVariable = expression.getSlots().getVariable("data")
-            .orElseThrow(IllegalStateException::new);
-
         final WorldEditExpressionEnvironment environment = new WorldEditExpressionEnvironment(this, unit, zero);
         expression.setEnvironment(environment);
 
@@ -2428,8 +2483,10 @@ protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial)
                     if (expression.evaluate(new double[]{scaled.getX(), scaled.getY(), scaled.getZ(), typeVar, dataVar}, timeout) <= 0) {
                         return null;
                     }
-                    int newType = (int) typeVariable.getValue();
-                    int newData = (int) dataVariable.getValue();
+                    // The slots are per thread, so they are looked up by the thread which evaluated
+                    final SlotTable slots = expression.getSlots();
+                    int newType = (int) slots.getSlotValue("type").orElseThrow(IllegalStateException::new);
+                    int newData = (int) slots.getSlotValue("data").orElseThrow(IllegalStateException::new);
                     if (newType != typeVar || newData != dataVar) {
                         BlockState state = LegacyMapper.getInstance().getBlockFromLegacy(newType, newData);
                         return state == null ? defaultMaterial : state.toBaseBlock();
@@ -2495,13 +2552,6 @@ public int deformRegion(final Region region, final Vector3 zero, final Vector3 u
         final Expression expression = Expression.compile(expressionString, "x", "y", "z");
         expression.optimize();
 
-        final Variable x = expression.getSlots().getVariable("x")
-            .orElseThrow(IllegalStateException::new);
-        final Variable y = expression.getSlots().getVariable("y")
-            .orElseThrow(IllegalStateException::new);
-        final Variable z = expression.getSlots().getVariable("z")
-            .orElseThrow(IllegalStateException::new);
-
         final WorldEditExpressionEnvironment environment = new WorldEditExpressionEnvironment(this, unit, zero);
         expression.setEnvironment(environment);
         final Vector3 zero2 = zero.add(0.5, 0.5, 0.5);
@@ -2516,9 +2566,10 @@ public boolean apply(BlockVector3 position) throws WorldEditException {
 
                     // transform
                     expression.evaluate(new double[]{scaled.getX(), scaled.getY(), scaled.getZ()}, timeout);
-                    int xv = (int) (x.getValue() * unit.getX() + zero2.getX());
-                    int yv = (int) (y.getValue() * unit.getY() + zero2.getY());
-                    int zv = (int) (z.getValue() * unit.getZ() + zero2.getZ());
+                    final SlotTable slots = expression.getSlots();
+                    int xv = (int) (slots.getSlotValue("x").orElseThrow(IllegalStateException::new) * unit.getX() + zero2.getX());
+                    int yv = (int) (slots.getSlotValue("y").orElseThrow(IllegalStateException::new) * unit.getY() + zero2.getY());
+                    int zv = (int) (slots.getSlotValue("z").orElseThrow(IllegalStateException::new) * unit.getZ() + zero2.getZ());
 
                     BlockState get;
                     if (yv >= 0 && yv < 265) {
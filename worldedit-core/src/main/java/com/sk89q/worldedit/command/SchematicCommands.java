@@ -613,6 +613,8 @@ public Void call() throws Exception {
                 Operations.completeLegacy(result.copyTo(target));
             }
 
+            long start = System.currentTimeMillis();
+            boolean saved = false;
             try (Closer closer = Closer.create()) {
                 FileOutputStream fos = closer.register(new FileOutputStream(file));
                 BufferedOutputStream bos = closer.register(new BufferedOutputStream(fos));
@@ -627,12 +629,19 @@ public Void call() throws Exception {
                     } else {
                         writer.write(target);
                     }
-                    log.info(actor.getName() + " saved " + file.getCanonicalPath());
-                    actor.print(Caption.of("fawe.worldedit.schematic.schematic.saved" , file.getName()));
+                    saved = true;
                 } else {
                     actor.printError(TranslatableComponent.of("fawe.cancel.worldedit.cancel.reason.manual"));
                 }
             }
+            if (saved) {
+                // The file is complete once the writer has been closed
+                double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000d;
+                double megabytes = file.length() / (1024d * 1024d);
+                log.info(actor.getName() + " saved " + file.getCanonicalPath());
+                actor.print(Caption.of("fawe.worldedit.schematic.schematic.saved.speed", file.getName(),
+                    String.format("%.2f", megabytes), String.format("%.2f", megabytes / seconds)));
+            }
             return null;
         }
     }
@@ -23,6 +23,7 @@
 import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.object.brush.visualization.VirtualWorld;
 import com.boydti.fawe.object.clipboard.DiskOptimizedClipboard;
+import com.boydti.fawe.object.clipboard.TiledDiskClipboard;
 import com.boydti.fawe.regions.FaweMaskManager;
 import com.boydti.fawe.util.MainUtil;
 import com.sk89q.worldedit.EmptyClipboardException;
@@ -418,7 +419,6 @@ default void loadClipboardFromDisk() {
             Settings.IMP.PATHS.CLIPBOARD + File.separator + getUniqueId() + ".bd");
         try {
             if (file.exists() && file.length() > 5) {
-                DiskOptimizedClipboard doc = new DiskOptimizedClipboard(file);
                 LocalSession session = getSession();
                 try {
                     if (session.getClipboard() != null) {
@@ -426,7 +426,12 @@ default void loadClipboardFromDisk() {
                     }
                 } catch (EmptyClipboardException ignored) {
                 }
-                Clipboard clip = doc.toClipboard();
+                Clipboard clip;
+                if (TiledDiskClipboard.isTiled(file)) {
+                    clip = new TiledDiskClipboard(file).toClipboard();
+                } else {
+                    clip = new DiskOptimizedClipboard(file).toClipboard();
+                }
                 ClipboardHolder holder = new ClipboardHolder(clip);
                 getSession().setClipboard(holder);
             }
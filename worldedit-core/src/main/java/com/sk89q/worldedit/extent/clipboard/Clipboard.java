@@ -25,6 +25,7 @@
 import com.boydti.fawe.object.clipboard.DiskOptimizedClipboard;
 import com.boydti.fawe.object.clipboard.MemoryOptimizedClipboard;
 import com.boydti.fawe.object.clipboard.ReadOnlyClipboard;
+import com.boydti.fawe.object.clipboard.TiledDiskClipboard;
 import com.boydti.fawe.util.EditSessionBuilder;
 import com.boydti.fawe.util.MaskTraverser;
 import com.sk89q.worldedit.EditSession;
@@ -78,6 +79,9 @@ static Clipboard create(Region region) {
 
     static Clipboard create(Region region, UUID uuid) {
         if (Settings.IMP.CLIPBOARD.USE_DISK) {
+            if (Settings.IMP.CLIPBOARD.TILED) {
+                return new TiledDiskClipboard(region, uuid);
+            }
             return new DiskOptimizedClipboard(region, uuid);
         } else if (Settings.IMP.CLIPBOARD.COMPRESSION_LEVEL == 0) {
             return new CPUOptimizedClipboard(region);
@@ -26,6 +26,8 @@
 import com.google.common.collect.ImmutableSet;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.math.BlockVector3;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -93,6 +95,13 @@ public ClipboardReader getReader(InputStream inputStream) throws IOException {
             return new FastSchematicReader(nbtStream);
         }
 
+        @Override
+        public void paste(InputStream inputStream, Extent extent, BlockVector3 to, boolean pasteAir, boolean pasteEntities, boolean pasteBiomes) throws IOException {
+            try (FastSchematicReader reader = (FastSchematicReader) getReader(inputStream)) {
+                reader.paste(extent, to, pasteAir, pasteEntities, pasteBiomes);
+            }
+        }
+
         @Override
         public ClipboardWriter getWriter(OutputStream outputStream) throws IOException {
             OutputStream gzip;
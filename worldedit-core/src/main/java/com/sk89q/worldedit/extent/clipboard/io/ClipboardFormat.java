@@ -26,7 +26,9 @@
 import com.sk89q.worldedit.LocalSession;
 import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.extension.platform.Actor;
+import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.math.BlockVector3;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -131,6 +133,31 @@ default Clipboard load(InputStream stream) throws IOException {
         return getReader(stream).read();
     }
 
+    default void paste(File file, Extent extent, BlockVector3 to, boolean pasteAir, boolean pasteEntities, boolean pasteBiomes) throws IOException {
+        try (InputStream stream = new FileInputStream(file)) {
+            paste(stream, extent, to, pasteAir, pasteEntities, pasteBiomes);
+        }
+    }
+
+    /**
+     * Paste a schematic into an extent, without keeping a clipboard of it.
+     * Formats which can paste while reading override this, otherwise the
+     * schematic is loaded into a clipboard and then pasted.
+     *
+     * @param stream the input stream
+     * @param extent the extent to paste to
+     * @param to the position to paste the origin of the schematic at
+     * @param pasteAir whether air should be pasted
+     * @param pasteEntities whether entities should be pasted
+     * @param pasteBiomes whether biomes should be pasted
+     * @throws IOException thrown on I/O error
+     */
+    default void paste(InputStream stream, Extent extent, BlockVector3 to, boolean pasteAir, boolean pasteEntities, boolean pasteBiomes) throws IOException {
+        try (Clipboard clipboard = load(stream)) {
+            clipboard.paste(extent, to, pasteAir, pasteEntities, pasteBiomes);
+        }
+    }
+
 
     default URL upload(final Clipboard clipboard) {
         return MainUtil.upload(null, null, getPrimaryFileExtension(), new RunnableVal<OutputStream>() {
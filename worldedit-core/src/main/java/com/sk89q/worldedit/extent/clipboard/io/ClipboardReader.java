@@ -19,7 +19,9 @@
 
 package com.sk89q.worldedit.extent.clipboard.io;
 
+import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.object.clipboard.DiskOptimizedClipboard;
+import com.boydti.fawe.object.clipboard.TiledDiskClipboard;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
 import com.sk89q.worldedit.math.BlockVector3;
 
@@ -56,6 +58,9 @@ default OptionalInt getDataVersion() {
     }
 
     default Clipboard read(UUID uuid) throws IOException {
+        if (Settings.IMP.CLIPBOARD.TILED) {
+            return read(uuid, TiledDiskClipboard::new);
+        }
         return read(uuid, DiskOptimizedClipboard::new);
     }
 
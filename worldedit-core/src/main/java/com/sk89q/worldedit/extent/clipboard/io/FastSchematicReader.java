@@ -27,13 +27,17 @@
 import com.boydti.fawe.object.clipboard.LinearClipboard;
 import com.boydti.fawe.object.io.FastByteArrayOutputStream;
 import com.boydti.fawe.object.io.FastByteArraysInputStream;
+import com.boydti.fawe.util.IOUtil;
+import com.google.common.io.CountingInputStream;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.IntTag;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.StringTag;
 import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.entity.BaseEntity;
 import com.sk89q.worldedit.extension.input.InputParseException;
+import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
 import com.sk89q.worldedit.math.BlockVector3;
@@ -50,7 +54,11 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -84,7 +92,15 @@ public class FastSchematicReader extends NBTSchematicReader {
     private int offsetX, offsetY, offsetZ;
     private char[] palette, biomePalette;
     private BlockVector3 min = BlockVector3.ZERO;
+    private boolean hasMetadata;
 
+    // Set when pasting while reading
+    private Extent target;
+    private BlockVector3 to;
+    private boolean pasteAir;
+    private boolean pasteEntities;
+    private boolean pasteBiomes;
+    private boolean blocksPasted;
 
     /**
      * Create a new instance.
@@ -127,6 +143,7 @@ public StreamDelegate createDelegate() {
         schematic.add("Offset").withValue((ValueReader<int[]>) (index, v) -> min = BlockVector3.at(v[0], v[1], v[2]));
 
         StreamDelegate metadata = schematic.add("Metadata");
+        metadata.withInfo((length, type) -> hasMetadata = true);
         metadata.add("WEOffsetX").withInt((i, v) -> offsetX = v);
         metadata.add("WEOffsetY").withInt((i, v) -> offsetY = v);
         metadata.add("WEOffsetZ").withInt((i, v) -> offsetZ = v);
@@ -148,18 +165,42 @@ public StreamDelegate createDelegate() {
         });
         StreamDelegate blockData = schematic.add("BlockData");
         blockData.withInfo((length, type) -> {
-            blocksOut = new FastByteArrayOutputStream();
-            blocks = new FaweOutputStream(new LZ4BlockOutputStream(blocksOut));
+            if (!canPaste(palette)) {
+                blocksOut = new FastByteArrayOutputStream();
+                blocks = new FaweOutputStream(new LZ4BlockOutputStream(blocksOut));
+            }
+        });
+        blockData.withStream((length, in) -> {
+            if (blocks != null) {
+                copy(in.getInputStream(), blocks, length);
+            } else {
+                // The palette is known, so paste the blocks as they are decoded
+                pasteBlocks(in.getInputStream(), length);
+            }
         });
-        blockData.withInt((index, value) -> blocks.write(value));
 
         StreamDelegate tilesDelegate = schematic.add("TileEntities");
-        tilesDelegate.withInfo((length, type) -> tiles = new ArrayList<>(length));
-        tilesDelegate.withElem((ValueReader<Map<String, Object>>) (index, tile) -> tiles.add(tile));
+        tilesDelegate.withInfo((length, type) -> tiles = new ArrayList<>(target == null ? length : 0));
+        tilesDelegate.withElem((ValueReader<Map<String, Object>>) (index, tile) -> {
+            // Tiles are only pasted once the blocks they belong to are
+            if (target != null && blocksPasted) {
+                pasteTile(tile);
+            } else {
+                tiles.add(tile);
+            }
+        });
 
         StreamDelegate entitiesDelegate = schematic.add("Entities");
-        entitiesDelegate.withInfo((length, type) -> entities = new ArrayList<>(length));
-        entitiesDelegate.withElem((ValueReader<Map<String, Object>>) (index, entity) -> entities.add(entity));
+        entitiesDelegate.withInfo((length, type) -> entities = new ArrayList<>(target == null ? length : 0));
+        entitiesDelegate.withElem((ValueReader<Map<String, Object>>) (index, entity) -> {
+            if (target != null && hasMetadata) {
+                if (pasteEntities) {
+                    pasteEntity(entity);
+                }
+            } else {
+                entities.add(entity);
+            }
+        });
 
         StreamDelegate biomePaletteDelegate = schematic.add("BiomePalette");
         biomePaletteDelegate.withValue((ValueReader<Map<String, Object>>) (ignore, v) -> {
@@ -178,13 +219,42 @@ public StreamDelegate createDelegate() {
         });
         StreamDelegate biomeData = schematic.add("BiomeData");
         biomeData.withInfo((length, type) -> {
-            biomesOut = new FastByteArrayOutputStream();
-            biomes = new FaweOutputStream(new LZ4BlockOutputStream(biomesOut));
+            if (target == null || (pasteBiomes && !canPaste(biomePalette))) {
+                biomesOut = new FastByteArrayOutputStream();
+                biomes = new FaweOutputStream(new LZ4BlockOutputStream(biomesOut));
+            }
+        });
+        biomeData.withStream((length, in) -> {
+            if (biomes != null) {
+                copy(in.getInputStream(), biomes, length);
+            } else if (pasteBiomes) {
+                pasteBiomes(new FaweInputStream(in.getInputStream()));
+            } else {
+                in.getInputStream().skipBytes(length);
+            }
         });
-        biomeData.withInt((index, value) -> biomes.write(value));
         return root;
     }
 
+    private static void copy(DataInputStream in, OutputStream out, int length) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (length > 0) {
+            int len = Math.min(length, buffer.length);
+            in.readFully(buffer, 0, len);
+            out.write(buffer, 0, len);
+            length -= len;
+        }
+    }
+
+    /**
+     * Whether data can be pasted as soon as it is read, rather than buffered
+     * - The palette and dimensions must be known
+     * - The metadata must have been read, as it has the offset of the paste
+     */
+    private boolean canPaste(char[] palette) {
+        return target != null && palette != null && hasMetadata && width > 0 && height > 0 && length > 0;
+    }
+
     private BlockState getBlockState(int id) {
         return BlockTypesCache.states[palette[id]];
     }
@@ -277,62 +347,19 @@ public Clipboard read(UUID uuid, Function<BlockVector3, Clipboard> createOutput)
         // tiles
         if (tiles != null && !tiles.isEmpty()) {
             for (Map<String, Object> tileRaw : tiles) {
-                CompoundTag tile = FaweCache.IMP.asTag(tileRaw);
-
-                int[] pos = tile.getIntArray("Pos");
-                int x,y,z;
-                if (pos.length != 3) {
-                    if (!tile.containsKey("x") || !tile.containsKey("y") || !tile.containsKey("z")) {
-                        return null;
-                    }
-                    x = tile.getInt("x");
-                    y = tile.getInt("y");
-                    z = tile.getInt("z");
-                } else {
-                    x = pos[0];
-                    y = pos[1];
-                    z = pos[2];
-                }
-                Map<String, Tag> values = tile.getValue();
-                Tag id = values.get("Id");
-                if (id != null) {
-                    values.put("x", new IntTag(x));
-                    values.put("y", new IntTag(y));
-                    values.put("z", new IntTag(z));
-                    values.put("id", id);
+                CompoundTag tile = readTile(tileRaw, 0, 0, 0);
+                if (tile == null) {
+                    return null;
                 }
-                values.remove("Id");
-                values.remove("Pos");
-
-                tile = fixBlockEntity(tile);
-                clipboard.setTile(x, y, z, tile);
+                clipboard.setTile(tile.getInt("x"), tile.getInt("y"), tile.getInt("z"), tile);
             }
         }
 
         // entities
         if (entities != null && !entities.isEmpty()) {
             for (Map<String, Object> entRaw : entities) {
-                CompoundTag ent = FaweCache.IMP.asTag(entRaw);
-
-                Map<String, Tag> value = ent.getValue();
-                StringTag id = (StringTag) value.get("Id");
-                if (id == null) {
-                    id = (StringTag) value.get("id");
-                    if (id == null) {
-                        return null;
-                    }
-                }
-                value.put("id", id);
-                value.remove("Id");
-
-                EntityType type = EntityTypes.parse(id.getValue());
-                if (type != null) {
-                    ent = fixEntity(ent);
-                    BaseEntity state = new BaseEntity(type, ent);
-                    Location loc = ent.getEntityLocation(clipboard);
-                    clipboard.createEntity(loc, state);
-                } else {
-                    log.debug("Invalid entity: " + id);
+                if (!createEntity(clipboard, entRaw, 0, 0, 0)) {
+                    return null;
                 }
             }
         }
@@ -345,6 +372,224 @@ public Clipboard read(UUID uuid, Function<BlockVector3, Clipboard> createOutput)
         return clipboard;
     }
 
+    /**
+     * Paste the schematic while it is being read, without creating a clipboard
+     * - Blocks and biomes are decoded straight from the stream into the extent, when their
+     * palette and the metadata come first (as written by {@link FastSchematicWriter})
+     * - Otherwise they are buffered and pasted once the schematic has been read, as with {@link #read()}
+     * - Tiles and entities are pasted as they are read, once the blocks have been
+     * - The result is the same as {@link Clipboard#paste(Extent, BlockVector3, boolean, boolean, boolean)}
+     * with the clipboard returned by {@link #read()}
+     *
+     * @param extent the extent to paste to, e.g. an IQueueExtent or EditSession
+     * @param to the position to paste the origin of the schematic at
+     * @param pasteAir whether air should be pasted
+     * @param pasteEntities whether entities should be pasted
+     * @param pasteBiomes whether biomes should be pasted
+     * @throws IOException if the schematic could not be read
+     */
+    public void paste(Extent extent, BlockVector3 to, boolean pasteAir, boolean pasteEntities, boolean pasteBiomes) throws IOException {
+        checkNotNull(extent);
+        checkNotNull(to);
+        this.target = extent;
+        this.to = to;
+        this.pasteAir = pasteAir;
+        this.pasteEntities = pasteEntities;
+        this.pasteBiomes = pasteBiomes;
+
+        StreamDelegate root = createDelegate();
+        inputStream.readNamedTagLazy(root);
+
+        if (version != 1 && version != 2) {
+            throw new IOException("This schematic version is currently not supported");
+        }
+
+        if (blocks != null) blocks.close();
+        if (biomes != null) biomes.close();
+        blocks = null;
+        biomes = null;
+
+        if (blocksOut != null && blocksOut.getSize() != 0) {
+            try (FaweInputStream fis = new FaweInputStream(new LZ4BlockInputStream(new FastByteArraysInputStream(blocksOut.toByteArrays())))) {
+                pasteBlocks(fis, -1);
+            }
+            blocksOut = null;
+        }
+        if (biomesOut != null && biomesOut.getSize() != 0) {
+            try (FaweInputStream fis = new FaweInputStream(new LZ4BlockInputStream(new FastByteArraysInputStream(biomesOut.toByteArrays())))) {
+                pasteBiomes(fis);
+            }
+            biomesOut = null;
+        }
+        if (tiles != null) {
+            for (Map<String, Object> tileRaw : tiles) {
+                pasteTile(tileRaw);
+            }
+            tiles = null;
+        }
+        if (entities != null) {
+            if (pasteEntities) {
+                for (Map<String, Object> entRaw : entities) {
+                    pasteEntity(entRaw);
+                }
+            }
+            entities = null;
+        }
+    }
+
+    /**
+     * @param in the block data
+     * @param dataLength the length of the block data in bytes, or -1 if it isn't known
+     */
+    private void pasteBlocks(InputStream in, int dataLength) throws IOException {
+        int ox = to.getBlockX() + offsetX;
+        int oy = to.getBlockY() + offsetY;
+        int oz = to.getBlockZ() + offsetZ;
+        try {
+            readBlockData(in, dataLength, width, height, length, (x, y, z, id) -> {
+                BlockState state = getBlockState(id);
+                if (pasteAir || !state.isAir()) {
+                    target.setBlock(ox + x, oy + y, oz + z, state);
+                }
+            });
+        } catch (WorldEditException e) {
+            throw new IOException(e);
+        }
+        blocksPasted = true;
+    }
+
+    /**
+     * Decode the palette ids of Sponge block data, which is stored as varints in y/z/x order
+     * - When the length of the data is known, it must match the bytes read, as the data is read
+     * straight from the NBT stream and anything else would leave the stream at the wrong tag
+     *
+     * @param in the block data
+     * @param dataLength the length of the block data in bytes, or -1 if it isn't known
+     * @param width the width of the schematic
+     * @param height the height of the schematic
+     * @param length the length of the schematic
+     * @param consumer called with the position and palette id of each block
+     * @throws IOException if the data ends early, or doesn't match the length
+     */
+    static void readBlockData(InputStream in, int dataLength, int width, int height, int length, BlockDataConsumer consumer) throws IOException, WorldEditException {
+        CountingInputStream counter = new CountingInputStream(in);
+        for (int y = 0; y < height; y++) {
+            for (int z = 0; z < length; z++) {
+                for (int x = 0; x < width; x++) {
+                    int id = IOUtil.readVarInt(counter);
+                    if (id < 0) {
+                        throw new EOFException("The block data ended after " + counter.getCount() + " bytes");
+                    }
+                    consumer.accept(x, y, z, id);
+                }
+            }
+        }
+        if (dataLength != -1 && counter.getCount() != dataLength) {
+            throw new IOException("The block data is " + dataLength + " bytes, but " + counter.getCount() + " bytes were read for " + width * height * length + " blocks");
+        }
+    }
+
+    @FunctionalInterface
+    interface BlockDataConsumer {
+        void accept(int x, int y, int z, int id) throws WorldEditException;
+    }
+
+    private void pasteBiomes(FaweInputStream fis) throws IOException {
+        int ox = to.getBlockX() + offsetX;
+        int oz = to.getBlockZ() + offsetZ;
+        for (int z = 0; z < length; z++) {
+            for (int x = 0; x < width; x++) {
+                target.setBiome(ox + x, 0, oz + z, getBiomeType(fis));
+            }
+        }
+    }
+
+    private void pasteTile(Map<String, Object> tileRaw) throws IOException {
+        CompoundTag tile = readTile(tileRaw, to.getBlockX() + offsetX, to.getBlockY() + offsetY, to.getBlockZ() + offsetZ);
+        if (tile == null) {
+            return;
+        }
+        try {
+            target.setTile(tile.getInt("x"), tile.getInt("y"), tile.getInt("z"), tile);
+        } catch (WorldEditException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void pasteEntity(Map<String, Object> entRaw) {
+        createEntity(target, entRaw, to.getBlockX() + offsetX, to.getBlockY() + offsetY, to.getBlockZ() + offsetZ);
+    }
+
+    /**
+     * Convert a tile entity to the format used by Minecraft, with its position offset
+     *
+     * @return the tile, or null if it has no position
+     */
+    private CompoundTag readTile(Map<String, Object> tileRaw, int ox, int oy, int oz) {
+        CompoundTag tile = FaweCache.IMP.asTag(tileRaw);
+
+        int[] pos = tile.getIntArray("Pos");
+        int x,y,z;
+        if (pos.length != 3) {
+            if (!tile.containsKey("x") || !tile.containsKey("y") || !tile.containsKey("z")) {
+                return null;
+            }
+            x = tile.getInt("x");
+            y = tile.getInt("y");
+            z = tile.getInt("z");
+        } else {
+            x = pos[0];
+            y = pos[1];
+            z = pos[2];
+        }
+        Map<String, Tag> values = tile.getValue();
+        Tag id = values.get("Id");
+        if (id != null) {
+            values.put("id", id);
+        }
+        values.put("x", new IntTag(ox + x));
+        values.put("y", new IntTag(oy + y));
+        values.put("z", new IntTag(oz + z));
+        values.remove("Id");
+        values.remove("Pos");
+
+        return fixBlockEntity(tile);
+    }
+
+    /**
+     * Create an entity in an extent, with its position offset
+     *
+     * @return false if the entity has no id
+     */
+    private boolean createEntity(Extent extent, Map<String, Object> entRaw, int ox, int oy, int oz) {
+        CompoundTag ent = FaweCache.IMP.asTag(entRaw);
+
+        Map<String, Tag> value = ent.getValue();
+        StringTag id = (StringTag) value.get("Id");
+        if (id == null) {
+            id = (StringTag) value.get("id");
+            if (id == null) {
+                return false;
+            }
+        }
+        value.put("id", id);
+        value.remove("Id");
+
+        EntityType type = EntityTypes.parse(id.getValue());
+        if (type != null) {
+            ent = fixEntity(ent);
+            BaseEntity state = new BaseEntity(type, ent);
+            Location loc = ent.getEntityLocation(extent);
+            if (ox != 0 || oy != 0 || oz != 0) {
+                loc = new Location(extent, loc.toVector().add(ox, oy, oz), loc.getYaw(), loc.getPitch());
+            }
+            extent.createEntity(loc, state);
+        } else {
+            log.debug("Invalid entity: " + id);
+        }
+        return true;
+    }
+
     @Override
     public void close() throws IOException {
         inputStream.close();
@@ -19,8 +19,14 @@
 
 package com.sk89q.worldedit.extent.clipboard.io;
 
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
 import com.boydti.fawe.jnbt.streamer.IntValueReader;
 import com.boydti.fawe.object.FaweOutputStream;
+import com.boydti.fawe.object.clipboard.CPUOptimizedClipboard;
+import com.boydti.fawe.object.clipboard.DiskOptimizedClipboard;
+import com.boydti.fawe.object.clipboard.LinearClipboard;
+import com.boydti.fawe.object.clipboard.TiledDiskClipboard;
 import com.boydti.fawe.util.IOUtil;
 import com.google.common.collect.Maps;
 import com.sk89q.jnbt.CompoundTag;
@@ -44,6 +50,7 @@
 import com.sk89q.worldedit.world.block.BaseBlock;
 import com.sk89q.worldedit.world.block.BlockState;
 import com.sk89q.worldedit.world.block.BlockTypesCache;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.jpountz.lz4.LZ4BlockInputStream;
 import net.jpountz.lz4.LZ4BlockOutputStream;
 
@@ -52,13 +59,17 @@
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -134,16 +145,12 @@ private void write2(Clipboard clipboard) throws IOException {
                 out1.writeNamedTag("WEOffsetZ", offset.getBlockZ());
             });
 
-            ByteArrayOutputStream blocksCompressed = new ByteArrayOutputStream();
-            FaweOutputStream blocksOut = new FaweOutputStream(new DataOutputStream(new LZ4BlockOutputStream(blocksCompressed)));
-
             ByteArrayOutputStream tilesCompressed = new ByteArrayOutputStream();
             NBTOutputStream tilesOut = new NBTOutputStream(new LZ4BlockOutputStream(tilesCompressed));
 
             List<Integer> paletteList = new ArrayList<>();
             char[] palette = new char[BlockTypesCache.states.length];
             Arrays.fill(palette, Character.MAX_VALUE);
-            int paletteMax = 0;
             int numTiles = 0;
             Clipboard finalClipboard;
             if (clipboard instanceof BlockArrayClipboard) {
@@ -151,47 +158,40 @@ private void write2(Clipboard clipboard) throws IOException {
             } else {
                 finalClipboard = clipboard;
             }
-            Iterator<BlockVector3> iterator = finalClipboard.iterator(Order.YZX);
-            while (iterator.hasNext()) {
-                BlockVector3 pos = iterator.next();
-                BaseBlock block = pos.getFullBlock(finalClipboard);
-                CompoundTag nbt = block.getNbtData();
-                if (nbt != null) {
-                    Map<String, Tag> values = nbt.getValue();
-
-                    values.remove("id"); // Remove 'id' if it exists. We want 'Id'
-
-                    // Positions are kept in NBT, we don't want that.
-                    values.remove("x");
-                    values.remove("y");
-                    values.remove("z");
-                    if (!values.containsKey("Id")) {
-                        values.put("Id", new StringTag(block.getNbtId()));
+            List<BlockSlab> slabs;
+            if (finalClipboard instanceof CPUOptimizedClipboard || finalClipboard instanceof DiskOptimizedClipboard || finalClipboard instanceof TiledDiskClipboard) {
+                // Clipboards which can be read from any thread
+                slabs = writeBlocksParallel(finalClipboard, width, height, length, palette, paletteList);
+                for (BlockSlab slab : slabs) {
+                    for (int i = 0; i < slab.tiles.size(); i++) {
+                        int index = slab.tiles.getInt(i);
+                        int y = index / (width * length);
+                        int z = (index - y * width * length) / width;
+                        int x = index - y * width * length - z * width;
+                        if (writeTile(tilesOut, finalClipboard.getFullBlock(x, y, z), x, y, z)) {
+                            numTiles++;
+                        }
                     }
-                    values.put("Pos", new IntArrayTag(new int[]{
-                            pos.getX(),
-                            pos.getY(),
-                            pos.getZ()
-                    }));
-                    numTiles++;
-                    tilesOut.writeTagPayload(block.getNbtData());
-                }
-
-                int ordinal = block.getOrdinal();
-                if (ordinal == 0) {
-                    ordinal = 1;
                 }
-                char value = palette[ordinal];
-                if (value == Character.MAX_VALUE) {
-                    int size = paletteMax++;
-                    palette[ordinal] = value = (char) size;
-                    paletteList.add(ordinal);
+            } else {
+                BlockSlab slab = new BlockSlab();
+                try (FaweOutputStream blocksOut = slab.open()) {
+                    Iterator<BlockVector3> iterator = finalClipboard.iterator(Order.YZX);
+                    while (iterator.hasNext()) {
+                        BlockVector3 pos = iterator.next();
+                        BaseBlock block = pos.getFullBlock(finalClipboard);
+                        if (writeTile(tilesOut, block, pos.getX(), pos.getY(), pos.getZ())) {
+                            numTiles++;
+                        }
+                        blocksOut.writeVarInt(getPaletteIndex(block.getOrdinal(), palette, paletteList));
+                    }
+                    slab.size = blocksOut.size();
                 }
-                blocksOut.writeVarInt(value);
+                slabs = Collections.singletonList(slab);
             }
             // close
             tilesOut.close();
-            blocksOut.close();
+            int paletteMax = paletteList.size();
 
             out.writeNamedTag("PaletteMax", paletteMax);
 
@@ -204,9 +204,18 @@ private void write2(Clipboard clipboard) throws IOException {
             });
 
             out.writeNamedTagName("BlockData", NBTConstants.TYPE_BYTE_ARRAY);
-            rawStream.writeInt(blocksOut.size());
-            try (LZ4BlockInputStream in = new LZ4BlockInputStream(new ByteArrayInputStream(blocksCompressed.toByteArray()))) {
-                IOUtil.copy(in, rawStream);
+            long blockDataSize = 0;
+            for (BlockSlab slab : slabs) {
+                blockDataSize += slab.size;
+            }
+            if (blockDataSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Block data too large for a .schematic");
+            }
+            rawStream.writeInt((int) blockDataSize);
+            for (BlockSlab slab : slabs) {
+                try (LZ4BlockInputStream in = new LZ4BlockInputStream(new ByteArrayInputStream(slab.compressed.toByteArray()))) {
+                    IOUtil.copy(in, rawStream);
+                }
             }
 
             if (numTiles != 0) {
@@ -255,6 +264,154 @@ private void write2(Clipboard clipboard) throws IOException {
         });
     }
 
+    /**
+     * Write the tile of a block, if it has one
+     *
+     * @return true if a tile was written
+     */
+    private static boolean writeTile(NBTOutputStream tilesOut, BaseBlock block, int x, int y, int z) throws IOException {
+        CompoundTag nbt = block.getNbtData();
+        if (nbt == null) {
+            return false;
+        }
+        Map<String, Tag> values = nbt.getValue();
+
+        values.remove("id"); // Remove 'id' if it exists. We want 'Id'
+
+        // Positions are kept in NBT, we don't want that.
+        values.remove("x");
+        values.remove("y");
+        values.remove("z");
+        if (!values.containsKey("Id")) {
+            values.put("Id", new StringTag(block.getNbtId()));
+        }
+        values.put("Pos", new IntArrayTag(new int[]{x, y, z}));
+        tilesOut.writeTagPayload(nbt);
+        return true;
+    }
+
+    /**
+     * Get the palette index of a block, adding it to the palette if it is new
+     */
+    private static char getPaletteIndex(int ordinal, char[] palette, List<Integer> paletteList) {
+        if (ordinal == 0) {
+            ordinal = 1;
+        }
+        char value = palette[ordinal];
+        if (value == Character.MAX_VALUE) {
+            palette[ordinal] = value = (char) paletteList.size();
+            paletteList.add(ordinal);
+        }
+        return value;
+    }
+
+    /**
+     * Encode the block data of a clipboard in parallel
+     * - The clipboard is split into slabs of whole layers, so the slabs can be joined in YZX order
+     * - Each slab first lists its blocks in the order they appear, and the lists are merged in slab
+     * order, so the palette is the same as if the blocks were written on one thread
+     * - Each slab is then encoded and compressed by a worker, and records the blocks which may have a tile
+     * - Tiles are written afterwards on the calling thread, as reading them is not thread safe
+     * - Slabs of a {@link TiledDiskClipboard} are whole rows of tiles, so each tile is read by one worker
+     */
+    private static List<BlockSlab> writeBlocksParallel(Clipboard clipboard, int width, int height, int length, char[] palette, List<Integer> paletteList) throws IOException {
+        int area = width * length;
+        int count = Math.min(height, Settings.IMP.QUEUE.PARALLEL_THREADS * 4);
+        int layers = (height + count - 1) / count;
+        if (clipboard instanceof TiledDiskClipboard) {
+            layers = (layers + 15) & ~15;
+        }
+        List<Future<IntArrayList>> scans = new ArrayList<>();
+        for (int minY = 0; minY < height; minY += layers) {
+            int start = minY * area;
+            int end = Math.min(height, minY + layers) * area;
+            scans.add(Fawe.get().getQueueHandler().async(() -> {
+                IntArrayList ordinals = new IntArrayList();
+                boolean[] found = new boolean[palette.length];
+                for (int index = start; index < end; index++) {
+                    int ordinal = getBlock(clipboard, index, width, area).getOrdinal();
+                    if (ordinal == 0) {
+                        ordinal = 1;
+                    }
+                    if (!found[ordinal]) {
+                        found[ordinal] = true;
+                        ordinals.add(ordinal);
+                    }
+                }
+                return ordinals;
+            }));
+        }
+        for (IntArrayList ordinals : getAll(scans)) {
+            for (int i = 0; i < ordinals.size(); i++) {
+                getPaletteIndex(ordinals.getInt(i), palette, paletteList);
+            }
+        }
+        // The palette is complete, so the workers only read it
+        List<Future<BlockSlab>> futures = new ArrayList<>();
+        for (int minY = 0; minY < height; minY += layers) {
+            int start = minY * area;
+            int end = Math.min(height, minY + layers) * area;
+            futures.add(Fawe.get().getQueueHandler().async(() -> {
+                BlockSlab slab = new BlockSlab();
+                try (FaweOutputStream blocksOut = slab.open()) {
+                    for (int index = start; index < end; index++) {
+                        BlockState state = getBlock(clipboard, index, width, area);
+                        if (state.getMaterial().hasContainer()) {
+                            slab.tiles.add(index);
+                        }
+                        int ordinal = state.getOrdinal();
+                        blocksOut.writeVarInt(palette[ordinal == 0 ? 1 : ordinal]);
+                    }
+                    slab.size = blocksOut.size();
+                }
+                return slab;
+            }));
+        }
+        return getAll(futures);
+    }
+
+    private static BlockState getBlock(Clipboard clipboard, int index, int width, int area) {
+        if (clipboard instanceof LinearClipboard) {
+            return ((LinearClipboard) clipboard).getBlock(index);
+        }
+        int y = index / area;
+        int z = (index - y * area) / width;
+        int x = index - y * area - z * width;
+        return clipboard.getBlock(x, y, z);
+    }
+
+    private static <T> List<T> getAll(List<Future<T>> futures) throws IOException {
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The varint block data of a range of layers, compressed with LZ4 until it is written
+     */
+    private static final class BlockSlab {
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        private final IntArrayList tiles = new IntArrayList();
+        private int size;
+
+        private FaweOutputStream open() {
+            return new FaweOutputStream(new DataOutputStream(new LZ4BlockOutputStream(compressed)));
+        }
+    }
+
     private void writeBiomes(Clipboard clipboard, NBTOutputStream out) throws IOException {
         ByteArrayOutputStream biomesCompressed = new ByteArrayOutputStream();
         DataOutputStream biomesOut = new DataOutputStream(new LZ4BlockOutputStream(biomesCompressed));
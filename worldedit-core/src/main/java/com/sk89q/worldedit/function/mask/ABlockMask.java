@@ -1,10 +1,14 @@
 package com.sk89q.worldedit.function.mask;
 
+import com.boydti.fawe.beta.Filter;
+import com.boydti.fawe.beta.implementation.filter.BlockMaskFilter;
+import com.boydti.fawe.beta.implementation.filter.MaskFilter;
 import com.boydti.fawe.util.StringMan;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.world.block.BlockState;
 import com.sk89q.worldedit.world.block.BlockType;
+import com.sk89q.worldedit.world.block.BlockTypes;
 import com.sk89q.worldedit.world.block.BlockTypesCache;
 
 import java.util.ArrayList;
@@ -21,6 +25,67 @@ public ABlockMask(Extent extent) {
 
     public abstract boolean test(BlockState state);
 
+    /**
+     * Create a lookup table of this mask, indexed by block state ordinal
+     * - Ordinal 0 (an unset block) is tested as air
+     *
+     * @return if each ordinal matches
+     */
+    public boolean[] toOrdinalTable() {
+        BlockState[] states = BlockTypesCache.states;
+        boolean[] table = new boolean[states.length];
+        for (int i = 1; i < states.length; i++) {
+            BlockState state = states[i];
+            if (state != null) {
+                table[i] = test(state);
+            }
+        }
+        table[0] = test(BlockTypes.AIR.getDefaultState());
+        return table;
+    }
+
+    /**
+     * Test every block of a chunk section
+     *
+     * @param table the lookup table from {@link #toOrdinalTable()}
+     * @param blocks the 4096 block ordinals of the section
+     * @param result 64 longs, where bit {@code index} is set if the block at {@code index} matches
+     * @return if any block matches
+     */
+    public static boolean test(boolean[] table, char[] blocks, long[] result) {
+        long any = 0;
+        for (int i = 0, index = 0; i < 64; i++) {
+            long bits = 0;
+            for (int bit = 0; bit < 64; bit++, index++) {
+                if (table[blocks[index]]) {
+                    bits |= 1L << bit;
+                }
+            }
+            result[i] = bits;
+            any |= bits;
+        }
+        return any != 0;
+    }
+
+    /**
+     * If the mask only depends on the state of the block tested, so it can be tested a section at a
+     * time with {@link #toOrdinalTable()}
+     * - Masks which also test neighbouring blocks must return false
+     *
+     * @return true if only the block state is tested
+     */
+    public boolean isStateOnly() {
+        return true;
+    }
+
+    @Override
+    public <T extends Filter> MaskFilter<T> toFilter(T filter) {
+        if (!isStateOnly()) {
+            return new MaskFilter<>(filter, this);
+        }
+        return new BlockMaskFilter<>(filter, this);
+    }
+
     @Override public String toString() {
         List<String> strings = new ArrayList<>();
         for (BlockType type : BlockTypesCache.values) {
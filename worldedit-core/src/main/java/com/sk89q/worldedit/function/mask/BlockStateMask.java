@@ -77,4 +77,9 @@ public boolean replacesAir() {
     public Mask2D toMask2D() {
         return null;
     }
+
+    @Override
+    public Mask copy() {
+        return new BlockStateMask(getExtent(), states, strict);
+    }
 }
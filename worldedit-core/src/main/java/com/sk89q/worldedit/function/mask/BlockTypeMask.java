@@ -21,6 +21,7 @@
 
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.block.BlockState;
 import com.sk89q.worldedit.world.block.BlockType;
 import com.sk89q.worldedit.world.block.BlockTypes;
 import org.jetbrains.annotations.NotNull;
@@ -41,7 +42,7 @@
  * @deprecated use BlockMaskBuilder
  */
 @Deprecated
-public class BlockTypeMask extends AbstractExtentMask {
+public class BlockTypeMask extends ABlockMask {
 
     private final boolean[] types;
     private boolean hasAir;
@@ -123,6 +124,11 @@ public boolean test(BlockType block) {
         return types[block.getInternalId()];
     }
 
+    @Override
+    public boolean test(BlockState state) {
+        return types[state.getBlockType().getInternalId()];
+    }
+
     @Nullable
     @Override
     public Mask2D toMask2D() {
@@ -8,4 +8,9 @@ public DelegateExtentMask(Mask parent) {
         super(parent);
     }
 
+    @Override
+    public Mask copy() {
+        Mask copy = getMask().copy();
+        return copy == getMask() ? this : new DelegateExtentMask(copy);
+    }
 }
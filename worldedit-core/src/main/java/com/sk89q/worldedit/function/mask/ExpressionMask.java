@@ -89,4 +89,8 @@ public Mask2D toMask2D() {
         return new ExpressionMask2D(expression, timeout);
     }
 
+    @Override
+    public Mask copy() {
+        return new ExpressionMask(expression.copy(), timeout);
+    }
 }
@@ -72,4 +72,8 @@ public boolean test(BlockVector2 vector) {
         }
     }
 
+    @Override
+    public Mask2D copy2D() {
+        return new ExpressionMask2D(expression.copy(), timeout);
+    }
 }
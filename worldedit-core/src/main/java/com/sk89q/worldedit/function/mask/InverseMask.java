@@ -31,4 +31,10 @@ public Mask2D toMask2D() {
     public Mask inverse() {
         return mask;
     }
+
+    @Override
+    public Mask copy() {
+        Mask copy = mask.copy();
+        return copy == mask ? this : new InverseMask(copy);
+    }
 }
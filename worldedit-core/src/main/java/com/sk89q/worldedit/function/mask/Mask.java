@@ -100,4 +100,14 @@ public void applyBlock(FilterBlock block) {
     default boolean replacesAir() {
         return false;
     }
+
+    /**
+     * Copy this for use by another thread - Masks with mutable state (caches, mutable vectors, random
+     * sources) return a new instance, which also copies the masks it wraps
+     *
+     * @return this if the mask is thread safe, otherwise a copy
+     */
+    default Mask copy() {
+        return this;
+    }
 }
@@ -34,4 +34,14 @@ public interface Mask2D {
      */
     boolean test(BlockVector2 vector);
 
+    /**
+     * Copy this for use by another thread
+     *
+     * @return this if the mask is thread safe, otherwise a copy
+     * @see Mask#copy()
+     */
+    default Mask2D copy2D() {
+        return this;
+    }
+
 }
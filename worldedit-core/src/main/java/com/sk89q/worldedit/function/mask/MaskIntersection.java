@@ -250,4 +250,26 @@ public Mask2D toMask2D() {
         return new MaskIntersection2D(mask2dList);
     }
 
+    /**
+     * Copy each of the masks for use by another thread
+     *
+     * @return the copied masks, or null if every mask is thread safe
+     */
+    @Nullable
+    protected List<Mask> copyMasks() {
+        List<Mask> copies = new ArrayList<>(masks.size());
+        boolean changed = false;
+        for (Mask mask : masks) {
+            Mask copy = mask.copy();
+            changed |= copy != mask;
+            copies.add(copy);
+        }
+        return changed ? copies : null;
+    }
+
+    @Override
+    public Mask copy() {
+        List<Mask> copies = copyMasks();
+        return copies == null ? this : new MaskIntersection(copies);
+    }
 }
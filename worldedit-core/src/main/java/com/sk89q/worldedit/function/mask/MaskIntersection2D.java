@@ -21,10 +21,13 @@
 
 import com.sk89q.worldedit.math.BlockVector2;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -97,4 +100,26 @@ public boolean test(BlockVector2 vector) {
         return true;
     }
 
+    /**
+     * Copy each of the masks for use by another thread
+     *
+     * @return the copied masks, or null if every mask is thread safe
+     */
+    @Nullable
+    protected List<Mask2D> copyMasks() {
+        List<Mask2D> copies = new ArrayList<>(masks.size());
+        boolean changed = false;
+        for (Mask2D mask : masks) {
+            Mask2D copy = mask.copy2D();
+            changed |= copy != mask;
+            copies.add(copy);
+        }
+        return changed ? copies : null;
+    }
+
+    @Override
+    public Mask2D copy2D() {
+        List<Mask2D> copies = copyMasks();
+        return copies == null ? this : new MaskIntersection2D(copies);
+    }
 }
@@ -111,4 +111,10 @@ public Mask2D toMask2D() {
         }
         return new MaskUnion2D(mask2dList);
     }
+
+    @Override
+    public Mask copy() {
+        List<Mask> copies = copyMasks();
+        return copies == null ? this : new MaskUnion(copies);
+    }
 }
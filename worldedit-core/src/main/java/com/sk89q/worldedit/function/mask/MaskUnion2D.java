@@ -22,6 +22,7 @@
 import com.sk89q.worldedit.math.BlockVector2;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Tests true if any contained mask is true, even if it just one.
@@ -59,4 +60,9 @@ public boolean test(BlockVector2 vector) {
         return false;
     }
 
+    @Override
+    public Mask2D copy2D() {
+        List<Mask2D> copies = copyMasks();
+        return copies == null ? this : new MaskUnion2D(copies);
+    }
 }
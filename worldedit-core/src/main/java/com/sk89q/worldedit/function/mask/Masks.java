@@ -92,6 +92,12 @@ public static Mask2D negate(final Mask2D mask) {
             public boolean test(BlockVector2 vector) {
                 return !mask.test(vector);
             }
+
+            @Override
+            public Mask2D copy2D() {
+                Mask2D copy = mask.copy2D();
+                return copy == mask ? this : negate(copy);
+            }
         };
     }
 
@@ -113,6 +119,12 @@ public boolean test(BlockVector3 vector) {
             public Mask2D toMask2D() {
                 return mask;
             }
+
+            @Override
+            public Mask copy() {
+                Mask2D copy = mask.copy2D();
+                return copy == mask ? this : asMask(copy);
+            }
         };
     }
 
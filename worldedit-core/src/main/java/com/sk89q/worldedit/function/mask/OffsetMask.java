@@ -105,4 +105,9 @@ public Mask2D toMask2D() {
         }
     }
 
+    @Override
+    public Mask copy() {
+        Mask copy = mask.copy();
+        return copy == mask ? this : new OffsetMask(copy, offset);
+    }
 }
@@ -92,4 +92,8 @@ public boolean test(BlockVector2 vector) {
         return getMask().test(mutable);
     }
 
+    @Override
+    public Mask2D copy2D() {
+        return new OffsetMask2D(mask.copy2D(), offset);
+    }
 }
@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.function.operation;
 
 import com.boydti.fawe.object.changeset.AbstractChangeSet;
+import com.boydti.fawe.object.changeset.ParallelChangeSetExecutor;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.extent.inventory.BlockBag;
 import com.sk89q.worldedit.history.UndoContext;
@@ -93,7 +94,21 @@ public Operation resume(RunContext run) throws WorldEditException {
     public void cancel() {
     }
 
-    public static ChangeSetExecutor create(ChangeSet changeSet, UndoContext context, Type type, BlockBag blockBag, int inventory) {
+    /**
+     * Create a new operation, which is performed in parallel if the change set is indexed by chunk.
+     *
+     * @param changeSet the change set
+     * @param context an undo context
+     * @param type type of change
+     * @param blockBag the block bag, or null
+     * @param inventory the inventory mode
+     * @return an operation
+     */
+    public static Operation create(ChangeSet changeSet, UndoContext context, Type type, BlockBag blockBag, int inventory) {
+        ParallelChangeSetExecutor parallel = ParallelChangeSetExecutor.create(changeSet, context, type, blockBag, inventory);
+        if (parallel != null) {
+            return parallel;
+        }
         return new ChangeSetExecutor(changeSet, type, context, blockBag, inventory);
     }
 
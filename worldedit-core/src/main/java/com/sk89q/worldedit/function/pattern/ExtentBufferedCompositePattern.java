@@ -63,4 +63,15 @@ public BaseBlock apply(BlockVector3 position) {
         }
         return lastBlock;
     }
+
+    @Override
+    public Pattern fork() {
+        Pattern[] forks = new Pattern[patterns.length];
+        boolean changed = false;
+        for (int i = 0; i < forks.length; i++) {
+            forks[i] = patterns[i].fork();
+            changed |= forks[i] != patterns[i];
+        }
+        return changed ? new ExtentBufferedCompositePattern(getExtent(), forks) : this;
+    }
 }
@@ -48,4 +48,15 @@ default boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws
     default void applyBlock(final FilterBlock block) {
         apply(block, block, block);
     }
+
+    /**
+     * Fork this for use by another thread - Patterns with mutable state (caches, mutable vectors, random
+     * sources) return a new instance, which also forks the patterns and masks it wraps
+     *
+     * @return this if the pattern is thread safe, otherwise a copy
+     */
+    @Override
+    default Pattern fork() {
+        return this;
+    }
 }
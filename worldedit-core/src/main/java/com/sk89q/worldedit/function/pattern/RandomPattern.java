@@ -101,6 +101,16 @@ public boolean apply(Extent extent, BlockVector3 get, BlockVector3 set) throws W
         return collection.next(get.getBlockX(), get.getBlockY(), get.getBlockZ()).apply(extent, get, set);
     }
 
-
-
+    @Override
+    public Pattern fork() {
+        SimpleRandom forkRandom = random instanceof TrueRandom ? new TrueRandom() : random;
+        boolean changed = forkRandom != random;
+        RandomPattern fork = new RandomPattern(forkRandom);
+        for (Map.Entry<Pattern, Double> entry : weights.entrySet()) {
+            Pattern pattern = entry.getKey().fork();
+            changed |= pattern != entry.getKey();
+            fork.add(pattern, entry.getValue());
+        }
+        return changed ? fork : this;
+    }
 }
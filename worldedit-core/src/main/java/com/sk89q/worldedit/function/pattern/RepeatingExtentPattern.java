@@ -96,4 +96,8 @@ public BaseBlock apply(BlockVector3 position) {
         return getExtent().getFullBlock(mutable.setComponents(x, y, z));
     }
 
+    @Override
+    public Pattern fork() {
+        return new RepeatingExtentPattern(getExtent(), origin, offset);
+    }
 }
@@ -51,4 +51,9 @@ public BaseBlock apply(BlockVector3 position) {
         }
         return block.toBaseBlock();
     }
+
+    @Override
+    public Pattern fork() {
+        return new StateApplyingPattern(getExtent(), states);
+    }
 }
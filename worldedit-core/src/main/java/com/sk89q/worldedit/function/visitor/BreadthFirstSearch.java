@@ -20,6 +20,9 @@
 package com.sk89q.worldedit.function.visitor;
 
 import com.boydti.fawe.object.collection.BlockVectorSet;
+import com.boydti.fawe.object.collection.SectionBitSet;
+import com.boydti.fawe.object.visitor.ParallelFloodFill;
+import com.boydti.fawe.util.MathMan;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.sk89q.worldedit.WorldEditException;
@@ -33,12 +36,14 @@
 import com.sk89q.worldedit.util.formatting.text.TextComponent;
 import com.sk89q.worldedit.util.formatting.text.TranslatableComponent;
 import com.sk89q.worldedit.util.formatting.text.format.TextColor;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -83,13 +88,17 @@ public abstract class BreadthFirstSearch implements Operation {
     }
 
     private final RegionFunction function;
-    private BlockVectorSet queue = new BlockVectorSet();
-    private BlockVectorSet visited = new BlockVectorSet();
+    // Positions packed with MathMan#tripleWorldCoord, in visiting order
+    private final LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+    private final SectionBitSet visited = new SectionBitSet();
+    // Set provided through setVisited, which is kept up to date with visited
+    private BlockVectorSet visitedMirror;
     private BlockVector3[] directions;
     private int affected = 0;
     private int currentDepth = 0;
     private final int maxDepth;
     private int maxBranch = Integer.MAX_VALUE;
+    private ParallelFloodFill parallel;
 
     /**
      * Create a new instance.
@@ -173,9 +182,11 @@ public void addDiagonal() {
      * @param position the position
      */
     public void visit(BlockVector3 position) {
-        if (!visited.contains(position)) {
-            queue.add(position);
-            visited.add(position);
+        int x = position.getBlockX();
+        int y = position.getBlockY();
+        int z = position.getBlockZ();
+        if (markVisited(x, y, z)) {
+            queue.enqueue(MathMan.tripleWorldCoord(x, y, z));
         }
     }
 
@@ -186,30 +197,71 @@ public void visit(BlockVector3 position) {
      * @param to the block under question
      */
     private void visit(BlockVector3 from, BlockVector3 to) {
-        if (!visited.contains(to)) {
-            visited.add(to);
-            if (isVisitable(from, to)) {
-                queue.add(to);
+        int x = to.getBlockX();
+        int y = to.getBlockY();
+        int z = to.getBlockZ();
+        if (markVisited(x, y, z) && isVisitable(from, to)) {
+            queue.enqueue(MathMan.tripleWorldCoord(x, y, z));
+        }
+    }
+
+    private boolean markVisited(int x, int y, int z) {
+        if (visited.add(x, y, z)) {
+            if (visitedMirror != null) {
+                visitedMirror.add(x, y, z);
             }
+            return true;
         }
+        return false;
     }
 
+    /**
+     * Use a set as the visited positions. Positions already in the set will not be visited, and
+     * positions visited by the search are added to it.
+     *
+     * @param set the set
+     */
     public void setVisited(BlockVectorSet set) {
-        this.visited = set;
+        this.visited.clear();
+        for (BlockVector3 pos : set) {
+            this.visited.add(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
+        }
+        this.visitedMirror = set;
     }
 
+    /**
+     * Get the visited positions. Unless a set was provided with {@link #setVisited(BlockVectorSet)},
+     * this is a copy.
+     *
+     * @return the visited positions
+     */
     public BlockVectorSet getVisited() {
-        return visited;
+        if (visitedMirror != null) {
+            return visitedMirror;
+        }
+        return visited.toBlockVectorSet(new BlockVectorSet());
     }
 
     public boolean isVisited(BlockVector3 pos) {
-        return visited.contains(pos);
+        return visited.contains(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
     }
 
     public void setMaxBranch(int maxBranch) {
         this.maxBranch = maxBranch;
     }
 
+    /**
+     * Expand each depth concurrently rather than on the calling thread. The parallel search
+     * decides which positions are visitable with its own masks instead of
+     * {@link #isVisitable(BlockVector3, BlockVector3)}, and positions it visits are not recorded
+     * in {@link #getVisited()}.
+     *
+     * @param parallel the parallel search, or null to search on the calling thread
+     */
+    protected void setParallel(@Nullable ParallelFloodFill parallel) {
+        this.parallel = parallel;
+    }
+
     /**
      * Return whether the given 'to' block should be visited, starting from the
      * 'from' block.
@@ -231,25 +283,47 @@ public int getAffected() {
 
     @Override
     public Operation resume(RunContext run) throws WorldEditException {
+        if (parallel != null) {
+            while (!queue.isEmpty()) {
+                long packed = queue.dequeueLong();
+                parallel.visit((int) MathMan.untripleWorldCoordX(packed), (int) MathMan.untripleWorldCoordY(packed), (int) MathMan.untripleWorldCoordZ(packed));
+            }
+            affected += parallel.run(directions, maxDepth, maxBranch);
+            currentDepth = parallel.getDepth();
+            return null;
+        }
+        MutableBlockVector3 from = new MutableBlockVector3();
         MutableBlockVector3 mutable = new MutableBlockVector3();
         BlockVector3[] dirs = directions;
-        BlockVectorSet tempQueue = new BlockVectorSet();
+        int[] dirX = new int[dirs.length];
+        int[] dirY = new int[dirs.length];
+        int[] dirZ = new int[dirs.length];
+        for (int i = 0; i < dirs.length; i++) {
+            dirX[i] = dirs[i].getBlockX();
+            dirY[i] = dirs[i].getBlockY();
+            dirZ[i] = dirs[i].getBlockZ();
+        }
         for (currentDepth = 0; !queue.isEmpty() && currentDepth <= maxDepth; currentDepth++) {
-            for (BlockVector3 from : queue) {
+            // Neighbours are queued behind the current depth, so only take this depth's positions
+            for (int remaining = queue.size(); remaining > 0; remaining--) {
+                long packed = queue.dequeueLong();
+                int fromX = (int) MathMan.untripleWorldCoordX(packed);
+                int fromY = (int) MathMan.untripleWorldCoordY(packed);
+                int fromZ = (int) MathMan.untripleWorldCoordZ(packed);
+                from.setComponents(fromX, fromY, fromZ);
                 if (function.apply(from)) affected++;
                 for (int i = 0, j = 0; i < dirs.length && j < maxBranch; i++) {
-                    BlockVector3 direction = dirs[i];
-                    int y = from.getBlockY() + direction.getY();
+                    int y = fromY + dirY[i];
                     if (y < 0 || y >= 256) {
                         continue;
                     }
-                    int x = from.getBlockX() + direction.getX();
-                    int z = from.getBlockZ() + direction.getZ();
+                    int x = fromX + dirX[i];
+                    int z = fromZ + dirZ[i];
                     if (!visited.contains(x, y, z)) {
                         if (isVisitable(from, mutable.setComponents(x, y, z))) {
                             j++;
-                            visited.add(x, y, z);
-                            tempQueue.add(x, y, z);
+                            markVisited(x, y, z);
+                            queue.enqueue(MathMan.tripleWorldCoord(x, y, z));
                         }
                     }
                 }
@@ -257,10 +331,6 @@ public Operation resume(RunContext run) throws WorldEditException {
             if (currentDepth == maxDepth) {
                 break;
             }
-            BlockVectorSet tmp = queue;
-            queue = tempQueue;
-            tmp.clear();
-            tempQueue = tmp;
         }
 
         return null;
@@ -274,6 +344,9 @@ public int getDepth() {
     public void cancel() {
         queue.clear();
         visited.clear();
+        if (visitedMirror != null) {
+            visitedMirror.clear();
+        }
         affected = 0;
     }
 
@@ -19,10 +19,15 @@
 
 package com.sk89q.worldedit.function.visitor;
 
+import com.boydti.fawe.beta.implementation.queue.ParallelQueueExtent;
+import com.boydti.fawe.object.visitor.ParallelFloodFill;
+import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.RegionFunction;
 import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.math.BlockVector3;
 
+import java.util.function.Function;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -49,6 +54,23 @@ public RecursiveVisitor(Mask mask, RegionFunction function, int maxDepth) {
         this.mask = mask;
     }
 
+    /**
+     * Opt in to expanding each depth concurrently on the workers of a parallel queue. Masks and
+     * functions need not be thread safe, so every worker creates its own through the factories,
+     * which should produce the equivalent of this visitor's mask and function for the given extent.
+     *
+     * @param extent the parallel queue providing worker queues
+     * @param maskFactory creates the mask for a worker
+     * @param functionFactory creates the function for a worker
+     * @throws IllegalStateException if a subclass changes which blocks are visitable
+     */
+    public void setParallel(ParallelQueueExtent extent, Function<Extent, Mask> maskFactory, Function<Extent, RegionFunction> functionFactory) {
+        if (getClass() != RecursiveVisitor.class) {
+            throw new IllegalStateException("Parallel search is not supported by " + getClass().getSimpleName());
+        }
+        setParallel(new ParallelFloodFill(extent, maskFactory, functionFactory));
+    }
+
     @Override
     protected boolean isVisitable(BlockVector3 from, BlockVector3 to) {
         return mask.test(to);
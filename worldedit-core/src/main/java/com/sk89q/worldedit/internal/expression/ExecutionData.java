@@ -19,26 +19,38 @@
 
 package com.sk89q.worldedit.internal.expression;
 
-import java.time.Instant;
-
 import static java.util.Objects.requireNonNull;
 
 public class ExecutionData {
 
+    /**
+     * The number of deadline checks between each read of the clock.
+     */
+    private static final int CLOCK_INTERVAL = 256;
+
     /**
      * Special execution context for evaluating constant values. As long as no variables are used,
      * it can be considered constant.
      */
-    public static final ExecutionData CONSTANT_EVALUATOR = new ExecutionData(null, null, Instant.MAX);
+    public static final ExecutionData CONSTANT_EVALUATOR = new ExecutionData(null, null, Long.MAX_VALUE);
 
     private final SlotTable slots;
     private final Functions functions;
-    private final Instant deadline;
+    private long timeout;
+    private long deadline;
+    private int checks;
 
-    public ExecutionData(SlotTable slots, Functions functions, Instant deadline) {
+    /**
+     * Create execution data for an evaluation with the given time limit.
+     *
+     * @param slots the slots to use
+     * @param functions the functions to use
+     * @param timeout the time limit in milliseconds, which starts from the first deadline check
+     */
+    public ExecutionData(SlotTable slots, Functions functions, long timeout) {
         this.slots = slots;
         this.functions = functions;
-        this.deadline = deadline;
+        this.timeout = timeout;
     }
 
     public SlotTable getSlots() {
@@ -49,12 +61,26 @@ public Functions getFunctions() {
         return requireNonNull(functions, "Cannot use functions in a constant");
     }
 
-    public Instant getDeadline() {
-        return deadline;
+    /**
+     * Reset this for another evaluation, so it can be reused without allocating.
+     *
+     * @param timeout the time limit in milliseconds
+     */
+    public void reset(long timeout) {
+        this.timeout = timeout;
+        this.checks = 0;
     }
 
+    /**
+     * Check whether the time limit has passed. The clock is only read on the first check, and
+     * every {@value #CLOCK_INTERVAL} checks after that, so this is cheap to call in a loop.
+     */
     public void checkDeadline() {
-        if (Instant.now().isAfter(deadline)) {
+        int count = checks++;
+        if (count == 0) {
+            long now = System.currentTimeMillis();
+            deadline = timeout > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeout;
+        } else if (count % CLOCK_INTERVAL == 0 && System.currentTimeMillis() > deadline) {
             throw new ExpressionTimeoutException("Calculations exceeded time limit.");
         }
     }
@@ -30,7 +30,6 @@
 import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 
-import java.time.Instant;
 import java.util.List;
 import java.util.Objects;
 
@@ -59,10 +58,14 @@
  * as you want by calling {@link #evaluate(double...)}. You do not need to
  * pass values for all slots specified while compiling.
  * To query slots after evaluation, you can use the {@linkplain #getSlots() slot table}.
+ *
+ * <p>Each thread evaluates with its own copy of the slot table, so variables set by one thread
+ * are not seen by another. The megabuf and environment are still shared, see {@link #copy()}.</p>
  */
 public class Expression {
 
-    private final SlotTable slots = new SlotTable();
+    private final SlotTable slots;
+    private final ThreadLocal<Context> context = ThreadLocal.withInitial(this::createContext);
     private final List<String> providedSlots;
     private final ExpressionParser.AllStatementsContext root;
     private final Functions functions = Functions.create();
@@ -73,6 +76,7 @@ public static Expression compile(String expression, String... variableNames) thr
     }
 
     private Expression(String expression, String... variableNames) throws ExpressionException {
+        slots = new SlotTable();
         slots.putSlot("e", new LocalSlot.Constant(Math.E));
         slots.putSlot("pi", new LocalSlot.Constant(Math.PI));
         slots.putSlot("true", new LocalSlot.Constant(1));
@@ -103,31 +107,57 @@ private Expression(String expression, String... variableNames) throws Expression
         this.compiledExpression = new ExpressionCompiler().compileExpression(root, functions);
     }
 
+    private Expression(Expression other) {
+        this.slots = other.getSlots().copy();
+        this.providedSlots = other.providedSlots;
+        this.root = other.root;
+        ExpressionEnvironment environment = other.getEnvironment();
+        if (environment != null) {
+            functions.setEnvironment(environment.copy());
+        }
+        this.compiledExpression = new ExpressionCompiler().compileExpression(root, functions);
+    }
+
+    /**
+     * Copy this expression for use by another thread. The copy shares the parsed expression,
+     * but has its own variables, local megabuf and environment.
+     *
+     * @return a new expression
+     */
+    public Expression copy() {
+        return new Expression(this);
+    }
+
     public double evaluate(double... values) throws EvaluationException {
         return evaluate(values, WorldEdit.getInstance().getConfiguration().calculationTimeout);
     }
 
     public double evaluate(double[] values, int timeout) throws EvaluationException {
+        Context context = this.context.get();
+        LocalSlot.Variable[] variables = context.variables;
         for (int i = 0; i < values.length; ++i) {
-            String slotName = providedSlots.get(i);
-            LocalSlot.Variable slot = slots.getVariable(slotName)
-                .orElseThrow(() -> new EvaluationException(-1,
-                    "Tried to assign to non-variable " + slotName + "."));
-
+            LocalSlot.Variable slot = variables[i];
+            if (slot == null) {
+                throw new EvaluationException(-1,
+                    "Tried to assign to non-variable " + providedSlots.get(i) + ".");
+            }
             slot.setValue(values[i]);
         }
 
-        Instant deadline = Instant.now().plusMillis(timeout);
+        ExecutionData data = context.data;
+        data.reset(timeout);
         // evaluation exceptions are thrown out of this method
-        Double result = compiledExpression.execute(new ExecutionData(slots, functions, deadline));
+        Double result = compiledExpression.execute(data);
         if (result == null) {
             throw new EvaluationException(-1, "Expression must result in a value");
         }
         return result;
     }
 
+    /**
+     * Constant folding and dead code elimination are done while compiling, so this is a no-op.
+     */
     public void optimize() {
-        // TODO optimizing
     }
 
     @Override
@@ -135,8 +165,13 @@ public String toString() {
         return root.toString();
     }
 
+    /**
+     * Get the slot table used by the current thread.
+     *
+     * @return the slot table
+     */
     public SlotTable getSlots() {
-        return slots;
+        return context.get().slots;
     }
 
     public ExpressionEnvironment getEnvironment() {
@@ -147,4 +182,26 @@ public void setEnvironment(ExpressionEnvironment environment) {
         functions.setEnvironment(environment);
     }
 
+    private Context createContext() {
+        return new Context(slots.copy(), providedSlots, functions);
+    }
+
+    /**
+     * The slots and execution data of a single thread, which are reused for every evaluation.
+     */
+    private static final class Context {
+        private final SlotTable slots;
+        private final LocalSlot.Variable[] variables;
+        private final ExecutionData data;
+
+        private Context(SlotTable slots, List<String> providedSlots, Functions functions) {
+            this.slots = slots;
+            this.variables = new LocalSlot.Variable[providedSlots.size()];
+            for (int i = 0; i < variables.length; i++) {
+                variables[i] = slots.getVariable(providedSlots.get(i)).orElse(null);
+            }
+            this.data = new ExecutionData(slots, functions, 0);
+        }
+    }
+
 }
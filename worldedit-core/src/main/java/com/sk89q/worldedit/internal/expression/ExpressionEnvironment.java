@@ -31,4 +31,13 @@ public interface ExpressionEnvironment {
     int getBlockTypeRel(double x, double y, double z);
     int getBlockDataRel(double x, double y, double z);
 
+    /**
+     * Copy this environment for use by another thread.
+     *
+     * @return this if the environment is thread safe, otherwise a copy
+     */
+    default ExpressionEnvironment copy() {
+        return this;
+    }
+
 }
@@ -61,4 +61,21 @@ public OptionalDouble getSlotValue(String name) {
         return slot == null ? OptionalDouble.empty() : OptionalDouble.of(slot.getValue());
     }
 
+    /**
+     * Copy this table, with new variables holding the current values.
+     *
+     * @return a new table
+     */
+    public SlotTable copy() {
+        SlotTable copy = new SlotTable();
+        for (Map.Entry<String, LocalSlot> entry : slots.entrySet()) {
+            LocalSlot slot = entry.getValue();
+            if (slot instanceof LocalSlot.Variable) {
+                slot = new LocalSlot.Variable(slot.getValue());
+            }
+            copy.slots.put(entry.getKey(), slot);
+        }
+        return copy;
+    }
+
 }
@@ -38,10 +38,13 @@
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.DoubleBinaryOperator;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 import static com.sk89q.worldedit.antlr.ExpressionLexer.ASSIGN;
 import static com.sk89q.worldedit.antlr.ExpressionLexer.DIVIDE;
@@ -85,8 +88,13 @@ class CompilingVisitor extends ExpressionBaseVisitor<MethodHandle> {
      * We do need to pass that around, so most MethodHandles will be of the type
      * (ExecutionData)Double, with a few as (ExecutionData,Double)Double where it needs an existing
      * value passed in. EVERY handle returned from an overridden method must be of the first type.
+     *
+     * Handles which always return the same value, and have no side effects, are tracked in
+     * `constants`. Operators on constants are folded into a new constant while compiling, and
+     * conditions on constants only keep the branch which is taken.
      */
     private final Functions functions;
+    private final Map<MethodHandle, Double> constants = new IdentityHashMap<>();
 
     CompilingVisitor(Functions functions) {
         this.functions = functions;
@@ -109,6 +117,24 @@ private ExecNode evaluate(ParserRuleContext ctx) {
         return new ExecNode(ctx, mh);
     }
 
+    /**
+     * Create a handle which returns a constant value, and has no side effects.
+     */
+    private MethodHandle constant(double value) {
+        MethodHandle handle = ExpressionHandles.dropData(MethodHandles.constant(Double.class, value));
+        constants.put(handle, value);
+        return handle;
+    }
+
+    private MethodHandle constant(boolean value) {
+        return constant(ExpressionHandles.boolToDouble(value));
+    }
+
+    @Nullable
+    private Double getConstant(MethodHandle handle) {
+        return constants.get(handle);
+    }
+
     private void checkHandle(MethodHandle mh, ParserRuleContext ctx) {
         ExpressionHelper.check(mh.type().equals(ExpressionHandles.COMPILED_EXPRESSION_SIG), ctx,
             "Incorrect type returned from handler for " + ctx.getClass());
@@ -127,6 +153,10 @@ private MethodHandle evaluateForNamedValue(ParserRuleContext ctx, String name) {
         );
         // now pass `result` into `guard`
         MethodHandle result = evaluate(ctx).handle;
+        if (getConstant(result) != null) {
+            // constants are never null
+            return result;
+        }
         return MethodHandles.collectArguments(guard, 0, result);
     }
 
@@ -135,7 +165,10 @@ private MethodHandle evaluateForValue(ParserRuleContext ctx) {
     }
 
     private MethodHandle evaluateBoolean(ParserRuleContext boolExpression) {
-        MethodHandle value = evaluateForNamedValue(boolExpression, "a boolean");
+        return toBoolean(evaluateForNamedValue(boolExpression, "a boolean"));
+    }
+
+    private MethodHandle toBoolean(MethodHandle value) {
         // Pass `value` into converter, returns (ExecutionData)boolean;
         return MethodHandles.collectArguments(
             DOUBLE_TO_BOOL, 0, value
@@ -145,11 +178,19 @@ private MethodHandle evaluateBoolean(ParserRuleContext boolExpression) {
     private MethodHandle evaluateConditional(ParserRuleContext condition,
                                              ParserRuleContext trueBranch,
                                              ParserRuleContext falseBranch) {
+        MethodHandle value = evaluateForNamedValue(condition, "a boolean");
+        MethodHandle mhTrue = trueBranch == null ? NULL_DOUBLE : evaluate(trueBranch).handle;
+        MethodHandle mhFalse = falseBranch == null ? NULL_DOUBLE : evaluate(falseBranch).handle;
+        Double constant = getConstant(value);
+        if (constant != null) {
+            // only the branch which is taken is kept
+            return constant != 0 ? mhTrue : mhFalse;
+        }
         // easiest one of the bunch
         return MethodHandles.guardWithTest(
-            evaluateBoolean(condition),
-            trueBranch == null ? NULL_DOUBLE : evaluate(trueBranch).handle,
-            falseBranch == null ? NULL_DOUBLE : evaluate(falseBranch).handle
+            toBoolean(value),
+            mhTrue,
+            mhFalse
         );
     }
 
@@ -165,10 +206,14 @@ public MethodHandle visitTernaryExpr(ExpressionParser.TernaryExprContext ctx) {
 
     @Override
     public MethodHandle visitWhileStatement(ExpressionParser.WhileStatementContext ctx) {
-        return ExpressionHandles.whileLoop(
-            evaluateBoolean(ctx.condition),
-            evaluate(ctx.body)
-        );
+        MethodHandle condition = evaluateForNamedValue(ctx.condition, "a boolean");
+        ExecNode body = evaluate(ctx.body);
+        Double constant = getConstant(condition);
+        if (constant != null && constant == 0) {
+            // the body is never run
+            return NULL_DOUBLE;
+        }
+        return ExpressionHandles.whileLoop(toBoolean(condition), body);
     }
 
     @Override
@@ -300,10 +345,14 @@ public MethodHandle visitPreCrementExpr(ExpressionParser.PreCrementExprContext c
     @Override
     public MethodHandle visitPlusMinusExpr(ExpressionParser.PlusMinusExprContext ctx) {
         MethodHandle value = evaluateForValue(ctx.expr);
+        Double constant = getConstant(value);
         switch (ctx.op.getType()) {
             case PLUS:
                 return value;
             case MINUS:
+                if (constant != null) {
+                    return constant(-constant);
+                }
                 return ExpressionHandles.call(data ->
                     -(double) ExpressionHandles.standardInvoke(value, data)
                 );
@@ -313,7 +362,12 @@ public MethodHandle visitPlusMinusExpr(ExpressionParser.PlusMinusExprContext ctx
 
     @Override
     public MethodHandle visitNotExpr(ExpressionParser.NotExprContext ctx) {
-        MethodHandle expr = evaluateBoolean(ctx.expr);
+        MethodHandle value = evaluateForNamedValue(ctx.expr, "a boolean");
+        Double constant = getConstant(value);
+        if (constant != null) {
+            return constant(constant == 0);
+        }
+        MethodHandle expr = toBoolean(value);
         return ExpressionHandles.call(data ->
             ExpressionHandles.boolToDouble(!(boolean) ExpressionHandles.standardInvoke(expr, data))
         );
@@ -322,6 +376,10 @@ public MethodHandle visitNotExpr(ExpressionParser.NotExprContext ctx) {
     @Override
     public MethodHandle visitComplementExpr(ExpressionParser.ComplementExprContext ctx) {
         MethodHandle expr = evaluateForValue(ctx.expr);
+        Double constant = getConstant(expr);
+        if (constant != null) {
+            return constant((double) ~(long) (double) constant);
+        }
         // Looks weird. In order:
         // - Convert back to double from following long
         // - Convert to long from double value
@@ -333,8 +391,13 @@ public MethodHandle visitComplementExpr(ExpressionParser.ComplementExprContext c
 
     @Override
     public MethodHandle visitConditionalAndExpr(ExpressionParser.ConditionalAndExprContext ctx) {
-        MethodHandle left = evaluateBoolean(ctx.left);
+        MethodHandle leftValue = evaluateForNamedValue(ctx.left, "a boolean");
         MethodHandle right = evaluateForValue(ctx.right);
+        Double constant = getConstant(leftValue);
+        if (constant != null) {
+            return constant != 0 ? right : constant(false);
+        }
+        MethodHandle left = toBoolean(leftValue);
         return MethodHandles.guardWithTest(
             left,
             right,
@@ -348,6 +411,10 @@ public MethodHandle visitConditionalAndExpr(ExpressionParser.ConditionalAndExprC
     public MethodHandle visitConditionalOrExpr(ExpressionParser.ConditionalOrExprContext ctx) {
         MethodHandle left = evaluateForValue(ctx.left);
         MethodHandle right = evaluateForValue(ctx.right);
+        Double constant = getConstant(left);
+        if (constant != null) {
+            return constant != 0 ? left : right;
+        }
         // Inject left as primary condition, on failure take right with data parameter
         // logic = (Double,ExecutionData)Double
         MethodHandle logic = MethodHandles.guardWithTest(
@@ -375,6 +442,11 @@ private MethodHandle evaluateBinary(ParserRuleContext left,
                                         DoubleBinaryOperator op) {
         MethodHandle mhLeft = evaluateForValue(left);
         MethodHandle mhRight = evaluateForValue(right);
+        Double constantLeft = getConstant(mhLeft);
+        Double constantRight = getConstant(mhRight);
+        if (constantLeft != null && constantRight != null) {
+            return constant(op.applyAsDouble(constantLeft, constantRight));
+        }
         // Map two data args to two double args, then evaluate op
         MethodHandle doubleData = MethodHandles.filterArguments(
             CALL_BINARY_OP.bindTo(op), 0,
@@ -489,6 +561,10 @@ private static boolean almostEqual2sComplement(double a, double b) {
     public MethodHandle visitPostfixExpr(ExpressionParser.PostfixExprContext ctx) {
         MethodHandle value = evaluateForValue(ctx.expr);
         if (ctx.op.getType() == EXCLAMATION_MARK) {
+            Double constant = getConstant(value);
+            if (constant != null) {
+                return constant(factorial(constant));
+            }
             return ExpressionHandles.call(data ->
                 factorial((double) ExpressionHandles.standardInvoke(value, data))
             );
@@ -612,9 +688,7 @@ private MethodHandle getArgument(String fnName, MethodType type, int i, ParserRu
 
     @Override
     public MethodHandle visitConstantExpression(ExpressionParser.ConstantExpressionContext ctx) {
-        return ExpressionHandles.dropData(
-            MethodHandles.constant(Double.class, Double.parseDouble(ctx.getText()))
-        );
+        return constant(Double.parseDouble(ctx.getText()));
     }
 
     @Override
@@ -671,6 +745,10 @@ private MethodHandle aggregateHandleResult(MethodHandle oldResult, MethodHandle
         if (result == DEFAULT_RESULT) {
             return oldResult;
         }
+        // A constant has no side effects, so it can be skipped if it isn't the result
+        if (getConstant(oldResult) != null) {
+            return result;
+        }
         // Add a dummy Double parameter to the end
         // MH:dummyDouble = (ExecutionData, Double)Double
         MethodHandle dummyDouble = MethodHandles.dropArguments(
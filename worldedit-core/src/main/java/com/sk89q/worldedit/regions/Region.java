@@ -233,7 +233,7 @@ default void filter(final IChunk chunk, final Filter filter, ChunkFilterBlock bl
         block = block.initChunk(chunk.getX(), chunk.getZ());
         for (int layer = minSection; layer <= maxSection; layer++) {
             if ((!full && !get.hasSection(layer)) || !filter.appliesLayer(chunk, layer)) {
-                return;
+                continue;
             }
             block = block.initLayer(get, set, layer);
             block.filter(filter, this);
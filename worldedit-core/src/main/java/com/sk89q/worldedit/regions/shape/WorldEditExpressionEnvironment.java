@@ -43,6 +43,12 @@ public WorldEditExpressionEnvironment(Extent extent, Vector3 unit, Vector3 zero)
         this.zero2 = zero.add(0.5, 0.5, 0.5);
     }
 
+    private WorldEditExpressionEnvironment(WorldEditExpressionEnvironment other) {
+        this.extent = other.extent;
+        this.unit = other.unit;
+        this.zero2 = other.zero2;
+    }
+
     public BlockVector3 toWorld(double x, double y, double z) {
         // unscale, unoffset, round-nearest
         return Vector3.at(x, y, z).multiply(unit).add(zero2).toBlockPoint();
@@ -88,6 +94,11 @@ public int getBlockDataRel(double x, double y, double z) {
         return extent.getBlock(toWorld(x, y, z)).getBlockType().getLegacyCombinedId() & 0xF;
     }
 
+    @Override
+    public WorldEditExpressionEnvironment copy() {
+        return new WorldEditExpressionEnvironment(this);
+    }
+
     public void setCurrentBlock(int x, int y, int z) {
         current.setComponents(x, y, z);
     }
@@ -19,36 +19,22 @@
 
 package com.sk89q.worldedit.world.snapshot;
 
-import com.boydti.fawe.object.collection.LocalBlockVectorSet;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.math.BlockVector2;
-import com.sk89q.worldedit.math.BlockVector3;
-import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
-import com.sk89q.worldedit.world.DataException;
-import com.sk89q.worldedit.world.chunk.Chunk;
 import com.sk89q.worldedit.world.storage.ChunkStore;
-import com.sk89q.worldedit.world.storage.MissingChunkException;
 
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * A snapshot restore operation.
+ *
+ * @see SnapshotRestoreHelper
  */
 public class SnapshotRestore {
 
-    private final Map<BlockVector2, Set<BlockVector3>> neededChunks = new LinkedHashMap<>();
-    private final ChunkStore chunkStore;
-    private final EditSession editSession;
-    private ArrayList<BlockVector2> missingChunks;
-    private ArrayList<BlockVector2> errorChunks;
-    private String lastErrorMessage;
+    private final SnapshotRestoreHelper helper;
 
     /**
      * Construct the snapshot restore operation.
@@ -58,62 +44,12 @@ public class SnapshotRestore {
      * @param region The {@link Region} to restore to
      */
     public SnapshotRestore(ChunkStore chunkStore, EditSession editSession, Region region) {
-        this.chunkStore = chunkStore;
-        this.editSession = editSession;
-
-        if (region instanceof CuboidRegion) {
-            findNeededCuboidChunks(region);
-        } else {
-            findNeededChunks(region);
-        }
-    }
-
-    /**
-     * Find needed chunks in the axis-aligned bounding box of the region.
-     *
-     * @param region The {@link Region} to iterate
-     */
-    private void findNeededCuboidChunks(Region region) {
-        BlockVector3 min = region.getMinimumPoint();
-        BlockVector3 max = region.getMaximumPoint();
-
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    BlockVector3 pos = BlockVector3.at(x, y, z);
-                    checkAndAddBlock(pos);
-                }
+        this.helper = new SnapshotRestoreHelper(chunkPos -> {
+            // The region reader of a chunk store is not thread safe
+            synchronized (chunkStore) {
+                return chunkStore.getChunkTag(chunkPos, editSession.getWorld());
             }
-        }
-    }
-
-    /**
-     * Find needed chunks in the region.
-     *
-     * @param region The {@link Region} to iterate
-     */
-    private void findNeededChunks(Region region) {
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (BlockVector3 pos : region) {
-            checkAndAddBlock(pos);
-        }
-    }
-
-    private void checkAndAddBlock(BlockVector3 pos) {
-        if (editSession.getMask() != null && !editSession.getMask().test(pos))
-            return;
-
-        BlockVector2 chunkPos = ChunkStore.toChunk(pos);
-
-        // Unidentified chunk
-        if (!neededChunks.containsKey(chunkPos)) {
-            neededChunks.put(chunkPos, new LocalBlockVectorSet());
-        }
-
-        neededChunks.get(chunkPos).add(pos);
+        }, editSession, region);
     }
 
     /**
@@ -122,7 +58,7 @@ private void checkAndAddBlock(BlockVector3 pos) {
      * @return a number of chunks
      */
     public int getChunksAffected() {
-        return neededChunks.size();
+        return helper.getChunksAffected();
     }
 
     /**
@@ -131,34 +67,7 @@ public int getChunksAffected() {
      * @throws MaxChangedBlocksException
      */
     public void restore() throws MaxChangedBlocksException {
-
-        missingChunks = new ArrayList<>();
-        errorChunks = new ArrayList<>();
-
-        // Now let's start restoring!
-        for (Map.Entry<BlockVector2, Set<BlockVector3>> entry : neededChunks.entrySet()) {
-            BlockVector2 chunkPos = entry.getKey();
-            Chunk chunk;
-
-            try {
-                chunk = chunkStore.getChunk(chunkPos, editSession.getWorld());
-                // Good, the chunk could be at least loaded
-
-                // Now just copy blocks!
-                for (BlockVector3 pos : entry.getValue()) {
-                    try {
-                        editSession.setBlock(pos, chunk.getBlock(pos));
-                    } catch (DataException e) {
-                        // this is a workaround: just ignore for now
-                    }
-                }
-            } catch (MissingChunkException me) {
-                missingChunks.add(chunkPos);
-            } catch (IOException | DataException me) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = me.getMessage();
-            }
-        }
+        helper.restore();
     }
 
     /**
@@ -168,7 +77,7 @@ public void restore() throws MaxChangedBlocksException {
      * @return a list of coordinates
      */
     public List<BlockVector2> getMissingChunks() {
-        return missingChunks;
+        return helper.getMissingChunks();
     }
 
     /**
@@ -178,7 +87,7 @@ public List<BlockVector2> getMissingChunks() {
      * @return a list of coordinates
      */
     public List<BlockVector2> getErrorChunks() {
-        return errorChunks;
+        return helper.getErrorChunks();
     }
 
     /**
@@ -188,7 +97,7 @@ public List<BlockVector2> getErrorChunks() {
      * @return true if there was total failure
      */
     public boolean hadTotalFailure() {
-        return missingChunks.size() + errorChunks.size() == getChunksAffected();
+        return helper.hadTotalFailure();
     }
 
     /**
@@ -197,7 +106,7 @@ public boolean hadTotalFailure() {
      * @return a message
      */
     public String getLastErrorMessage() {
-        return lastErrorMessage;
+        return helper.getLastErrorMessage();
     }
 
 }
@@ -0,0 +1,270 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.world.snapshot;
+
+import com.boydti.fawe.Fawe;
+import com.boydti.fawe.config.Settings;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.math.BlockVector2;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.MutableBlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.world.DataException;
+import com.sk89q.worldedit.world.chunk.Chunk;
+import com.sk89q.worldedit.world.storage.ChunkStore;
+import com.sk89q.worldedit.world.storage.ChunkStoreHelper;
+import com.sk89q.worldedit.world.storage.MissingChunkException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Restores a region from chunks loaded out of a snapshot, for both snapshot APIs.
+ *
+ * <p>The chunks needed are computed from the region, rather than from every block in it.
+ * Chunks are loaded and parsed ahead of time on worker threads, and each is copied once,
+ * one section at a time.</p>
+ */
+public final class SnapshotRestoreHelper {
+
+    /**
+     * Loads the tag of a chunk from a snapshot.
+     */
+    @FunctionalInterface
+    public interface ChunkTagLoader {
+        CompoundTag getChunkTag(BlockVector2 chunkPos) throws DataException, IOException;
+    }
+
+    private final Set<BlockVector2> neededChunks = new LinkedHashSet<>();
+    private final ChunkTagLoader loader;
+    private final EditSession editSession;
+    private final Region region;
+    private ArrayList<BlockVector2> missingChunks;
+    private ArrayList<BlockVector2> errorChunks;
+    private String lastErrorMessage;
+
+    /**
+     * Construct the restore operation.
+     *
+     * @param loader Loads chunk tags from the snapshot, called from several threads at once
+     * @param editSession The {@link EditSession} to restore to
+     * @param region The {@link Region} to restore to
+     */
+    public SnapshotRestoreHelper(ChunkTagLoader loader, EditSession editSession, Region region) {
+        this.loader = loader;
+        this.editSession = editSession;
+        this.region = region;
+
+        if (region instanceof CuboidRegion) {
+            findNeededCuboidChunks(region);
+        } else {
+            findNeededChunks(region);
+        }
+    }
+
+    /**
+     * Find needed chunks in the axis-aligned bounding box of the region.
+     *
+     * @param region The {@link Region} to iterate
+     */
+    private void findNeededCuboidChunks(Region region) {
+        BlockVector3 min = region.getMinimumPoint();
+        BlockVector3 max = region.getMaximumPoint();
+
+        for (int z = min.getBlockZ() >> ChunkStore.CHUNK_SHIFTS; z <= max.getBlockZ() >> ChunkStore.CHUNK_SHIFTS; ++z) {
+            for (int x = min.getBlockX() >> ChunkStore.CHUNK_SHIFTS; x <= max.getBlockX() >> ChunkStore.CHUNK_SHIFTS; ++x) {
+                neededChunks.add(BlockVector2.at(x, z));
+            }
+        }
+    }
+
+    /**
+     * Find needed chunks in the region.
+     *
+     * @param region The {@link Region} to iterate
+     */
+    private void findNeededChunks(Region region) {
+        // Some regions return a mutable vector from their iterator
+        for (BlockVector2 chunkPos : region.getChunks()) {
+            neededChunks.add(BlockVector2.at(chunkPos.getBlockX(), chunkPos.getBlockZ()));
+        }
+    }
+
+    /**
+     * Get the number of chunks that are needed.
+     *
+     * @return a number of chunks
+     */
+    public int getChunksAffected() {
+        return neededChunks.size();
+    }
+
+    /**
+     * Restores to world.
+     *
+     * @throws MaxChangedBlocksException
+     */
+    public void restore() throws MaxChangedBlocksException {
+
+        missingChunks = new ArrayList<>();
+        errorChunks = new ArrayList<>();
+
+        // Keep a few chunks loading ahead of the one being copied
+        int prefetch = Math.max(1, Settings.IMP.QUEUE.PARALLEL_THREADS);
+        Iterator<BlockVector2> iterator = neededChunks.iterator();
+        ArrayDeque<BlockVector2> positions = new ArrayDeque<>(prefetch);
+        ArrayDeque<Future<Chunk>> loading = new ArrayDeque<>(prefetch);
+        try {
+            while (true) {
+                while (loading.size() < prefetch && iterator.hasNext()) {
+                    BlockVector2 chunkPos = iterator.next();
+                    positions.add(chunkPos);
+                    loading.add(Fawe.get().getQueueHandler().async(() -> loadChunk(chunkPos)));
+                }
+                if (loading.isEmpty()) {
+                    break;
+                }
+                BlockVector2 chunkPos = positions.poll();
+                Chunk chunk;
+                try {
+                    chunk = loading.poll().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof MissingChunkException) {
+                        missingChunks.add(chunkPos);
+                    } else if (cause instanceof IOException || cause instanceof DataException) {
+                        errorChunks.add(chunkPos);
+                        lastErrorMessage = cause.getMessage();
+                    } else {
+                        throw new RuntimeException(cause);
+                    }
+                    continue;
+                }
+                // Good, the chunk could be at least loaded
+                copyChunk(chunkPos, chunk);
+            }
+        } finally {
+            for (Future<Chunk> future : loading) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private Chunk loadChunk(BlockVector2 chunkPos) throws DataException, IOException {
+        return ChunkStoreHelper.getChunk(loader.getChunkTag(chunkPos));
+    }
+
+    /**
+     * Copy the part of the region within a chunk, one section at a time.
+     */
+    private void copyChunk(BlockVector2 chunkPos, Chunk chunk) throws MaxChangedBlocksException {
+        BlockVector3 min = region.getMinimumPoint();
+        BlockVector3 max = region.getMaximumPoint();
+        int bx = chunkPos.getBlockX() << ChunkStore.CHUNK_SHIFTS;
+        int bz = chunkPos.getBlockZ() << ChunkStore.CHUNK_SHIFTS;
+        int minX = Math.max(bx, min.getBlockX());
+        int minZ = Math.max(bz, min.getBlockZ());
+        int maxX = Math.min(bx + 15, max.getBlockX());
+        int maxZ = Math.min(bz + 15, max.getBlockZ());
+        int minY = Math.max(0, min.getBlockY());
+        int maxY = Math.min(editSession.getMaxY(), max.getBlockY());
+
+        // Cuboids are filled, so only other regions and masks need testing per block
+        boolean contains = !(region instanceof CuboidRegion);
+        Mask mask = editSession.getMask();
+        MutableBlockVector3 pos = new MutableBlockVector3();
+        for (int layer = minY >> 4; layer <= maxY >> 4; layer++) {
+            int sectionMinY = Math.max(minY, layer << 4);
+            int sectionMaxY = Math.min(maxY, layer << 4 | 15);
+            for (int y = sectionMinY; y <= sectionMaxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        if (contains && !region.contains(x, y, z)) {
+                            continue;
+                        }
+                        pos.setComponents(x, y, z);
+                        if (mask != null && !mask.test(pos)) {
+                            continue;
+                        }
+                        try {
+                            editSession.setBlock(pos, chunk.getBlock(pos));
+                        } catch (DataException e) {
+                            // this is a workaround: just ignore for now
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a list of the missing chunks. restore() must have been called
+     * already.
+     *
+     * @return a list of coordinates
+     */
+    public List<BlockVector2> getMissingChunks() {
+        return missingChunks;
+    }
+
+    /**
+     * Get a list of the chunks that could not have been loaded for other
+     * reasons. restore() must have been called already.
+     *
+     * @return a list of coordinates
+     */
+    public List<BlockVector2> getErrorChunks() {
+        return errorChunks;
+    }
+
+    /**
+     * Checks to see where the backup succeeded in any capacity. False will
+     * be returned if no chunk could be successfully loaded.
+     *
+     * @return true if there was total failure
+     */
+    public boolean hadTotalFailure() {
+        return missingChunks.size() + errorChunks.size() == getChunksAffected();
+    }
+
+    /**
+     * Get the last error message.
+     *
+     * @return a message
+     */
+    public String getLastErrorMessage() {
+        return lastErrorMessage;
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.boydti.fawe.beta.implementation.blocks;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("A palette compressed chunk set")
+class PaletteSetBlocksTest {
+
+    private PaletteSetBlocks blocks;
+
+    @BeforeEach
+    void setUp() {
+        blocks = PaletteSetBlocks.newInstance();
+        blocks.reset();
+    }
+
+    @AfterEach
+    void tearDown() {
+        blocks.reset();
+        blocks.recycle();
+    }
+
+    // A distinct state for every block of a section, cycling through the given number of states
+    private static char state(int index, int states) {
+        return (char) (1 + index % states);
+    }
+
+    private void fill(int layer, int states) {
+        for (int i = 0; i < 4096; i++) {
+            blocks.set(i & 15, (layer << 4) + (i >> 8), (i >> 4) & 15, state(i, states));
+        }
+    }
+
+    private void assertFilled(int layer, int states) {
+        for (int i = 0; i < 4096; i++) {
+            int y = (layer << 4) + (i >> 8);
+            assertEquals(state(i, states), blocks.get(i & 15, y, (i >> 4) & 15), "index " + i);
+        }
+    }
+
+    @Test
+    @DisplayName("reads back air for unset blocks")
+    void emptyByDefault() {
+        for (int layer = 0; layer < 16; layer++) {
+            assertFalse(blocks.hasSection(layer));
+        }
+        assertEquals((char) 0, blocks.get(3, 70, 9));
+    }
+
+    @Test
+    @DisplayName("does not create a section for air")
+    void airDoesNotCreateSection() {
+        blocks.set(1, 2, 3, (char) 0);
+        assertFalse(blocks.hasSection(0));
+    }
+
+    @Test
+    @DisplayName("reads back what was set")
+    void setGetRoundTrip() {
+        blocks.set(0, 0, 0, (char) 5);
+        blocks.set(15, 255, 15, (char) 7);
+        blocks.set(4, 100, 11, (char) 9);
+        assertTrue(blocks.hasSection(0));
+        assertTrue(blocks.hasSection(6));
+        assertTrue(blocks.hasSection(15));
+        assertEquals((char) 5, blocks.get(0, 0, 0));
+        assertEquals((char) 7, blocks.get(15, 255, 15));
+        assertEquals((char) 9, blocks.get(4, 100, 11));
+        assertEquals((char) 0, blocks.get(4, 100, 12));
+    }
+
+    @Test
+    @DisplayName("keeps every block when the palette grows through each bit width")
+    void paletteGrowth() {
+        // 2, 4, 8, 16, 32 and 64 states including air need 1 to 6 bits
+        for (int layer = 0, states = 1; states <= 63; layer++, states = states * 2 + 1) {
+            fill(layer, states);
+            assertFilled(layer, states);
+        }
+    }
+
+    @Test
+    @DisplayName("keeps every block when a section is set one state at a time")
+    void incrementalGrowth() {
+        for (int states = 1; states <= 80; states++) {
+            blocks.set(states & 15, 16, states >> 4, state(states, 1000));
+            for (int i = 1; i <= states; i++) {
+                assertEquals(state(i, 1000), blocks.get(i & 15, 16, i >> 4), "state " + i + " of " + states);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("expands to a flat section once there are more than 64 states")
+    void expandToRaw() {
+        fill(2, 200);
+        assertTrue(blocks.hasSection(2));
+        assertFilled(2, 200);
+        blocks.set(0, 32, 0, (char) 1000);
+        assertEquals((char) 1000, blocks.get(0, 32, 0));
+    }
+
+    @Test
+    @DisplayName("loads the section as a raw array matching the palette")
+    void loadExpands() {
+        fill(1, 10);
+        char[] raw = blocks.load(1);
+        for (int i = 0; i < 4096; i++) {
+            assertEquals(state(i, 10), raw[i], "index " + i);
+        }
+        // The loaded array is the section, so writes to it are visible
+        raw[0] = 42;
+        assertEquals((char) 42, blocks.get(0, 16, 0));
+        blocks.set(1, 16, 0, (char) 43);
+        assertEquals((char) 43, raw[1]);
+    }
+
+    @Test
+    @DisplayName("clears sections on reset")
+    void reset() {
+        fill(0, 3);
+        fill(1, 100);
+        blocks.reset(0);
+        assertFalse(blocks.hasSection(0));
+        assertEquals((char) 0, blocks.get(5, 5, 5));
+        assertTrue(blocks.hasSection(1));
+
+        blocks.reset();
+        assertFalse(blocks.hasSection(1));
+        assertEquals((char) 0, blocks.get(5, 20, 5));
+
+        // A reset section starts again from an empty palette
+        blocks.set(5, 5, 5, (char) 3);
+        assertEquals((char) 3, blocks.get(5, 5, 5));
+        assertEquals((char) 0, blocks.get(6, 5, 5));
+    }
+
+    @Test
+    @DisplayName("replaces the palette when blocks are set as an array")
+    void setBlocksReplacesPalette() {
+        fill(0, 3);
+        char[] data = new char[4096];
+        data[7] = 11;
+        blocks.setBlocks(0, data);
+        assertEquals((char) 11, blocks.get(7, 0, 0));
+        assertEquals((char) 0, blocks.get(1, 0, 0));
+    }
+}
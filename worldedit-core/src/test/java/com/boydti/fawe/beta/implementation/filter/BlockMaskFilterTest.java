@@ -0,0 +1,164 @@
+package com.boydti.fawe.beta.implementation.filter;
+
+import com.boydti.fawe.beta.Filter;
+import com.boydti.fawe.beta.IChunk;
+import com.boydti.fawe.beta.implementation.filter.block.ChunkFilterBlock;
+import com.boydti.fawe.object.mask.AngleMask;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.function.mask.ABlockMask;
+import com.sk89q.worldedit.world.block.BlockState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@DisplayName("A block mask filter")
+class BlockMaskFilterTest {
+
+    // Ordinals 2 and 5 match
+    private static final boolean[] TABLE = {false, false, true, false, false, true};
+
+    /**
+     * A block mask with a fixed lookup table, as block states need a platform
+     */
+    private static class TableMask extends ABlockMask {
+        private final boolean stateOnly;
+        private int tables;
+
+        TableMask(boolean stateOnly) {
+            super(mock(Extent.class));
+            this.stateOnly = stateOnly;
+        }
+
+        @Override
+        public boolean[] toOrdinalTable() {
+            tables++;
+            return TABLE.clone();
+        }
+
+        @Override
+        public boolean test(BlockState state) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isStateOnly() {
+            return stateOnly;
+        }
+    }
+
+    private static int index(int x, int y, int z) {
+        return y << 8 | z << 4 | x;
+    }
+
+    private Filter parent;
+    private IChunk chunk;
+    private char[] blocks;
+
+    @BeforeEach
+    void setUp() {
+        parent = mock(Filter.class);
+        when(parent.appliesLayer(any(), anyInt())).thenReturn(true);
+        blocks = new char[4096];
+        chunk = mock(IChunk.class);
+        when(chunk.hasSection(anyInt())).thenReturn(true);
+        when(chunk.load(anyInt())).thenReturn(blocks);
+    }
+
+    private ChunkFilterBlock block(int x, int y, int z) {
+        ChunkFilterBlock block = mock(ChunkFilterBlock.class);
+        when(block.getLocalX()).thenReturn(x);
+        when(block.getLocalY()).thenReturn(y);
+        when(block.getLocalZ()).thenReturn(z);
+        return block;
+    }
+
+    @Test
+    @DisplayName("tests a section against the lookup table")
+    void testSection() {
+        blocks[index(0, 0, 0)] = 2;
+        blocks[index(15, 15, 15)] = 5;
+        blocks[index(3, 7, 9)] = 3;
+        blocks[index(8, 4, 1)] = 5;
+        long[] result = new long[64];
+        assertTrue(ABlockMask.test(TABLE, blocks, result));
+        for (int i = 0; i < 4096; i++) {
+            boolean set = (result[i >> 6] & (1L << i)) != 0;
+            assertEquals(TABLE[blocks[i]], set, "block " + i);
+        }
+    }
+
+    @Test
+    @DisplayName("reports a section without matching blocks")
+    void testEmptySection() {
+        blocks[index(3, 7, 9)] = 3;
+        long[] result = new long[64];
+        assertFalse(ABlockMask.test(TABLE, blocks, result));
+        for (long bits : result) {
+            assertEquals(0, bits);
+        }
+    }
+
+    @Test
+    @DisplayName("is used for masks which only test the block state")
+    void toFilterStateOnly() {
+        TableMask mask = new TableMask(true);
+        assertTrue(mask.toFilter(parent) instanceof BlockMaskFilter);
+        assertEquals(1, mask.tables);
+    }
+
+    @Test
+    @DisplayName("is not used for masks which test neighbouring blocks")
+    void toFilterNeighbours() {
+        TableMask mask = new TableMask(false);
+        MaskFilter<Filter> filter = mask.toFilter(parent);
+        assertFalse(filter instanceof BlockMaskFilter);
+        assertEquals(0, mask.tables);
+    }
+
+    @Test
+    @DisplayName("is not used for angle masks, which test the slope around a block")
+    void toFilterAngleMask() {
+        // Created without its constructor, which needs the solid blocks of a platform
+        AngleMask mask = mock(AngleMask.class, CALLS_REAL_METHODS);
+        assertFalse(mask.isStateOnly());
+        assertFalse(mask.toFilter(parent) instanceof BlockMaskFilter);
+    }
+
+    @Test
+    @DisplayName("skips sections without matching blocks")
+    void skipSection() {
+        blocks[index(3, 7, 9)] = 3;
+        Filter filter = new TableMask(true).toFilter(parent);
+        assertFalse(filter.appliesLayer(chunk, 0));
+        verify(parent, never()).appliesLayer(any(), anyInt());
+    }
+
+    @Test
+    @DisplayName("only applies the blocks matching the table")
+    void applyMatching() {
+        blocks[index(1, 2, 3)] = 2;
+        blocks[index(4, 5, 6)] = 3;
+        MaskFilter<Filter> filter = new TableMask(true).toFilter(parent);
+        assertTrue(filter.appliesLayer(chunk, 0));
+
+        ChunkFilterBlock match = block(1, 2, 3);
+        ChunkFilterBlock other = block(4, 5, 6);
+        filter.applyBlock(match);
+        filter.applyBlock(other);
+        verify(parent, times(1)).applyBlock(match);
+        verify(parent, never()).applyBlock(other);
+        assertEquals(1, filter.getBlocksApplied());
+    }
+}
@@ -0,0 +1,84 @@
+package com.boydti.fawe.beta.implementation.processors;
+
+import com.boydti.fawe.beta.IChunk;
+import com.boydti.fawe.beta.IChunkGet;
+import com.boydti.fawe.beta.IChunkSet;
+import com.boydti.fawe.beta.implementation.blocks.PaletteSetBlocks;
+import com.boydti.fawe.beta.implementation.lighting.Relighter;
+import com.boydti.fawe.object.RelightMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@DisplayName("A relight processor")
+class RelightProcessorTest {
+
+    private Relighter relighter;
+    private PaletteSetBlocks set;
+    private IChunk chunk;
+
+    @BeforeEach
+    void setUp() {
+        relighter = mock(Relighter.class);
+        when(relighter.addChunk(anyInt(), anyInt(), any(IChunkSet.class))).thenCallRealMethod();
+        set = PaletteSetBlocks.newInstance();
+        set.reset();
+        chunk = mock(IChunk.class);
+        when(chunk.getX()).thenReturn(3);
+        when(chunk.getZ()).thenReturn(-7);
+    }
+
+    @AfterEach
+    void tearDown() {
+        set.reset();
+        set.recycle();
+    }
+
+    private void process(RelightMode mode) {
+        new RelightProcessor(relighter, mode).processSet(chunk, mock(IChunkGet.class), set);
+    }
+
+    @Test
+    @DisplayName("only queues the sections which were set")
+    void queuesDirtySections() {
+        set.set(1, 40, 2, (char) 1);
+        set.set(15, 95, 0, (char) 1);
+        process(RelightMode.OPTIMAL);
+
+        verify(relighter).addChunk(3, -7, null, (1 << 2) | (1 << 5));
+    }
+
+    @Test
+    @DisplayName("does not queue chunks without block changes")
+    void skipsEmptySets() {
+        process(RelightMode.OPTIMAL);
+
+        verify(relighter, never()).addChunk(anyInt(), anyInt(), any(), anyInt());
+    }
+
+    @Test
+    @DisplayName("queues every section when relighting everything")
+    void queuesAllSections() {
+        set.set(1, 40, 2, (char) 1);
+        process(RelightMode.ALL);
+
+        verify(relighter).addChunk(3, -7, null, 65535);
+    }
+
+    @Test
+    @DisplayName("queues nothing when relighting is disabled")
+    void queuesNothing() {
+        set.set(1, 40, 2, (char) 1);
+        process(RelightMode.NONE);
+
+        verify(relighter, never()).addChunk(anyInt(), anyInt(), any(), anyInt());
+    }
+}
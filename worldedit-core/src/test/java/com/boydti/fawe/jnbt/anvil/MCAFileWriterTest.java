@@ -0,0 +1,96 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.boydti.fawe.object.io.FastByteArrayInputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("A region file writer")
+class MCAFileWriterTest {
+
+    private static final int SECTOR_BYTES = 4096;
+
+    @TempDir
+    File directory;
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    @DisplayName("writes chunks which are read back by a region file")
+    void writeRead() throws IOException {
+        File file = new File(directory, "r.0.0.mca");
+        Random random = new Random(1);
+        // chunk x, chunk z, length, compression, timestamp
+        int[][] chunks = {
+            {0, 0, 100, 2, 1000},
+            {3, 3, SECTOR_BYTES - 5, 1, 2000}, // Exactly one sector with the prefix
+            {31, 5, 10000, 2, 3000}, // Several sectors
+            {-1, -1, 500, 3, 4000}, // Only the region local position is used
+            {7, 30, 255 * SECTOR_BYTES - 5, 2, 5000} // The largest chunk which fits
+        };
+        byte[][] data = new byte[chunks.length][];
+        try (MCAFileWriter writer = new MCAFileWriter(file)) {
+            for (int i = 0; i < chunks.length; i++) {
+                int[] chunk = chunks[i];
+                // Larger than the chunk, to check only the given length is written
+                data[i] = randomBytes(random, chunk[2] + 7);
+                writer.write(chunk[0], chunk[1], data[i], chunk[2], chunk[3], chunk[4]);
+            }
+        }
+        assertEquals(0, file.length() % SECTOR_BYTES);
+
+        MCAFile mca = new MCAFile(null).init(file, 0, 0);
+        try {
+            int sectors = 2;
+            for (int i = 0; i < chunks.length; i++) {
+                int[] chunk = chunks[i];
+                int offset = mca.getOffset(chunk[0], chunk[1]);
+                assertTrue(offset >= 2 * SECTOR_BYTES);
+                assertEquals((chunk[2] + 5 + SECTOR_BYTES - 1) / SECTOR_BYTES * SECTOR_BYTES, mca.getSize(chunk[0], chunk[1]));
+                sectors += mca.getSize(chunk[0], chunk[1]) / SECTOR_BYTES;
+                assertEquals(chunk[3], mca.getChunkCompression(offset));
+                FastByteArrayInputStream bytes = mca.getChunkCompressedBytes(offset);
+                assertArrayEquals(Arrays.copyOf(data[i], chunk[2]), Arrays.copyOf(bytes.array, bytes.length));
+            }
+            assertEquals(sectors * SECTOR_BYTES, file.length());
+            assertEquals(0, mca.getOffset(1, 0));
+        } finally {
+            mca.clear();
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int[] chunk : chunks) {
+                raf.seek(SECTOR_BYTES + ((chunk[0] & 31) + ((chunk[1] & 31) << 5)) * 4);
+                assertEquals(chunk[4], raf.readInt());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("rejects a chunk over 255 sectors")
+    void rejectLargeChunk() throws IOException {
+        File file = new File(directory, "r.0.0.mca");
+        try (MCAFileWriter writer = new MCAFileWriter(file)) {
+            byte[] data = new byte[255 * SECTOR_BYTES];
+            assertThrows(IOException.class, () -> writer.write(0, 0, data, 255 * SECTOR_BYTES - 4, 2, 0));
+            // The writer can still be used
+            writer.write(1, 0, data, 10, 2, 0);
+        }
+        assertEquals(3 * SECTOR_BYTES, file.length());
+    }
+}
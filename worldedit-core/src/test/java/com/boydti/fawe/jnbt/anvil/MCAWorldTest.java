@@ -0,0 +1,152 @@
+package com.boydti.fawe.jnbt.anvil;
+
+import com.sk89q.jnbt.NBTConstants;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("An offline Anvil world")
+class MCAWorldTest {
+
+    private static final int REGION_X = 0;
+    private static final int OTHER_REGION_X = -1;
+
+    @TempDir
+    File directory;
+
+    private File world;
+
+    /**
+     * The inhabited time of a generated chunk, or -1 if the chunk isn't generated
+     * - Chunks without sections are written, so no block registry is needed to read them
+     */
+    private static long inhabitedTime(int chunkX, int chunkZ) {
+        int index = (chunkX & 31) + ((chunkZ & 31) << 5);
+        if (index % 7 == 0) {
+            return -1;
+        }
+        return index % 3 == 0 ? 0 : 1000 + index;
+    }
+
+    private static byte[] compressChunk(int chunkX, int chunkZ, long inhabitedTime) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (NBTOutputStream out = new NBTOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeNamedTagName("", NBTConstants.TYPE_COMPOUND);
+            out.writeNamedTag("DataVersion", MCAChunk.DEFAULT_DATA_VERSION);
+            out.writeLazyCompoundTag("Level", level -> {
+                level.writeNamedTag("xPos", chunkX);
+                level.writeNamedTag("zPos", chunkZ);
+                level.writeNamedTag("InhabitedTime", inhabitedTime);
+            });
+            out.writeEndTag();
+        }
+        return bytes.toByteArray();
+    }
+
+    private File writeRegion(int regionX, int regionZ) throws IOException {
+        File file = new File(world, "region/r." + regionX + "." + regionZ + ".mca");
+        try (MCAFileWriter writer = new MCAFileWriter(file)) {
+            for (int z = 0; z < 32; z++) {
+                for (int x = 0; x < 32; x++) {
+                    int chunkX = (regionX << 5) + x;
+                    int chunkZ = (regionZ << 5) + z;
+                    long time = inhabitedTime(chunkX, chunkZ);
+                    if (time != -1) {
+                        byte[] data = compressChunk(chunkX, chunkZ, time);
+                        writer.write(chunkX, chunkZ, data, data.length, 2, 1);
+                    }
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Check every chunk of a region file against the generated chunks
+     *
+     * @param deleted if chunks which were never inhabited should have been removed
+     */
+    private static void assertRegion(File file, int regionX, int regionZ, boolean deleted) throws IOException {
+        MCAFile mca = new MCAFile(null).init(file, regionX, regionZ);
+        try {
+            for (int z = 0; z < 32; z++) {
+                for (int x = 0; x < 32; x++) {
+                    int chunkX = (regionX << 5) + x;
+                    int chunkZ = (regionZ << 5) + z;
+                    long time = inhabitedTime(chunkX, chunkZ);
+                    if (time == -1 || (deleted && time == 0)) {
+                        assertEquals(0, mca.getOffset(chunkX, chunkZ), "chunk " + chunkX + "," + chunkZ);
+                        continue;
+                    }
+                    assertNotEquals(0, mca.getOffset(chunkX, chunkZ), "chunk " + chunkX + "," + chunkZ);
+                    MCAChunk chunk = mca.getChunk(chunkX, chunkZ);
+                    assertEquals(time, chunk.getInhabitedTime(), "chunk " + chunkX + "," + chunkZ);
+                }
+            }
+        } finally {
+            mca.clear();
+        }
+    }
+
+    @BeforeEach
+    void createWorld() {
+        world = new File(directory, "world");
+        assertTrue(new File(world, "region").mkdirs());
+    }
+
+    @Test
+    @DisplayName("filters every region file and writes the changes back")
+    void applyWorld() throws IOException {
+        File first = writeRegion(REGION_X, 0);
+        File second = writeRegion(OTHER_REGION_X, 0);
+        try (MCAWorld mcaWorld = new MCAWorld(world)) {
+            DeleteChunkFilter filter = mcaWorld.apply(null, new DeleteChunkFilter(chunk -> chunk.getInhabitedTime() == 0), false);
+            int expected = 0;
+            for (int index = 0; index < 1024; index++) {
+                if (index % 7 != 0 && index % 3 == 0) {
+                    expected++;
+                }
+            }
+            assertEquals(2 * expected, filter.getTotal());
+        }
+        assertRegion(first, REGION_X, 0, true);
+        assertRegion(second, OTHER_REGION_X, 0, true);
+        assertFalse(new File(first.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    @DisplayName("leaves region files outside the region and unchanged files as they were")
+    void applyRegion() throws IOException {
+        File inside = writeRegion(REGION_X, 0);
+        File outside = writeRegion(OTHER_REGION_X, 0);
+        byte[] insideBytes = Files.readAllBytes(inside.toPath());
+        byte[] outsideBytes = Files.readAllBytes(outside.toPath());
+        CuboidRegion region = new CuboidRegion(BlockVector3.at(0, 0, 0), BlockVector3.at(511, 255, 511));
+        try (MCAWorld mcaWorld = new MCAWorld(world)) {
+            // Nothing matches, so no file is rewritten
+            assertEquals(0, mcaWorld.apply(region, new DeleteChunkFilter(chunk -> false), false).getTotal());
+            assertArrayEquals(insideBytes, Files.readAllBytes(inside.toPath()));
+
+            mcaWorld.apply(region, new DeleteChunkFilter(chunk -> chunk.getInhabitedTime() == 0), false);
+        }
+        assertRegion(inside, REGION_X, 0, true);
+        assertArrayEquals(outsideBytes, Files.readAllBytes(outside.toPath()));
+        assertRegion(outside, OTHER_REGION_X, 0, false);
+    }
+}
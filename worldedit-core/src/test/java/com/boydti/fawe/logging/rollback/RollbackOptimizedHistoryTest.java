@@ -0,0 +1,131 @@
+package com.boydti.fawe.logging.rollback;
+
+import com.boydti.fawe.database.ChunkRegionIndex;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.DoubleTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.World;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@DisplayName("The region index of a rollback edit")
+class RollbackOptimizedHistoryTest {
+
+    @TempDir
+    File directory;
+
+    private RollbackOptimizedHistory create() {
+        World world = mock(World.class);
+        when(world.getMaxY()).thenReturn(255);
+        return new RollbackOptimizedHistory(directory, world, UUID.randomUUID(), 1);
+    }
+
+    private static CompoundTag entity(double x, double y, double z) {
+        Map<String, Tag> values = new HashMap<>();
+        values.put("Id", new StringTag("minecraft:pig"));
+        values.put("Pos", new ListTag(DoubleTag.class, Arrays.asList(new DoubleTag(x), new DoubleTag(y), new DoubleTag(z))));
+        return new CompoundTag(values);
+    }
+
+    private static CompoundTag tile(int x, int y, int z) {
+        Map<String, Tag> values = new HashMap<>();
+        values.put("Id", new StringTag("minecraft:chest"));
+        values.put("x", new IntTag(x));
+        values.put("y", new IntTag(y));
+        values.put("z", new IntTag(z));
+        return new CompoundTag(values);
+    }
+
+    /**
+     * Whether RollbackDatabase#getEdits would return the edit for an area, from its bounds and region rows
+     */
+    private static boolean query(RollbackOptimizedHistory history, BlockVector3 pos1, BlockVector3 pos2) {
+        BlockVector3 min = history.getMinimumPoint();
+        BlockVector3 max = history.getMaximumPoint();
+        if (max.getX() < pos1.getX() || min.getX() > pos2.getX() || max.getZ() < pos1.getZ() || min.getZ() > pos2.getZ()
+            || max.getY() < pos1.getY() || min.getY() > pos2.getY()) {
+            return false;
+        }
+        int minChunkX = pos1.getX() >> 4;
+        int minChunkZ = pos1.getZ() >> 4;
+        int maxChunkX = pos2.getX() >> 4;
+        int maxChunkZ = pos2.getZ() >> 4;
+        boolean[] found = new boolean[1];
+        history.getChunks().forEach((regionX, regionZ, bitmap) -> {
+            if (regionX >= minChunkX >> 5 && regionX <= maxChunkX >> 5 && regionZ >= minChunkZ >> 5 && regionZ <= maxChunkZ >> 5
+                && ChunkRegionIndex.intersects(bitmap, regionX, regionZ, minChunkX, minChunkZ, maxChunkX, maxChunkZ)) {
+                found[0] = true;
+            }
+        });
+        return found[0];
+    }
+
+    @Test
+    @DisplayName("indexes an edit which only changed entities")
+    void entityOnly() {
+        RollbackOptimizedHistory history = create();
+        history.addEntityCreate(entity(1000.5, 70, -300.25));
+        history.addEntityRemove(entity(1010, 71.5, -290));
+
+        assertFalse(history.getChunks().isEmpty());
+        assertEquals(BlockVector3.at(1000, 70, -301), history.getMinimumPoint());
+        assertEquals(BlockVector3.at(1010, 71, -290), history.getMaximumPoint());
+        assertTrue(query(history, BlockVector3.at(990, 0, -310), BlockVector3.at(1005, 255, -295)));
+        assertTrue(query(history, BlockVector3.at(1008, 0, -292), BlockVector3.at(1012, 255, -288)));
+        assertFalse(query(history, BlockVector3.at(-10, 0, -10), BlockVector3.at(10, 255, 10)));
+    }
+
+    @Test
+    @DisplayName("indexes tile changes")
+    void tileOnly() {
+        RollbackOptimizedHistory history = create();
+        history.addTileRemove(tile(-40, 12, 600));
+
+        assertEquals(BlockVector3.at(-40, 12, 600), history.getMinimumPoint());
+        assertTrue(query(history, BlockVector3.at(-48, 0, 592), BlockVector3.at(-33, 255, 607)));
+        assertFalse(query(history, BlockVector3.at(-32, 0, 592), BlockVector3.at(0, 255, 607)));
+    }
+
+    @Test
+    @DisplayName("indexes biome changes over the whole column")
+    void biomeOnly() {
+        RollbackOptimizedHistory history = create();
+        history.addBiomeChange(300, -20, mock(BiomeType.class), mock(BiomeType.class));
+        history.addBiomeChange(310, -5, mock(BiomeType.class), mock(BiomeType.class));
+
+        assertEquals(BlockVector3.at(300, 0, -20), history.getMinimumPoint());
+        assertEquals(BlockVector3.at(310, 255, -5), history.getMaximumPoint());
+        assertTrue(query(history, BlockVector3.at(296, 200, -24), BlockVector3.at(303, 220, -17)));
+        assertFalse(query(history, BlockVector3.at(320, 0, -20), BlockVector3.at(330, 255, -5)));
+    }
+
+    @Test
+    @DisplayName("only matches the chunks of changes, not the rest of their bounds")
+    void sparse() {
+        RollbackOptimizedHistory history = create();
+        history.addEntityCreate(entity(5, 64, 5));
+        history.addEntityCreate(entity(2000, 64, 2000));
+
+        assertTrue(query(history, BlockVector3.at(0, 0, 0), BlockVector3.at(15, 255, 15)));
+        assertTrue(query(history, BlockVector3.at(1990, 0, 1990), BlockVector3.at(2010, 255, 2010)));
+        assertFalse(query(history, BlockVector3.at(1000, 0, 1000), BlockVector3.at(1100, 255, 1100)));
+    }
+}
@@ -0,0 +1,46 @@
+package com.boydti.fawe.object.brush.visualization.cfi;
+
+import com.boydti.fawe.object.collection.SummedAreaTable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DisplayName("Tiled height map smoothing")
+class HeightMapMCAGeneratorTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 5, 16})
+    @DisplayName("averages the same heights as a summed area table of the whole map")
+    void tiledMatchesWholeMap(int radius) {
+        int width = 700;
+        int length = 1100;
+        char[] layers = new char[width * length];
+        Random random = new Random(radius);
+        for (int i = 0; i < layers.length; i++) {
+            layers[i] = (char) random.nextInt(256 << 3);
+        }
+        SummedAreaTable whole = new SummedAreaTable(new long[layers.length], layers.clone(), width, radius);
+        whole.processSummedAreaTable();
+
+        // Tiles of the generator, and smaller tiles so most columns are near a border
+        for (int tileSize : new int[]{512, 37}) {
+            for (int minZ = 0; minZ < length; minZ += tileSize) {
+                for (int minX = 0; minX < width; minX += tileSize) {
+                    int maxX = Math.min(minX + tileSize, width) - 1;
+                    int maxZ = Math.min(minZ + tileSize, length) - 1;
+                    HeightMapMCAGenerator.TileTable tile = new HeightMapMCAGenerator.TileTable(layers, width, length, radius, minX, minZ, maxX, maxZ);
+                    for (int z = minZ; z <= maxZ; z++) {
+                        for (int x = minX; x <= maxX; x++) {
+                            int index = z * width + x;
+                            assertEquals(whole.average(x, z, index), tile.average(x, z), "x=" + x + " z=" + z);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
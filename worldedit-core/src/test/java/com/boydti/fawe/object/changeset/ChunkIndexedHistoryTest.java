@@ -0,0 +1,168 @@
+package com.boydti.fawe.object.changeset;
+
+import com.boydti.fawe.object.FaweOutputStream;
+import com.boydti.fawe.util.MathMan;
+import com.sk89q.worldedit.regions.Region;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+@DisplayName("A chunk indexed history file")
+class ChunkIndexedHistoryTest {
+
+    private static final ChunkIndexedHistory.ChangeDecoder<int[]> DECODER = (in, change, x, y, z) -> {
+        change[0] = x;
+        change[1] = y;
+        change[2] = z;
+        change[3] = in.readInt();
+    };
+
+    @TempDir
+    File directory;
+
+    private File file;
+    // The changes written to each chunk, in order
+    private final Long2ObjectOpenHashMap<List<String>> written = new Long2ObjectOpenHashMap<>();
+
+    @BeforeEach
+    void write() throws IOException {
+        FaweStreamChangeSet history = mock(FaweStreamChangeSet.class);
+        doAnswer(invocation -> {
+            DataOutputStream out = new DataOutputStream((OutputStream) invocation.getArgument(0));
+            out.write(1);
+            out.writeInt(invocation.getArgument(1));
+            out.writeInt(invocation.getArgument(3));
+            out.flush();
+            return null;
+        }).when(history).writeHeader(any(), anyInt(), anyInt(), anyInt());
+
+        file = new File(directory, "0.bd");
+        Random random = new Random(1);
+        // A small block size, so chunks are split into several blocks which compress while writing
+        ChunkIndexedHistory.Writer writer = new ChunkIndexedHistory.Writer(file, history, 1, 256, 2, -40, 64, 25);
+        for (int i = 0; i < 5000; i++) {
+            int x = random.nextInt(96) - 48;
+            int y = random.nextInt(256);
+            int z = random.nextInt(64) - 32;
+            FaweOutputStream out = writer.add(x, y, z);
+            out.writeInt(i);
+            written.computeIfAbsent(MathMan.pairInt(x >> 4, z >> 4), key -> new ArrayList<>()).add(x + "," + y + "," + z + "=" + i);
+        }
+        writer.close();
+    }
+
+    private static List<String> read(Iterator<int[]> iterator) {
+        List<String> changes = new ArrayList<>();
+        while (iterator.hasNext()) {
+            int[] change = iterator.next();
+            changes.add(change[0] + "," + change[1] + "," + change[2] + "=" + change[3]);
+        }
+        return changes;
+    }
+
+    @Test
+    @DisplayName("reads back every change, with the changes of each chunk in order")
+    void writeReadAll() throws IOException {
+        ChunkIndexedHistory.Reader reader = new ChunkIndexedHistory.Reader(file);
+        assertEquals(1, reader.getMode());
+        assertEquals(-40, reader.getOriginX());
+        assertEquals(25, reader.getOriginZ());
+        assertTrue(reader.getEntries().size() > written.size(), "chunks should be split into blocks");
+
+        Long2ObjectOpenHashMap<List<String>> read = new Long2ObjectOpenHashMap<>();
+        int total = 0;
+        for (String change : read(reader.iterator((Region[]) null, new int[4], DECODER))) {
+            String[] xyz = change.substring(0, change.indexOf('=')).split(",");
+            long key = MathMan.pairInt(Integer.parseInt(xyz[0]) >> 4, Integer.parseInt(xyz[2]) >> 4);
+            read.computeIfAbsent(key, k -> new ArrayList<>()).add(change);
+            total++;
+        }
+        assertEquals(5000, total);
+        assertEquals(written, read);
+    }
+
+    @Test
+    @DisplayName("reads a single chunk from its blocks alone")
+    void readSingleChunk() throws IOException {
+        try (ChunkIndexedHistory.Reader reader = new ChunkIndexedHistory.Reader(file)) {
+            List<ChunkIndexedHistory.Entry> entries = new ArrayList<>();
+            for (ChunkIndexedHistory.Entry entry : reader.getEntries()) {
+                if (entry.chunkX == -2 && entry.chunkZ == 1) {
+                    entries.add(entry);
+                }
+            }
+            assertFalse(entries.isEmpty());
+            assertEquals(written.get(MathMan.pairInt(-2, 1)), read(reader.iterator(entries, new int[4], DECODER)));
+        }
+    }
+
+    @Test
+    @DisplayName("reads chunks from several threads through one reader")
+    void readChunksConcurrently() throws IOException {
+        try (ChunkIndexedHistory.Reader reader = new ChunkIndexedHistory.Reader(file)) {
+            Long2ObjectOpenHashMap<List<ChunkIndexedHistory.Entry>> chunks = new Long2ObjectOpenHashMap<>();
+            for (ChunkIndexedHistory.Entry entry : reader.getEntries()) {
+                chunks.computeIfAbsent(MathMan.pairInt(entry.chunkX, entry.chunkZ), key -> new ArrayList<>()).add(entry);
+            }
+            Map<Long, List<String>> read = new ConcurrentHashMap<>();
+            chunks.long2ObjectEntrySet().parallelStream().forEach(entry ->
+                read.put(entry.getLongKey(), read(reader.iterator(entry.getValue(), new int[4], DECODER))));
+            assertEquals(written, new Long2ObjectOpenHashMap<>(read));
+        }
+    }
+
+    @Test
+    @DisplayName("rejects a truncated file")
+    void rejectTruncated() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+        assertThrows(IOException.class, () -> new ChunkIndexedHistory.Reader(file));
+    }
+
+    @Test
+    @DisplayName("rejects a corrupt footer offset")
+    void rejectCorruptOffset() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 8);
+            raf.writeLong(raf.length() * 2);
+        }
+        assertThrows(IOException.class, () -> new ChunkIndexedHistory.Reader(file));
+    }
+
+    @Test
+    @DisplayName("rejects a corrupt footer entry")
+    void rejectCorruptEntry() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 8);
+            long footer = raf.readLong();
+            // The offset of the first block
+            raf.seek(footer + 4 + 8);
+            raf.writeLong(raf.length());
+        }
+        assertThrows(IOException.class, () -> new ChunkIndexedHistory.Reader(file));
+    }
+}
@@ -0,0 +1,99 @@
+package com.boydti.fawe.object.collection;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("A section bitmap position set")
+class SectionBitSetTest {
+
+    private static long key(int x, int y, int z) {
+        return ((long) x << 40) + ((long) z << 8) + y;
+    }
+
+    @Test
+    @DisplayName("contains what was added, at section and world borders")
+    void addContainsRoundTrip() {
+        SectionBitSet set = new SectionBitSet();
+        int[][] positions = {
+            {0, 0, 0}, {15, 15, 15}, {16, 16, 16}, {-1, 0, -1}, {-16, 255, -17},
+            {30000000, 128, -30000000}, {-30000000, 1, 30000000}
+        };
+        for (int[] pos : positions) {
+            assertFalse(set.contains(pos[0], pos[1], pos[2]));
+            assertTrue(set.add(pos[0], pos[1], pos[2]));
+            assertFalse(set.add(pos[0], pos[1], pos[2]));
+        }
+        assertEquals(positions.length, set.size());
+        for (int[] pos : positions) {
+            assertTrue(set.contains(pos[0], pos[1], pos[2]));
+        }
+        assertFalse(set.contains(1, 0, 0));
+        assertFalse(set.contains(0, 16, 0));
+        assertFalse(set.contains(-1, 0, 0));
+    }
+
+    @Test
+    @DisplayName("matches a hash set under random adds and removes")
+    void matchesHashSet() {
+        Random random = new Random(5);
+        SectionBitSet set = new SectionBitSet();
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 100000; i++) {
+            int x = random.nextInt(80) - 40;
+            int y = random.nextInt(256);
+            int z = random.nextInt(80) - 40;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key(x, y, z)), set.remove(x, y, z));
+            } else {
+                assertEquals(expected.add(key(x, y, z)), set.add(x, y, z));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (int x = -40; x < 40; x++) {
+            for (int z = -40; z < 40; z++) {
+                for (int y = 0; y < 256; y += 7) {
+                    assertEquals(expected.contains(key(x, y, z)), set.contains(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("is empty after clear")
+    void clear() {
+        SectionBitSet set = new SectionBitSet();
+        set.add(1, 2, 3);
+        set.add(100, 2, 3);
+        assertFalse(set.isEmpty());
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.size());
+        assertFalse(set.contains(1, 2, 3));
+        assertFalse(set.remove(100, 2, 3));
+        assertTrue(set.add(1, 2, 3));
+    }
+
+    @Test
+    @DisplayName("copies every position to a block vector set")
+    void toBlockVectorSet() {
+        Random random = new Random(7);
+        SectionBitSet set = new SectionBitSet();
+        for (int i = 0; i < 1000; i++) {
+            set.add(random.nextInt(200) - 100, random.nextInt(256), random.nextInt(200) - 100);
+        }
+        BlockVectorSet copy = set.toBlockVectorSet(new BlockVectorSet());
+        assertEquals(set.size(), copy.size());
+        random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(copy.contains(random.nextInt(200) - 100, random.nextInt(256), random.nextInt(200) - 100));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.boydti.fawe.object.collection;
+
+import com.boydti.fawe.object.FaweInputStream;
+import com.boydti.fawe.object.FaweOutputStream;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("A tiled block buffer")
+class TiledBlockBufferTest {
+
+    private static final int SIZE = 2048;
+    private static final int TILES = SIZE / TiledBlockBuffer.TILE_SIZE;
+
+    private static long key(int x, int y, int z) {
+        return ((long) x << 32) | ((long) z << 8) | y;
+    }
+
+    private static int tileOf(long key) {
+        int x = (int) (key >>> 32);
+        int z = (int) (key >> 8) & 0xFFFFFF;
+        return (z / TiledBlockBuffer.TILE_SIZE) * TILES + x / TiledBlockBuffer.TILE_SIZE;
+    }
+
+    /**
+     * Set random blocks one tile at a time, as the generator does
+     */
+    private static Long2IntOpenHashMap fill(TiledBlockBuffer buffer, long seed, int countPerTile) {
+        Long2IntOpenHashMap expected = new Long2IntOpenHashMap();
+        Random random = new Random(seed);
+        for (int tile = 0; tile < TILES * TILES; tile++) {
+            int minX = (tile % TILES) * TiledBlockBuffer.TILE_SIZE;
+            int minZ = (tile / TILES) * TiledBlockBuffer.TILE_SIZE;
+            for (int i = 0; i < countPerTile; i++) {
+                int x = minX + random.nextInt(TiledBlockBuffer.TILE_SIZE);
+                int y = random.nextInt(256);
+                int z = minZ + random.nextInt(TiledBlockBuffer.TILE_SIZE);
+                char combined = (char) (1 + random.nextInt(20000));
+                assertTrue(buffer.set(x, y, z, combined));
+                expected.put(key(x, y, z), combined);
+            }
+        }
+        return expected;
+    }
+
+    private static void assertContains(TiledBlockBuffer buffer, Long2IntOpenHashMap expected) {
+        for (int tile = 0; tile < TILES * TILES; tile++) {
+            for (Long2IntMap.Entry entry : expected.long2IntEntrySet()) {
+                long key = entry.getLongKey();
+                if (tileOf(key) != tile) {
+                    continue;
+                }
+                int x = (int) (key >>> 32);
+                int z = (int) (key >> 8) & 0xFFFFFF;
+                int y = (int) key & 0xFF;
+                assertEquals(entry.getIntValue(), buffer.get(x, y, z), "x=" + x + " y=" + y + " z=" + z);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("reads back blocks of tiles which were paged out")
+    void pagedRoundTrip() throws IOException {
+        long budget = 4 * 1024 * 1024;
+        try (TiledBlockBuffer buffer = new TiledBlockBuffer(SIZE, SIZE, budget)) {
+            Long2IntOpenHashMap expected = fill(buffer, 1, 2500);
+            assertTrue(buffer.getPagedTiles() > 0);
+            assertContains(buffer, expected);
+            // Reading pages tiles in and out again, the usage stays within a tile of the budget
+            assertTrue(buffer.getMemoryUsage() <= budget + 2 * 1024 * 1024, "usage " + buffer.getMemoryUsage());
+
+            // Rewrite blocks of paged tiles, so they are written to disk a second time
+            Long2IntOpenHashMap more = fill(buffer, 2, 1000);
+            expected.putAll(more);
+            assertContains(buffer, expected);
+        }
+    }
+
+    @Test
+    @DisplayName("returns the chunk arrays of a paged tile")
+    void chunkOfPagedTile() throws IOException {
+        try (TiledBlockBuffer buffer = new TiledBlockBuffer(SIZE, SIZE, 4 * 1024 * 1024)) {
+            buffer.set(17, 64, 33, (char) 42);
+            fill(buffer, 3, 2500);
+            assertTrue(buffer.getPagedTiles() > 0);
+            char[][][] chunk = buffer.getChunk(1, 2);
+            assertNotNull(chunk);
+            assertEquals(42, chunk[64][1][1]);
+            assertNull(buffer.getChunk(SIZE >> 4, 0));
+        }
+    }
+
+    @Test
+    @DisplayName("rejects positions outside the map")
+    void outOfBounds() throws IOException {
+        try (TiledBlockBuffer buffer = new TiledBlockBuffer(100, 100)) {
+            assertFalse(buffer.set(-1, 0, 0, (char) 1));
+            assertFalse(buffer.set(100, 0, 0, (char) 1));
+            assertFalse(buffer.set(0, 256, 0, (char) 1));
+            assertEquals(0, buffer.get(0, -1, 0));
+            assertFalse(buffer.isModified());
+        }
+    }
+
+    @Test
+    @DisplayName("undoes and redoes flushed changes")
+    void undoRedo() throws IOException {
+        try (TiledBlockBuffer buffer = new TiledBlockBuffer(SIZE, SIZE, 4 * 1024 * 1024)) {
+            buffer.set(5, 10, 5, (char) 7);
+            buffer.flushChanges(new FaweOutputStream(new ByteArrayOutputStream()));
+
+            buffer.set(5, 10, 5, (char) 8);
+            buffer.set(5, 10, 5, (char) 9);
+            Long2IntOpenHashMap expected = fill(buffer, 4, 2500);
+            expected.put(key(5, 10, 5), 9);
+            assertTrue(buffer.isModified());
+            ByteArrayOutputStream changes = new ByteArrayOutputStream();
+            buffer.flushChanges(new FaweOutputStream(changes));
+            assertFalse(buffer.isModified());
+
+            buffer.undoChanges(new FaweInputStream(new ByteArrayInputStream(changes.toByteArray())));
+            Long2IntOpenHashMap undone = new Long2IntOpenHashMap();
+            for (long key : expected.keySet()) {
+                undone.put(key, 0);
+            }
+            undone.put(key(5, 10, 5), 7);
+            assertContains(buffer, undone);
+            assertFalse(buffer.isModified());
+
+            buffer.redoChanges(new FaweInputStream(new ByteArrayInputStream(changes.toByteArray())));
+            assertContains(buffer, expected);
+        }
+    }
+
+    @Test
+    @DisplayName("keeps every block set from several threads")
+    void concurrentSets() throws Exception {
+        try (TiledBlockBuffer buffer = new TiledBlockBuffer(SIZE, SIZE, 4 * 1024 * 1024)) {
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Long2IntOpenHashMap>> futures = new ArrayList<>();
+                for (int thread = 0; thread < 4; thread++) {
+                    int minX = (thread & 1) * (SIZE / 2);
+                    int minZ = (thread >> 1) * (SIZE / 2);
+                    long seed = thread;
+                    futures.add(executor.submit(() -> {
+                        Long2IntOpenHashMap expected = new Long2IntOpenHashMap();
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 5000; i++) {
+                            int x = minX + random.nextInt(SIZE / 2);
+                            int y = random.nextInt(256);
+                            int z = minZ + random.nextInt(SIZE / 2);
+                            char combined = (char) (1 + random.nextInt(20000));
+                            buffer.set(x, y, z, combined);
+                            expected.put(key(x, y, z), combined);
+                        }
+                        return expected;
+                    }));
+                }
+                for (Future<Long2IntOpenHashMap> future : futures) {
+                    assertContains(buffer, future.get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.boydti.fawe.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DisplayName("A color index")
+class ColorIndexTest {
+
+    private static final int[] ALPHAS = {0, 128, 255};
+
+    // The same distance as TextureUtil#colorDistance(int, int, int, int)
+    private static long distance(int red1, int green1, int blue1, int c2) {
+        int red2 = (c2 >> 16) & 0xFF;
+        int green2 = (c2 >> 8) & 0xFF;
+        int blue2 = c2 & 0xFF;
+        int rmean = (red1 + red2) >> 1;
+        int r = red1 - red2;
+        int g = green1 - green2;
+        int b = blue1 - blue2;
+        int hd = TextureUtil.hueDistance(red1, green1, blue1, red2, green2, blue2);
+        return (((512 + rmean) * r * r) >> 8) + 4 * g * g + (((767 - rmean) * b * b) >> 8) + (hd * hd);
+    }
+
+    private static int bruteForce(int[] colors, int color, IntPredicate filter) {
+        int red = (color >> 16) & 0xFF;
+        int green = (color >> 8) & 0xFF;
+        int blue = color & 0xFF;
+        long min = Long.MAX_VALUE;
+        int index = -1;
+        for (int i = 0; i < colors.length; i++) {
+            if ((colors[i] >>> 24) != (color >>> 24) || filter != null && !filter.test(i)) {
+                continue;
+            }
+            long value = distance(red, green, blue, colors[i]);
+            if (value < min) {
+                min = value;
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static int randomColor(Random random, int[] alphas) {
+        return (alphas[random.nextInt(alphas.length)] << 24) | random.nextInt(1 << 24);
+    }
+
+    private static int[] randomColors(Random random, int size) {
+        int[] colors = new int[size];
+        for (int i = 0; i < size; i++) {
+            // Some repeated colors, to check ties resolve to the lowest index
+            colors[i] = i > 0 && random.nextInt(10) == 0 ? colors[random.nextInt(i)] : randomColor(random, ALPHAS);
+        }
+        return colors;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 8, 9, 100, 2000})
+    @DisplayName("finds the same color as a linear scan")
+    void nearest(int size) {
+        Random random = new Random(size);
+        int[] colors = randomColors(random, size);
+        ColorIndex index = new ColorIndex(colors, ColorIndexTest::distance);
+        // Includes an alpha with no colors
+        int[] alphas = {0, 77, 128, 255};
+        for (int i = 0; i < 5000; i++) {
+            int color = randomColor(random, alphas);
+            assertEquals(bruteForce(colors, color, null), index.getNearest(color), "color " + Integer.toHexString(color));
+        }
+        for (int color : colors) {
+            assertEquals(bruteForce(colors, color, null), index.getNearest(color));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 8, 9, 100, 2000})
+    @DisplayName("finds the same color as a filtered linear scan")
+    void nearestFiltered(int size) {
+        Random random = new Random(size);
+        int[] colors = randomColors(random, size);
+        ColorIndex index = new ColorIndex(colors, ColorIndexTest::distance);
+        IntPredicate[] filters = {i -> i % 3 != 0, i -> i > size / 2, i -> false};
+        for (IntPredicate filter : filters) {
+            for (int i = 0; i < 2000; i++) {
+                int color = randomColor(random, ALPHAS);
+                assertEquals(bruteForce(colors, color, filter), index.getNearest(color, filter), "color " + Integer.toHexString(color));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("finds nothing in an empty index")
+    void empty() {
+        ColorIndex index = new ColorIndex(new int[0], ColorIndexTest::distance);
+        assertEquals(-1, index.getNearest(0xFF123456));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.jnbt;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DisplayName("An NBT input stream")
+class NBTInputStreamTest {
+
+    private static final int SENTINEL = 0x7E57AB1E;
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 255, 256, 257, 1000, 100000})
+    @DisplayName("reads int arrays larger than its read buffer")
+    void readIntArray(int length) throws IOException {
+        int[] expected = new Random(length).ints(length).toArray();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(length);
+        for (int value : expected) {
+            out.writeInt(value);
+        }
+        out.writeInt(SENTINEL);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Object read = new NBTInputStream(in).readTagPayloadRaw(NBTConstants.TYPE_INT_ARRAY, 0);
+        assertArrayEquals(expected, (int[]) read);
+        assertEquals(SENTINEL, in.readInt());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 127, 128, 129, 1000, 100000})
+    @DisplayName("reads long arrays larger than its read buffer")
+    void readLongArray(int length) throws IOException {
+        long[] expected = new Random(length).longs(length).toArray();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(length);
+        for (long value : expected) {
+            out.writeLong(value);
+        }
+        out.writeInt(SENTINEL);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Object read = new NBTInputStream(in).readTagPayloadRaw(NBTConstants.TYPE_LONG_ARRAY, 0);
+        assertArrayEquals(expected, (long[]) read);
+        assertEquals(SENTINEL, in.readInt());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.extent.clipboard.io;
+
+import com.boydti.fawe.util.IOUtil;
+import com.sk89q.worldedit.WorldEditException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DisplayName("Decoding schematic block data")
+class FastSchematicReaderTest {
+
+    private static final int WIDTH = 3;
+    private static final int HEIGHT = 2;
+    private static final int LENGTH = 4;
+    private static final int VOLUME = WIDTH * HEIGHT * LENGTH;
+
+    /**
+     * Ids over 127 are written as two byte varints
+     */
+    private static int idOf(int index) {
+        return index * 50;
+    }
+
+    private static byte[] createBlockData(int count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int index = 0; index < count; index++) {
+            IOUtil.writeVarInt(out, idOf(index));
+        }
+        return out.toByteArray();
+    }
+
+    private static List<int[]> read(ByteArrayInputStream in, int dataLength) throws IOException, WorldEditException {
+        List<int[]> blocks = new ArrayList<>();
+        FastSchematicReader.readBlockData(in, dataLength, WIDTH, HEIGHT, LENGTH, (x, y, z, id) -> blocks.add(new int[]{x, y, z, id}));
+        return blocks;
+    }
+
+    @Test
+    @DisplayName("decodes palette ids in y/z/x order, leaving the rest of the stream")
+    void decode() throws IOException, WorldEditException {
+        byte[] data = createBlockData(VOLUME);
+        byte[] stream = new byte[data.length + 1];
+        System.arraycopy(data, 0, stream, 0, data.length);
+        // The start of the next tag
+        stream[data.length] = 42;
+        ByteArrayInputStream in = new ByteArrayInputStream(stream);
+
+        List<int[]> blocks = read(in, data.length);
+        assertEquals(VOLUME, blocks.size());
+        int index = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int z = 0; z < LENGTH; z++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertArrayEquals(new int[]{x, y, z, idOf(index)}, blocks.get(index));
+                    index++;
+                }
+            }
+        }
+        assertEquals(42, in.read());
+    }
+
+    @Test
+    @DisplayName("decodes buffered data of an unknown length")
+    void decodeUnknownLength() throws IOException, WorldEditException {
+        assertEquals(VOLUME, read(new ByteArrayInputStream(createBlockData(VOLUME)), -1).size());
+    }
+
+    @Test
+    @DisplayName("rejects data longer than the blocks it holds")
+    void rejectLongData() throws IOException {
+        byte[] data = createBlockData(VOLUME + 1);
+        assertThrows(IOException.class, () -> read(new ByteArrayInputStream(data), data.length));
+    }
+
+    @Test
+    @DisplayName("rejects data which ends before the last block")
+    void rejectShortData() throws IOException {
+        byte[] data = createBlockData(VOLUME - 1);
+        assertThrows(EOFException.class, () -> read(new ByteArrayInputStream(data), data.length));
+        assertThrows(EOFException.class, () -> read(new ByteArrayInputStream(data), -1));
+    }
+}
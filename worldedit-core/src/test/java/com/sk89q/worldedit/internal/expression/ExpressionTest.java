@@ -414,6 +414,31 @@ public void testQuery() throws Exception {
         checkTestCase("!queryRel(3,4,5,100,200)", 1);
     }
 
+    @Test
+    public void testConstantFolding() throws Exception {
+        checkTestCase("1 + 2 * 3 - -4", 11);
+        checkTestCase("(2 ^ 3)! / 8!", 1);
+        checkTestCase("x=3; (0 && x) + (1 || x) + (!0 && x)", 4);
+        checkTestCase("a=1; if (0) a=2; else if (1) a=3; a", 3);
+        checkTestCase("a=1; while (0) a=2; a", 1);
+        checkTestCase("1; 2; a=4; 3; a", 4);
+
+        // variables are not folded
+        Expression expression = compile("x + 1 * 2", "x");
+        assertEquals(3, expression.evaluate(1D), 0);
+        assertEquals(4, expression.evaluate(2D), 0);
+    }
+
+    @Test
+    public void testThreadLocalSlots() throws Exception {
+        Expression expression = compile("a = x * 2", "x", "a");
+        expression.evaluate(1D);
+        Thread thread = new Thread(() -> expression.evaluate(5D));
+        thread.start();
+        thread.join();
+        assertEquals(2, readSlot(expression, "a"), 0);
+    }
+
     @Test
     public void testTimeout() {
         ExpressionTimeoutException e = assertTimeoutPreemptively(Duration.ofSeconds(10), () ->